@@ -0,0 +1,200 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.OrderSide;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 套利环
+ * <p>
+ * 由若干次兑换（边）首尾相接构成，从起始币种出发，最终兑换回起始币种。
+ * 每次兑换要么是在某币种对上用计价币买入基础币，要么是卖出基础币得到计价币。
+ *
+ * @author robothy
+ */
+public class ArbitrageCycle {
+
+    /**
+     * 套利环中的一次兑换
+     */
+    public static class Leg {
+
+        private final int pairIndex;
+
+        private final CurrencyPair currencyPair;
+
+        private final String orderSide;
+
+        private final String fromCurrency;
+
+        private final String toCurrency;
+
+        Leg(int pairIndex, CurrencyPair currencyPair, String orderSide) {
+            this.pairIndex = pairIndex;
+            this.currencyPair = currencyPair;
+            this.orderSide = orderSide;
+            boolean buy = OrderSide.BUY.equals(orderSide);
+            this.fromCurrency = buy ? currencyPair.getQuoteCurrency() : currencyPair.getBaseCurrency();
+            this.toCurrency = buy ? currencyPair.getBaseCurrency() : currencyPair.getQuoteCurrency();
+        }
+
+        /**
+         * @return 币种对在币种图中的下标
+         */
+        public int getPairIndex() {
+            return pairIndex;
+        }
+
+        /**
+         * @return 兑换所在的币种对
+         */
+        public CurrencyPair getCurrencyPair() {
+            return currencyPair;
+        }
+
+        /**
+         * @return 买卖方向，买入为用计价币换基础币，卖出为用基础币换计价币
+         */
+        public String getOrderSide() {
+            return orderSide;
+        }
+
+        /**
+         * @return 是否为买入
+         */
+        public boolean isBuy() {
+            return OrderSide.BUY.equals(orderSide);
+        }
+
+        /**
+         * @return 兑换前的币种
+         */
+        public String getFromCurrency() {
+            return fromCurrency;
+        }
+
+        /**
+         * @return 兑换后的币种
+         */
+        public String getToCurrency() {
+            return toCurrency;
+        }
+
+        @Override
+        public String toString() {
+            return orderSide + " " + currencyPair.getCurrencyPair();
+        }
+    }
+
+    private final List<Leg> legs;
+
+    private final int[] pairIndexes;
+
+    private final boolean[] buys;
+
+    ArbitrageCycle(List<Leg> legs) {
+        this.legs = Collections.unmodifiableList(new ArrayList<>(legs));
+        this.pairIndexes = new int[legs.size()];
+        this.buys = new boolean[legs.size()];
+        for (int i = 0; i < legs.size(); i++) {
+            pairIndexes[i] = legs.get(i).getPairIndex();
+            buys[i] = legs.get(i).isBuy();
+        }
+    }
+
+    /**
+     * 根据币种对和买卖方向构建套利环，币种对在数组中的位置即其下标
+     *
+     * @param currencyPairs 按兑换顺序排列的币种对
+     * @param orderSides    各币种对的买卖方向
+     * @return 套利环
+     */
+    public static ArbitrageCycle of(CurrencyPair[] currencyPairs, String[] orderSides) {
+        List<Leg> legs = new ArrayList<>();
+        for (int i = 0; i < currencyPairs.length; i++) {
+            legs.add(new Leg(i, currencyPairs[i], orderSides[i]));
+        }
+        for (int i = 0; i < legs.size(); i++) {
+            Leg next = legs.get((i + 1) % legs.size());
+            if (!legs.get(i).getToCurrency().equals(next.getFromCurrency())) {
+                throw new IllegalArgumentException("兑换 " + legs.get(i) + " 与 " + next + " 无法首尾相接。");
+            }
+        }
+        return new ArbitrageCycle(legs);
+    }
+
+    /**
+     * 以某币种作为起始币种重新排列套利环，兑换一圈之后增加的即为该币种
+     *
+     * @param currency 起始币种
+     * @return 从该币种出发的套利环，该币种不在套利环中时返回 null
+     */
+    public ArbitrageCycle startFrom(String currency) {
+        for (int i = 0; i < legs.size(); i++) {
+            if (legs.get(i).getFromCurrency().equals(currency)) {
+                List<Leg> rotated = new ArrayList<>(legs.subList(i, legs.size()));
+                rotated.addAll(legs.subList(0, i));
+                return new ArbitrageCycle(rotated);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据各币种对买入、卖出方向的边权重计算套利环的权重。
+     * <p>
+     * 边权重为 -log(汇率 * 手续费系数)，权重之和小于 0 表示兑换一圈之后币种数量增加，即存在套利机会。
+     *
+     * @param buyWeights  各币种对买入方向的边权重，下标与币种图中币种对的下标一致
+     * @param sellWeights 各币种对卖出方向的边权重
+     * @return 套利环的权重
+     */
+    public double weight(double[] buyWeights, double[] sellWeights) {
+        double weight = 0;
+        for (int i = 0; i < pairIndexes.length; i++) {
+            weight += buys[i] ? buyWeights[pairIndexes[i]] : sellWeights[pairIndexes[i]];
+        }
+        return weight;
+    }
+
+    /**
+     * @return 套利环中的兑换，按兑换顺序排列
+     */
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    /**
+     * @return 兑换次数
+     */
+    public int size() {
+        return legs.size();
+    }
+
+    /**
+     * @return 起始币种
+     */
+    public String getStartCurrency() {
+        return legs.get(0).getFromCurrency();
+    }
+
+    /**
+     * @return 套利环经过的币种对
+     */
+    public List<CurrencyPair> getCurrencyPairs() {
+        List<CurrencyPair> currencyPairs = new ArrayList<>();
+        legs.forEach(e -> currencyPairs.add(e.getCurrencyPair()));
+        return currencyPairs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getStartCurrency());
+        legs.forEach(e -> builder.append(" -> ").append(e.getToCurrency()));
+        return builder.toString();
+    }
+
+}
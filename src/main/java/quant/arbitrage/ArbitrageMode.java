@@ -0,0 +1,25 @@
+package quant.arbitrage;
+
+/**
+ * 三角套利模式
+ *
+ * @author robothy
+ */
+public enum ArbitrageMode {
+
+    /**
+     * 顺时针套利，与逆时针相对应
+     */
+    CLOCKWISE,
+
+    /**
+     * 逆时针套利，与顺时针相对应
+     */
+    ANTICLOCKWISE,
+
+
+    /**
+     * 无套利空间
+     */
+    NONE
+}
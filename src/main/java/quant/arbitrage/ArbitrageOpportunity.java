@@ -0,0 +1,55 @@
+package quant.arbitrage;
+
+/**
+ * 套利机会，即某次扫描中权重之和小于 0 的套利环
+ *
+ * @author robothy
+ */
+public class ArbitrageOpportunity {
+
+    private final ArbitrageCycle cycle;
+
+    private final double weight;
+
+    private final long timestamp;
+
+    ArbitrageOpportunity(ArbitrageCycle cycle, double weight, long timestamp) {
+        this.cycle = cycle;
+        this.weight = weight;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return 套利环
+     */
+    public ArbitrageCycle getCycle() {
+        return cycle;
+    }
+
+    /**
+     * @return 套利环的权重，即各边 -log(汇率 * 手续费系数) 之和
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return 套利系数，即兑换一圈之后币种数量变为原来的多少倍
+     */
+    public double getCoefficient() {
+        return Math.exp(-weight);
+    }
+
+    /**
+     * @return 发现套利机会的时间（单位：毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return cycle + " (" + getCoefficient() + ")";
+    }
+
+}
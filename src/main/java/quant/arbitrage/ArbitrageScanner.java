@@ -0,0 +1,290 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.market.MarketDataFeed;
+import quant.market.OrderBook;
+import quant.utils.TimeUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 套利环扫描器
+ * <p>
+ * 将某交易所的所有币种对构建成币种图，边权重为 -log(汇率 * 手续费系数)，枚举出所有长度为 3（可选 4）的套利环。
+ * 从行情中心订阅所有币种对的深度，每次扫描只重新计算收到推送的币种对的边权重。
+ * 扫描器维护币种对到套利环的索引，只有盘口最优价发生变化的币种对所在的套利环才会（并行）重新计算权重，
+ * 每次扫描的计算量与受影响的套利环数量成正比，而不是与全部套利环数量成正比。
+ * 权重之和小于 0 即存在套利机会，返回其中收益最高的套利环。
+ *
+ * @author robothy
+ */
+public class ArbitrageScanner {
+
+    private static final Logger logger = LogManager.getLogger(ArbitrageScanner.class);
+
+    private final String exchangeName;
+
+    private final MarketDataFeed marketDataFeed;
+
+    private final CurrencyGraph graph;
+
+    private final List<ArbitrageCycle> cycles;
+
+    private final OrderBook[] books;
+
+    private final TriangleArbitrageEngine.FeeMultiplier[] fees;
+
+    /**
+     * 各币种对上一次计算边权重时实时盘口的更新时间
+     */
+    private final long[] updateTimestamps;
+
+    /**
+     * 各币种对上一次计算边权重时实时盘口的请求时间，深度的存在时间从请求时开始计算
+     */
+    private final long[] requestTimestamps;
+
+    /**
+     * 各币种对买入方向的边权重
+     */
+    private final double[] buyWeights;
+
+    /**
+     * 各币种对卖出方向的边权重
+     */
+    private final double[] sellWeights;
+
+    /**
+     * 各套利环的权重
+     */
+    private final double[] cycleWeights;
+
+    /**
+     * 币种对到套利环的索引，即包含某币种对的所有套利环的下标
+     */
+    private final int[][] cycleIndexes;
+
+    /**
+     * 币种对名称到币种对下标的映射
+     */
+    private final Map<String, Integer> pairIndexes = new HashMap<>();
+
+    /**
+     * 自上次扫描以来收到推送的币种对下标
+     */
+    private final Set<Integer> updatedPairs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 权重之和小于 0 的套利环下标
+     */
+    private final BitSet profitableCycles = new BitSet();
+
+    /**
+     * 深度更新信号
+     */
+    private final Semaphore depthUpdated = new Semaphore(0);
+
+    /**
+     * 市场有效时间，超过此时间未更新的币种对不参与套利
+     */
+    private Long marketAvailableDuration = 1000L;
+
+    /**
+     * @param exchangeName   交易所名称
+     * @param currencyPairs  交易所上的币种对
+     * @param marketDataFeed 行情中心
+     * @param maxCycleLength 套利环的最大长度，3 表示只扫描三角套利，4 表示同时扫描四角套利
+     */
+    public ArbitrageScanner(String exchangeName, Collection<CurrencyPair> currencyPairs, MarketDataFeed marketDataFeed, int maxCycleLength) {
+        this.exchangeName = exchangeName;
+        this.marketDataFeed = marketDataFeed;
+        this.graph = new CurrencyGraph(currencyPairs);
+        this.cycles = graph.findCycles(maxCycleLength);
+
+        List<CurrencyPair> pairs = graph.getCurrencyPairs();
+        this.books = new OrderBook[pairs.size()];
+        this.fees = new TriangleArbitrageEngine.FeeMultiplier[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            books[i] = new OrderBook(pairs.get(i));
+            fees[i] = new TriangleArbitrageEngine.FeeMultiplier(pairs.get(i));
+        }
+        this.updateTimestamps = new long[pairs.size()];
+        this.requestTimestamps = new long[pairs.size()];
+        this.buyWeights = new double[pairs.size()];
+        this.sellWeights = new double[pairs.size()];
+        this.cycleWeights = new double[cycles.size()];
+        Arrays.fill(buyWeights, Double.POSITIVE_INFINITY);
+        Arrays.fill(sellWeights, Double.POSITIVE_INFINITY);
+        Arrays.fill(cycleWeights, Double.POSITIVE_INFINITY);
+
+        List<List<Integer>> indexes = new ArrayList<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            pairIndexes.put(pairs.get(i).getCurrencyPair(), i);
+            indexes.add(new ArrayList<>());
+        }
+        for (int i = 0; i < cycles.size(); i++) {
+            for (ArbitrageCycle.Leg leg : cycles.get(i).getLegs()) {
+                indexes.get(leg.getPairIndex()).add(i);
+            }
+        }
+        this.cycleIndexes = new int[pairs.size()][];
+        for (int i = 0; i < pairs.size(); i++) {
+            cycleIndexes[i] = indexes.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        logger.info("{}的{}个币种对共构成{}个套利环。", exchangeName, pairs.size(), cycles.size());
+    }
+
+    /**
+     * 设置市场有效时间，超过此时间未更新的币种对不参与套利
+     *
+     * @param marketAvailableDuration 市场有效时间（单位：毫秒）
+     */
+    public ArbitrageScanner setMarketAvailableDuration(Long marketAvailableDuration) {
+        this.marketAvailableDuration = marketAvailableDuration;
+        return this;
+    }
+
+    /**
+     * @return 所有的套利环
+     */
+    public List<ArbitrageCycle> getCycles() {
+        return cycles;
+    }
+
+    /**
+     * 获取包含某币种对的所有套利环
+     *
+     * @param currencyPair 币种对
+     * @return 包含该币种对的套利环，该币种对不在币种图中时返回空列表
+     */
+    public List<ArbitrageCycle> getCycles(CurrencyPair currencyPair) {
+        List<ArbitrageCycle> result = new ArrayList<>();
+        Integer pairIndex = pairIndexes.get(currencyPair.getCurrencyPair());
+        if (null != pairIndex) {
+            for (int cycleIndex : cycleIndexes[pairIndex]) {
+                result.add(cycles.get(cycleIndex));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 订阅所有币种对的深度并启动行情中心
+     */
+    public void start() {
+        graph.getCurrencyPairs().forEach(e -> marketDataFeed.subscribe(exchangeName, e.getCurrencyPair(), (exchange, currencyPair, depth) -> {
+            updatedPairs.add(pairIndexes.get(currencyPair));
+            if (depthUpdated.availablePermits() == 0) {
+                depthUpdated.release();
+            }
+        }));
+        marketDataFeed.start();
+    }
+
+    /**
+     * 等待深度更新
+     *
+     * @param timeout 最长等待时间（单位：毫秒）
+     * @return 是否收到了深度更新
+     */
+    public boolean awaitUpdate(long timeout) throws InterruptedException {
+        if (!TimeUtil.tryAcquire(depthUpdated, timeout)) {
+            return false;
+        }
+        depthUpdated.drainPermits();
+        return true;
+    }
+
+    /**
+     * 扫描受深度更新影响的套利环
+     *
+     * @return 收益最高的套利机会，没有套利机会时返回 null
+     */
+    public synchronized ArbitrageOpportunity scan() {
+        long now = TimeUtil.now();
+        List<CurrencyPair> pairs = graph.getCurrencyPairs();
+        BitSet affectedCycles = new BitSet(cycles.size());
+
+        for (Integer pairIndex : updatedPairs) {
+            updatedPairs.remove(pairIndex);
+            MarketDataFeed.LiveBook book = marketDataFeed.getBook(exchangeName, pairs.get(pairIndex).getCurrencyPair());
+            if (null == book || book.getUpdateTimestamp() == updateTimestamps[pairIndex]) {
+                continue;
+            }
+            books[pairIndex].update(book.getDepth(), TriangleArbitrageEngine.GATE_LEVELS);
+            updateTimestamps[pairIndex] = book.getUpdateTimestamp();
+            requestTimestamps[pairIndex] = book.getRequestTimestamp();
+            if (updateWeights(pairIndex)) {
+                markAffected(pairIndex, affectedCycles);
+            }
+        }
+
+        // 深度已过期的币种对，经过此币种对的套利环均不可用。与三角套利刷新深度时一致，
+        // 深度的存在时间以请求时间计算，轮询得到的深度不会因为响应慢而被当作新的深度
+        for (int i = 0; i < pairs.size(); i++) {
+            if (now - requestTimestamps[i] > marketAvailableDuration
+                    && (buyWeights[i] != Double.POSITIVE_INFINITY || sellWeights[i] != Double.POSITIVE_INFINITY)) {
+                buyWeights[i] = Double.POSITIVE_INFINITY;
+                sellWeights[i] = Double.POSITIVE_INFINITY;
+                updateTimestamps[i] = 0;
+                markAffected(i, affectedCycles);
+            }
+        }
+
+        affectedCycles.stream().parallel().forEach(i -> cycleWeights[i] = cycles.get(i).weight(buyWeights, sellWeights));
+        affectedCycles.stream().forEach(i -> profitableCycles.set(i, cycleWeights[i] < 0));
+        logger.trace("本次扫描重新计算了{}个套利环。", affectedCycles.cardinality());
+
+        int bestIndex = -1;
+        for (int i = profitableCycles.nextSetBit(0); i >= 0; i = profitableCycles.nextSetBit(i + 1)) {
+            if (bestIndex == -1 || cycleWeights[i] < cycleWeights[bestIndex]) {
+                bestIndex = i;
+            }
+        }
+
+        if (bestIndex == -1) {
+            return null;
+        }
+        ArbitrageOpportunity opportunity = new ArbitrageOpportunity(cycles.get(bestIndex), cycleWeights[bestIndex], now);
+        logger.debug("发现{}个套利机会，收益最高的套利环：{}", profitableCycles.cardinality(), opportunity);
+        return opportunity;
+    }
+
+    /**
+     * 将包含某币种对的套利环标记为需要重新计算
+     */
+    private void markAffected(int pairIndex, BitSet affectedCycles) {
+        for (int cycleIndex : cycleIndexes[pairIndex]) {
+            affectedCycles.set(cycleIndex);
+        }
+    }
+
+    /**
+     * 根据盘口计算某币种对买入、卖出两个方向的边权重
+     *
+     * @return 边权重是否发生了变化，只有最优价变化时边权重才会变化
+     */
+    private boolean updateWeights(int pairIndex) {
+        OrderBook book = books[pairIndex];
+        double buyWeight = book.askSize() == 0 ? Double.POSITIVE_INFINITY
+                : -Math.log(fees[pairIndex].getBuyAsDouble() / book.askPriceAsDouble(0));
+        double sellWeight = book.bidSize() == 0 ? Double.POSITIVE_INFINITY
+                : -Math.log(book.bidPriceAsDouble(0) * fees[pairIndex].getSellAsDouble());
+        boolean changed = buyWeight != buyWeights[pairIndex] || sellWeight != sellWeights[pairIndex];
+        buyWeights[pairIndex] = buyWeight;
+        sellWeights[pairIndex] = sellWeight;
+        return changed;
+    }
+
+}
@@ -0,0 +1,108 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.OrderSide;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 币种图
+ * <p>
+ * 以币种为顶点，每个币种对提供两条有向边：买入（计价币 -> 基础币）和卖出（基础币 -> 计价币）。
+ * 用于枚举某交易所上所有可能的套利环。
+ *
+ * @author robothy
+ */
+public class CurrencyGraph {
+
+    private final List<CurrencyPair> currencyPairs;
+
+    /**
+     * 从每个币种出发的边
+     */
+    private final Map<String, List<ArbitrageCycle.Leg>> edges = new HashMap<>();
+
+    /**
+     * 币种的排序序号，用于枚举套利环时去重
+     */
+    private final Map<String, Integer> currencyOrders = new HashMap<>();
+
+    /**
+     * @param currencyPairs 交易所上的币种对，币种对在列表中的下标即边中记录的币种对下标
+     */
+    public CurrencyGraph(Collection<CurrencyPair> currencyPairs) {
+        this.currencyPairs = new ArrayList<>(currencyPairs);
+        TreeSet<String> currencies = new TreeSet<>();
+        for (int i = 0; i < this.currencyPairs.size(); i++) {
+            CurrencyPair currencyPair = this.currencyPairs.get(i);
+            ArbitrageCycle.Leg buy = new ArbitrageCycle.Leg(i, currencyPair, OrderSide.BUY);
+            ArbitrageCycle.Leg sell = new ArbitrageCycle.Leg(i, currencyPair, OrderSide.SELL);
+            edges.computeIfAbsent(buy.getFromCurrency(), k -> new ArrayList<>()).add(buy);
+            edges.computeIfAbsent(sell.getFromCurrency(), k -> new ArrayList<>()).add(sell);
+            currencies.add(currencyPair.getBaseCurrency());
+            currencies.add(currencyPair.getQuoteCurrency());
+        }
+        int order = 0;
+        for (String currency : currencies) {
+            currencyOrders.put(currency, order++);
+        }
+    }
+
+    /**
+     * @return 币种图中的币种对
+     */
+    public List<CurrencyPair> getCurrencyPairs() {
+        return currencyPairs;
+    }
+
+    /**
+     * 枚举所有长度在 3 到 maxLength 之间的套利环。
+     * <p>
+     * 每个套利环只以其中排序最小的币种作为起点出现一次，顺时针、逆时针视为两个不同的套利环。
+     *
+     * @param maxLength 套利环的最大长度，至少为 3
+     * @return 所有的套利环
+     */
+    public List<ArbitrageCycle> findCycles(int maxLength) {
+        List<ArbitrageCycle> cycles = new ArrayList<>();
+        for (String start : currencyOrders.keySet()) {
+            findCycles(start, start, new LinkedList<>(), maxLength, cycles);
+        }
+        return cycles;
+    }
+
+    private void findCycles(String start, String current, LinkedList<ArbitrageCycle.Leg> path, int maxLength, List<ArbitrageCycle> cycles) {
+        for (ArbitrageCycle.Leg leg : edges.getOrDefault(current, new ArrayList<>())) {
+            String next = leg.getToCurrency();
+            if (path.stream().anyMatch(e -> e.getPairIndex() == leg.getPairIndex())) {
+                continue;
+            }
+
+            if (next.equals(start)) {
+                if (path.size() + 1 >= 3) {
+                    path.addLast(leg);
+                    cycles.add(new ArbitrageCycle(path));
+                    path.removeLast();
+                }
+                continue;
+            }
+
+            // 途经的币种必须排在起始币种之后且不重复，保证每个套利环只被枚举一次
+            if (currencyOrders.get(next) < currencyOrders.get(start)
+                    || path.stream().anyMatch(e -> e.getToCurrency().equals(next))
+                    || path.size() + 2 > maxLength) {
+                continue;
+            }
+            path.addLast(leg);
+            findCycles(start, next, path, maxLength, cycles);
+            path.removeLast();
+        }
+    }
+
+}
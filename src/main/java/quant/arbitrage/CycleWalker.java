@@ -0,0 +1,227 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.Depth;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 套利环逐档计算器
+ * <p>
+ * 沿套利环的兑换顺序逐档遍历深度，计算每次兑换的下单量和下单价格，与套利方向、套利币种无关：
+ * 套利环从哪个币种出发，兑换一圈之后增加的就是哪个币种，中间币种的数量保持不变。
+ * <p>
+ * 每次兑换只用一个游标（档位下标）和当前档位剩余可兑换量表示其在深度中的位置，不修改深度。
+ * 每一步以起始币种的投入量 K 为系数，第 i 次兑换投入 K * R(i)，R(i) 为前 i 次兑换的汇率（带手续费）之积，
+ * 取各次兑换当前档位剩余可兑换量所允许的最小 K，吃掉该档后游标前移，直到套利系数不再大于 1。
+ *
+ * @author robothy
+ */
+public class CycleWalker {
+
+    /**
+     * 套利环的挂单计划
+     */
+    public static class Plan {
+
+        private final ArbitrageCycle cycle;
+
+        private final BigDecimal[] quantities;
+
+        private final BigDecimal[] prices;
+
+        private final BigDecimal coefficient;
+
+        Plan(ArbitrageCycle cycle, BigDecimal[] quantities, BigDecimal[] prices, BigDecimal coefficient) {
+            this.cycle = cycle;
+            this.quantities = quantities;
+            this.prices = prices;
+            this.coefficient = coefficient;
+        }
+
+        /**
+         * @return 套利环
+         */
+        public ArbitrageCycle getCycle() {
+            return cycle;
+        }
+
+        /**
+         * @param leg 兑换的下标
+         * @return 该次兑换的下单量，以基础币为单位
+         */
+        public BigDecimal getQuantity(int leg) {
+            return quantities[leg];
+        }
+
+        /**
+         * @param leg 兑换的下标
+         * @return 该次兑换的下单价格，即遍历到的最深档位的价格
+         */
+        public BigDecimal getPrice(int leg) {
+            return prices[leg];
+        }
+
+        /**
+         * @return 盘口的套利系数
+         */
+        public BigDecimal getCoefficient() {
+            return coefficient;
+        }
+
+        /**
+         * @return 是否没有可以挂单的量
+         */
+        public boolean isEmpty() {
+            return BigDecimal.ZERO.compareTo(quantities[0]) >= 0;
+        }
+    }
+
+    /**
+     * 中间计算时保留的精度
+     */
+    private final int commonScale;
+
+    /**
+     * 各币种对的手续费系数
+     */
+    private final Map<String, TriangleArbitrageEngine.FeeMultiplier> feeMultipliers = new ConcurrentHashMap<>();
+
+    /**
+     * @param commonScale 中间计算时保留的精度
+     */
+    public CycleWalker(int commonScale) {
+        this.commonScale = commonScale;
+    }
+
+    /**
+     * 沿套利环逐档计算挂单计划
+     *
+     * @param cycle            套利环，起始币种即套利币种
+     * @param depthes          获取币种对深度的方法
+     * @param limitPair        限制下单量的币种对，为 null 时不限制
+     * @param maxLimitQuantity 限制币种对上的最大下单量，以该币种对的基础币为单位
+     * @return 挂单计划，盘口不存在套利机会时计划为空
+     */
+    public Plan walk(ArbitrageCycle cycle, Function<CurrencyPair, Depth> depthes, CurrencyPair limitPair, BigDecimal maxLimitQuantity) {
+        List<ArbitrageCycle.Leg> legs = cycle.getLegs();
+        int size = legs.size();
+
+        List<List<Depth.PriceQuotation>> levels = new ArrayList<>(size);
+        BigDecimal[] fees = new BigDecimal[size];
+        int[] cursors = new int[size];
+        BigDecimal[] rates = new BigDecimal[size];
+        BigDecimal[] remainings = new BigDecimal[size];
+        BigDecimal[] quantities = new BigDecimal[size];
+        BigDecimal[] prices = new BigDecimal[size];
+        int limitLeg = -1;
+
+        for (int i = 0; i < size; i++) {
+            ArbitrageCycle.Leg leg = legs.get(i);
+            Depth depth = depthes.apply(leg.getCurrencyPair());
+            levels.add(leg.isBuy() ? depth.getAsks() : depth.getBids());
+            TriangleArbitrageEngine.FeeMultiplier fee = feeMultipliers.computeIfAbsent(leg.getCurrencyPair().getCurrencyPair(),
+                    k -> new TriangleArbitrageEngine.FeeMultiplier(leg.getCurrencyPair()));
+            fees[i] = leg.isBuy() ? fee.getBuy() : fee.getSell();
+            quantities[i] = BigDecimal.ZERO;
+            if (null != limitPair && limitPair.getCurrencyPair().equals(leg.getCurrencyPair().getCurrencyPair())) {
+                limitLeg = i;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (null == levels.get(i) || levels.get(i).isEmpty()) {
+                return new Plan(cycle, quantities, prices, BigDecimal.ZERO);
+            }
+            moveTo(legs.get(i), levels.get(i).get(0), fees[i], i, rates, remainings);
+        }
+
+        BigDecimal initialCoefficient = product(rates);
+        BigDecimal coefficient = initialCoefficient;
+        BigDecimal[] cumulativeRates = new BigDecimal[size];
+
+        while (coefficient.compareTo(BigDecimal.ONE) > 0) {
+
+            // 第 i 次兑换投入 K * R(i)，取各次兑换剩余可兑换量所允许的最小 K
+            int minLeg = 0;
+            BigDecimal minK = null;
+            for (int i = 0; i < size; i++) {
+                cumulativeRates[i] = i == 0 ? BigDecimal.ONE : cumulativeRates[i - 1].multiply(rates[i - 1]);
+                BigDecimal k = remainings[i].divide(cumulativeRates[i], commonScale, RoundingMode.DOWN);
+                if (null == minK || k.compareTo(minK) < 0) {
+                    minK = k;
+                    minLeg = i;
+                }
+            }
+
+            BigDecimal[] inputs = new BigDecimal[size];
+            BigDecimal[] increments = new BigDecimal[size];
+            for (int i = 0; i < size; i++) {
+                inputs[i] = i == minLeg ? remainings[i] : minK.multiply(cumulativeRates[i]);
+                increments[i] = toQuantity(legs.get(i), inputs[i], levels.get(i).get(cursors[i]).getPrice());
+                prices[i] = levels.get(i).get(cursors[i]).getPrice();
+            }
+
+            // 超过限制币种对的最大下单量，按比例缩小这一步的量
+            if (limitLeg != -1 && quantities[limitLeg].add(increments[limitLeg]).compareTo(maxLimitQuantity) > 0) {
+                BigDecimal k = maxLimitQuantity.subtract(quantities[limitLeg]).divide(increments[limitLeg], commonScale, RoundingMode.DOWN);
+                for (int i = 0; i < size; i++) {
+                    quantities[i] = quantities[i].add(increments[i].multiply(k));
+                }
+                break;
+            }
+
+            for (int i = 0; i < size; i++) {
+                quantities[i] = quantities[i].add(increments[i]);
+                remainings[i] = remainings[i].subtract(inputs[i]);
+            }
+
+            // 该档已吃完，游标前移；深度已经遍历完时结束
+            if (++cursors[minLeg] >= levels.get(minLeg).size()) {
+                break;
+            }
+            moveTo(legs.get(minLeg), levels.get(minLeg).get(cursors[minLeg]), fees[minLeg], minLeg, rates, remainings);
+            coefficient = product(rates);
+        }
+
+        return new Plan(cycle, quantities, prices, initialCoefficient);
+    }
+
+    /**
+     * 将某次兑换的游标移动到指定档位，更新该次兑换的汇率和当前档位可投入的量
+     * <p>
+     * 买入：投入计价币，汇率为 (1 / 价格) * 手续费系数，可投入量为 价格 * 数量；
+     * 卖出：投入基础币，汇率为 价格 * 手续费系数，可投入量为 数量。
+     */
+    private void moveTo(ArbitrageCycle.Leg leg, Depth.PriceQuotation level, BigDecimal fee, int i, BigDecimal[] rates, BigDecimal[] remainings) {
+        if (leg.isBuy()) {
+            rates[i] = BigDecimal.ONE.divide(level.getPrice(), commonScale, RoundingMode.DOWN).multiply(fee);
+            remainings[i] = level.getPrice().multiply(level.getQuantity());
+        } else {
+            rates[i] = level.getPrice().multiply(fee);
+            remainings[i] = level.getQuantity();
+        }
+    }
+
+    /**
+     * 将投入量转换为以基础币为单位的下单量
+     */
+    private BigDecimal toQuantity(ArbitrageCycle.Leg leg, BigDecimal input, BigDecimal price) {
+        return leg.isBuy() ? input.divide(price, commonScale, RoundingMode.DOWN) : input;
+    }
+
+    private static BigDecimal product(BigDecimal[] values) {
+        BigDecimal result = BigDecimal.ONE;
+        for (BigDecimal value : values) {
+            result = result.multiply(value);
+        }
+        return result;
+    }
+
+}
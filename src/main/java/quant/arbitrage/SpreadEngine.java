@@ -0,0 +1,279 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.Depth;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 多交易所搬砖价差计算引擎
+ * <p>
+ * 同一币种对在多个交易所（场所）上交易时，将所有场所的卖单按价格由低到高、买单按价格由高到低合并成一个盘口，
+ * 一次遍历合并盘口即可得到最优的买入场所、卖出场所组合，并且在价差仍然覆盖手续费时继续吃下一档，
+ * 下一档可能来自另一个场所，因此买入量、卖出量可以拆分到多个场所。
+ * <p>
+ * 与双场所算法一致：卖出量 = 买入量 × (1 - 手续费费率)，保证基础币数量不减少，
+ * 只有 买价 × (1 - 费率)² 大于 卖价 时才继续成交，保证计价币数量增加。
+ * 一个场所在一次计算中只做买入或只做卖出；某场所的量少于单笔最小量时，排除该场所重新计算。
+ *
+ * @param <V> 场所类型
+ * @author robothy
+ */
+public class SpreadEngine<V> {
+
+    /**
+     * 搬砖计划，即各场所的买入、卖出量和价格
+     *
+     * @param <V> 场所类型
+     */
+    public static class Plan<V> {
+
+        private final Map<V, BigDecimal> buyQuantities = new LinkedHashMap<>();
+
+        private final Map<V, BigDecimal> buyPrices = new HashMap<>();
+
+        private final Map<V, BigDecimal> sellQuantities = new LinkedHashMap<>();
+
+        private final Map<V, BigDecimal> sellPrices = new HashMap<>();
+
+        /**
+         * @return 各买入场所的买入量
+         */
+        public Map<V, BigDecimal> getBuyQuantities() {
+            return buyQuantities;
+        }
+
+        /**
+         * @return 各买入场所的买入价格，即该场所吃到的最高卖价
+         */
+        public Map<V, BigDecimal> getBuyPrices() {
+            return buyPrices;
+        }
+
+        /**
+         * @return 各卖出场所的卖出量
+         */
+        public Map<V, BigDecimal> getSellQuantities() {
+            return sellQuantities;
+        }
+
+        /**
+         * @return 各卖出场所的卖出价格，即该场所吃到的最低买价
+         */
+        public Map<V, BigDecimal> getSellPrices() {
+            return sellPrices;
+        }
+
+        /**
+         * @return 是否没有搬砖机会
+         */
+        public boolean isEmpty() {
+            return buyQuantities.isEmpty() || sellQuantities.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "buy" + buyQuantities + "@" + buyPrices + ", sell" + sellQuantities + "@" + sellPrices;
+        }
+    }
+
+    /**
+     * 合并盘口中的一档
+     */
+    private static class Level<V> {
+
+        private final V venue;
+
+        private final BigDecimal price;
+
+        private final BigDecimal quantity;
+
+        Level(V venue, Depth.PriceQuotation quotation) {
+            this.venue = venue;
+            this.price = quotation.getPrice();
+            this.quantity = quotation.getQuantity();
+        }
+    }
+
+    private final BigDecimal feeRate;
+
+    private final Integer priceScale;
+
+    private final Integer quantityScale;
+
+    private final BigDecimal minQuantity;
+
+    private final BigDecimal maxQuantity;
+
+    /**
+     * @param feeRate       手续费费率
+     * @param priceScale    价格精度
+     * @param quantityScale 量精度
+     * @param minQuantity   单笔订单最小量
+     * @param maxQuantity   一次搬砖的最大卖出量
+     */
+    public SpreadEngine(BigDecimal feeRate, Integer priceScale, Integer quantityScale, BigDecimal minQuantity, BigDecimal maxQuantity) {
+        this.feeRate = feeRate;
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+        this.minQuantity = minQuantity;
+        this.maxQuantity = maxQuantity;
+    }
+
+    /**
+     * 计算搬砖计划
+     *
+     * @param depths        各场所的深度
+     * @param quoteBalances 获取场所计价币可用余额的方法
+     * @param baseBalances  获取场所基础币可用余额的方法
+     * @return 搬砖计划，没有搬砖机会时计划为空
+     */
+    public Plan<V> calculate(Map<V, Depth> depths, Function<V, BigDecimal> quoteBalances, Function<V, BigDecimal> baseBalances) {
+        List<Level<V>> asks = new ArrayList<>();
+        List<Level<V>> bids = new ArrayList<>();
+        depths.forEach((venue, depth) -> {
+            if (null != depth.getAsks()) {
+                depth.getAsks().forEach(e -> asks.add(new Level<>(venue, e)));
+            }
+            if (null != depth.getBids()) {
+                depth.getBids().forEach(e -> bids.add(new Level<>(venue, e)));
+            }
+        });
+        asks.sort(Comparator.comparing(e -> e.price));
+        bids.sort((a, b) -> b.price.compareTo(a.price));
+
+        Set<V> excluded = new HashSet<>();
+        Plan<V> plan;
+        while (true) {
+            plan = walk(asks, bids, excluded, quoteBalances, baseBalances);
+
+            // 排除量少于单笔最小量的场所，重新计算
+            Set<V> tooSmall = new HashSet<>();
+            plan.buyQuantities.forEach((k, v) -> {
+                if (v.compareTo(minQuantity) < 0) {
+                    tooSmall.add(k);
+                }
+            });
+            plan.sellQuantities.forEach((k, v) -> {
+                if (v.compareTo(minQuantity) < 0) {
+                    tooSmall.add(k);
+                }
+            });
+            if (tooSmall.isEmpty()) {
+                return plan;
+            }
+            excluded.addAll(tooSmall);
+        }
+    }
+
+    /**
+     * 遍历合并盘口，不修改深度，每一侧只用一个游标和当前档位的剩余量表示位置
+     */
+    private Plan<V> walk(List<Level<V>> asks, List<Level<V>> bids, Set<V> excluded,
+                         Function<V, BigDecimal> quoteBalances, Function<V, BigDecimal> baseBalances) {
+        BigDecimal feeMultiplier = BigDecimal.ONE.subtract(feeRate);
+        BigDecimal squaredFeeMultiplier = feeMultiplier.multiply(feeMultiplier);
+        BigDecimal minUnit = BigDecimal.ONE.movePointLeft(quantityScale);
+
+        Map<V, BigDecimal> quoteLefts = new HashMap<>();
+        Map<V, BigDecimal> baseLefts = new HashMap<>();
+        Map<V, BigDecimal> buyQuantities = new LinkedHashMap<>();
+        Map<V, BigDecimal> buyPrices = new HashMap<>();
+        Map<V, BigDecimal> sellQuantities = new LinkedHashMap<>();
+        Map<V, BigDecimal> sellPrices = new HashMap<>();
+
+        int askIdx = 0;
+        int bidIdx = 0;
+        BigDecimal askLeft = asks.isEmpty() ? BigDecimal.ZERO : asks.get(0).quantity;
+        BigDecimal bidLeft = bids.isEmpty() ? BigDecimal.ZERO : bids.get(0).quantity;
+        BigDecimal totalSellQuantity = BigDecimal.ZERO;
+
+        while (askIdx < asks.size() && bidIdx < bids.size() && totalSellQuantity.compareTo(maxQuantity) < 0) {
+            Level<V> ask = asks.get(askIdx);
+            Level<V> bid = bids.get(bidIdx);
+
+            // 跳过被排除的、已经在另一侧成交的、以及余额已经用完的场所
+            BigDecimal quoteLeft = quoteLefts.computeIfAbsent(ask.venue, k -> nullToZero(quoteBalances.apply(k)));
+            if (excluded.contains(ask.venue) || sellQuantities.containsKey(ask.venue) || quoteLeft.compareTo(ask.price.multiply(minUnit)) < 0) {
+                askLeft = ++askIdx < asks.size() ? asks.get(askIdx).quantity : BigDecimal.ZERO;
+                continue;
+            }
+            BigDecimal baseLeft = baseLefts.computeIfAbsent(bid.venue, k -> nullToZero(baseBalances.apply(k)));
+            if (excluded.contains(bid.venue) || buyQuantities.containsKey(bid.venue) || ask.venue.equals(bid.venue) || baseLeft.compareTo(minUnit) < 0) {
+                bidLeft = ++bidIdx < bids.size() ? bids.get(bidIdx).quantity : BigDecimal.ZERO;
+                continue;
+            }
+
+            // 综合手续费之后不再有价差
+            if (bid.price.multiply(squaredFeeMultiplier).compareTo(ask.price) <= 0) {
+                break;
+            }
+
+            BigDecimal buyCap = askLeft.min(quoteLeft.divide(ask.price, quantityScale + 3, RoundingMode.DOWN));
+            BigDecimal sellCap = bidLeft.min(baseLeft).min(maxQuantity.subtract(totalSellQuantity));
+            boolean buyBound = buyCap.multiply(feeMultiplier).compareTo(sellCap) <= 0;
+            BigDecimal buyQuantity;
+            BigDecimal sellQuantity;
+            if (buyBound) {
+                buyQuantity = buyCap;
+                sellQuantity = buyCap.multiply(feeMultiplier);
+            } else {
+                sellQuantity = sellCap;
+                buyQuantity = sellCap.divide(feeMultiplier, quantityScale + 3, RoundingMode.UP);
+            }
+
+            // 剩余量已经不足一个最小单位，跳过受限的一侧
+            if (sellQuantity.compareTo(minUnit) < 0) {
+                if (buyBound) {
+                    askLeft = ++askIdx < asks.size() ? asks.get(askIdx).quantity : BigDecimal.ZERO;
+                } else {
+                    bidLeft = ++bidIdx < bids.size() ? bids.get(bidIdx).quantity : BigDecimal.ZERO;
+                }
+                continue;
+            }
+
+            buyQuantities.merge(ask.venue, buyQuantity, BigDecimal::add);
+            buyPrices.merge(ask.venue, ask.price, BigDecimal::max);
+            sellQuantities.merge(bid.venue, sellQuantity, BigDecimal::add);
+            sellPrices.merge(bid.venue, bid.price, BigDecimal::min);
+            quoteLefts.put(ask.venue, quoteLeft.subtract(buyQuantity.multiply(ask.price)));
+            baseLefts.put(bid.venue, baseLeft.subtract(sellQuantity));
+            totalSellQuantity = totalSellQuantity.add(sellQuantity);
+
+            askLeft = askLeft.subtract(buyQuantity);
+            bidLeft = bidLeft.subtract(sellQuantity);
+            if (askLeft.compareTo(minUnit) < 0) {
+                askLeft = ++askIdx < asks.size() ? asks.get(askIdx).quantity : BigDecimal.ZERO;
+            }
+            if (bidLeft.compareTo(minUnit) < 0) {
+                bidLeft = ++bidIdx < bids.size() ? bids.get(bidIdx).quantity : BigDecimal.ZERO;
+            }
+        }
+
+        // 保证价格、量的精度正确
+        Plan<V> plan = new Plan<>();
+        buyQuantities.forEach((k, v) -> {
+            plan.buyQuantities.put(k, v.setScale(quantityScale, RoundingMode.DOWN));
+            plan.buyPrices.put(k, buyPrices.get(k).setScale(priceScale, RoundingMode.UP));
+        });
+        sellQuantities.forEach((k, v) -> {
+            plan.sellQuantities.put(k, v.setScale(quantityScale, RoundingMode.DOWN));
+            plan.sellPrices.put(k, sellPrices.get(k).setScale(priceScale, RoundingMode.DOWN));
+        });
+        return plan;
+    }
+
+    private static BigDecimal nullToZero(BigDecimal value) {
+        return null == value ? BigDecimal.ZERO : value;
+    }
+
+}
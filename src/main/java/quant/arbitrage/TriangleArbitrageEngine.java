@@ -0,0 +1,195 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import quant.market.OrderBook;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 三角套利系数计算引擎
+ * <p>
+ * 三个币种对 BA、CB、CA 构成一个三角，顺时针为 A -> B -> C -> A，逆时针为 A -> C -> B -> A。
+ * 手续费系数（1 - 费率）在构造时一次性计算好，每轮只需要在定点数订单簿的盘口上用 double 计算套利系数，
+ * 不创建任何对象。只有当 double 计算出的系数越过 1 时，才使用 BigDecimal 按照原有的精度重新精确计算一次，
+ * 避免浮点误差导致误判。
+ *
+ * @author robothy
+ */
+public class TriangleArbitrageEngine {
+
+    /**
+     * double 计算的套利系数大于 1 - VERIFY_THRESHOLD 时进行精确校验，
+     * 保证浮点误差不会漏掉恰好大于 1 的套利机会
+     */
+    private static final double VERIFY_THRESHOLD = 1e-9;
+
+    /**
+     * 判断套利机会时读取的档位数，订单簿只需转换这几档（见 {@link OrderBook#update(exunion.metaobjects.Depth, int)}）
+     */
+    public static final int GATE_LEVELS = 1;
+
+    /**
+     * 某个币种对的手续费系数，即成交之后实际得到的比例
+     */
+    public static class FeeMultiplier {
+
+        private final BigDecimal buy;
+
+        private final BigDecimal sell;
+
+        private final double buyAsDouble;
+
+        private final double sellAsDouble;
+
+        FeeMultiplier(CurrencyPair currencyPair) {
+            this.buy = BigDecimal.ONE.subtract(currencyPair.getBuyFeeRate());
+            this.sell = BigDecimal.ONE.subtract(currencyPair.getSellFeeRate());
+            this.buyAsDouble = buy.doubleValue();
+            this.sellAsDouble = sell.doubleValue();
+        }
+
+        /**
+         * @return 买入手续费系数，即 1 - 买入费率
+         */
+        public BigDecimal getBuy() {
+            return buy;
+        }
+
+        /**
+         * @return 卖出手续费系数，即 1 - 卖出费率
+         */
+        public BigDecimal getSell() {
+            return sell;
+        }
+
+        /**
+         * @return 买入手续费系数的浮点表示
+         */
+        public double getBuyAsDouble() {
+            return buyAsDouble;
+        }
+
+        /**
+         * @return 卖出手续费系数的浮点表示
+         */
+        public double getSellAsDouble() {
+            return sellAsDouble;
+        }
+    }
+
+    private final FeeMultiplier feeBA;
+
+    private final FeeMultiplier feeCB;
+
+    private final FeeMultiplier feeCA;
+
+    /**
+     * 各币种对的手续费系数
+     */
+    private final Map<String, FeeMultiplier> feeMultipliers = new HashMap<>();
+
+    /**
+     * 精确计算时倒数的精度，与策略中 maxPriceScale + 5 保持一致
+     */
+    private final int reciprocalScale;
+
+    /**
+     * @param currPairBA 计价币A与基础币B构成的交易币种对
+     * @param currPairCB 计价币B与基础币C构成的交易币种对
+     * @param currPairCA 计价币A与基础币C构成的交易币种对
+     */
+    public TriangleArbitrageEngine(CurrencyPair currPairBA, CurrencyPair currPairCB, CurrencyPair currPairCA) {
+        this.feeBA = new FeeMultiplier(currPairBA);
+        this.feeCB = new FeeMultiplier(currPairCB);
+        this.feeCA = new FeeMultiplier(currPairCA);
+        this.feeMultipliers.put(currPairBA.getCurrencyPair(), feeBA);
+        this.feeMultipliers.put(currPairCB.getCurrencyPair(), feeCB);
+        this.feeMultipliers.put(currPairCA.getCurrencyPair(), feeCA);
+        this.reciprocalScale = Integer.max(Integer.max(currPairBA.getPriceScale(), currPairCB.getPriceScale()), currPairCA.getPriceScale()) + 5;
+    }
+
+    /**
+     * @param currencyPair 币种对
+     * @return 该币种对的手续费系数
+     */
+    public FeeMultiplier getFeeMultiplier(CurrencyPair currencyPair) {
+        return feeMultipliers.get(currencyPair.getCurrencyPair());
+    }
+
+    /**
+     * 根据盘口计算顺时针套利系数，A -> B（在 BA 买入 B）-> C（在 CB 买入 C）-> A（在 CA 卖出 C）
+     *
+     * @return 顺时针套利系数，大于 1 表示存在套利机会；盘口为空时返回 0
+     */
+    public double clockwiseCoefficient(OrderBook bookBA, OrderBook bookCB, OrderBook bookCA) {
+        if (bookBA.askSize() == 0 || bookCB.askSize() == 0 || bookCA.bidSize() == 0) {
+            return 0;
+        }
+        double pabf = feeBA.buyAsDouble / bookBA.askPriceAsDouble(0);
+        double pbcf = feeCB.buyAsDouble / bookCB.askPriceAsDouble(0);
+        double pcaf = bookCA.bidPriceAsDouble(0) * feeCA.sellAsDouble;
+        return pabf * pbcf * pcaf;
+    }
+
+    /**
+     * 根据盘口计算逆时针套利系数，A -> C（在 CA 买入 C）-> B（在 CB 卖出 C）-> A（在 BA 卖出 B）
+     *
+     * @return 逆时针套利系数，大于 1 表示存在套利机会；盘口为空时返回 0
+     */
+    public double anticlockwiseCoefficient(OrderBook bookBA, OrderBook bookCB, OrderBook bookCA) {
+        if (bookBA.bidSize() == 0 || bookCB.bidSize() == 0 || bookCA.askSize() == 0) {
+            return 0;
+        }
+        double pbaf = bookBA.bidPriceAsDouble(0) * feeBA.sellAsDouble;
+        double pacf = feeCA.buyAsDouble / bookCA.askPriceAsDouble(0);
+        double pcbf = bookCB.bidPriceAsDouble(0) * feeCB.sellAsDouble;
+        return pbaf * pacf * pcbf;
+    }
+
+    /**
+     * 判断当前盘口的套利模式，优先判断顺时针。
+     * <p>
+     * 只有 double 系数越过 1 的方向才会进行 BigDecimal 精确校验，绝大多数没有套利机会的轮次不创建任何对象。
+     *
+     * @return 套利模式
+     */
+    public ArbitrageMode evaluate(OrderBook bookBA, OrderBook bookCB, OrderBook bookCA) {
+        if (clockwiseCoefficient(bookBA, bookCB, bookCA) > 1 - VERIFY_THRESHOLD
+                && exactClockwiseCoefficient(bookBA, bookCB, bookCA).compareTo(BigDecimal.ONE) > 0) {
+            return ArbitrageMode.CLOCKWISE;
+        }
+        if (anticlockwiseCoefficient(bookBA, bookCB, bookCA) > 1 - VERIFY_THRESHOLD
+                && exactAnticlockwiseCoefficient(bookBA, bookCB, bookCA).compareTo(BigDecimal.ONE) > 0) {
+            return ArbitrageMode.ANTICLOCKWISE;
+        }
+        return ArbitrageMode.NONE;
+    }
+
+    /**
+     * 使用 BigDecimal 精确计算顺时针套利系数，计算方式与策略逐档计算时一致
+     *
+     * @return 顺时针套利系数
+     */
+    public BigDecimal exactClockwiseCoefficient(OrderBook bookBA, OrderBook bookCB, OrderBook bookCA) {
+        BigDecimal pabf = BigDecimal.ONE.divide(bookBA.toPrice(bookBA.askPrice(0)), reciprocalScale, RoundingMode.DOWN).multiply(feeBA.buy);
+        BigDecimal pbcf = BigDecimal.ONE.divide(bookCB.toPrice(bookCB.askPrice(0)), reciprocalScale, RoundingMode.DOWN).multiply(feeCB.buy);
+        BigDecimal pcaf = bookCA.toPrice(bookCA.bidPrice(0)).multiply(feeCA.sell);
+        return pabf.multiply(pbcf).multiply(pcaf);
+    }
+
+    /**
+     * 使用 BigDecimal 精确计算逆时针套利系数，计算方式与策略逐档计算时一致
+     *
+     * @return 逆时针套利系数
+     */
+    public BigDecimal exactAnticlockwiseCoefficient(OrderBook bookBA, OrderBook bookCB, OrderBook bookCA) {
+        BigDecimal pbaf = bookBA.toPrice(bookBA.bidPrice(0)).multiply(feeBA.sell);
+        BigDecimal pacf = BigDecimal.ONE.divide(bookCA.toPrice(bookCA.askPrice(0)), reciprocalScale, RoundingMode.DOWN).multiply(feeCA.buy);
+        BigDecimal pcbf = bookCB.toPrice(bookCB.bidPrice(0)).multiply(feeCB.sell);
+        return pbaf.multiply(pacf).multiply(pcbf);
+    }
+
+}
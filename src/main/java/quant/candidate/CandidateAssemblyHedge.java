@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
@@ -18,15 +19,18 @@ import org.apache.logging.log4j.Logger;
 import exunion.exchange.Exchange;
 import exunion.metaobjects.Account;
 import exunion.metaobjects.Account.Balance;
-import exunion.metaobjects.Depth.PriceQuotation;
 import exunion.metaobjects.Depth;
 import exunion.metaobjects.Order;
 import exunion.metaobjects.OrderSide;
 import exunion.metaobjects.OrderStatus;
 import quant.dao.CommonDao;
+import quant.dao.OrderJournal;
 import quant.entity.CandidateAssemblyHedgeOrder;
 import quant.exchange.EndExchangeFactory;
+import quant.exchange.OrderGateway;
+import quant.market.BookCursor;
 import quant.strategy.Strategy;
+import quant.utils.TimeUtil;
 
 public class CandidateAssemblyHedge implements Strategy {
 	
@@ -77,6 +81,8 @@ public class CandidateAssemblyHedge implements Strategy {
 	
 	private final CommonDao commonDao = new CommonDao();
 	
+	private final OrderJournal journal = OrderJournal.getShared();
+	
 	// 计划组合对冲单
 	private final Map<HedgeCurrencyPair, List<CandidateAssemblyHedgeOrder>> planCandidateAssemblyHedgeOrders = new HashMap<>();
 	
@@ -113,6 +119,9 @@ public class CandidateAssemblyHedge implements Strategy {
 	// 交易所实例
 	private Map<String, Exchange> exchanges = null;
 	
+	// 各交易所的异步下单网关
+	private Map<String, OrderGateway> orderGateways = null;
+	
 	/**
 	 * @return 当前策略实例使用到的交易所实例
 	 */
@@ -296,6 +305,29 @@ public class CandidateAssemblyHedge implements Strategy {
 		return this.quantityScale;
 	}
 	
+	/**
+	 * 是否以模拟盘方式运行，必须显式设置
+	 */
+	private Boolean paperTrading = null;
+	
+	/**
+	 * 设置是否以模拟盘方式运行。true 时所有交易所都必须在交易所配置中加上 paperTrading（或者是模拟交易所、回放中的交易所），
+	 * 订单由模拟盘撮合；false 时以实盘下单。未设置时策略不会启动，避免误以实盘下单。
+	 * @param paperTrading 是否以模拟盘方式运行
+	 */
+	public CandidateAssemblyHedge setPaperTrading(Boolean paperTrading){
+		this.paperTrading = paperTrading;
+		return this;
+	}
+	
+	/**
+	 * 是否以模拟盘方式运行
+	 * @return true - 模拟盘； false - 实盘
+	 */
+	public Boolean getPaperTrading(){
+		return this.paperTrading;
+	}
+	
 	/**
 	 * 单笔交易基础货币最小量
 	 */
@@ -336,6 +368,14 @@ public class CandidateAssemblyHedge implements Strategy {
 			logger.error("各个交易所待操作的交易对不能为空。");
 			validateResult = false;
 		}
+		if(null == paperTrading){
+			logger.error("未设置以模拟盘还是实盘方式运行。");
+			validateResult = false;
+		}else if(paperTrading){
+			logger.info("以模拟盘方式运行。");
+		}else{
+			logger.warn("以实盘方式运行，订单将发送到交易所。");
+		}
 		return validateResult;
 	}
 	
@@ -361,6 +401,20 @@ public class CandidateAssemblyHedge implements Strategy {
 			.filter(e -> !exchanges.containsKey(e.getPlatform()))
 			.forEach(e -> exchanges.put(e.getPlatform() , EndExchangeFactory.newInstance(e.getPlatform())));
 		}
+		
+		if(paperTrading){
+			for(Entry<String, Exchange> exchange : exchanges.entrySet()){
+				if(!EndExchangeFactory.isSimulated(exchange.getValue())){
+					logger.error("以模拟盘方式运行，但交易所{}没有配置 paperTrading 或 simulated，订单会发送到交易所。", exchange.getKey());
+					return false;
+				}
+			}
+		}
+		
+		if (null == orderGateways){
+			this.orderGateways = new HashMap<>();
+			this.exchanges.forEach((k, v) -> orderGateways.put(k, new OrderGateway(k, v)));
+		}
 		logger.debug("交易所实例构建完成。");
 		return true;
 	}
@@ -374,7 +428,7 @@ public class CandidateAssemblyHedge implements Strategy {
 		logger.debug("开始获取深度信息 ...");
 		Map<HedgeCurrencyPair, Depth> result = new ConcurrentHashMap<CandidateAssemblyHedge.HedgeCurrencyPair, Depth>();
 		
-		Long begin = System.currentTimeMillis();
+		Long begin = TimeUtil.now();
 		this.hedgeCurrencyPairs.parallelStream().forEach(hedgeCurrencyPair -> {
 			final Exchange exchange = exchanges.get(hedgeCurrencyPair.getPlatform());
 			Depth depth = exchange.getDepth(hedgeCurrencyPair.getCurrencyPair());
@@ -382,7 +436,7 @@ public class CandidateAssemblyHedge implements Strategy {
 				result.put(hedgeCurrencyPair, depth);
 			}
 		} );
-		Long end = System.currentTimeMillis();
+		Long end = TimeUtil.now();
 		Long duration = end - begin;
 		
 		logger.debug(result);
@@ -441,14 +495,14 @@ public class CandidateAssemblyHedge implements Strategy {
 			Map<String, Balance> mainExchgBal, Map<String, Balance> viceExchgBal){
 		Map<HedgeCurrencyPair, CandidateAssemblyHedgeOrder> hedgeOrders = new HashMap<>();
 		
-		List<PriceQuotation> mainCurrPairAsks = mainCurrPairDepth.getAsks();
-		List<PriceQuotation> viceCurrPairBids = viceCurrPairDepth.getBids();
+		BookCursor mainCurrPairAsks = BookCursor.asks(mainCurrPairDepth);
+		BookCursor viceCurrPairBids = BookCursor.bids(viceCurrPairDepth);
 		
 		String baseCurr = mainCurrPair.getCurrencyPair().split("_")[0]; // 基础币种
 		String quoteCurr = mainCurrPair.getCurrencyPair().split("_")[1]; // 计价币种
 		
-		BigDecimal mainCurrPairAsk1Price = mainCurrPairAsks.get(0).getPrice();	// 主交易所的卖一价
-		BigDecimal viceCurrPairBuy1Price = viceCurrPairBids.get(0).getPrice();	// 副交易所的买一价
+		BigDecimal mainCurrPairAsk1Price = mainCurrPairAsks.getPrice();	// 主交易所的卖一价
+		BigDecimal viceCurrPairBuy1Price = viceCurrPairBids.getPrice();	// 副交易所的买一价
 		// 主交易所的卖一价 > 副交易所的买一价，表示没有对冲机会，因为主交易所总是买入，副交易所总是卖出
 		if(mainCurrPairAsk1Price.compareTo(viceCurrPairBuy1Price) > 0){  
 			logger.debug("主交易所 {} 卖一价 {}, 副交易所 {} 买一价 {} , 不存在对冲交易机会。", mainCurrPair.getPlatform(), mainCurrPairAsk1Price, viceCurrPair.getPlatform(), viceCurrPairBuy1Price);
@@ -459,27 +513,27 @@ public class CandidateAssemblyHedge implements Strategy {
 		BigDecimal mainCurrencyPairBuyPrice = new BigDecimal("0");
 		BigDecimal viceCurrencyPairSellQuantity = new BigDecimal("0");
 		BigDecimal viceCurrencyPairSellPrice = new BigDecimal("0");
-		while(mainCurrPairAsks.size() > 0 && viceCurrPairBids.size() > 0){
+		while(mainCurrPairAsks.hasLevel() && viceCurrPairBids.hasLevel()){
 			BigDecimal hedgeBuyQuantity = null;
 			BigDecimal hedgeBuyPrice = null;
 			BigDecimal hedgeSellQuantity = null;
 			BigDecimal hedgeSellPrice = null;
 			
-			if(mainCurrPairAsks.get(0).getQuantity().compareTo(viceCurrPairBids.get(0).getQuantity()) > 0){
-				hedgeSellQuantity = viceCurrPairBids.get(0).getQuantity();
-				hedgeSellPrice = viceCurrPairBids.get(0).getPrice();
+			if(mainCurrPairAsks.getQuantity().compareTo(viceCurrPairBids.getQuantity()) > 0){
+				hedgeSellQuantity = viceCurrPairBids.getQuantity();
+				hedgeSellPrice = viceCurrPairBids.getPrice();
 				hedgeBuyQuantity = hedgeSellQuantity.divide(BigDecimal.ONE.subtract(this.feeRate), quantityScale + 3, RoundingMode.UP);
-				hedgeBuyPrice = mainCurrPairAsks.get(0).getPrice();
+				hedgeBuyPrice = mainCurrPairAsks.getPrice();
 				
-				viceCurrPairBids.remove(0);
-				mainCurrPairAsks.get(0).setQuantity(mainCurrPairAsks.get(0).getQuantity().subtract(hedgeBuyQuantity));
+				viceCurrPairBids.next();
+				mainCurrPairAsks.consume(hedgeBuyQuantity);
 			}else{
-				hedgeBuyQuantity = mainCurrPairAsks.get(0).getQuantity();
-				hedgeBuyPrice = mainCurrPairAsks.get(0).getPrice();
+				hedgeBuyQuantity = mainCurrPairAsks.getQuantity();
+				hedgeBuyPrice = mainCurrPairAsks.getPrice();
 				hedgeSellQuantity = hedgeBuyQuantity.multiply(BigDecimal.ONE.subtract(this.feeRate));
-				hedgeSellPrice = viceCurrPairBids.get(0).getPrice();
-				mainCurrPairAsks.remove(0);
-				viceCurrPairBids.get(0).setQuantity(viceCurrPairBids.get(0).getQuantity().subtract(hedgeSellQuantity));
+				hedgeSellPrice = viceCurrPairBids.getPrice();
+				mainCurrPairAsks.next();
+				viceCurrPairBids.consume(hedgeSellQuantity);
 			}
 			
 			// 检查是否亏本
@@ -634,7 +688,9 @@ public class CandidateAssemblyHedge implements Strategy {
 	 * @return 进行挂单操作之后的组合单，若所有的组合单均挂单失败，则直接清空组合单。
 	 */
 	private Map<HedgeCurrencyPair, CandidateAssemblyHedgeOrder> order(final Map<HedgeCurrencyPair, CandidateAssemblyHedgeOrder> assemblyHedgeOrders){
-		assemblyHedgeOrders.entrySet().parallelStream().forEach(e -> new Thread(()->order(e.getValue())).start());
+		List<CompletableFuture<CandidateAssemblyHedgeOrder>> futures = new ArrayList<>();
+		assemblyHedgeOrders.values().forEach(e -> futures.add(orderAsync(e)));
+		OrderGateway.awaitAll(futures);
 		if(0 == assemblyHedgeOrders.entrySet().stream().filter(e->!"PLAN".equals(e.getValue().getOrderStatus())).count()){
 			assemblyHedgeOrders.clear();
 		}
@@ -647,26 +703,31 @@ public class CandidateAssemblyHedge implements Strategy {
 	 * @return 订单信息
 	 */
 	private CandidateAssemblyHedgeOrder order(final CandidateAssemblyHedgeOrder assemblyHedgeOrder){
-		String exchangeName = assemblyHedgeOrder.getPlantform();
-		Exchange exchange = exchanges.get(exchangeName);
+		return TimeUtil.join(orderAsync(assemblyHedgeOrder));
+	}
+	
+	/**
+	 * 根据组合对冲订单的成员信息异步下订单，请求由该交易所的下单网关发出
+	 * @param assemblyHedgeOrder 组合对冲订单对
+	 * @return 下单完成后的订单信息
+	 */
+	private CompletableFuture<CandidateAssemblyHedgeOrder> orderAsync(final CandidateAssemblyHedgeOrder assemblyHedgeOrder){
+		OrderGateway orderGateway = orderGateways.get(assemblyHedgeOrder.getPlantform());
 		String side = assemblyHedgeOrder.getOrderSide();
 		String currency = assemblyHedgeOrder.getCurrencyPair();
 		BigDecimal quantity = assemblyHedgeOrder.getOrderQuantity();
 		BigDecimal price = assemblyHedgeOrder.getOrderPrice();
 		
-		
-		
-		assemblyHedgeOrder.setOrderStatus("NEW"); // 此行代码用于模拟下单成功
-		assemblyHedgeOrder.setCreateTimestamp(new Long(System.currentTimeMillis()).toString());
-		/*
-		Order order = exchange.order(side, currency, quantity, price);
-		if(null != order){
-			assemblyHedgeOrder.setOrderId(order.getOrderId());
-			assemblyHedgeOrder.setOrderStatus(OrderStatus.NEW);
-		}else{
-			assemblyHedgeOrder.setOrderStatus("PLAN");
-		}*/
-		return assemblyHedgeOrder;
+		assemblyHedgeOrder.setCreateTimestamp(new Long(TimeUtil.now()).toString());
+		return orderGateway.order(side, currency, quantity, price).thenApply(order -> {
+			if(null != order){
+				assemblyHedgeOrder.setOrderId(order.getOrderId());
+				assemblyHedgeOrder.setOrderStatus(OrderStatus.NEW);
+			}else{
+				assemblyHedgeOrder.setOrderStatus("PLAN");
+			}
+			return assemblyHedgeOrder;
+		});
 	}
 	
 	/**
@@ -710,7 +771,7 @@ public class CandidateAssemblyHedge implements Strategy {
 				if(!previousStatus.equals(order.getStatus()) || OrderStatus.FILLED.equals(order.getStatus())){
 					hedgeOrder.setOrderStatus(order.getStatus());
 					hedgeOrder.setTransPrice(order.getPrice());
-					commonDao.saveOrUpdate(hedgeOrder);
+					journal.append(hedgeOrder);
 					if(OrderStatus.FILLED.equals(hedgeOrder.getOrderStatus())){
 						assemblyHedgeOrders.remove(i++);
 					}
@@ -741,7 +802,7 @@ public class CandidateAssemblyHedge implements Strategy {
 				if(!previoursStatus.equals(order.getStatus()) || OrderStatus.FILLED.equals(order.getStatus())){
 					hedgeOrder.setOrderStatus(order.getStatus());
 					hedgeOrder.setTransPrice(order.getPrice());
-					commonDao.saveOrUpdate(hedgeOrder);
+					journal.append(hedgeOrder);
 					if(OrderStatus.FILLED.equals(hedgeOrder.getOrderStatus())){
 						assemblyHedgeOrders.remove(i--);
 					}
@@ -859,7 +920,7 @@ public class CandidateAssemblyHedge implements Strategy {
 				// 挂单的状态发生了变化，表示下单成功了。
 				if(!"PLAN".equals(maxPriceBuyOrder.getOrderStatus())){
 					logger.debug("{}最高价计划买单价格: {}, 卖一价: {},计划买单下单成功。", currencyPair, maxPriceBuyOrder.getOrderPrice(), sell1Price);
-					new Thread(()->commonDao.saveOrUpdate(planHedgeOrders.get(0))).start();
+					journal.append(planHedgeOrders.get(0));
 					liveHedgeOrders.add(maxPriceBuyOrder);
 					planHedgeOrders.remove(0);
 					isPlacedPlanOrders = true;
@@ -871,7 +932,7 @@ public class CandidateAssemblyHedge implements Strategy {
 				this.order(minPriceSellOrder);
 				if(!"PLAN".equals(minPriceSellOrder.getOrderStatus())){
 					logger.debug("{}最低价计划卖单价格： {}, 买一价： {},计划卖单下单成功。",currencyPair, minPriceSellOrder.getOrderPrice(), buy1Price);
-					new Thread(()->commonDao.saveOrUpdate(planHedgeOrders.get(size - 1))).start();
+					journal.append(planHedgeOrders.get(size - 1));
 					liveHedgeOrders.add(minPriceSellOrder);
 					planHedgeOrders.remove(size - 1);
 					isPlacedPlanOrders = true;
@@ -908,7 +969,7 @@ public class CandidateAssemblyHedge implements Strategy {
 					liveHedgeOrders.get(hedgeOrder.getKey()).add(hedgeOrder.getValue());;
 				}
 			}
-			hedgeOrders.entrySet().parallelStream().forEach(e->commonDao.saveOrUpdate(e.getValue()));
+			hedgeOrders.forEach((k, v) -> journal.append(v));
 			isPlanceOrders = true;
 		}
 		logger.debug("对冲单挂单完成。");
@@ -920,12 +981,7 @@ public class CandidateAssemblyHedge implements Strategy {
 	 * @param ms 延时时间（单位：毫秒）
 	 */
 	private void delay(Long ms){
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-			logger.error(e);
-		}
+		TimeUtil.delay(ms);
 	}
 	
 	public void run(Map<String, Object> parameters) {
@@ -1006,6 +1062,7 @@ public class CandidateAssemblyHedge implements Strategy {
 		.setQuantityScale(2)
 		.setPriceScale(8)
 		.setMinQuantity(new BigDecimal("0.01"))
+		.setPaperTrading(true)
 		.run(null);
 		
 		
@@ -1,5 +1,6 @@
 package quant.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,6 +12,11 @@ import quant.utils.HibernateUtil;
 
 public class CommonDao {
 	
+	/**
+	 * 批量保存时每批的语句数，与 hibernate.jdbc.batch_size 一致
+	 */
+	private static final int BATCH_SIZE = 50;
+	
 	/**
 	 * 通过hql和class获取数据对象
 	 * @param hql 查询语句
@@ -41,6 +47,30 @@ public class CommonDao {
 		return result;
 	}
 	
+	/**
+	 * 通过命名查询获取数据对象，集合类型的参数按列表绑定
+	 * @param name 命名查询的名称
+	 * @param parameters 查询参数
+	 * @param clazz 查询的类
+	 * @return
+	 */
+	public <T> List<T> findByNamedQuery(String name, Map<String, Object> parameters, Class<T> clazz){
+		Session session = HibernateUtil.getSession();
+		try{
+			Query<T> query = session.createNamedQuery(name, clazz);
+			for(Entry<String, Object> entry : parameters.entrySet()){
+				if(entry.getValue() instanceof Collection){
+					query.setParameterList(entry.getKey(), (Collection<?>) entry.getValue());
+				}else{
+					query.setParameter(entry.getKey(), entry.getValue());
+				}
+			}
+			return query.getResultList();
+		}finally{
+			session.close();
+		}
+	}
+	
 	/**
 	 * 保存或更新一个对象
 	 * @param object
@@ -54,14 +84,48 @@ public class CommonDao {
 	}
 	
 	/**
-	 * 保存或更新一批对象
-	 * @param objects
+	 * 在一个事务中插入一批新对象、更新一批已有对象，按 JDBC 批量提交，插入和更新语句分别排序后成批发送。
+	 * 主键已经预先分配的新对象无法由 saveOrUpdate 判断是否存在，因此由调用方区分新对象和已有对象。
+	 * @param newObjects 新对象，直接插入
+	 * @param objects 已有对象，直接更新
 	 */
-	public void saveOrUpdate(List<Object> objects){
+	public void saveOrUpdate(List<?> newObjects, List<?> objects){
+		if(newObjects.isEmpty() && objects.isEmpty()){
+			return;
+		}
 		Session session = HibernateUtil.getSession();
-		for(Object object : objects){
-			session.saveOrUpdate(object);
+		session.setJdbcBatchSize(BATCH_SIZE);
+		try{
+			session.beginTransaction();
+			int count = 0;
+			for(Object object : newObjects){
+				session.save(object);
+				count = flushIfFull(session, count);
+			}
+			for(Object object : objects){
+				session.update(object);
+				count = flushIfFull(session, count);
+			}
+			session.getTransaction().commit();
+		}catch(RuntimeException e){
+			if(session.getTransaction().isActive()){
+				session.getTransaction().rollback();
+			}
+			throw e;
+		}finally{
+			session.close();
 		}
-		session.close();
+	}
+	
+	/**
+	 * 每满一批发送一次，并释放一级缓存
+	 * @return 累计的语句数
+	 */
+	private int flushIfFull(Session session, int count){
+		if(++count % BATCH_SIZE == 0){
+			session.flush();
+			session.clear();
+		}
+		return count;
 	}
 }
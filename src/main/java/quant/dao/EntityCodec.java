@@ -0,0 +1,306 @@
+package quant.dao;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体的紧凑编码
+ * <p>
+ * 按名称顺序依次写入实体所有映射到数据库列的属性，每个属性以 1 字节的类型开头：
+ * 0 表示 null，1 为字符串（2 字节长度 + UTF-8），3 为 Long，4 为 Integer，
+ * 5 为 BigDecimal（4 字节精度 + 4 字节长度 + 非标度值的补码）。只支持这几种类型的属性，足以表示现有的订单实体。
+ * <p>
+ * 编码本身不含属性名称，写入文件时应同时写入一次属性名称表（见 {@link #encodeSchema()}），
+ * 读取时按写入时的名称表解码（见 {@link #decode(byte[], List)}）：实体类增加的属性保持默认值，删除的属性被跳过，
+ * 实体类的属性变化之后仍能读取之前写入的日志和溢出文件。
+ *
+ * @author robothy
+ */
+final class EntityCodec {
+
+    private static final byte NULL = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte LONG = 3;
+
+    private static final byte INTEGER = 4;
+
+    private static final byte DECIMAL = 5;
+
+    private static final String STATUS_SUFFIX = "Status";
+
+    private static final Map<Class<?>, EntityCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * 实体的一个属性
+     */
+    private static class Property {
+
+        private final String name;
+
+        private final Method getter;
+
+        private final Method setter;
+
+        Property(String name, Method getter, Method setter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private final Class<?> entityClass;
+
+    private final Constructor<?> constructor;
+
+    private final List<Property> properties = new ArrayList<>();
+
+    private final Map<String, Property> propertiesByName = new HashMap<>();
+
+    private final List<String> propertyNames = new ArrayList<>();
+
+    private final Property id;
+
+    /**
+     * 订单状态属性，名称以 Status 结尾
+     */
+    private final List<Property> statuses = new ArrayList<>();
+
+    private EntityCodec(Class<?> entityClass) {
+        this.entityClass = entityClass;
+        Property idProperty = null;
+        Method[] getters = entityClass.getMethods();
+        Arrays.sort(getters, Comparator.comparing(Method::getName));
+        for (Method getter : getters) {
+            boolean isId = getter.isAnnotationPresent(Id.class);
+            if (!isId && !getter.isAnnotationPresent(Column.class)) {
+                continue;
+            }
+            Class<?> type = getter.getReturnType();
+            if (type != String.class && type != BigDecimal.class && type != Long.class && type != Integer.class) {
+                throw new IllegalArgumentException(entityClass.getName() + "." + getter.getName() + "的类型" + type.getName() + "不支持编码。");
+            }
+            Method setter;
+            try {
+                setter = entityClass.getMethod("set" + getter.getName().substring(3), type);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(entityClass.getName() + "." + getter.getName() + "没有对应的 set 方法。", e);
+            }
+            Property property = new Property(getter.getName().substring(3), getter, setter);
+            properties.add(property);
+            propertiesByName.put(property.name, property);
+            propertyNames.add(property.name);
+            if (isId) {
+                idProperty = property;
+            }
+            if (getter.getName().endsWith(STATUS_SUFFIX) && type == String.class) {
+                statuses.add(property);
+            }
+        }
+        if (null == idProperty) {
+            throw new IllegalArgumentException(entityClass.getName() + "不是带有主键的实体。");
+        }
+        this.id = idProperty;
+        try {
+            this.constructor = entityClass.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(entityClass.getName() + "没有无参构造函数。", e);
+        }
+    }
+
+    /**
+     * @param entityClass 实体类
+     * @return 该实体类的编码
+     */
+    static EntityCodec of(Class<?> entityClass) {
+        return codecs.computeIfAbsent(entityClass, EntityCodec::new);
+    }
+
+    Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return 属性名称，按编码的顺序排列
+     */
+    List<String> getPropertyNames() {
+        return Collections.unmodifiableList(propertyNames);
+    }
+
+    /**
+     * @return 属性名称表的编码：2 字节的属性数，之后依次为各属性的名称（2 字节长度 + UTF-8）
+     */
+    byte[] encodeSchema() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(propertyNames.size());
+            for (String name : propertyNames) {
+                out.writeUTF(name);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param schema 属性名称表的编码，见 {@link #encodeSchema()}
+     * @return 属性名称
+     */
+    static List<String> decodeSchema(byte[] schema) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(schema));
+        try {
+            int size = in.readUnsignedShort();
+            List<String> names = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                names.add(in.readUTF());
+            }
+            return names;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("属性名称表不完整。", e);
+        }
+    }
+
+    Object getId(Object entity) {
+        return get(id, entity);
+    }
+
+    void setId(Object entity, Object value) {
+        set(id, entity, value);
+    }
+
+    /**
+     * @return 实体的各个状态属性，没有状态属性时为空
+     */
+    List<String> getStatuses(Object entity) {
+        List<String> result = new ArrayList<>(statuses.size());
+        statuses.forEach(e -> result.add((String) get(e, entity)));
+        return result;
+    }
+
+    byte[] encode(Object entity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Property property : properties) {
+                Object value = get(property, entity);
+                if (null == value) {
+                    out.writeByte(NULL);
+                } else if (value instanceof String) {
+                    out.writeByte(STRING);
+                    out.writeUTF((String) value);
+                } else if (value instanceof BigDecimal) {
+                    byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+                    out.writeByte(DECIMAL);
+                    out.writeInt(((BigDecimal) value).scale());
+                    out.writeInt(unscaled.length);
+                    out.write(unscaled);
+                } else if (value instanceof Long) {
+                    out.writeByte(LONG);
+                    out.writeLong((Long) value);
+                } else {
+                    out.writeByte(INTEGER);
+                    out.writeInt((Integer) value);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 按当前的属性解码
+     */
+    Object decode(byte[] state) {
+        return decode(state, propertyNames);
+    }
+
+    /**
+     * 按写入时的属性名称解码，当前实体类中已经没有的属性被跳过
+     *
+     * @param state         实体的编码
+     * @param propertyNames 写入时的属性名称，见 {@link #getPropertyNames()}
+     * @return 实体
+     */
+    Object decode(byte[] state, List<String> propertyNames) {
+        Object entity;
+        try {
+            entity = constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(entityClass.getName() + "无法实例化。", e);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        try {
+            for (String name : propertyNames) {
+                Object value = readValue(in);
+                Property property = propertiesByName.get(name);
+                if (null != property && (null == value || property.getter.getReturnType() == value.getClass())) {
+                    set(property, entity, value);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(entityClass.getName() + "的编码不完整。", e);
+        }
+        return entity;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (NULL == type) {
+            return null;
+        } else if (STRING == type) {
+            return in.readUTF();
+        } else if (DECIMAL == type) {
+            int scale = in.readInt();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IllegalArgumentException("BigDecimal 的长度无效：" + length);
+            }
+            byte[] unscaled = new byte[length];
+            in.readFully(unscaled);
+            return new BigDecimal(new BigInteger(unscaled), scale);
+        } else if (LONG == type) {
+            return in.readLong();
+        } else if (INTEGER == type) {
+            return in.readInt();
+        }
+        throw new IllegalArgumentException("无法识别的属性类型：" + type);
+    }
+
+    private static Object get(Property property, Object entity) {
+        try {
+            return property.getter.invoke(entity);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void set(Property property, Object entity, Object value) {
+        try {
+            property.setter.invoke(entity, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package quant.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 订单的结束条件
+ * <p>
+ * 各策略从数据库加载未完成订单的条件不同：三角套利只恢复已挂单和计划中的订单，对冲策略恢复所有未完全成交的订单（包括已撤销的）。
+ * 订单实体类通过 {@link #register(Class, FinishedRule)} 登记与其加载条件一致的结束条件，
+ * {@link OrderJournal} 据此把已结束的订单移出内存，{@link OrderArchiver} 据此选出可以归档的订单，
+ * 两者都与策略的加载条件保持一致。
+ * <p>
+ * 结束条件作用于实体所有的状态属性（名称以 Status 结尾），状态为 null 的订单不视为已结束。
+ *
+ * @author robothy
+ */
+public class FinishedRule {
+
+    /**
+     * 实体类没有登记结束条件时使用：所有状态都是已成交
+     */
+    private static final FinishedRule DEFAULT = finishedIn("FILLED");
+
+    private static final Map<Class<?>, FinishedRule> rules = new ConcurrentHashMap<>();
+
+    private final Set<String> statuses;
+
+    /**
+     * true 表示 statuses 是已结束的状态，false 表示 statuses 是未结束的状态
+     */
+    private final boolean finished;
+
+    private FinishedRule(Set<String> statuses, boolean finished) {
+        this.statuses = statuses;
+        this.finished = finished;
+    }
+
+    /**
+     * @param statuses 已结束的状态
+     * @return 所有状态属性都属于这些状态时结束的条件
+     */
+    public static FinishedRule finishedIn(String... statuses) {
+        return new FinishedRule(Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(statuses))), true);
+    }
+
+    /**
+     * @param statuses 未结束的状态
+     * @return 所有状态属性都不属于这些状态时结束的条件
+     */
+    public static FinishedRule activeIn(String... statuses) {
+        return new FinishedRule(Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(statuses))), false);
+    }
+
+    /**
+     * 登记某订单实体类的结束条件，由实体类在类初始化时调用
+     *
+     * @param clazz 订单实体类
+     * @param rule  结束条件，应与策略从数据库加载该类未完成订单的条件一致
+     */
+    public static void register(Class<?> clazz, FinishedRule rule) {
+        rules.put(clazz, rule);
+    }
+
+    /**
+     * 获取某订单实体类的结束条件，实体类尚未初始化时先初始化，使其登记结束条件
+     *
+     * @param clazz 订单实体类
+     * @return 登记的结束条件，未登记时为所有状态都是已成交
+     */
+    public static FinishedRule of(Class<?> clazz) {
+        FinishedRule rule = rules.get(clazz);
+        if (null == rule) {
+            try {
+                Class.forName(clazz.getName(), true, clazz.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+            rule = rules.getOrDefault(clazz, DEFAULT);
+        }
+        return rule;
+    }
+
+    /**
+     * @param statuses 订单所有状态属性的值
+     * @return 订单是否已结束，没有状态属性的订单不会结束
+     */
+    public boolean isFinished(List<String> statuses) {
+        return !statuses.isEmpty() && statuses.stream().allMatch(e -> null != e && this.statuses.contains(e) == finished);
+    }
+
+    /**
+     * @param columns 状态属性对应的列名
+     * @return 订单已结束的 SQL 条件，状态为 null 的订单不满足
+     */
+    public String toSql(List<String> columns) {
+        String values = statuses.stream().map(e -> "'" + e + "'").collect(Collectors.joining(", "));
+        return columns.stream().map(e -> e + (finished ? " in (" : " not in (") + values + ")").collect(Collectors.joining(" and "));
+    }
+
+}
@@ -0,0 +1,181 @@
+package quant.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import quant.entity.AssemblyHedgeOrder;
+import quant.entity.LiveOrderPair;
+import quant.entity.LowPriceHedgeOrder;
+import quant.entity.TriangleArbitrageOrder;
+import quant.entity.WaveHedgeOrder;
+import quant.utils.HibernateUtil;
+
+import javax.persistence.Column;
+import javax.persistence.Table;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 订单归档
+ * <p>
+ * 策略只查询未完成的订单，已完成的订单却一直留在订单表中，表越大恢复订单和写入越慢。
+ * 归档线程定时把已结束的订单（见 {@link FinishedRule}，与订单日志和策略的加载条件一致）分批移入同结构的归档表（原表名加 _ARCHIVE 后缀，见 genTable.sql），
+ * 每批在一个事务中先复制再删除，订单表中只保留进行中的订单。
+ * <p>
+ * 归档表中已有同一主键的订单时以订单表中的为准覆盖。
+ * <p>
+ * 归档会删除生产订单表中的数据，只由实盘策略进程的启动入口通过 {@link #start()} 显式启动，
+ * 工具、回放等只是使用订单日志或持久化队列的代码不会启动归档。
+ *
+ * @author robothy
+ */
+public class OrderArchiver {
+
+    private static final Logger logger = LogManager.getLogger(OrderArchiver.class);
+
+    private static final OrderArchiver shared = new OrderArchiver(Arrays.asList(AssemblyHedgeOrder.class, WaveHedgeOrder.class,
+            LowPriceHedgeOrder.class, TriangleArbitrageOrder.class, LiveOrderPair.class));
+
+    /**
+     * 归档表名的后缀
+     */
+    public static final String ARCHIVE_SUFFIX = "_ARCHIVE";
+
+    /**
+     * 每批归档的订单数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 启动后第一次归档的延迟（单位：毫秒）
+     */
+    private static final long INITIAL_DELAY = 60000L;
+
+    /**
+     * 归档的间隔（单位：毫秒）
+     */
+    private static final long INTERVAL = 600000L;
+
+    private static final String STATUS_SUFFIX = "Status";
+
+    /**
+     * 一张订单表的归档语句
+     */
+    private static class ArchiveTable {
+
+        private final String table;
+
+        private final String selectIds;
+
+        private final String copy;
+
+        private final String delete;
+
+        ArchiveTable(String table, String condition) {
+            this.table = table;
+            this.selectIds = "select DATA_ID from " + table + " where " + condition + " limit :limit";
+            this.copy = "replace into " + table + ARCHIVE_SUFFIX + " select * from " + table + " where DATA_ID in (:ids)";
+            this.delete = "delete from " + table + " where DATA_ID in (:ids)";
+        }
+    }
+
+    private final List<ArchiveTable> tables = new ArrayList<>();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * @param entityClasses 需要归档的订单实体，状态属性名称以 Status 结尾
+     */
+    public OrderArchiver(List<Class<?>> entityClasses) {
+        for (Class<?> entityClass : entityClasses) {
+            Table table = entityClass.getAnnotation(Table.class);
+            List<String> columns = new ArrayList<>();
+            for (Method getter : entityClass.getMethods()) {
+                Column column = getter.getAnnotation(Column.class);
+                if (null != column && getter.getName().endsWith(STATUS_SUFFIX)) {
+                    columns.add(column.name());
+                }
+            }
+            if (null == table || columns.isEmpty()) {
+                throw new IllegalArgumentException(entityClass.getName() + "不是带有状态的订单实体。");
+            }
+            tables.add(new ArchiveTable(table.name(), FinishedRule.of(entityClass).toSql(columns)));
+        }
+    }
+
+    /**
+     * @return 归档所有策略订单表的归档器
+     */
+    public static OrderArchiver getShared() {
+        return shared;
+    }
+
+    /**
+     * 启动后台归档线程，重复调用不会启动多个线程
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::archive, INITIAL_DELAY, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 归档所有订单表中已完成的订单，一张表失败不影响其它表
+     */
+    public void archive() {
+        for (ArchiveTable table : tables) {
+            try {
+                long count = 0;
+                int archived;
+                do {
+                    archived = archiveBatch(table);
+                    count += archived;
+                } while (archived == BATCH_SIZE);
+                if (count > 0) {
+                    logger.info("{}归档了{}个已完成的订单。", table.table, count);
+                }
+            } catch (RuntimeException e) {
+                logger.error("归档{}中已完成的订单失败。", table.table, e);
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中归档一批订单
+     *
+     * @return 归档的订单数
+     */
+    private int archiveBatch(ArchiveTable table) {
+        Session session = HibernateUtil.getSession();
+        try {
+            session.beginTransaction();
+            List<?> ids = session.createNativeQuery(table.selectIds).setParameter("limit", BATCH_SIZE).getResultList();
+            if (!ids.isEmpty()) {
+                session.createNativeQuery(table.copy).setParameterList("ids", ids).executeUpdate();
+                session.createNativeQuery(table.delete).setParameterList("ids", ids).executeUpdate();
+            }
+            session.getTransaction().commit();
+            return ids.size();
+        } catch (RuntimeException e) {
+            if (session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+}
@@ -0,0 +1,646 @@
+package quant.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.utils.TimeUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 订单事件日志，策略订单状态的主存储
+ * <p>
+ * 策略保存订单时调用 {@link #append(Object)}，订单当前的状态以紧凑的二进制编码（见 {@link EntityCodec}）
+ * 追加到本地的日志文件，同时在内存中维护所有未结束订单的最新状态，再交给 {@link WriteBehindPersister} 异步写入数据库，
+ * 交易线程不等待远程数据库。
+ * <p>
+ * 日志分段存放，名称为 序号.journal。每追加 {@link #SNAPSHOT_INTERVAL} 个事件，或者关闭时，
+ * 把未结束订单的状态写入快照 序号.snapshot，然后开始新的一段日志，并删除快照之前的日志和快照。
+ * 启动时读取最新的快照，再重放之后的日志，恢复所有未结束的订单，策略通过 {@link #load(Class, String, Predicate, Supplier)} 获取，
+ * 不需要查询数据库；某类订单在某个范围（例如某交易所）内从未加载过时（例如第一次使用订单日志，或者策略换了交易所），
+ * 才从数据库加载一次该范围的订单并记入日志。
+ * 订单是否结束由实体类登记的 {@link FinishedRule} 判断，与策略从数据库加载未完成订单的条件一致，已结束的订单移出内存。
+ * <p>
+ * 一个日志目录同一时间只能由一个进程使用：打开时对目录下的 {@link #LOCK_FILE} 加排他锁，
+ * 已被其他进程（或同一进程中的另一个实例）锁定时立即失败，多个策略进程应使用各自的目录。
+ * <p>
+ * 每条记录以 4 字节的长度和 1 字节的类型开头，进程崩溃时末尾不完整的记录在重放时被忽略：
+ * <ul>
+ * <li>{@link #SCHEMA}：2 字节的实体类编号、实体类名（2 字节长度 + UTF-8）、属性名称表（见 {@link EntityCodec#encodeSchema()}）。
+ * 同一文件中实体类第一次出现时写入，快照中包含所有记录过的实体类。</li>
+ * <li>{@link #EVENT}：实体类编号、1 字节的事件类型、8 字节的时间戳、实体的编码。</li>
+ * <li>{@link #SEEDED}：实体类编号、已从数据库加载过的范围（UTF-8），只写入快照。</li>
+ * </ul>
+ * 事件按写入时的属性名称表解码，实体类的属性变化之后仍能恢复之前记录的订单。
+ *
+ * @author robothy
+ */
+public class OrderJournal {
+
+    private static final Logger logger = LogManager.getLogger(OrderJournal.class);
+
+    /**
+     * 默认的日志目录
+     */
+    public static final String DEFAULT_DIRECTORY = "data/journal";
+
+    /**
+     * 每追加多少个事件做一次快照
+     */
+    public static final int SNAPSHOT_INTERVAL = 10000;
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /**
+     * 日志目录的锁文件
+     */
+    public static final String LOCK_FILE = "journal.lock";
+
+    private static final byte EVENT = 2;
+
+    private static final byte SCHEMA = 3;
+
+    private static final byte SEEDED = 4;
+
+    /**
+     * 不区分范围时的范围名称，即从数据库加载该类所有未完成的订单
+     */
+    private static final String CLASS_SCOPE = "";
+
+    private static final String FILLED = "FILLED";
+
+    private static final String CANCELED = "CANCELED";
+
+    private static final String PLAN = "PLAN";
+
+    private static final Map<String, OrderJournal> journals = new ConcurrentHashMap<>();
+
+    /**
+     * 本进程已经锁定的日志目录。同一进程再次打开锁文件并关闭时，操作系统会释放该进程在此文件上的所有锁，
+     * 因此同一进程内的重复打开在这里拒绝，不再尝试加锁
+     */
+    private static final Set<String> lockedDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 订单事件类型
+     */
+    public enum EventType {
+
+        /**
+         * 创建计划单
+         */
+        CREATED,
+
+        /**
+         * 已挂单
+         */
+        PLACED,
+
+        /**
+         * 部分成交
+         */
+        PARTIALLY_FILLED,
+
+        /**
+         * 完全成交
+         */
+        FILLED,
+
+        /**
+         * 已撤销
+         */
+        CANCELED,
+
+        /**
+         * 其它变化
+         */
+        UPDATED;
+
+        /**
+         * @param isNew  是否为新订单
+         * @param status 订单状态
+         * @return 订单保存时对应的事件类型
+         */
+        static EventType of(boolean isNew, String status) {
+            if (null == status) {
+                return UPDATED;
+            }
+            switch (status) {
+                case PLAN:
+                    return isNew ? CREATED : UPDATED;
+                case "NEW":
+                    return PLACED;
+                case "PARTIALLY_FILLED":
+                    return PARTIALLY_FILLED;
+                case OrderJournal.FILLED:
+                    return FILLED;
+                case OrderJournal.CANCELED:
+                    return CANCELED;
+                default:
+                    return UPDATED;
+            }
+        }
+    }
+
+    private final File directory;
+
+    private final WriteBehindPersister persister;
+
+    /**
+     * 未结束订单的最新编码，按实体类和主键索引，按第一次出现的顺序排列；记录过的实体类即使没有未结束的订单也在其中
+     */
+    private final Map<Class<?>, Map<Object, byte[]>> states = new LinkedHashMap<>();
+
+    /**
+     * 各实体类已从数据库加载过的范围
+     */
+    private final Map<Class<?>, Set<String>> seededScopes = new HashMap<>();
+
+    private long segmentSeq = 0;
+
+    private FileChannel segment = null;
+
+    /**
+     * 当前日志段中实体类的编号
+     */
+    private final Map<Class<?>, Integer> classIds = new HashMap<>();
+
+    private int eventsSinceSnapshot = 0;
+
+    private long appendedCount = 0;
+
+    private final FileChannel lockChannel;
+
+    private FileLock lock;
+
+    /**
+     * @param directory 日志目录
+     * @param persister 写入数据库的持久化队列
+     * @throws IllegalStateException 日志目录已被其他进程或本进程中的另一个实例使用，或者无法加锁
+     */
+    public OrderJournal(String directory, WriteBehindPersister persister) {
+        this.directory = new File(directory);
+        this.persister = persister;
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            logger.error("创建订单日志目录{}失败。", directory);
+        }
+        this.lockChannel = lock(this.directory);
+        long begin = System.nanoTime();
+        recover();
+        logger.info("从订单日志{}中恢复了{}个未结束的订单，耗时{}ms。", directory, getOrderCount(), (System.nanoTime() - begin) / 1000000);
+        snapshot();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * 获取某目录的订单日志，不存在时创建，订单写入默认的持久化队列
+     *
+     * @param directory 日志目录
+     * @return 订单日志
+     */
+    public static OrderJournal of(String directory) {
+        return journals.computeIfAbsent(new File(directory).getAbsolutePath(), k -> new OrderJournal(k, WriteBehindPersister.getShared()));
+    }
+
+    /**
+     * @return 默认目录的订单日志
+     */
+    public static OrderJournal getShared() {
+        return of(DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * 记录一个订单当前的状态，并异步写入数据库
+     * <p>
+     * 新订单会立即分配主键。分配主键、编码、写日志和放入持久化队列在同一个临界区内完成，
+     * 同一订单的多次记录进入持久化队列的顺序与日志中的顺序一致，较旧的状态不会覆盖较新的状态，更新也不会先于插入。
+     *
+     * @param order 订单实体
+     */
+    public void append(Object order) {
+        EntityCodec codec = EntityCodec.of(order.getClass());
+        FinishedRule rule = FinishedRule.of(order.getClass());
+        synchronized (this) {
+            boolean isNew = WriteBehindPersister.presetId(order);
+            Object id;
+            byte[] state;
+            List<String> statuses;
+            synchronized (order) {
+                id = codec.getId(order);
+                state = codec.encode(order);
+                statuses = codec.getStatuses(order);
+            }
+            EventType type = EventType.of(isNew, statuses.isEmpty() ? null : statuses.get(0));
+
+            write(order.getClass(), type, state);
+            Map<Object, byte[]> orders = states.computeIfAbsent(order.getClass(), k -> new LinkedHashMap<>());
+            if (rule.isFinished(statuses)) {
+                orders.remove(id);
+            } else {
+                orders.put(id, state);
+            }
+            appendedCount++;
+            if (++eventsSinceSnapshot >= SNAPSHOT_INTERVAL) {
+                snapshot();
+            }
+            persister.enqueue(order.getClass(), id, state, isNew);
+        }
+    }
+
+    /**
+     * 记录一批订单当前的状态，并异步写入数据库
+     *
+     * @param orders 订单实体
+     */
+    public void append(List<?> orders) {
+        orders.forEach(this::append);
+    }
+
+    /**
+     * 恢复某类满足条件的未结束的订单，订单日志中从未加载过该类订单时，通过 fallback 从数据库加载该类所有未完成的订单
+     *
+     * @param clazz    订单实体类
+     * @param filter   过滤条件
+     * @param fallback 从数据库加载该类所有未完成的订单
+     * @return 未结束的订单，按第一次记录的顺序排列
+     * @see #load(Class, String, Predicate, Supplier)
+     */
+    public <T> List<T> load(Class<T> clazz, Predicate<T> filter, Supplier<List<T>> fallback) {
+        return load(clazz, CLASS_SCOPE, filter, fallback);
+    }
+
+    /**
+     * 恢复某类满足条件的未结束的订单，每次返回新的实体对象
+     * <p>
+     * 订单日志中从未加载过该类订单的这一范围时，通过 fallback 从数据库加载该范围内未完成的订单，记入日志（不再写入数据库），
+     * 之后的启动都直接从日志中恢复。同一类订单的不同范围（例如不同交易所的策略）各自加载一次。
+     *
+     * @param clazz    订单实体类
+     * @param scope    fallback 加载的范围，例如交易所名称
+     * @param filter   过滤条件，不应超出 scope
+     * @param fallback 从数据库加载该范围内未完成的订单
+     * @return 未结束的订单，按第一次记录的顺序排列
+     */
+    public <T> List<T> load(Class<T> clazz, String scope, Predicate<T> filter, Supplier<List<T>> fallback) {
+        boolean seeded;
+        synchronized (this) {
+            seeded = seededScopes.getOrDefault(clazz, Collections.emptySet()).contains(scope);
+        }
+        if (!seeded) {
+            List<T> orders = fallback.get();
+            seed(clazz, scope, orders);
+            logger.info("订单日志中没有{}的{}，已从数据库加载{}个未完成的订单。", scope, clazz.getSimpleName(), orders.size());
+        }
+        return getOrders(clazz, filter);
+    }
+
+    /**
+     * 获取某类未结束的订单，每次返回新的实体对象
+     *
+     * @param clazz 订单实体类
+     * @return 未结束的订单，按第一次记录的顺序排列
+     */
+    public <T> List<T> getOrders(Class<T> clazz) {
+        return getOrders(clazz, e -> true);
+    }
+
+    /**
+     * 获取某类满足条件的未结束的订单，每次返回新的实体对象
+     *
+     * @param clazz  订单实体类
+     * @param filter 过滤条件
+     * @return 未结束的订单，按第一次记录的顺序排列
+     */
+    public <T> List<T> getOrders(Class<T> clazz, Predicate<T> filter) {
+        List<byte[]> encoded;
+        synchronized (this) {
+            encoded = new ArrayList<>(states.getOrDefault(clazz, new HashMap<>()).values());
+        }
+        EntityCodec codec = EntityCodec.of(clazz);
+        List<T> result = new ArrayList<>(encoded.size());
+        for (byte[] state : encoded) {
+            T order = clazz.cast(codec.decode(state));
+            if (filter.test(order)) {
+                result.add(order);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 记录从数据库加载的订单和加载的范围，并做一次快照，不再写入数据库。
+     * 日志中已有的订单状态比数据库中的新，不被覆盖
+     */
+    private synchronized void seed(Class<?> clazz, String scope, List<?> orders) {
+        EntityCodec codec = EntityCodec.of(clazz);
+        FinishedRule rule = FinishedRule.of(clazz);
+        Map<Object, byte[]> classStates = states.computeIfAbsent(clazz, k -> new LinkedHashMap<>());
+        for (Object order : orders) {
+            if (!rule.isFinished(codec.getStatuses(order))) {
+                classStates.putIfAbsent(codec.getId(order), codec.encode(order));
+            }
+        }
+        seededScopes.computeIfAbsent(clazz, k -> new LinkedHashSet<>()).add(scope);
+        snapshot();
+    }
+
+    /**
+     * @return 未结束的订单数
+     */
+    public synchronized int getOrderCount() {
+        return states.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * @return 本次启动后追加的事件数
+     */
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * 把未结束订单的状态写入快照，开始新的一段日志，并删除快照之前的日志和快照
+     */
+    public synchronized void snapshot() {
+        long seq = segmentSeq + 1;
+        File snapshot = new File(directory, fileName(seq, SNAPSHOT_SUFFIX));
+        File temp = new File(directory, fileName(seq, SNAPSHOT_SUFFIX) + ".tmp");
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.truncate(0);
+            Map<Class<?>, Integer> ids = new HashMap<>();
+            for (Map.Entry<Class<?>, Map<Object, byte[]>> e : states.entrySet()) {
+                int classId = writeClass(channel, ids, e.getKey());
+                for (String scope : seededScopes.getOrDefault(e.getKey(), Collections.emptySet())) {
+                    byte[] bytes = scope.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + 3 + bytes.length);
+                    buffer.putInt(3 + bytes.length).put(SEEDED).putShort((short) classId).put(bytes).flip();
+                    writeFully(channel, buffer);
+                }
+                for (byte[] state : e.getValue().values()) {
+                    writeRecord(channel, ids, e.getKey(), EventType.UPDATED, 0L, state);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            logger.error("写入订单快照{}失败。", snapshot, e);
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("写入订单快照{}失败。", snapshot, e);
+            return;
+        }
+
+        closeSegment();
+        segmentSeq = seq;
+        eventsSinceSnapshot = 0;
+        for (File file : listFiles()) {
+            if (seqOf(file) < seq) {
+                if (!file.delete()) {
+                    logger.warn("删除旧的订单日志{}失败。", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 做一次快照，关闭当前日志段并释放目录锁，关闭之后不应再追加
+     */
+    public synchronized void close() {
+        if (null == lock) {
+            return;
+        }
+        if (null != segment || eventsSinceSnapshot > 0) {
+            snapshot();
+            closeSegment();
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.error("释放订单日志{}的目录锁时出现异常。", directory, e);
+        }
+        lock = null;
+        lockedDirectories.remove(directory.getAbsolutePath());
+    }
+
+    /**
+     * 对日志目录加排他锁，已被锁定时立即失败
+     *
+     * @return 持有锁的文件通道
+     */
+    private FileChannel lock(File directory) {
+        String path = directory.getAbsolutePath();
+        if (!lockedDirectories.add(path)) {
+            throw new IllegalStateException("订单日志目录" + path + "已被本进程中的另一个实例使用。");
+        }
+        File file = new File(directory, LOCK_FILE);
+        FileChannel channel = null;
+        Exception cause = null;
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            cause = e;
+        }
+        if (null == lock) {
+            closeQuietly(channel);
+            lockedDirectories.remove(path);
+            throw new IllegalStateException("订单日志目录" + path + "已被其他进程使用，或者无法加锁。", cause);
+        }
+        return channel;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (null == channel) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("关闭订单日志的锁文件时出现异常。", e);
+        }
+    }
+
+    /**
+     * 读取最新的快照和之后的日志，恢复未结束订单的状态
+     */
+    private void recover() {
+        File[] files = listFiles();
+        int start = 0;
+        for (int i = files.length - 1; i >= 0; i--) {
+            if (files[i].getName().endsWith(SNAPSHOT_SUFFIX)) {
+                start = i;
+                break;
+            }
+        }
+        for (int i = start; i < files.length; i++) {
+            replay(files[i]);
+            segmentSeq = Math.max(segmentSeq, seqOf(files[i]));
+        }
+    }
+
+    private void replay(File file) {
+        Map<Integer, Class<?>> classes = new HashMap<>();
+        Map<Integer, List<String>> schemas = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully(record);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                byte type = buffer.get();
+                int classId = buffer.getShort();
+                if (SEEDED == type) {
+                    byte[] scope = new byte[buffer.remaining()];
+                    buffer.get(scope);
+                    seededScopes.computeIfAbsent(classes.get(classId), k -> new LinkedHashSet<>()).add(new String(scope, StandardCharsets.UTF_8));
+                    continue;
+                }
+                if (SCHEMA == type) {
+                    byte[] name = new byte[buffer.getShort()];
+                    buffer.get(name);
+                    Class<?> clazz = Class.forName(new String(name, StandardCharsets.UTF_8));
+                    classes.put(classId, clazz);
+                    byte[] schema = new byte[buffer.remaining()];
+                    buffer.get(schema);
+                    schemas.put(classId, EntityCodec.decodeSchema(schema));
+                    states.computeIfAbsent(clazz, k -> new LinkedHashMap<>());
+                    continue;
+                }
+                buffer.get();
+                buffer.getLong();
+                byte[] state = new byte[buffer.remaining()];
+                buffer.get(state);
+                Class<?> clazz = classes.get(classId);
+                EntityCodec codec = EntityCodec.of(clazz);
+                List<String> schema = schemas.get(classId);
+                Object order = codec.decode(state, schema);
+                if (!schema.equals(codec.getPropertyNames())) {
+                    state = codec.encode(order);
+                }
+                Map<Object, byte[]> orders = states.computeIfAbsent(clazz, k -> new LinkedHashMap<>());
+                if (FinishedRule.of(clazz).isFinished(codec.getStatuses(order))) {
+                    orders.remove(codec.getId(order));
+                } else {
+                    orders.put(codec.getId(order), state);
+                }
+            }
+        } catch (EOFException e) {
+            // 读到文件末尾，或者末尾的记录不完整
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            logger.error("重放订单日志{}时出现异常，之后的记录被忽略。", file, e);
+        }
+    }
+
+    private void write(Class<?> clazz, EventType type, byte[] state) {
+        try {
+            if (null == segment) {
+                File file = new File(directory, fileName(segmentSeq, JOURNAL_SUFFIX));
+                segment = new RandomAccessFile(file, "rw").getChannel();
+                segment.position(segment.size());
+                classIds.clear();
+            }
+            writeRecord(segment, classIds, clazz, type, TimeUtil.now(), state);
+        } catch (IOException e) {
+            logger.error("写入订单日志时出现异常。", e);
+        }
+    }
+
+    private static void writeRecord(FileChannel channel, Map<Class<?>, Integer> ids, Class<?> clazz, EventType type, long timestamp, byte[] state) throws IOException {
+        int classId = writeClass(channel, ids, clazz);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 12 + state.length);
+        buffer.putInt(12 + state.length).put(EVENT).putShort((short) classId).put((byte) type.ordinal()).putLong(timestamp).put(state).flip();
+        writeFully(channel, buffer);
+    }
+
+    /**
+     * 实体类在该文件中第一次出现时写入其编号、类名和属性名称表
+     *
+     * @return 实体类的编号
+     */
+    private static int writeClass(FileChannel channel, Map<Class<?>, Integer> ids, Class<?> clazz) throws IOException {
+        Integer classId = ids.get(clazz);
+        if (null == classId) {
+            classId = ids.size();
+            byte[] name = clazz.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] schema = EntityCodec.of(clazz).encodeSchema();
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 5 + name.length + schema.length);
+            buffer.putInt(5 + name.length + schema.length).put(SCHEMA).putShort(classId.shortValue())
+                    .putShort((short) name.length).put(name).put(schema).flip();
+            writeFully(channel, buffer);
+            ids.put(clazz, classId);
+        }
+        return classId;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeSegment() {
+        if (null == segment) {
+            return;
+        }
+        try {
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            logger.error("关闭订单日志时出现异常。", e);
+        }
+        segment = null;
+    }
+
+    /**
+     * @return 日志和快照，按序号排列，序号相同时快照在前
+     */
+    private File[] listFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(JOURNAL_SUFFIX) || name.endsWith(SNAPSHOT_SUFFIX));
+        if (null == files) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> {
+            int seq = Long.compare(seqOf(a), seqOf(b));
+            return seq != 0 ? seq : Boolean.compare(a.getName().endsWith(JOURNAL_SUFFIX), b.getName().endsWith(JOURNAL_SUFFIX));
+        });
+        return files;
+    }
+
+    private static long seqOf(File file) {
+        return Long.parseLong(file.getName().substring(0, file.getName().indexOf('.')));
+    }
+
+    private static String fileName(long seq, String suffix) {
+        return String.format("%010d%s", seq, suffix);
+    }
+
+}
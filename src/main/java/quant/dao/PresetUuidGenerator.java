@@ -0,0 +1,24 @@
+package quant.dao;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.UUIDHexGenerator;
+
+import java.io.Serializable;
+
+/**
+ * 主键生成器，实体已经有主键时沿用该主键，否则生成 32 位的 UUID
+ * <p>
+ * {@link WriteBehindPersister} 在实体入队时就为新实体分配主键，以便之后的更新按主键合并，
+ * 真正插入数据库时不能再生成新的主键。
+ *
+ * @author robothy
+ */
+public class PresetUuidGenerator extends UUIDHexGenerator {
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        Serializable id = session.getEntityPersister(null, object).getIdentifier(object, session);
+        return null != id ? id : super.generate(session, object);
+    }
+
+}
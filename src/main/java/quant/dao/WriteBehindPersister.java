@@ -0,0 +1,685 @@
+package quant.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.ReplicationMode;
+import org.hibernate.Session;
+import quant.utils.HibernateUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 异步写库的持久化队列
+ * <p>
+ * 调用 {@link #saveOrUpdate(Object)} 时只是把实体当前的状态编码（见 {@link EntityCodec}），追加到本地的溢出文件并放入待写队列，
+ * 由后台线程每次取出所有待写的实体，在一个事务中写入数据库，交易线程不再等待远程数据库。
+ * 同一实体在写入之前多次更新时按主键合并，只写入最后一次的状态。
+ * <p>
+ * 新实体在入队时就分配主键（见 {@link PresetUuidGenerator}），所以之后的更新可以按主键合并。
+ * 写入失败时逐个覆盖写入，仍然失败的实体放回队列，按逐次加倍、有上限的间隔一直重试，
+ * 数据库不可用期间实体一直保留在队列和溢出文件中，只有无法解码的实体会被丢弃。
+ * 后台线程每取出一批实体就把溢出文件刷到磁盘，溢出文件在所有待写实体写入数据库后清空，
+ * 过大时先写出只含待写实体的新文件再原子替换，进程崩溃后再次启动时从中恢复未写入的实体。
+ * <p>
+ * 同一实体不要同时通过 {@link CommonDao#saveOrUpdate(Object)} 同步保存，否则两条路径的写入顺序无法保证。
+ *
+ * @author robothy
+ */
+public class WriteBehindPersister {
+
+    private static final Logger logger = LogManager.getLogger(WriteBehindPersister.class);
+
+    /**
+     * 默认的溢出文件
+     */
+    public static final String DEFAULT_SPILL_FILE = "data/write-behind.spill";
+
+    /**
+     * 各溢出文件对应的持久化队列
+     */
+    private static final Map<String, WriteBehindPersister> persisters = new ConcurrentHashMap<>();
+
+    /**
+     * 队列中有实体后，等待多久再写入，以便合并同一实体的多次更新（单位：毫秒）
+     */
+    private static final long LINGER = 200L;
+
+    /**
+     * 写入失败后第一次重试的间隔（单位：毫秒）
+     */
+    private static final long MIN_RETRY_INTERVAL = 1000L;
+
+    /**
+     * 连续写入失败时重试间隔逐次加倍，最长的重试间隔（单位：毫秒）
+     */
+    private static final long MAX_RETRY_INTERVAL = 60000L;
+
+    /**
+     * 溢出文件超过该大小且队列不为空时，用队列中的实体重写溢出文件
+     */
+    private static final long COMPACT_SIZE = 16 << 20;
+
+    /**
+     * 关闭时等待写完剩余实体的时间（单位：毫秒）
+     */
+    private static final long CLOSE_TIMEOUT = 10000L;
+
+    /**
+     * 溢出文件的记录类型：更新已有实体、插入新实体、实体类的属性名称表
+     */
+    private static final byte UPDATE_RECORD = 0;
+
+    private static final byte NEW_RECORD = 1;
+
+    private static final byte SCHEMA_RECORD = 2;
+
+    /**
+     * 待写入的一个实体
+     */
+    private static class Entry {
+
+        /**
+         * 实体类名和主键
+         */
+        private final String key;
+
+        private final Class<?> entityClass;
+
+        /**
+         * 实体的编码，见 {@link EntityCodec}
+         */
+        private byte[] state;
+
+        /**
+         * 是否为新实体，新实体直接插入，否则直接更新
+         */
+        private boolean isNew;
+
+        /**
+         * 是否从溢出文件中恢复，恢复的实体不确定是否已经写入数据库，只能覆盖写入
+         */
+        private boolean recovered;
+
+        Entry(String key, Class<?> entityClass, byte[] state, boolean isNew, boolean recovered) {
+            this.key = key;
+            this.entityClass = entityClass;
+            this.state = state;
+            this.isNew = isNew;
+            this.recovered = recovered;
+        }
+    }
+
+    private final CommonDao commonDao = new CommonDao();
+
+    private final File spillFile;
+
+    private FileChannel spill = null;
+
+    /**
+     * 溢出文件中已经写入属性名称表的实体类
+     */
+    private final Set<Class<?>> spillSchemas = new HashSet<>();
+
+    /**
+     * 待写入的实体，按第一次入队的顺序排列
+     */
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+
+    /**
+     * 已入队的次数，用于判断某次入队之前的实体是否已经写入
+     */
+    private long enqueuedSeq = 0;
+
+    private long writtenSeq = 0;
+
+    /**
+     * 等待写入的最大入队序号，大于 writtenSeq 时后台线程不再等待合并
+     */
+    private long flushSeq = 0;
+
+    private long writtenCount = 0;
+
+    private long droppedCount = 0;
+
+    private volatile boolean running = true;
+
+    private final Thread writer;
+
+    /**
+     * @param spillFile 溢出文件
+     */
+    public WriteBehindPersister(String spillFile) {
+        this.spillFile = new File(spillFile);
+        File directory = this.spillFile.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            logger.error("创建溢出文件目录{}失败。", directory);
+        }
+        recover();
+        try {
+            this.spill = new RandomAccessFile(this.spillFile, "rw").getChannel();
+            this.spill.position(this.spill.size());
+        } catch (IOException e) {
+            logger.error("打开溢出文件{}失败，进程崩溃时未写入数据库的实体将丢失。", spillFile, e);
+        }
+        this.writer = new Thread(this::writeLoop, "write-behind-persister");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * 获取使用某溢出文件的持久化队列，不存在时创建
+     *
+     * @param spillFile 溢出文件
+     * @return 持久化队列
+     */
+    public static WriteBehindPersister of(String spillFile) {
+        return persisters.computeIfAbsent(new File(spillFile).getAbsolutePath(), WriteBehindPersister::new);
+    }
+
+    /**
+     * 策略的订单通过默认的持久化队列写库
+     *
+     * @return 使用默认溢出文件的持久化队列
+     */
+    public static WriteBehindPersister getShared() {
+        return of(DEFAULT_SPILL_FILE);
+    }
+
+    /**
+     * 保存或更新一个实体，只是放入队列，由后台线程写入数据库
+     * <p>
+     * 新实体会立即分配主键。
+     *
+     * @param entity 实体
+     */
+    public void saveOrUpdate(Object entity) {
+        enqueue(entity, presetId(entity));
+    }
+
+    /**
+     * 没有主键的新实体分配主键
+     *
+     * @param entity 实体
+     * @return 是否为新实体
+     */
+    static boolean presetId(Object entity) {
+        EntityCodec codec = EntityCodec.of(entity.getClass());
+        synchronized (entity) {
+            if (null != codec.getId(entity)) {
+                return false;
+            }
+            codec.setId(entity, UUID.randomUUID().toString().replace("-", ""));
+            return true;
+        }
+    }
+
+    /**
+     * 实体放入队列
+     *
+     * @param entity 已经分配主键的实体
+     * @param isNew  是否为新实体
+     */
+    void enqueue(Object entity, boolean isNew) {
+        EntityCodec codec = EntityCodec.of(entity.getClass());
+        byte[] state;
+        synchronized (entity) {
+            state = codec.encode(entity);
+        }
+        enqueue(entity.getClass(), codec.getId(entity), state, isNew);
+    }
+
+    /**
+     * 已经编码的实体放入队列
+     *
+     * @param entityClass 实体类
+     * @param id          主键
+     * @param state       实体的编码
+     * @param isNew       是否为新实体
+     */
+    void enqueue(Class<?> entityClass, Object id, byte[] state, boolean isNew) {
+        String key = entityClass.getName() + "#" + id;
+        synchronized (this) {
+            appendSpill(entityClass, state, isNew);
+            Entry entry = pending.get(key);
+            if (null == entry) {
+                pending.put(key, new Entry(key, entityClass, state, isNew, false));
+            } else {
+                entry.state = state;
+                entry.isNew |= isNew;
+            }
+            enqueuedSeq++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 保存或更新一批实体
+     *
+     * @param entities 实体
+     */
+    public void saveOrUpdate(List<?> entities) {
+        entities.forEach(this::saveOrUpdate);
+    }
+
+    /**
+     * 等待调用之前入队的实体全部写入数据库
+     *
+     * @param timeout 最长等待时间（单位：毫秒）
+     * @return 是否已经全部写入
+     */
+    public synchronized boolean flush(long timeout) {
+        long target = enqueuedSeq;
+        flushSeq = Math.max(flushSeq, target);
+        notifyAll();
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            long remaining;
+            while (writtenSeq < target && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return writtenSeq >= target;
+    }
+
+    /**
+     * 写完队列中剩余的实体并停止后台线程，数据库不可用时剩余的实体留在溢出文件中，下次启动时恢复
+     */
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                logger.warn("还有{}个实体未写入数据库，已保留在溢出文件{}中。", pending.size(), spillFile);
+            }
+        }
+    }
+
+    /**
+     * @return 等待写入的实体数
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return 已经写入数据库的实体数，合并的多次更新算一次
+     */
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return 无法解码而丢弃的实体数
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void writeLoop() {
+        long retryInterval = MIN_RETRY_INTERVAL;
+        while (true) {
+            List<Entry> batch;
+            long seq;
+            synchronized (this) {
+                try {
+                    while (running && pending.isEmpty()) {
+                        wait();
+                    }
+                    long deadline = System.currentTimeMillis() + LINGER;
+                    long remaining;
+                    while (running && flushSeq <= writtenSeq && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+                seq = enqueuedSeq;
+                forceSpill();
+            }
+
+            List<Entry> failed = write(batch);
+
+            synchronized (this) {
+                requeue(failed);
+                if (failed.isEmpty()) {
+                    writtenSeq = seq;
+                    retryInterval = MIN_RETRY_INTERVAL;
+                }
+                compactSpill();
+                notifyAll();
+                if (failed.isEmpty()) {
+                    continue;
+                }
+                if (!running) {
+                    break;
+                }
+                logger.warn("{}个实体写入数据库失败，{}ms后重试。", failed.size(), retryInterval);
+                try {
+                    long deadline = System.currentTimeMillis() + retryInterval;
+                    long remaining;
+                    while (running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL);
+            }
+        }
+        closeSpill();
+    }
+
+    /**
+     * 写入一批实体，先在一个事务中插入或更新，失败时逐个覆盖写入
+     *
+     * @return 写入失败的实体，无法解码而丢弃的实体不在其中
+     */
+    private List<Entry> write(List<Entry> batch) {
+        Map<Entry, Object> entities = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            Object entity = decode(entry.entityClass, entry.state);
+            if (null == entity) {
+                synchronized (this) {
+                    droppedCount++;
+                }
+            } else {
+                entities.put(entry, entity);
+            }
+        }
+
+        List<Entry> failed = new ArrayList<>();
+        if (entities.keySet().stream().anyMatch(e -> e.recovered) || !writeBatch(entities)) {
+            entities.forEach((k, v) -> {
+                if (!replicate(v)) {
+                    failed.add(k);
+                }
+            });
+        }
+        synchronized (this) {
+            writtenCount += entities.size() - failed.size();
+        }
+        return failed;
+    }
+
+    /**
+     * 把未写入的实体放回队列，队列中已有同一实体更新的状态时以队列中的为准
+     */
+    private void requeue(Collection<Entry> entries) {
+        for (Entry entry : entries) {
+            Entry newer = pending.putIfAbsent(entry.key, entry);
+            if (null != newer) {
+                newer.isNew |= entry.isNew;
+                newer.recovered |= entry.recovered;
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中插入新实体、更新已有实体，见 {@link CommonDao#saveOrUpdate(List, List)}
+     */
+    private boolean writeBatch(Map<Entry, Object> entities) {
+        List<Object> newEntities = new ArrayList<>();
+        List<Object> existingEntities = new ArrayList<>();
+        entities.forEach((k, v) -> (k.isNew ? newEntities : existingEntities).add(v));
+        try {
+            commonDao.saveOrUpdate(newEntities, existingEntities);
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("批量写入{}个实体失败，改为逐个覆盖写入。", entities.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 按主键覆盖写入一个实体，不管数据库中是否已经存在
+     */
+    private boolean replicate(Object entity) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSession();
+            session.beginTransaction();
+            session.replicate(entity, ReplicationMode.OVERWRITE);
+            session.getTransaction().commit();
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("写入实体{}失败。", entity, e);
+            rollback(session);
+            return false;
+        } finally {
+            close(session);
+        }
+    }
+
+    private void rollback(Session session) {
+        try {
+            if (null != session && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+        } catch (RuntimeException e) {
+            logger.error("回滚事务时出现异常。", e);
+        }
+    }
+
+    private void close(Session session) {
+        try {
+            if (null != session && session.isOpen()) {
+                session.close();
+            }
+        } catch (RuntimeException e) {
+            logger.error("关闭会话时出现异常。", e);
+        }
+    }
+
+    /**
+     * 从溢出文件中恢复上次未写入数据库的实体，按写入时的属性名称表解码后以当前的属性重新编码，文件末尾不完整的记录被忽略
+     */
+    private void recover() {
+        if (!spillFile.exists() || spillFile.length() == 0) {
+            return;
+        }
+        Map<String, List<String>> schemas = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)))) {
+            while (true) {
+                int length = in.readInt();
+                byte kind = in.readByte();
+                String className = in.readUTF();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (SCHEMA_RECORD == kind) {
+                    schemas.put(className, EntityCodec.decodeSchema(payload));
+                    continue;
+                }
+                Class<?> entityClass;
+                try {
+                    entityClass = Class.forName(className);
+                } catch (ClassNotFoundException e) {
+                    logger.error("溢出文件中的实体类{}不存在，已丢弃。", className);
+                    continue;
+                }
+                EntityCodec codec = EntityCodec.of(entityClass);
+                Object entity = decode(entityClass, payload, schemas.getOrDefault(className, codec.getPropertyNames()));
+                if (null == entity) {
+                    continue;
+                }
+                byte[] state = codec.encode(entity);
+                String key = className + "#" + codec.getId(entity);
+                Entry entry = pending.get(key);
+                if (null == entry) {
+                    pending.put(key, new Entry(key, entityClass, state, NEW_RECORD == kind, true));
+                } else {
+                    entry.state = state;
+                }
+            }
+        } catch (EOFException e) {
+            // 读到文件末尾
+        } catch (IOException | RuntimeException e) {
+            logger.error("读取溢出文件{}时出现异常。", spillFile, e);
+        }
+        enqueuedSeq = pending.size();
+        logger.info("从溢出文件{}中恢复了{}个未写入数据库的实体。", spillFile, pending.size());
+    }
+
+    /**
+     * 溢出文件中的每条记录依次为：4 字节的内容长度、1 字节的记录类型、实体类名（2 字节长度 + UTF-8）、内容。
+     * 记录类型为 {@link #UPDATE_RECORD} 或 {@link #NEW_RECORD} 时内容是实体的编码，
+     * 为 {@link #SCHEMA_RECORD} 时内容是实体类的属性名称表，在文件中该实体类的第一个实体之前写入一次
+     */
+    private static ByteBuffer spillRecord(Class<?> entityClass, byte kind, byte[] payload) {
+        byte[] className = entityClass.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(7 + className.length + payload.length);
+        buffer.putInt(payload.length).put(kind).putShort((short) className.length).put(className).put(payload).flip();
+        return buffer;
+    }
+
+    /**
+     * 把一个实体写入溢出文件，文件中还没有该实体类的属性名称表时先写入
+     */
+    private static void writeSpill(FileChannel channel, Set<Class<?>> schemas, Class<?> entityClass, byte[] state, boolean isNew) throws IOException {
+        if (schemas.add(entityClass)) {
+            write(channel, spillRecord(entityClass, SCHEMA_RECORD, EntityCodec.of(entityClass).encodeSchema()));
+        }
+        write(channel, spillRecord(entityClass, isNew ? NEW_RECORD : UPDATE_RECORD, state));
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void appendSpill(Class<?> entityClass, byte[] state, boolean isNew) {
+        if (null == spill) {
+            return;
+        }
+        try {
+            writeSpill(spill, spillSchemas, entityClass, state, isNew);
+        } catch (IOException e) {
+            logger.error("写入溢出文件{}时出现异常。", spillFile, e);
+        }
+    }
+
+    /**
+     * 把溢出文件刷到磁盘，每批只刷一次，断电时最多丢失最后一批之后入队的实体
+     */
+    private void forceSpill() {
+        if (null == spill) {
+            return;
+        }
+        try {
+            spill.force(false);
+        } catch (IOException e) {
+            logger.error("刷新溢出文件{}时出现异常。", spillFile, e);
+        }
+    }
+
+    /**
+     * 队列为空时清空溢出文件；溢出文件过大时重写为只含队列中实体的新文件
+     */
+    private void compactSpill() {
+        if (null == spill) {
+            return;
+        }
+        try {
+            if (pending.isEmpty()) {
+                spill.truncate(0);
+                spill.position(0);
+                spillSchemas.clear();
+            } else if (spill.size() > COMPACT_SIZE) {
+                rewriteSpill();
+            }
+        } catch (IOException e) {
+            logger.error("整理溢出文件{}时出现异常。", spillFile, e);
+        }
+    }
+
+    /**
+     * 队列中的实体先写入临时文件并刷到磁盘，再原子地替换溢出文件，替换之前崩溃时原来的溢出文件仍然完整
+     */
+    private void rewriteSpill() throws IOException {
+        File temp = new File(spillFile.getPath() + ".tmp");
+        Set<Class<?>> schemas = new HashSet<>();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : pending.values()) {
+                writeSpill(channel, schemas, entry.entityClass, entry.state, entry.isNew);
+            }
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        spillSchemas.clear();
+        spillSchemas.addAll(schemas);
+        spill.close();
+        spill = null;
+        spill = new RandomAccessFile(spillFile, "rw").getChannel();
+        spill.position(spill.size());
+    }
+
+    private synchronized void closeSpill() {
+        if (null == spill) {
+            return;
+        }
+        try {
+            spill.force(false);
+            spill.close();
+        } catch (IOException e) {
+            logger.error("关闭溢出文件{}时出现异常。", spillFile, e);
+        }
+        spill = null;
+    }
+
+    private static Object decode(Class<?> entityClass, byte[] state) {
+        return decode(entityClass, state, EntityCodec.of(entityClass).getPropertyNames());
+    }
+
+    private static Object decode(Class<?> entityClass, byte[] state, List<String> propertyNames) {
+        try {
+            return EntityCodec.of(entityClass).decode(state, propertyNames);
+        } catch (RuntimeException e) {
+            logger.error("解码实体{}时出现异常，已丢弃。", entityClass.getName(), e);
+            return null;
+        }
+    }
+
+}
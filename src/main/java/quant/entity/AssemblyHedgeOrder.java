@@ -7,21 +7,35 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 import org.hibernate.annotations.GenericGenerator;
 
+import quant.dao.FinishedRule;
+
 /**
  * AssemblyHedgeOrder generated by hbm2java
  */
 @Entity
 @Table(name = "ASSEMBLY_HEDGE_ORDER", catalog = "quant")
+@NamedQuery(name = AssemblyHedgeOrder.FIND_UNFILLED, query = "from AssemblyHedgeOrder where plantform = :exchangeName and currencyPair = :currencyPair and orderStatus <> :filled")
 public class AssemblyHedgeOrder implements java.io.Serializable {
 
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	/**
+	 * 某交易所某币种对未完全成交的订单，参数 exchangeName 为交易所名称，currencyPair 为币种对，filled 为已成交状态
+	 */
+	public static final String FIND_UNFILLED = "AssemblyHedgeOrder.findUnfilled";
+
+	static {
+		// 完全成交的订单视为已结束，已撤销的订单仍会被恢复
+		FinishedRule.register(AssemblyHedgeOrder.class, FinishedRule.finishedIn("FILLED"));
+	}
+
 	private String dataId;
 	private String hedgeId;
 	private String plantform;
@@ -67,7 +81,7 @@ public class AssemblyHedgeOrder implements java.io.Serializable {
 	}
 
 	@Id
-	@GenericGenerator(name="uuid", strategy="uuid")
+	@GenericGenerator(name="uuid", strategy="quant.dao.PresetUuidGenerator")
 	@GeneratedValue(generator="uuid")
 	@Column(name = "DATA_ID", unique = true, nullable = false, length = 32)
 	public String getDataId() {
@@ -67,7 +67,7 @@ public class CandidateAssemblyHedgeOrder implements java.io.Serializable {
 	}
 
 	@Id
-	@GenericGenerator(name="uuid", strategy="uuid")
+	@GenericGenerator(name="uuid", strategy="quant.dao.PresetUuidGenerator")
 	@GeneratedValue(generator="uuid")
 	@Column(name = "DATA_ID", unique = true, nullable = false, length = 32)
 	public String getDataId() {
@@ -7,21 +7,35 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 import org.hibernate.annotations.GenericGenerator;
 
+import quant.dao.FinishedRule;
+
 /**
  * LiveOrderPairs generated by hbm2java
  */
 @Entity
 @Table(name = "LIVE_ORDER_PAIR", schema = "dbo", catalog = "quant")
+@NamedQuery(name = LiveOrderPair.FIND_UNFILLED, query = "from LiveOrderPair where buyOrderStatus <> :filled or sellOrderStatus <> :filled")
 public class LiveOrderPair implements java.io.Serializable {
 
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	/**
+	 * 买单或卖单未完全成交的订单对，参数 filled 为已成交状态
+	 */
+	public static final String FIND_UNFILLED = "LiveOrderPair.findUnfilled";
+
+	static {
+		// 买单和卖单都完全成交的订单对视为已结束
+		FinishedRule.register(LiveOrderPair.class, FinishedRule.finishedIn("FILLED"));
+	}
+
 	private String dataId;
 	private String plantform;
 	private String currency;
@@ -62,7 +76,7 @@ public class LiveOrderPair implements java.io.Serializable {
 	}
 
 	@Id
-	@GenericGenerator(name="uuid", strategy="uuid")
+	@GenericGenerator(name="uuid", strategy="quant.dao.PresetUuidGenerator")
 	@GeneratedValue(generator="uuid")
 	@Column(name = "DATA_ID", unique = true, nullable = false, length = 32)
 	public String getDataId() {
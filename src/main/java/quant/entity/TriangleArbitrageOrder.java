@@ -1,6 +1,7 @@
 package quant.entity;
 
 import org.hibernate.annotations.GenericGenerator;
+import quant.dao.FinishedRule;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
@@ -8,7 +9,18 @@ import java.util.Objects;
 
 @Entity
 @Table(name = "TRIANGLE_ARBITRAGE_ORDER", catalog = "quant")
+@NamedQuery(name = TriangleArbitrageOrder.FIND_BY_STATUSES, query = "from TriangleArbitrageOrder where exchangeName = :exchangeName and orderStatus in (:statuses)")
 public class TriangleArbitrageOrder {
+    /**
+     * 某交易所某几种状态的订单，参数 exchangeName 为交易所名称，statuses 为状态列表
+     */
+    public static final String FIND_BY_STATUSES = "TriangleArbitrageOrder.findByStatuses";
+
+    static {
+        // 三角套利只恢复已挂单和计划中的订单，其它状态的订单视为已结束
+        FinishedRule.register(TriangleArbitrageOrder.class, FinishedRule.activeIn("NEW", "PLAN"));
+    }
+
     private String dataId;
     private String groupId;
     private String exchangeName;
@@ -25,7 +37,7 @@ public class TriangleArbitrageOrder {
     private Long modifyTimestamp;
 
     @Id
-    @GenericGenerator(name="uuid", strategy="uuid")
+    @GenericGenerator(name="uuid", strategy="quant.dao.PresetUuidGenerator")
     @GeneratedValue(generator="uuid")
     @Column(name = "DATA_ID", unique = true, nullable = false, length = 32)
     public String getDataId() {
@@ -0,0 +1,65 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Order;
+
+import java.util.List;
+
+/**
+ * 支持批量下单、批量撤单的交易所
+ * <p>
+ * 交易所提供批量接口时，交易所实例实现此接口，{@link OrderGateway} 会把多笔订单合并为一次请求；
+ * 未实现此接口的交易所，{@link OrderGateway} 并发地逐笔调用。
+ * <p>
+ * 包装其它交易所实例的类（限流、记录行情、实例池等）也实现此接口，由 {@link #supportsBatch()} 按被包装的实例
+ * 说明是否真正支持，批量调用直接转给被包装的实例。
+ *
+ * @author robothy
+ */
+public interface BatchOrderExchange {
+
+    /**
+     * @return 是否支持批量接口，包装其它交易所实例的类按被包装的实例返回
+     */
+    default boolean supportsBatch() {
+        return true;
+    }
+
+    /**
+     * 批量下单
+     *
+     * @param requests 下单请求
+     * @return 下单结果，与请求一一对应，下单失败的请求对应 null
+     */
+    List<Order> order(List<OrderRequest> requests);
+
+    /**
+     * 批量撤单
+     *
+     * @param currencyPair 币种对
+     * @param orderIds     订单编号
+     * @return 撤单结果，与订单编号一一对应，撤单失败的订单对应 null
+     */
+    List<Order> cancel(String currencyPair, List<String> orderIds);
+
+    /**
+     * @param exchange 交易所实例
+     * @return 该交易所实例是否可以批量下单、批量撤单
+     */
+    static boolean isSupported(Exchange exchange) {
+        return exchange instanceof BatchOrderExchange && ((BatchOrderExchange) exchange).supportsBatch();
+    }
+
+    /**
+     * @param exchange 交易所实例
+     * @return 该交易所实例的批量接口
+     * @throws UnsupportedOperationException 该交易所实例不支持批量接口
+     */
+    static BatchOrderExchange of(Exchange exchange) {
+        if (!isSupported(exchange)) {
+            throw new UnsupportedOperationException(exchange.getPlantformName() + "不支持批量下单、批量撤单。");
+        }
+        return (BatchOrderExchange) exchange;
+    }
+
+}
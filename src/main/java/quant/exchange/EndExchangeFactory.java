@@ -1,16 +1,27 @@
 package quant.exchange;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
 import exunion.exchange.Exchange;
 import exunion.exchange.ExchangeFactory;
+import exunion.metaobjects.CurrencyPair;
+import quant.market.MarketDataRecorder;
+import quant.simulation.MarketDataReplay;
+import quant.simulation.PaperExchange;
+import quant.simulation.SimulatedExchange;
 
 public class EndExchangeFactory {
 
@@ -18,6 +29,11 @@ public class EndExchangeFactory {
 
     private static final Logger logger = LogManager.getLogger(EndExchangeFactory.class);
 
+    /**
+     * 正在进行的历史行情回放，不为 null 时所有交易所实例都来自回放
+     */
+    private static volatile MarketDataReplay replay = null;
+
     // 静态初始化块，获取交易所配置文件，将配置文件处理成JSON对象
     static {
 
@@ -57,19 +73,191 @@ public class EndExchangeFactory {
 
     /**
      * 获取一个带配置信息的交易所实例
+     * <p>
+     * 回放历史行情时返回回放中的交易所实例；配置了 simulated 时返回模拟交易所；配置了 rateLimit 时加上限流（模拟交易所同样适用）；配置了 marketDataRecordDirectory 时，
+     * 获取到的深度和最新价记录到该目录，同一目录的交易所共用一个 {@link MarketDataRecorder}；配置了 paperTrading 时以模拟盘方式运行。
      *
      * @param plantform 交易所名称
      * @return 一个交易所实例
      */
     public static Exchange newInstance(String plantform) {
+        if (null != replay) {
+            return replay.getExchange(plantform);
+        }
         if (null == exchangeConfiguraion) {
             return ExchangeFactory.newInstance(plantform);
         }
         JSONObject exCfg = exchangeConfiguraion.getJSONObject(plantform);
+        JSONObject rateLimitCfg = exCfg.getJSONObject("rateLimit");
+        JSONObject simulatedCfg = exCfg.getJSONObject("simulated");
+        if (null != simulatedCfg) {
+            Exchange exchange = newSimulatedInstance(plantform, plantform, simulatedCfg);
+            return null == rateLimitCfg ? exchange : newRateLimitedInstance(plantform, "simulated", exchange, rateLimitCfg);
+        }
         String key = exCfg.getString("key");
         String secret = exCfg.getString("secret");
         Boolean needProxy = exCfg.getBoolean("needProxy");
-        return ExchangeFactory.newInstance(plantform, key, secret, needProxy);
+        Exchange exchange = ExchangeFactory.newInstance(plantform, key, secret, needProxy);
+        if (null != exchange && null != rateLimitCfg) {
+            exchange = newRateLimitedInstance(plantform, key, exchange, rateLimitCfg);
+        }
+        String recordDirectory = exCfg.getString("marketDataRecordDirectory");
+        if (null != exchange && null != recordDirectory) {
+            exchange = new RecordingExchange(exchange, MarketDataRecorder.of(recordDirectory));
+        }
+        JSONObject paperTradingCfg = exCfg.getJSONObject("paperTrading");
+        if (null == exchange || null == paperTradingCfg) {
+            return exchange;
+        }
+        logger.info("交易所{}以模拟盘方式运行，行情来自交易所，订单由模拟交易所撮合。", plantform);
+        return new PaperExchange(exchange, newSimulatedInstance("paper@" + plantform, plantform, paperTradingCfg));
+    }
+
+    /**
+     * 设置正在进行的历史行情回放，由回放引擎调用
+     *
+     * @param replay 历史行情回放，为 null 时恢复为真实的交易所实例
+     */
+    public static void setReplay(MarketDataReplay replay) {
+        EndExchangeFactory.replay = replay;
+    }
+
+    /**
+     * 判断交易所实例的订单是否不会发送到真实的交易所，即模拟交易所、模拟盘或者回放中的交易所
+     *
+     * @param exchange 由 {@link #newInstance(String)} 创建的交易所实例
+     * @return true - 订单由模拟交易所撮合； false - 订单发送到真实的交易所
+     */
+    public static boolean isSimulated(Exchange exchange) {
+        return null != replay || exchange instanceof SimulatedExchange || exchange instanceof PaperExchange;
+    }
+
+    /**
+     * 为交易所实例加上限流，同一交易所同一 API Key 的所有实例共用一个限流器，配置格式如下：
+     * <pre>
+     * "rateLimit": {
+     *   "capacity": 20,
+     *   "tokensPerSecond": 10,
+     *   "weights": {"depth": 1, "order": 1, "getOrder": 1, "cancel": 1, "account": 2}
+     * }
+     * </pre>
+     * 以上数值只是示例（配置文件中配在模拟交易所 simulated.com 上），给真实交易所配置时，
+     * 容量、速率和各操作的权重应取自该交易所公布的 API 访问频率限制。
+     */
+    private static Exchange newRateLimitedInstance(String plantform, String key, Exchange exchange, JSONObject rateLimitCfg) {
+        double capacity = rateLimitCfg.getDoubleValue("capacity");
+        double tokensPerSecond = rateLimitCfg.getDoubleValue("tokensPerSecond");
+        if (capacity <= 0 || tokensPerSecond <= 0) {
+            logger.error("交易所{}的限流配置有误，capacity 和 tokensPerSecond 必须大于 0，不限流。", plantform);
+            return exchange;
+        }
+
+        Map<String, Double> weights = new HashMap<>();
+        JSONObject weightsCfg = rateLimitCfg.getJSONObject("weights");
+        if (null != weightsCfg) {
+            weightsCfg.keySet().forEach(e -> weights.put(e, weightsCfg.getDouble(e)));
+        }
+        RateLimiter rateLimiter = RateLimiter.of(plantform + "@" + key, capacity, tokensPerSecond);
+        return new RateLimitedExchange(exchange, rateLimiter, weights);
+    }
+
+    /**
+     * 获取一个模拟交易所，同名的模拟交易所共用一个实例，只在第一次获取时读取配置，配置格式如下：
+     * <pre>
+     * "simulated": {
+     *   "latency": 50,
+     *   "feeRate": 0.002,
+     *   "balances": {"BTC": 1, "USDT": 10000}
+     * }
+     * </pre>
+     * 币种对的手续费费率读取该交易所的 currencyPairs 配置，未配置的币种对使用 feeRate。
+     * 模拟盘的 "paperTrading" 配置格式与此相同。
+     *
+     * @param name         模拟交易所名称
+     * @param plantform    交易所名称
+     * @param simulatedCfg 模拟交易所配置
+     */
+    private static SimulatedExchange newSimulatedInstance(String name, String plantform, JSONObject simulatedCfg) {
+        boolean created = !SimulatedExchange.exists(name);
+        SimulatedExchange exchange = SimulatedExchange.of(name);
+        if (!created) {
+            return exchange;
+        }
+        Long latency = simulatedCfg.getLong("latency");
+        BigDecimal feeRate = simulatedCfg.getBigDecimal("feeRate");
+        exchange.setLatency(null == latency ? 0L : latency);
+        if (null != feeRate) {
+            exchange.setFeeRate(feeRate);
+        }
+        getCurrencyPairs(plantform).forEach(exchange::setCurrencyPair);
+        JSONObject balancesCfg = simulatedCfg.getJSONObject("balances");
+        if (null != balancesCfg) {
+            balancesCfg.keySet().forEach(e -> exchange.setBalance(e, balancesCfg.getBigDecimal(e)));
+        }
+        return exchange;
+    }
+
+    /**
+     * 获取交易所配置文件中某交易所的币种对列表，配置格式如下：
+     * <pre>
+     * "currencyPairs": [
+     *   {"currencyPair": "ETH_BTC", "priceScale": 6, "quantityScale": 4, "buyFeeRate": 0.001, "sellFeeRate": 0.001}
+     * ]
+     * </pre>
+     *
+     * @param plantform 交易所名称
+     * @return 币种对列表，未配置时返回空列表
+     */
+    public static List<CurrencyPair> getCurrencyPairs(String plantform) {
+        List<CurrencyPair> currencyPairs = new ArrayList<>();
+        if (null == exchangeConfiguraion || null == exchangeConfiguraion.getJSONObject(plantform)) {
+            return currencyPairs;
+        }
+        JSONArray pairsCfg = exchangeConfiguraion.getJSONObject(plantform).getJSONArray("currencyPairs");
+        if (null == pairsCfg) {
+            logger.warn("交易所{}未配置币种对。", plantform);
+            return currencyPairs;
+        }
+        for (int i = 0; i < pairsCfg.size(); i++) {
+            JSONObject pairCfg = pairsCfg.getJSONObject(i);
+            CurrencyPair currencyPair = new CurrencyPair(pairCfg.getString("currencyPair"), pairCfg.getInteger("priceScale"), pairCfg.getInteger("quantityScale"));
+            currencyPair.setBuyFeeRate(pairCfg.getBigDecimal("buyFeeRate"));
+            currencyPair.setSellFeeRate(pairCfg.getBigDecimal("sellFeeRate"));
+            currencyPairs.add(currencyPair);
+        }
+        return currencyPairs;
+    }
+
+    /**
+     * 获取交易所配置文件中某交易所两次获取深度的间隔时间，配置格式如下：
+     * <pre>
+     * "depthPollInterval": 200
+     * </pre>
+     *
+     * @param plantform 交易所名称
+     * @return 两次获取深度的间隔时间（单位：毫秒），未配置时返回 null
+     */
+    public static Long getDepthPollInterval(String plantform) {
+        if (null == exchangeConfiguraion || null == exchangeConfiguraion.getJSONObject(plantform)) {
+            return null;
+        }
+        return exchangeConfiguraion.getJSONObject(plantform).getLong("depthPollInterval");
+    }
+
+    /**
+     * 获取交易所配置文件中某交易所的下单线程数，配置格式如下：
+     * <pre>
+     * "orderThreads": 4
+     * </pre>
+     *
+     * @param plantform 交易所名称
+     * @return 下单线程数，未配置时返回 null
+     */
+    public static Integer getOrderThreads(String plantform) {
+        if (null == exchangeConfiguraion || null == exchangeConfiguraion.getJSONObject(plantform)) {
+            return null;
+        }
+        return exchangeConfiguraion.getJSONObject(plantform).getInteger("orderThreads");
     }
 
     private EndExchangeFactory() {
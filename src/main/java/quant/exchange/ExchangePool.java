@@ -0,0 +1,284 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.Ticker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * 交易所实例池
+ * <p>
+ * 同一交易所的多个实例（连接）组成一个池，池本身也是一个 {@link Exchange}。每次调用时记录该实例的耗时和是否成功，
+ * 以指数移动平均统计近期的延迟和失败率，调用时随机取两个可用实例，选择 延迟 × (进行中的调用数 + 1) × (1 + 失败率) 较小的一个，
+ * 变慢或卡住的实例会自动少分到请求，而不是像轮询那样固定分到三分之一。
+ * <p>
+ * 连续失败达到一定次数的实例会被暂时剔除，剔除时间结束后只放行一个探测请求，成功则恢复，失败则继续剔除。
+ * 与 {@link Exchange} 一致，调用返回 null 视为失败。池中所有实例都支持批量接口时，池同样支持。
+ *
+ * @author robothy
+ */
+public class ExchangePool implements Exchange, BatchOrderExchange {
+
+    private static final Logger logger = LogManager.getLogger(ExchangePool.class);
+
+    /**
+     * 指数移动平均的平滑系数
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * 连续失败多少次之后剔除
+     */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    /**
+     * 默认的剔除时间（单位：毫秒）
+     */
+    private static final long DEFAULT_EJECT_DURATION = 30000L;
+
+    /**
+     * 池中的一个交易所实例及其统计信息
+     */
+    private static class Client {
+
+        private final int index;
+
+        private final Exchange exchange;
+
+        /**
+         * 近期延迟的指数移动平均（单位：毫秒），未被调用过时为 0
+         */
+        private double latency = 0;
+
+        /**
+         * 近期失败率的指数移动平均
+         */
+        private double errorRate = 0;
+
+        private int consecutiveFailures = 0;
+
+        private int inflight = 0;
+
+        /**
+         * 剔除结束的时间，为 0 表示未被剔除
+         */
+        private long ejectedUntil = 0;
+
+        /**
+         * 是否正在探测
+         */
+        private boolean probing = false;
+
+        Client(int index, Exchange exchange) {
+            this.index = index;
+            this.exchange = exchange;
+        }
+
+        double score() {
+            return (latency + 1) * (inflight + 1) * (1 + errorRate);
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + "{latency=" + String.format("%.1f", latency) + "ms, errorRate=" + String.format("%.2f", errorRate)
+                    + ", inflight=" + inflight + (ejectedUntil > 0 ? ", ejected" : "") + "}";
+        }
+    }
+
+    private final String exchangeName;
+
+    private final List<Client> clients = new ArrayList<>();
+
+    private final long ejectDuration;
+
+    /**
+     * @param exchangeName 交易所名称
+     * @param exchanges    同一交易所的多个实例
+     */
+    public ExchangePool(String exchangeName, List<Exchange> exchanges) {
+        this(exchangeName, exchanges, DEFAULT_EJECT_DURATION);
+    }
+
+    /**
+     * @param exchangeName  交易所名称
+     * @param exchanges     同一交易所的多个实例
+     * @param ejectDuration 实例被剔除的时间（单位：毫秒）
+     */
+    public ExchangePool(String exchangeName, List<Exchange> exchanges, long ejectDuration) {
+        this.exchangeName = exchangeName;
+        this.ejectDuration = ejectDuration;
+        for (int i = 0; i < exchanges.size(); i++) {
+            clients.add(new Client(i, exchanges.get(i)));
+        }
+    }
+
+    /**
+     * 通过 {@link EndExchangeFactory} 创建一个交易所实例池
+     *
+     * @param plantform 交易所名称
+     * @param size      实例数
+     * @return 交易所实例池
+     */
+    public static ExchangePool newInstance(String plantform, int size) {
+        List<Exchange> exchanges = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            exchanges.add(EndExchangeFactory.newInstance(plantform));
+        }
+        return new ExchangePool(plantform, exchanges);
+    }
+
+    @Override
+    public String getPlantformName() {
+        return clients.get(0).exchange.getPlantformName();
+    }
+
+    @Override
+    public Depth getDepth(String currencyPair) {
+        return call(e -> e.getDepth(currencyPair));
+    }
+
+    @Override
+    public Ticker getTicker(String currencyPair) {
+        return call(e -> e.getTicker(currencyPair));
+    }
+
+    @Override
+    public Account getAccount() {
+        return call(Exchange::getAccount);
+    }
+
+    @Override
+    public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        return call(e -> e.order(side, currencyPair, quantity, price));
+    }
+
+    @Override
+    public Order getOrder(String currencyPair, String orderId) {
+        return call(e -> e.getOrder(currencyPair, orderId));
+    }
+
+    @Override
+    public Order cancel(String currencyPair, String orderId) {
+        return call(e -> e.cancel(currencyPair, orderId));
+    }
+
+    @Override
+    public List<Order> getOpenOrders(String currencyPair) {
+        return call(e -> e.getOpenOrders(currencyPair));
+    }
+
+    @Override
+    public List<Order> getHistoryOrders(String currencyPair) {
+        return call(e -> e.getHistoryOrders(currencyPair));
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return clients.stream().allMatch(e -> BatchOrderExchange.isSupported(e.exchange));
+    }
+
+    @Override
+    public List<Order> order(List<OrderRequest> requests) {
+        return call(e -> BatchOrderExchange.of(e).order(requests));
+    }
+
+    @Override
+    public List<Order> cancel(String currencyPair, List<String> orderIds) {
+        return call(e -> BatchOrderExchange.of(e).cancel(currencyPair, orderIds));
+    }
+
+    /**
+     * @return 各实例的统计信息
+     */
+    @Override
+    public synchronized String toString() {
+        return exchangeName + clients;
+    }
+
+    /**
+     * 选择一个实例执行调用，并记录耗时和结果
+     */
+    private <T> T call(Function<Exchange, T> request) {
+        Client client = select();
+        long begin = System.currentTimeMillis();
+        T result = null;
+        try {
+            result = request.apply(client.exchange);
+        } catch (RuntimeException e) {
+            logger.error("{}实例#{}调用出现异常。", exchangeName, client.index, e);
+        }
+        record(client, System.currentTimeMillis() - begin, null != result);
+        return result;
+    }
+
+    /**
+     * 从可用的实例中随机取两个，选择得分较低的一个；剔除时间已到的实例优先用于探测
+     */
+    private synchronized Client select() {
+        long now = System.currentTimeMillis();
+        List<Client> available = new ArrayList<>();
+        Client earliestEjected = null;
+        for (Client client : clients) {
+            if (client.ejectedUntil == 0) {
+                available.add(client);
+            } else if (client.ejectedUntil <= now && !client.probing) {
+                client.probing = true;
+                client.inflight++;
+                logger.info("{}实例#{}剔除时间已到，开始探测。", exchangeName, client.index);
+                return client;
+            } else if (null == earliestEjected || client.ejectedUntil < earliestEjected.ejectedUntil) {
+                earliestEjected = client;
+            }
+        }
+
+        // 所有实例都被剔除了，使用最早恢复的一个
+        Client selected;
+        if (available.isEmpty()) {
+            selected = earliestEjected;
+        } else if (available.size() == 1) {
+            selected = available.get(0);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(available.size());
+            int j = random.nextInt(available.size() - 1);
+            Client a = available.get(i);
+            Client b = available.get(j >= i ? j + 1 : j);
+            selected = a.score() <= b.score() ? a : b;
+        }
+        selected.inflight++;
+        return selected;
+    }
+
+    private synchronized void record(Client client, long latency, boolean success) {
+        client.inflight--;
+        client.latency = client.latency == 0 ? latency : client.latency * (1 - ALPHA) + latency * ALPHA;
+        client.errorRate = client.errorRate * (1 - ALPHA) + (success ? 0 : ALPHA);
+
+        if (success) {
+            client.consecutiveFailures = 0;
+            if (client.ejectedUntil > 0) {
+                logger.info("{}实例#{}探测成功，恢复使用。", exchangeName, client.index);
+                client.ejectedUntil = 0;
+                client.probing = false;
+            }
+            return;
+        }
+
+        client.consecutiveFailures++;
+        if (client.probing || client.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            client.ejectedUntil = System.currentTimeMillis() + ejectDuration;
+            client.probing = false;
+            logger.warn("{}实例#{}连续失败{}次，剔除{}ms。", exchangeName, client.index, client.consecutiveFailures, ejectDuration);
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package quant.exchange;
+
+import exunion.metaobjects.OrderSide;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 成交推断
+ * <p>
+ * 下单之后比较下单前后的可用余额，推断订单是否成交，不必逐个查询订单状态。
+ * 下单时无论是否成交，买单都会冻结 量 × 价格 的计价币，卖单都会冻结 量 的基础币；
+ * 成交之后买单得到 量 × (1 - 费率) 的基础币，卖单得到 量 × 价格 × (1 - 费率) 的计价币。
+ * <p>
+ * 对每个币种，可用余额的变化减去所有订单的冻结量，即为得到该币种的订单的成交所得。
+ * 某币种只有一个订单得到时，成交所得与订单全部成交所得之比即为该订单的成交比例；
+ * 有多个订单得到同一币种时，只有成交所得为 0 或者覆盖全部成交所得时才能推断，否则无法区分是哪个订单成交，需要查询。
+ * 成交所得为负数或者超过全部成交所得，说明余额还受到了其它操作（充值、其它进程的成交等）的影响，同样需要查询。
+ *
+ * @author robothy
+ */
+public class FillInference {
+
+    /**
+     * 推断结果
+     */
+    public enum Status {
+
+        /**
+         * 全部成交
+         */
+        FILLED,
+
+        /**
+         * 部分成交
+         */
+        PARTIALLY_FILLED,
+
+        /**
+         * 未成交
+         */
+        UNFILLED,
+
+        /**
+         * 无法推断，需要查询订单
+         */
+        AMBIGUOUS
+    }
+
+    /**
+     * 已经下单的订单
+     *
+     * @param <T> 策略中的订单类型
+     */
+    public static class PlacedOrder<T> {
+
+        private final T order;
+
+        private final String orderSide;
+
+        private final String baseCurrency;
+
+        private final String quoteCurrency;
+
+        private final BigDecimal quantity;
+
+        private final BigDecimal price;
+
+        private final BigDecimal feeRate;
+
+        /**
+         * @param order         策略中的订单
+         * @param orderSide     买卖方向
+         * @param baseCurrency  基础币
+         * @param quoteCurrency 计价币
+         * @param quantity      下单量
+         * @param price         下单价格
+         * @param feeRate       手续费费率
+         */
+        public PlacedOrder(T order, String orderSide, String baseCurrency, String quoteCurrency,
+                           BigDecimal quantity, BigDecimal price, BigDecimal feeRate) {
+            this.order = order;
+            this.orderSide = orderSide;
+            this.baseCurrency = baseCurrency;
+            this.quoteCurrency = quoteCurrency;
+            this.quantity = quantity;
+            this.price = price;
+            this.feeRate = null == feeRate ? BigDecimal.ZERO : feeRate;
+        }
+
+        /**
+         * @return 策略中的订单
+         */
+        public T getOrder() {
+            return order;
+        }
+
+        private boolean isBuy() {
+            return OrderSide.BUY.equals(orderSide);
+        }
+
+        /**
+         * @return 下单时冻结的币种
+         */
+        private String lockedCurrency() {
+            return isBuy() ? quoteCurrency : baseCurrency;
+        }
+
+        /**
+         * @return 下单时冻结的量
+         */
+        private BigDecimal lockedAmount() {
+            return isBuy() ? quantity.multiply(price) : quantity;
+        }
+
+        /**
+         * @return 成交之后得到的币种
+         */
+        private String gainedCurrency() {
+            return isBuy() ? baseCurrency : quoteCurrency;
+        }
+
+        /**
+         * @return 全部成交之后得到的量
+         */
+        private BigDecimal gainedAmount() {
+            BigDecimal amount = isBuy() ? quantity : quantity.multiply(price);
+            return amount.multiply(BigDecimal.ONE.subtract(feeRate));
+        }
+    }
+
+    /**
+     * 某订单的推断结果
+     */
+    public static class Fill {
+
+        private final Status status;
+
+        private final BigDecimal filledRatio;
+
+        Fill(Status status, BigDecimal filledRatio) {
+            this.status = status;
+            this.filledRatio = filledRatio;
+        }
+
+        /**
+         * @return 推断结果
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return 成交比例，无法推断时为 null
+         */
+        public BigDecimal getFilledRatio() {
+            return filledRatio;
+        }
+
+        @Override
+        public String toString() {
+            return status + (null == filledRatio ? "" : "(" + filledRatio.stripTrailingZeros().toPlainString() + ")");
+        }
+    }
+
+    /**
+     * 默认的相对误差，用于吸收价格、量的精度截断
+     */
+    private static final BigDecimal DEFAULT_TOLERANCE = new BigDecimal("0.001");
+
+    private static final int RATIO_SCALE = 8;
+
+    private final BigDecimal tolerance;
+
+    public FillInference() {
+        this(DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param tolerance 相对误差，成交比例在 [0, tolerance] 之内视为未成交，在 [1 - tolerance, 1 + tolerance] 之内视为全部成交，
+     *                  超出 [-tolerance, 1 + tolerance] 时无法推断
+     */
+    public FillInference(BigDecimal tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * 根据下单前后的可用余额推断订单的成交情况
+     *
+     * @param orders  下单前后两次获取余额之间下的订单
+     * @param before  下单前各币种的可用余额
+     * @param after   下单后各币种的可用余额
+     * @param <T>     策略中的订单类型
+     * @return 各订单的推断结果，与传入的订单按下标一一对应。订单的状态等属性在推断之后仍会变化，
+     * 因此不以订单本身作为结果的键
+     */
+    public <T> List<Fill> infer(List<PlacedOrder<T>> orders, Map<String, BigDecimal> before, Map<String, BigDecimal> after) {
+        Map<String, BigDecimal> residuals = new HashMap<>();
+        // 各币种得到该币种的订单下标
+        Map<String, List<Integer>> gainers = new HashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            PlacedOrder<T> order = orders.get(i);
+            residuals.merge(order.lockedCurrency(), order.lockedAmount(), BigDecimal::add);
+            gainers.computeIfAbsent(order.gainedCurrency(), k -> new ArrayList<>()).add(i);
+        }
+
+        List<Fill> result = new ArrayList<>(Collections.nCopies(orders.size(), new Fill(Status.AMBIGUOUS, null)));
+
+        gainers.forEach((currency, group) -> {
+            BigDecimal beforeAmount = before.get(currency);
+            BigDecimal afterAmount = after.get(currency);
+            if (null == beforeAmount || null == afterAmount) {
+                return;
+            }
+
+            // 余额变化加上冻结量，即为成交所得
+            BigDecimal gained = afterAmount.subtract(beforeAmount).add(residuals.getOrDefault(currency, BigDecimal.ZERO));
+            BigDecimal fullGain = group.stream().map(i -> orders.get(i).gainedAmount()).reduce(BigDecimal.ZERO, BigDecimal::add);
+            if (fullGain.signum() <= 0) {
+                return;
+            }
+            BigDecimal ratio = gained.divide(fullGain, RATIO_SCALE, RoundingMode.DOWN);
+
+            Fill fill;
+            if (ratio.compareTo(tolerance.negate()) < 0 || ratio.compareTo(BigDecimal.ONE.add(tolerance)) > 0) {
+                fill = new Fill(Status.AMBIGUOUS, null);
+            } else if (ratio.compareTo(tolerance) <= 0) {
+                fill = new Fill(Status.UNFILLED, BigDecimal.ZERO);
+            } else if (ratio.compareTo(BigDecimal.ONE.subtract(tolerance)) >= 0) {
+                fill = new Fill(Status.FILLED, BigDecimal.ONE);
+            } else if (group.size() == 1) {
+                fill = new Fill(Status.PARTIALLY_FILLED, ratio);
+            } else {
+                fill = new Fill(Status.AMBIGUOUS, null);
+            }
+            group.forEach(i -> result.set(i, fill));
+        });
+        return result;
+    }
+
+}
@@ -0,0 +1,224 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Order;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.utils.TimeUtil;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 异步下单网关
+ * <p>
+ * 下单、撤单、查询订单都是阻塞的 HTTP 请求，若通过 parallelStream 并发执行，会占用 JVM 公共的 ForkJoinPool，
+ * 其并行度只有 CPU 核数减一，并且与所有并行流的计算任务共用。网关为每个交易所创建一个固定大小的 I/O 线程池，
+ * 同一交易所的所有网关实例共用该线程池，每个请求返回一个 {@link CompletableFuture}，
+ * 三角套利的三笔订单、对冲的多笔订单可以真正同时发出，阻塞的 HTTP 请求也不会影响计算任务。
+ * <p>
+ * 批量下单、批量撤单在交易所支持 {@link BatchOrderExchange} 时只发出一次请求，否则并发地逐笔请求。
+ * <p>
+ * 与 {@link Exchange} 一致，请求失败时结果为 null，不会以异常结束。
+ *
+ * @author robothy
+ */
+public class OrderGateway {
+
+    private static final Logger logger = LogManager.getLogger(OrderGateway.class);
+
+    /**
+     * 默认的每个交易所下单线程数
+     */
+    private static final int DEFAULT_ORDER_THREADS = 4;
+
+    /**
+     * 各交易所的下单线程池
+     */
+    private static final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private final String exchangeName;
+
+    private final Supplier<Exchange> exchangeSupplier;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param exchangeName 交易所名称
+     * @param exchange     交易所实例
+     */
+    public OrderGateway(String exchangeName, Exchange exchange) {
+        this(exchangeName, () -> exchange);
+    }
+
+    /**
+     * @param exchangeName     交易所名称
+     * @param exchangeSupplier 每次请求时获取交易所实例的方法，用于在多个交易所实例之间分摊请求
+     */
+    public OrderGateway(String exchangeName, Supplier<Exchange> exchangeSupplier) {
+        this.exchangeName = exchangeName;
+        this.exchangeSupplier = exchangeSupplier;
+        this.executor = getExecutor(exchangeName);
+    }
+
+    /**
+     * 异步下单
+     *
+     * @param side         买卖方向
+     * @param currencyPair 币种对
+     * @param quantity     量
+     * @param price        价格
+     * @return 下单结果，下单失败时结果为 null
+     */
+    public CompletableFuture<Order> order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        return submit("下单", currencyPair, () -> exchangeSupplier.get().order(side, currencyPair, quantity, price));
+    }
+
+    /**
+     * 异步撤单
+     *
+     * @param currencyPair 币种对
+     * @param orderId      订单编号
+     * @return 撤单结果，撤单失败时结果为 null
+     */
+    public CompletableFuture<Order> cancel(String currencyPair, String orderId) {
+        return submit("撤单", currencyPair, () -> exchangeSupplier.get().cancel(currencyPair, orderId));
+    }
+
+    /**
+     * 异步查询订单
+     *
+     * @param currencyPair 币种对
+     * @param orderId      订单编号
+     * @return 订单信息，查询失败时结果为 null
+     */
+    public CompletableFuture<Order> getOrder(String currencyPair, String orderId) {
+        return submit("查询订单", currencyPair, () -> exchangeSupplier.get().getOrder(currencyPair, orderId));
+    }
+
+    /**
+     * 异步批量下单，交易所支持批量下单时合并为一次请求，否则并发地逐笔下单
+     *
+     * @param requests 下单请求
+     * @return 下单结果，与请求一一对应，下单失败的请求对应 null
+     */
+    public CompletableFuture<List<Order>> placeAll(List<OrderRequest> requests) {
+        if (requests.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        Exchange exchange = exchangeSupplier.get();
+        if (BatchOrderExchange.isSupported(exchange)) {
+            return submitBatch("批量下单", requests.size(), () -> ((BatchOrderExchange) exchange).order(requests));
+        }
+        List<CompletableFuture<Order>> futures = new ArrayList<>();
+        requests.forEach(e -> futures.add(order(e.getSide(), e.getCurrencyPair(), e.getQuantity(), e.getPrice())));
+        return collect(futures);
+    }
+
+    /**
+     * 异步批量撤单，交易所支持批量撤单时合并为一次请求，否则并发地逐笔撤单
+     *
+     * @param currencyPair 币种对
+     * @param orderIds     订单编号
+     * @return 撤单结果，与订单编号一一对应，撤单失败的订单对应 null
+     */
+    public CompletableFuture<List<Order>> cancelAll(String currencyPair, List<String> orderIds) {
+        if (orderIds.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        Exchange exchange = exchangeSupplier.get();
+        if (BatchOrderExchange.isSupported(exchange)) {
+            return submitBatch("批量撤单", orderIds.size(), () -> ((BatchOrderExchange) exchange).cancel(currencyPair, orderIds));
+        }
+        List<CompletableFuture<Order>> futures = new ArrayList<>();
+        orderIds.forEach(e -> futures.add(cancel(currencyPair, e)));
+        return collect(futures);
+    }
+
+    /**
+     * @return 交易所名称
+     */
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    /**
+     * 等待所有请求完成
+     *
+     * @param futures 请求结果
+     */
+    public static void awaitAll(Collection<? extends CompletableFuture<?>> futures) {
+        TimeUtil.join(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private CompletableFuture<Order> submit(String action, String currencyPair, Supplier<Order> request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return request.get();
+            } catch (RuntimeException e) {
+                logger.error("{}的{}{}时出现异常。", exchangeName, currencyPair, action, e);
+                return null;
+            }
+        }, TimeUtil.executor(executor));
+    }
+
+    /**
+     * 执行一次批量请求，请求失败或者结果数量与请求数量不一致时，结果全部为 null
+     */
+    private CompletableFuture<List<Order>> submitBatch(String action, int size, Supplier<List<Order>> request) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Order> result = null;
+            try {
+                result = request.get();
+            } catch (RuntimeException e) {
+                logger.error("{}{}时出现异常。", exchangeName, action, e);
+            }
+            if (null == result || result.size() != size) {
+                logger.error("{}{}失败，请求数：{}，结果：{}", exchangeName, action, size, result);
+                return new ArrayList<>(Collections.nCopies(size, (Order) null));
+            }
+            return result;
+        }, TimeUtil.executor(executor));
+    }
+
+    /**
+     * 将逐笔请求的结果按顺序合并为一个列表
+     */
+    private static CompletableFuture<List<Order>> collect(List<CompletableFuture<Order>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Order> result = new ArrayList<>();
+            futures.forEach(e -> result.add(e.join()));
+            return result;
+        });
+    }
+
+    /**
+     * 获取某交易所的下单线程池，线程数读取交易所配置文件中的 orderThreads，未配置时为 {@value #DEFAULT_ORDER_THREADS}
+     */
+    private static ExecutorService getExecutor(String exchangeName) {
+        return executors.computeIfAbsent(exchangeName, name -> {
+            Integer threads = EndExchangeFactory.getOrderThreads(name);
+            int size = null == threads || threads <= 0 ? DEFAULT_ORDER_THREADS : threads;
+            AtomicInteger index = new AtomicInteger();
+            logger.info("创建{}的下单线程池，线程数：{}", name, size);
+            return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "order-gateway-" + name + "-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+}
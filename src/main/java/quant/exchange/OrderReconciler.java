@@ -0,0 +1,140 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.OrderStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 订单对账器
+ * <p>
+ * 同步挂单时不再逐个调用 getOrder，而是每个币种对只获取一次挂单列表，与本地进行中的订单对比：
+ * 仍在挂单列表中的订单状态未变；不在挂单列表中的订单已经成交或者被撤销，再从历史订单列表中找到其成交信息，
+ * 历史订单列表只在出现这类订单时获取一次。两个列表中都找不到的订单（例如列表有分页、数量限制）才单独调用 getOrder。
+ * 这样每轮同步的 API 调用数从进行中的订单数降为币种对数。
+ * <p>
+ * 交易所不支持挂单列表接口（抛出 {@link UnsupportedOperationException}）时，之后对该币种对一律使用 getOrder。
+ *
+ * @author robothy
+ */
+public class OrderReconciler {
+
+    private static final Logger logger = LogManager.getLogger(OrderReconciler.class);
+
+    /**
+     * 某币种对某一时刻的订单快照
+     */
+    public class Snapshot {
+
+        private final String currencyPair;
+
+        /**
+         * 挂单列表，获取失败或者交易所不支持时为 null
+         */
+        private final Map<String, Order> openOrders;
+
+        /**
+         * 历史订单列表，第一次需要时获取，获取失败时为 null
+         */
+        private Map<String, Order> historyOrders = null;
+
+        private boolean historyLoaded = false;
+
+        Snapshot(String currencyPair, Map<String, Order> openOrders) {
+            this.currencyPair = currencyPair;
+            this.openOrders = openOrders;
+        }
+
+        /**
+         * 获取订单信息，与 {@link Exchange#getOrder(String, String)} 的返回值一致
+         *
+         * @param orderId 订单编号
+         * @return 订单信息，获取失败时返回 null
+         */
+        public Order getOrder(String orderId) {
+            if (null == openOrders) {
+                return exchange.getOrder(currencyPair, orderId);
+            }
+
+            Order order = openOrders.get(orderId);
+            if (null != order) {
+                return order;
+            }
+
+            if (!historyLoaded) {
+                historyOrders = toMap(listHistoryOrders(currencyPair));
+                historyLoaded = true;
+            }
+            order = null == historyOrders ? null : historyOrders.get(orderId);
+            if (null != order && null != order.getStatus()) {
+                return order;
+            }
+
+            logger.debug("{}的订单{}不在挂单列表和历史订单列表中，单独查询。", currencyPair, orderId);
+            return exchange.getOrder(currencyPair, orderId);
+        }
+    }
+
+    private final Exchange exchange;
+
+    /**
+     * 不支持挂单列表接口的币种对
+     */
+    private final Set<String> unsupportedPairs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param exchange 交易所实例
+     */
+    public OrderReconciler(Exchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * 获取某币种对的订单快照，只调用一次挂单列表接口
+     *
+     * @param currencyPair 币种对
+     * @return 订单快照
+     */
+    public Snapshot snapshot(String currencyPair) {
+        Map<String, Order> openOrders = null;
+        if (!unsupportedPairs.contains(currencyPair)) {
+            try {
+                openOrders = toMap(exchange.getOpenOrders(currencyPair));
+            } catch (UnsupportedOperationException e) {
+                logger.warn("{}不支持获取{}的挂单列表，改为逐个查询订单。", exchange.getPlantformName(), currencyPair);
+                unsupportedPairs.add(currencyPair);
+            }
+        }
+        if (null != openOrders) {
+            openOrders.values().stream().filter(e -> null == e.getStatus()).forEach(e -> e.setStatus(OrderStatus.NEW));
+        } else {
+            logger.debug("未能获取{}的挂单列表，逐个查询订单。", currencyPair);
+        }
+        return new Snapshot(currencyPair, openOrders);
+    }
+
+    private List<Order> listHistoryOrders(String currencyPair) {
+        try {
+            return exchange.getHistoryOrders(currencyPair);
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, Order> toMap(List<Order> orders) {
+        if (null == orders) {
+            return null;
+        }
+        Map<String, Order> result = new HashMap<>();
+        orders.forEach(e -> result.put(e.getOrderId(), e));
+        return result;
+    }
+
+}
@@ -0,0 +1,65 @@
+package quant.exchange;
+
+import java.math.BigDecimal;
+
+/**
+ * 下单请求，用于批量下单
+ *
+ * @author robothy
+ */
+public class OrderRequest {
+
+    private final String side;
+
+    private final String currencyPair;
+
+    private final BigDecimal quantity;
+
+    private final BigDecimal price;
+
+    /**
+     * @param side         买卖方向
+     * @param currencyPair 币种对
+     * @param quantity     量
+     * @param price        价格
+     */
+    public OrderRequest(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        this.side = side;
+        this.currencyPair = currencyPair;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    /**
+     * @return 买卖方向
+     */
+    public String getSide() {
+        return side;
+    }
+
+    /**
+     * @return 币种对
+     */
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    /**
+     * @return 量
+     */
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * @return 价格
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    @Override
+    public String toString() {
+        return side + " " + currencyPair + " " + quantity.toPlainString() + "@" + price.toPlainString();
+    }
+}
@@ -0,0 +1,124 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.Ticker;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 限流的交易所实例
+ * <p>
+ * 每次调用交易所 API 之前按接口权重从限流器获取令牌，令牌不足时等待，然后再调用被包装的交易所实例。
+ * 接口权重的名称为 depth、ticker、account、order、getOrder、cancel、openOrders、historyOrders、batchOrder、batchCancel，
+ * 未配置的接口权重为 1。被包装的实例支持批量接口时，本实例同样支持。
+ *
+ * @author robothy
+ */
+public class RateLimitedExchange implements Exchange, BatchOrderExchange {
+
+    private final Exchange exchange;
+
+    private final RateLimiter rateLimiter;
+
+    private final Map<String, Double> weights;
+
+    /**
+     * @param exchange    被包装的交易所实例
+     * @param rateLimiter 限流器
+     * @param weights     各接口的权重
+     */
+    public RateLimitedExchange(Exchange exchange, RateLimiter rateLimiter, Map<String, Double> weights) {
+        this.exchange = exchange;
+        this.rateLimiter = rateLimiter;
+        this.weights = weights;
+    }
+
+    /**
+     * @return 限流器，可以查看令牌的等待情况
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public String getPlantformName() {
+        return exchange.getPlantformName();
+    }
+
+    @Override
+    public Depth getDepth(String currencyPair) {
+        acquire("depth");
+        return exchange.getDepth(currencyPair);
+    }
+
+    @Override
+    public Ticker getTicker(String currencyPair) {
+        acquire("ticker");
+        return exchange.getTicker(currencyPair);
+    }
+
+    @Override
+    public Account getAccount() {
+        acquire("account");
+        return exchange.getAccount();
+    }
+
+    @Override
+    public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        acquire("order");
+        return exchange.order(side, currencyPair, quantity, price);
+    }
+
+    @Override
+    public Order getOrder(String currencyPair, String orderId) {
+        acquire("getOrder");
+        return exchange.getOrder(currencyPair, orderId);
+    }
+
+    @Override
+    public Order cancel(String currencyPair, String orderId) {
+        acquire("cancel");
+        return exchange.cancel(currencyPair, orderId);
+    }
+
+    @Override
+    public List<Order> getOpenOrders(String currencyPair) {
+        acquire("openOrders");
+        return exchange.getOpenOrders(currencyPair);
+    }
+
+    @Override
+    public List<Order> getHistoryOrders(String currencyPair) {
+        acquire("historyOrders");
+        return exchange.getHistoryOrders(currencyPair);
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return BatchOrderExchange.isSupported(exchange);
+    }
+
+    @Override
+    public List<Order> order(List<OrderRequest> requests) {
+        BatchOrderExchange batch = BatchOrderExchange.of(exchange);
+        acquire("batchOrder");
+        return batch.order(requests);
+    }
+
+    @Override
+    public List<Order> cancel(String currencyPair, List<String> orderIds) {
+        BatchOrderExchange batch = BatchOrderExchange.of(exchange);
+        acquire("batchCancel");
+        return batch.cancel(currencyPair, orderIds);
+    }
+
+    private void acquire(String api) {
+        rateLimiter.acquire(weights.getOrDefault(api, 1D));
+    }
+
+}
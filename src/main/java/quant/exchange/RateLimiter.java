@@ -0,0 +1,177 @@
+package quant.exchange;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶限流器
+ * <p>
+ * 令牌以固定速率放入桶中，桶满时不再增加，每次调用交易所 API 按接口权重取走相应数量的令牌。
+ * 令牌不足时调用方预约令牌（令牌数可以为负）并等待到预约的时间，
+ * 因此等待的调用按到达顺序依次执行，桶的容量允许短时间的突发请求，长期的请求速率不超过放入令牌的速率。
+ * <p>
+ * 同一 API Key 的所有交易所实例共用一个限流器，多个策略同时运行时也不会超出交易所的请求配额。
+ *
+ * @author robothy
+ */
+public class RateLimiter {
+
+    private static final Logger logger = LogManager.getLogger(RateLimiter.class);
+
+    /**
+     * 各 API Key 的限流器
+     */
+    private static final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String name;
+
+    /**
+     * 桶的容量
+     */
+    private final double capacity;
+
+    /**
+     * 每毫秒放入的令牌数
+     */
+    private final double tokensPerMillis;
+
+    /**
+     * 当前令牌数，为负数时表示已经被预约的令牌
+     */
+    private double tokens;
+
+    /**
+     * 上一次放入令牌的时间（单位：毫秒）
+     */
+    private long lastRefillTimestamp;
+
+    /**
+     * 正在等待令牌的调用数
+     */
+    private final AtomicInteger waitingCount = new AtomicInteger();
+
+    /**
+     * 获取令牌的次数
+     */
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    /**
+     * 等待令牌的总时间（单位：毫秒）
+     */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /**
+     * 等待令牌的最长时间（单位：毫秒）
+     */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * @param name            限流器名称
+     * @param capacity        桶的容量，即允许的突发请求权重之和
+     * @param tokensPerSecond 每秒放入的令牌数，即长期允许的每秒请求权重之和
+     */
+    public RateLimiter(String name, double capacity, double tokensPerSecond) {
+        this.name = name;
+        this.capacity = capacity;
+        this.tokensPerMillis = tokensPerSecond / 1000;
+        this.tokens = capacity;
+        this.lastRefillTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取某 API Key 的限流器，不存在时创建
+     *
+     * @param key             API Key
+     * @param capacity        桶的容量
+     * @param tokensPerSecond 每秒放入的令牌数
+     * @return 限流器
+     */
+    public static RateLimiter of(String key, double capacity, double tokensPerSecond) {
+        return limiters.computeIfAbsent(key, k -> {
+            logger.info("创建限流器{}，容量：{}，每秒令牌数：{}", k, capacity, tokensPerSecond);
+            return new RateLimiter(k, capacity, tokensPerSecond);
+        });
+    }
+
+    /**
+     * 获取令牌，令牌不足时阻塞直到预约的令牌可用
+     *
+     * @param weight 接口权重
+     * @return 等待的时间（单位：毫秒）
+     */
+    public long acquire(double weight) {
+        long waitTime = reserve(weight);
+        acquireCount.incrementAndGet();
+        if (waitTime <= 0) {
+            return 0;
+        }
+
+        totalWaitTime.addAndGet(waitTime);
+        maxWaitTime.accumulateAndGet(waitTime, Long::max);
+        waitingCount.incrementAndGet();
+        try {
+            logger.debug("{}令牌不足，等待{}ms，当前等待数：{}", name, waitTime, waitingCount.get());
+            TimeUnit.MILLISECONDS.sleep(waitTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waitingCount.decrementAndGet();
+        }
+        return waitTime;
+    }
+
+    /**
+     * 预约令牌
+     *
+     * @return 预约的令牌可用之前需要等待的时间（单位：毫秒）
+     */
+    private synchronized long reserve(double weight) {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(capacity, tokens + (now - lastRefillTimestamp) * tokensPerMillis);
+        lastRefillTimestamp = now;
+        tokens -= weight;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerMillis);
+    }
+
+    /**
+     * @return 限流器名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 正在等待令牌的调用数
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * @return 平均每次获取令牌的等待时间（单位：毫秒）
+     */
+    public double getAverageWaitTime() {
+        long count = acquireCount.get();
+        return 0 == count ? 0 : (double) totalWaitTime.get() / count;
+    }
+
+    /**
+     * @return 获取令牌的最长等待时间（单位：毫秒）
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{waiting=" + waitingCount.get() + ", acquired=" + acquireCount.get()
+                + ", avgWait=" + String.format("%.2f", getAverageWaitTime()) + "ms, maxWait=" + maxWaitTime.get() + "ms}";
+    }
+
+}
@@ -0,0 +1,105 @@
+package quant.exchange;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.Ticker;
+import quant.market.MarketDataRecorder;
+import quant.utils.TimeUtil;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 记录行情的交易所实例
+ * <p>
+ * 获取到的每一份深度和最新价都交给 {@link MarketDataRecorder} 记录，其它调用直接转给被包装的交易所实例。
+ * 记录只是放入队列，不会增加调用的耗时。被包装的实例支持批量接口时，本实例同样支持。
+ *
+ * @author robothy
+ */
+public class RecordingExchange implements Exchange, BatchOrderExchange {
+
+    private final Exchange exchange;
+
+    private final MarketDataRecorder recorder;
+
+    /**
+     * @param exchange 被包装的交易所实例
+     * @param recorder 行情记录器
+     */
+    public RecordingExchange(Exchange exchange, MarketDataRecorder recorder) {
+        this.exchange = exchange;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public String getPlantformName() {
+        return exchange.getPlantformName();
+    }
+
+    @Override
+    public Depth getDepth(String currencyPair) {
+        Depth depth = exchange.getDepth(currencyPair);
+        if (null != depth) {
+            recorder.recordDepth(exchange.getPlantformName(), currencyPair, depth, TimeUtil.now());
+        }
+        return depth;
+    }
+
+    @Override
+    public Ticker getTicker(String currencyPair) {
+        Ticker ticker = exchange.getTicker(currencyPair);
+        if (null != ticker) {
+            recorder.recordTicker(exchange.getPlantformName(), currencyPair, ticker, TimeUtil.now());
+        }
+        return ticker;
+    }
+
+    @Override
+    public Account getAccount() {
+        return exchange.getAccount();
+    }
+
+    @Override
+    public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        return exchange.order(side, currencyPair, quantity, price);
+    }
+
+    @Override
+    public Order getOrder(String currencyPair, String orderId) {
+        return exchange.getOrder(currencyPair, orderId);
+    }
+
+    @Override
+    public Order cancel(String currencyPair, String orderId) {
+        return exchange.cancel(currencyPair, orderId);
+    }
+
+    @Override
+    public List<Order> getOpenOrders(String currencyPair) {
+        return exchange.getOpenOrders(currencyPair);
+    }
+
+    @Override
+    public List<Order> getHistoryOrders(String currencyPair) {
+        return exchange.getHistoryOrders(currencyPair);
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return BatchOrderExchange.isSupported(exchange);
+    }
+
+    @Override
+    public List<Order> order(List<OrderRequest> requests) {
+        return BatchOrderExchange.of(exchange).order(requests);
+    }
+
+    @Override
+    public List<Order> cancel(String currencyPair, List<String> orderIds) {
+        return BatchOrderExchange.of(exchange).cancel(currencyPair, orderIds);
+    }
+
+}
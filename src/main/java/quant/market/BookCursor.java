@@ -0,0 +1,101 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 只读盘口游标
+ * <p>
+ * 用档位下标和当前档位的剩余量表示遍历到的位置，逐档吃单时只移动游标、扣减剩余量，
+ * 不删除档位也不修改 {@link Depth.PriceQuotation} 的量，因此同一份深度快照可以被多个策略共享、反复遍历。
+ *
+ * @author robothy
+ */
+public class BookCursor {
+
+    private final List<Depth.PriceQuotation> levels;
+
+    private int index;
+
+    private BigDecimal remaining;
+
+    /**
+     * @param levels 按成交优先顺序排列的档位，为 null 时视为空盘口
+     */
+    public BookCursor(List<Depth.PriceQuotation> levels) {
+        this.levels = null == levels ? Collections.emptyList() : levels;
+        this.index = 0;
+        this.remaining = this.levels.isEmpty() ? BigDecimal.ZERO : this.levels.get(0).getQuantity();
+    }
+
+    /**
+     * 创建遍历卖单的游标，价格由低到高
+     *
+     * @param depth 深度
+     * @return 卖单游标
+     */
+    public static BookCursor asks(Depth depth) {
+        return new BookCursor(depth.getAsks());
+    }
+
+    /**
+     * 创建遍历买单的游标，价格由高到低
+     *
+     * @param depth 深度
+     * @return 买单游标
+     */
+    public static BookCursor bids(Depth depth) {
+        return new BookCursor(depth.getBids());
+    }
+
+    /**
+     * @return 是否还有未吃完的档位
+     */
+    public boolean hasLevel() {
+        return index < levels.size();
+    }
+
+    /**
+     * @return 当前档位的价格
+     */
+    public BigDecimal getPrice() {
+        return levels.get(index).getPrice();
+    }
+
+    /**
+     * @return 当前档位的剩余量
+     */
+    public BigDecimal getQuantity() {
+        return remaining;
+    }
+
+    /**
+     * @return 当前档位的下标
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 在当前档位吃掉一定的量，剩余量不大于 0 时游标移动到下一档
+     *
+     * @param quantity 吃掉的量
+     */
+    public void consume(BigDecimal quantity) {
+        remaining = remaining.subtract(quantity);
+        if (remaining.compareTo(BigDecimal.ZERO) <= 0) {
+            next();
+        }
+    }
+
+    /**
+     * 吃完当前档位，游标移动到下一档
+     */
+    public void next() {
+        remaining = ++index < levels.size() ? levels.get(index).getQuantity() : BigDecimal.ZERO;
+    }
+
+}
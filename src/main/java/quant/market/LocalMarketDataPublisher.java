@@ -0,0 +1,112 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 本地行情发布者
+ * <p>
+ * 进程内的推送行情源，用于代替 WebSocket 行情推送：调用方通过 {@link #offer(String, String, Depth)} 写入深度，
+ * 由独立的分发线程按写入顺序推送到行情中心，与 WebSocket 客户端在读线程上收到消息再推送的方式一致；
+ * 也可以通过 {@link #publish(String, String, Depth)} 在调用方线程上同步推送。
+ * 可用于离线调试策略、回放历史行情，或将其他进程转发过来的行情接入行情中心。
+ *
+ * @author robothy
+ */
+public class LocalMarketDataPublisher implements MarketDataPublisher {
+
+    private static final Logger logger = LogManager.getLogger(LocalMarketDataPublisher.class);
+
+    /**
+     * 待推送的深度消息
+     */
+    private static class DepthMessage {
+
+        private final String exchangeName;
+
+        private final String currencyPair;
+
+        private final Depth depth;
+
+        DepthMessage(String exchangeName, String currencyPair, Depth depth) {
+            this.exchangeName = exchangeName;
+            this.currencyPair = currencyPair;
+            this.depth = depth;
+        }
+    }
+
+    private final BlockingQueue<DepthMessage> messages = new LinkedBlockingQueue<>();
+
+    private volatile MarketDataFeed feed;
+
+    private volatile Thread dispatcher;
+
+    @Override
+    public synchronized void start(MarketDataFeed feed) {
+        this.feed = feed;
+        if (null != dispatcher) {
+            return;
+        }
+        dispatcher = new Thread(this::dispatch, "local-market-data-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @Override
+    public void subscribe(String exchangeName, String currencyPair) {
+        logger.debug("本地行情发布者收到{}的{}订阅。", exchangeName, currencyPair);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (null != dispatcher) {
+            dispatcher.interrupt();
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * 写入一条深度，由分发线程异步推送
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param depth        深度信息
+     */
+    public void offer(String exchangeName, String currencyPair, Depth depth) {
+        messages.offer(new DepthMessage(exchangeName, currencyPair, depth));
+    }
+
+    /**
+     * 在调用方线程上立即将一条深度推送到行情中心，不经过分发线程。
+     * 回放历史行情时由调度线程按记录的时间顺序调用，推送的先后和时刻都是确定的。
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param depth        深度信息
+     */
+    public void publish(String exchangeName, String currencyPair, Depth depth) {
+        MarketDataFeed feed = this.feed;
+        if (null == feed) {
+            logger.warn("本地行情发布者尚未启动，丢弃{}的{}深度。", exchangeName, currencyPair);
+            return;
+        }
+        feed.publish(exchangeName, currencyPair, depth);
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            DepthMessage message;
+            try {
+                message = messages.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            feed.publish(message.exchangeName, message.currencyPair, message.depth);
+        }
+    }
+
+}
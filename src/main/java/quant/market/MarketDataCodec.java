@@ -0,0 +1,90 @@
+package quant.market;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+
+/**
+ * 行情记录文件的编码
+ * <p>
+ * 文件以 4 字节的魔数和 1 字节的版本号开头，之后是一条条记录，每条记录以 1 字节的类型开头，类型为 0 表示数据结束：
+ * <ul>
+ * <li>{@link #SYMBOL}：币种编号（变长整数）、"交易所@币种对"（2 字节长度 + UTF-8）。同一文件中币种第一次出现时写入。</li>
+ * <li>{@link #DEPTH}：币种编号、时间戳与上一条记录之差、价格精度、量精度、买单档数、卖单档数，然后是各档的价格和量。
+ * 买单、卖单的第一档价格与 0 之差，之后各档价格与上一档之差，量为定点数。</li>
+ * <li>{@link #TICKER}：币种编号、时间戳与上一条记录之差、价格精度、最新价。</li>
+ * </ul>
+ * 价格、量都按精度转为定点的长整数，以 zigzag 变长整数写入，相邻档位之差通常只有几个最小价格单位，一般只占 1、2 个字节。
+ *
+ * @author robothy
+ */
+final class MarketDataCodec {
+
+    static final int MAGIC = 0x4D445231;
+
+    static final byte VERSION = 1;
+
+    static final byte END = 0;
+
+    static final byte SYMBOL = 1;
+
+    static final byte DEPTH = 2;
+
+    static final byte TICKER = 3;
+
+    /**
+     * 定点数的最大精度
+     */
+    static final int MAX_SCALE = 18;
+
+    private MarketDataCodec() {
+    }
+
+    /**
+     * @return 数值按 scale 精度转为的定点长整数
+     */
+    static long toFixed(BigDecimal value, int scale) {
+        return value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @return 能够无损表示数值的最小精度，不小于 0，不超过 {@link #MAX_SCALE}
+     */
+    static int scaleOf(BigDecimal value) {
+        return Math.min(MAX_SCALE, Math.max(0, value.stripTrailingZeros().scale()));
+    }
+
+    static BigDecimal fromFixed(long value, int scale) {
+        return BigDecimal.valueOf(value, scale);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static void putZigZag(ByteBuffer buffer, long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getZigZag(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,325 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.utils.TimeUtil;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 行情中心
+ * <p>
+ * 策略通过 {@link #subscribe(String, String, MarketDataListener)} 订阅某交易所某币种对的深度，
+ * 行情发布者通过 {@link #publish(String, String, Depth)} 推送最新深度。行情中心为每个币种对维护一份实时盘口，
+ * 收到更新时立即回调订阅者，策略不必每轮都主动向交易所请求深度。
+ * <p>
+ * 通过 {@link #getShared()} 获取进程内共享的行情中心，同一交易所同一币种对只有一个轮询线程，
+ * 多个策略订阅同一币种对时共用同一份深度，不会成倍增加交易所 API 的调用次数。
+ *
+ * @author robothy
+ */
+public class MarketDataFeed {
+
+    private static final Logger logger = LogManager.getLogger(MarketDataFeed.class);
+
+    /**
+     * 共享行情中心获取深度失败时的休息时间（单位：毫秒）
+     */
+    private static final Long SHARED_FAILED_SLEEP_TIME = 5000L;
+
+    /**
+     * 共享行情中心在交易所未配置 depthPollInterval 时的轮询间隔（单位：毫秒）
+     */
+    private static final Long SHARED_POLL_INTERVAL = 200L;
+
+    /**
+     * 进程内共享的行情中心
+     */
+    private static volatile MarketDataFeed shared = null;
+
+    /**
+     * 实时盘口，即某币种对最近一次推送的深度以及获取该深度的时间
+     */
+    public static class LiveBook {
+
+        private final Depth depth;
+
+        private final Long requestTimestamp;
+
+        private final Long responseTimestamp;
+
+        private final Long updateTimestamp;
+
+        LiveBook(Depth depth, Long requestTimestamp, Long responseTimestamp, Long updateTimestamp) {
+            this.depth = depth;
+            this.requestTimestamp = requestTimestamp;
+            this.responseTimestamp = responseTimestamp;
+            this.updateTimestamp = updateTimestamp;
+        }
+
+        /**
+         * @return 最新的深度信息
+         */
+        public Depth getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return 发出深度请求的时间（单位：毫秒），推送型的行情源为收到推送的时间
+         */
+        public Long getRequestTimestamp() {
+            return requestTimestamp;
+        }
+
+        /**
+         * @return 收到深度响应的时间（单位：毫秒），推送型的行情源为收到推送的时间
+         */
+        public Long getResponseTimestamp() {
+            return responseTimestamp;
+        }
+
+        /**
+         * @return 行情中心收到此深度的时间（单位：毫秒）
+         */
+        public Long getUpdateTimestamp() {
+            return updateTimestamp;
+        }
+
+        /**
+         * 深度的存在时间，从发出请求时开始计算。深度反映的是请求与响应之间某一时刻的盘口，
+         * 以请求时间计算不会低估深度的存在时间。
+         *
+         * @param now 当前时间（单位：毫秒）
+         * @return 深度的存在时间（单位：毫秒）
+         */
+        public Long getAge(Long now) {
+            return now - requestTimestamp;
+        }
+    }
+
+    /**
+     * 各币种对的实时盘口
+     */
+    private final Map<String, LiveBook> books = new ConcurrentHashMap<>();
+
+    /**
+     * 各币种对的订阅者
+     */
+    private final Map<String, List<MarketDataListener>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * 行情发布者
+     */
+    private final List<MarketDataPublisher> publishers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 是否已经启动
+     */
+    private volatile boolean started = false;
+
+    /**
+     * 获取进程内共享的行情中心，第一次调用时创建并启动。
+     * <p>
+     * 共享行情中心通过 REST 接口轮询深度，交易所实例由 {@link quant.exchange.EndExchangeFactory} 创建，
+     * 轮询间隔读取交易所配置文件中的 depthPollInterval，未配置时为 200ms。
+     *
+     * @return 共享的行情中心
+     */
+    public static MarketDataFeed getShared() {
+        if (null == shared) {
+            synchronized (MarketDataFeed.class) {
+                if (null == shared) {
+                    MarketDataFeed feed = new MarketDataFeed()
+                            .addPublisher(new PollingMarketDataPublisher(SHARED_POLL_INTERVAL, SHARED_FAILED_SLEEP_TIME));
+                    feed.start();
+                    shared = feed;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * 替换进程内共享的行情中心，回放历史行情时由回放引擎替换为推送历史行情的行情中心
+     *
+     * @param feed 行情中心，为 null 时下一次调用 {@link #getShared()} 重新创建轮询的行情中心
+     * @return 原来的共享行情中心
+     */
+    public static MarketDataFeed setShared(MarketDataFeed feed) {
+        synchronized (MarketDataFeed.class) {
+            MarketDataFeed previous = shared;
+            shared = feed;
+            return previous;
+        }
+    }
+
+    /**
+     * 添加行情发布者，已经存在的订阅会同步给新的发布者
+     *
+     * @param publisher 行情发布者
+     */
+    public MarketDataFeed addPublisher(MarketDataPublisher publisher) {
+        this.publishers.add(publisher);
+        if (started) {
+            publisher.start(this);
+        }
+        listeners.keySet().forEach(key -> {
+            String[] arr = key.split("@");
+            publisher.subscribe(arr[0], arr[1]);
+        });
+        return this;
+    }
+
+    /**
+     * 订阅某交易所某币种对的深度
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param listener     深度更新时的回调
+     */
+    public void subscribe(String exchangeName, String currencyPair, MarketDataListener listener) {
+        String key = key(exchangeName, currencyPair);
+        boolean isNewSubscription = !listeners.containsKey(key);
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+        if (isNewSubscription) {
+            logger.info("订阅{}的{}深度信息。", exchangeName, currencyPair);
+            publishers.forEach(e -> e.subscribe(exchangeName, currencyPair));
+        }
+
+        // 已有实时盘口，立即推送一次，订阅者无需等待下一次更新
+        LiveBook book = books.get(key);
+        if (null != book) {
+            listener.onDepth(exchangeName, currencyPair, book.getDepth());
+        }
+    }
+
+    /**
+     * 取消订阅
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param listener     订阅时传入的回调
+     */
+    public void unsubscribe(String exchangeName, String currencyPair, MarketDataListener listener) {
+        List<MarketDataListener> keyListeners = listeners.get(key(exchangeName, currencyPair));
+        if (null != keyListeners) {
+            keyListeners.remove(listener);
+        }
+    }
+
+    /**
+     * 推送深度，由行情发布者调用
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param depth        最新的深度信息
+     */
+    public void publish(String exchangeName, String currencyPair, Depth depth) {
+        Long now = TimeUtil.now();
+        publish(exchangeName, currencyPair, depth, now, now);
+    }
+
+    /**
+     * 推送深度并记录请求、响应时间，由通过请求获取深度的行情发布者调用。
+     * 请求时间早于当前实时盘口的深度是过时的响应，直接丢弃。
+     *
+     * @param exchangeName      交易所名称
+     * @param currencyPair      币种对
+     * @param depth             最新的深度信息
+     * @param requestTimestamp  发出深度请求的时间（单位：毫秒）
+     * @param responseTimestamp 收到深度响应的时间（单位：毫秒）
+     */
+    public void publish(String exchangeName, String currencyPair, Depth depth, Long requestTimestamp, Long responseTimestamp) {
+        if (null == depth) {
+            return;
+        }
+        String key = key(exchangeName, currencyPair);
+        LiveBook book = new LiveBook(depth, requestTimestamp, responseTimestamp, TimeUtil.now());
+        if (book != books.merge(key, book, (oldBook, newBook) -> newBook.requestTimestamp < oldBook.requestTimestamp ? oldBook : newBook)) {
+            logger.debug("{}的{}深度响应晚于更新的请求到达，丢弃。", exchangeName, currencyPair);
+            return;
+        }
+        List<MarketDataListener> keyListeners = listeners.get(key);
+        if (null == keyListeners) {
+            return;
+        }
+        for (MarketDataListener listener : keyListeners) {
+            try {
+                listener.onDepth(exchangeName, currencyPair, depth);
+            } catch (RuntimeException e) {
+                logger.error("推送{}的{}深度信息时订阅者出现异常。", exchangeName, currencyPair, e);
+            }
+        }
+    }
+
+    /**
+     * 获取实时盘口
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @return 实时盘口，若尚未收到过该币种对的深度，则返回 null
+     */
+    public LiveBook getBook(String exchangeName, String currencyPair) {
+        return books.get(key(exchangeName, currencyPair));
+    }
+
+    /**
+     * 获取未过期的实时盘口。实时盘口已经过期时，只重新获取这一个币种对的深度，而不是等待下一次轮询。
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param maxAge       深度的最大存在时间（单位：毫秒）
+     * @return 未过期的实时盘口，重新获取之后仍然过期或者获取失败时返回 null
+     */
+    public LiveBook getFreshBook(String exchangeName, String currencyPair, Long maxAge) {
+        LiveBook book = getBook(exchangeName, currencyPair);
+        if (null == book || book.getAge(TimeUtil.now()) > maxAge) {
+            publishers.forEach(e -> e.refresh(exchangeName, currencyPair));
+            book = getBook(exchangeName, currencyPair);
+        }
+        if (null == book || book.getAge(TimeUtil.now()) > maxAge) {
+            return null;
+        }
+        return book;
+    }
+
+    /**
+     * 获取最新的深度信息
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @return 最新的深度信息，若尚未收到过该币种对的深度，则返回 null
+     */
+    public Depth getDepth(String exchangeName, String currencyPair) {
+        LiveBook book = getBook(exchangeName, currencyPair);
+        return null == book ? null : book.getDepth();
+    }
+
+    /**
+     * 启动所有的行情发布者
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        publishers.forEach(e -> e.start(this));
+    }
+
+    /**
+     * 停止所有的行情发布者
+     */
+    public synchronized void stop() {
+        started = false;
+        publishers.forEach(MarketDataPublisher::stop);
+    }
+
+    private static String key(String exchangeName, String currencyPair) {
+        return exchangeName + "@" + currencyPair;
+    }
+
+}
@@ -0,0 +1,22 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+
+/**
+ * 行情监听器，订阅某交易所某币种对的深度之后，每当该币种对的深度发生更新时回调此接口。
+ *
+ * @author robothy
+ */
+@FunctionalInterface
+public interface MarketDataListener {
+
+    /**
+     * 收到深度更新
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对，例如 ETH_BTC
+     * @param depth        最新的深度信息
+     */
+    void onDepth(String exchangeName, String currencyPair, Depth depth);
+
+}
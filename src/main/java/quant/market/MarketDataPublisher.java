@@ -0,0 +1,40 @@
+package quant.market;
+
+/**
+ * 行情发布者，负责从行情源（WebSocket、REST 轮询、本地模拟等）获取深度并推送到行情中心。
+ *
+ * @author robothy
+ */
+public interface MarketDataPublisher {
+
+    /**
+     * 启动行情发布者
+     *
+     * @param feed 行情中心，获取到的深度通过 {@link MarketDataFeed#publish} 推送
+     */
+    void start(MarketDataFeed feed);
+
+    /**
+     * 行情中心第一次出现某交易所某币种对的订阅者时调用，发布者应开始推送该币种对的深度
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     */
+    void subscribe(String exchangeName, String currencyPair);
+
+    /**
+     * 立即重新获取某币种对的深度并推送到行情中心，在调用方线程上同步执行，由行情中心在深度过期时调用。
+     * 推送型的行情源无法主动获取深度，默认不做任何操作。
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     */
+    default void refresh(String exchangeName, String currencyPair) {
+    }
+
+    /**
+     * 停止行情发布者
+     */
+    void stop();
+
+}
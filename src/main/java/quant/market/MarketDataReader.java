@@ -0,0 +1,196 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Ticker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读取 {@link MarketDataRecorder} 记录的行情文件
+ * <p>
+ * 进程异常退出时文件末尾可能有未写入的空白区域，读到类型为 0 的记录即认为数据结束。
+ *
+ * @author robothy
+ */
+public class MarketDataReader implements Closeable {
+
+    /**
+     * 一条行情记录
+     */
+    public static class Record {
+
+        private final String exchangeName;
+
+        private final String currencyPair;
+
+        private final long timestamp;
+
+        private final Depth depth;
+
+        private final Ticker ticker;
+
+        Record(String exchangeName, String currencyPair, long timestamp, Depth depth, Ticker ticker) {
+            this.exchangeName = exchangeName;
+            this.currencyPair = currencyPair;
+            this.timestamp = timestamp;
+            this.depth = depth;
+            this.ticker = ticker;
+        }
+
+        /**
+         * @return 交易所名称
+         */
+        public String getExchangeName() {
+            return exchangeName;
+        }
+
+        /**
+         * @return 币种对
+         */
+        public String getCurrencyPair() {
+            return currencyPair;
+        }
+
+        /**
+         * @return 收到行情的时间（单位：毫秒）
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return 深度，最新价记录为 null
+         */
+        public Depth getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return 最新价，深度记录为 null
+         */
+        public Ticker getTicker() {
+            return ticker;
+        }
+    }
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    private final Map<Integer, String> symbols = new HashMap<>();
+
+    private long lastTimestamp = 0;
+
+    /**
+     * @param path 行情记录文件
+     * @throws IOException 文件不存在或者不是行情记录文件
+     */
+    public MarketDataReader(File path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        if (buffer.remaining() < 5 || buffer.getInt() != MarketDataCodec.MAGIC || buffer.get() != MarketDataCodec.VERSION) {
+            file.close();
+            throw new IOException(path + "不是行情记录文件。");
+        }
+    }
+
+    /**
+     * 列出某目录下的所有行情记录文件，按日期和序号排序
+     *
+     * @param directory 记录文件所在的目录
+     * @return 行情记录文件
+     */
+    public static List<File> listFiles(String directory) {
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(MarketDataRecorder.FILE_SUFFIX));
+        List<File> result = new ArrayList<>(null == files ? new ArrayList<>() : Arrays.asList(files));
+        result.sort((a, b) -> {
+            String[] x = a.getName().replace(MarketDataRecorder.FILE_SUFFIX, "").split("-");
+            String[] y = b.getName().replace(MarketDataRecorder.FILE_SUFFIX, "").split("-");
+            int day = x[0].compareTo(y[0]);
+            return day != 0 ? day : Integer.compare(Integer.parseInt(x[1]), Integer.parseInt(y[1]));
+        });
+        return result;
+    }
+
+    /**
+     * 读取下一条行情记录
+     *
+     * @return 行情记录，数据结束时返回 null
+     */
+    public Record next() {
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            if (MarketDataCodec.SYMBOL == type) {
+                int symbolId = (int) MarketDataCodec.getVarLong(buffer);
+                byte[] bytes = new byte[buffer.getShort()];
+                buffer.get(bytes);
+                symbols.put(symbolId, new String(bytes, StandardCharsets.UTF_8));
+            } else if (MarketDataCodec.DEPTH == type) {
+                return readDepth();
+            } else if (MarketDataCodec.TICKER == type) {
+                return readTicker();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private Record readDepth() {
+        String[] symbol = symbols.get((int) MarketDataCodec.getVarLong(buffer)).split("@");
+        long timestamp = readTimestamp();
+        int priceScale = buffer.get();
+        int quantityScale = buffer.get();
+        int bidCount = (int) MarketDataCodec.getVarLong(buffer);
+        int askCount = (int) MarketDataCodec.getVarLong(buffer);
+        Depth depth = new Depth();
+        depth.setExchange(symbol[0]);
+        depth.setCurrency(symbol[1]);
+        depth.setTimestamp(timestamp);
+        depth.setBids(readLevels(bidCount, priceScale, quantityScale));
+        depth.setAsks(readLevels(askCount, priceScale, quantityScale));
+        return new Record(symbol[0], symbol[1], timestamp, depth, null);
+    }
+
+    private List<Depth.PriceQuotation> readLevels(int count, int priceScale, int quantityScale) {
+        List<Depth.PriceQuotation> levels = new ArrayList<>(count);
+        long price = 0;
+        for (int i = 0; i < count; i++) {
+            price += MarketDataCodec.getZigZag(buffer);
+            long quantity = MarketDataCodec.getZigZag(buffer);
+            levels.add(new Depth.PriceQuotation(MarketDataCodec.fromFixed(price, priceScale), MarketDataCodec.fromFixed(quantity, quantityScale)));
+        }
+        return levels;
+    }
+
+    private Record readTicker() {
+        String[] symbol = symbols.get((int) MarketDataCodec.getVarLong(buffer)).split("@");
+        long timestamp = readTimestamp();
+        int scale = buffer.get();
+        Ticker ticker = new Ticker();
+        ticker.setLastPrice(MarketDataCodec.fromFixed(MarketDataCodec.getZigZag(buffer), scale));
+        return new Record(symbol[0], symbol[1], timestamp, null, ticker);
+    }
+
+    private long readTimestamp() {
+        lastTimestamp += MarketDataCodec.getZigZag(buffer);
+        return lastTimestamp;
+    }
+
+}
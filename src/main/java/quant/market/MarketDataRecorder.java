@@ -0,0 +1,388 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Ticker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 行情记录器
+ * <p>
+ * 将策略收到的每一份深度和最新价追加到本地的二进制文件中，用于事后分析和回放。调用方只是把数据放入一个有界队列，
+ * 编码和写文件都由一个后台线程完成，不影响交易线程；队列满时丢弃并计数，而不是阻塞交易线程。
+ * <p>
+ * 文件按天分段，名称为 yyyyMMdd-序号.mdr，每次启动或者跨天时新建一个文件。文件通过内存映射按块追加写入，
+ * 编码格式见 {@link MarketDataCodec}，可以通过 {@link MarketDataReader} 读取。
+ *
+ * @author robothy
+ */
+public class MarketDataRecorder {
+
+    private static final Logger logger = LogManager.getLogger(MarketDataRecorder.class);
+
+    /**
+     * 各目录的记录器
+     */
+    private static final Map<String, MarketDataRecorder> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * 队列容量
+     */
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * 每次映射的文件大小
+     */
+    private static final int CHUNK_SIZE = 64 << 20;
+
+    /**
+     * 队列为空时，多久将映射的内容刷到磁盘一次（单位：毫秒）
+     */
+    private static final long FORCE_INTERVAL = 1000L;
+
+    static final String FILE_SUFFIX = ".mdr";
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 待写入的一份行情
+     */
+    private static class Event {
+
+        private final String symbol;
+
+        private final long timestamp;
+
+        private final Depth depth;
+
+        private final Ticker ticker;
+
+        Event(String symbol, long timestamp, Depth depth, Ticker ticker) {
+            this.symbol = symbol;
+            this.timestamp = timestamp;
+            this.depth = depth;
+            this.ticker = ticker;
+        }
+    }
+
+    /**
+     * 某一天的一个记录文件
+     */
+    private static class Segment {
+
+        private final LocalDate day;
+
+        private final RandomAccessFile file;
+
+        private final FileChannel channel;
+
+        private MappedByteBuffer buffer;
+
+        /**
+         * 当前映射区域在文件中的起始位置
+         */
+        private long mappedPosition;
+
+        private final Map<String, Integer> symbols = new HashMap<>();
+
+        private long lastTimestamp = 0;
+
+        Segment(LocalDate day, File path) throws IOException {
+            this.day = day;
+            this.file = new RandomAccessFile(path, "rw");
+            this.channel = file.getChannel();
+            this.mappedPosition = 0;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_SIZE);
+            this.buffer.putInt(MarketDataCodec.MAGIC);
+            this.buffer.put(MarketDataCodec.VERSION);
+        }
+
+        void append(ByteBuffer data) throws IOException {
+            if (buffer.remaining() < data.remaining()) {
+                buffer.force();
+                mappedPosition += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, mappedPosition, Math.max(CHUNK_SIZE, data.remaining()));
+            }
+            buffer.put(data);
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            long length = mappedPosition + buffer.position();
+            buffer = null;
+            channel.truncate(length);
+            channel.close();
+            file.close();
+        }
+    }
+
+    private final File directory;
+
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicLong recordedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * 编码缓冲区，只在写线程中使用
+     */
+    private ByteBuffer scratch = ByteBuffer.allocate(64 << 10);
+
+    private Segment segment = null;
+
+    /**
+     * @param directory 记录文件所在的目录
+     */
+    public MarketDataRecorder(String directory) {
+        this.directory = new File(directory);
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            logger.error("创建行情记录目录{}失败。", directory);
+        }
+        this.writer = new Thread(this::writeLoop, "market-data-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * 获取记录到某目录的记录器，不存在时创建
+     *
+     * @param directory 记录文件所在的目录
+     * @return 行情记录器
+     */
+    public static MarketDataRecorder of(String directory) {
+        return recorders.computeIfAbsent(new File(directory).getAbsolutePath(), k -> {
+            logger.info("行情记录到{}", k);
+            return new MarketDataRecorder(k);
+        });
+    }
+
+    /**
+     * 记录一份深度
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param depth        深度
+     * @param timestamp    收到深度的时间（单位：毫秒）
+     */
+    public void recordDepth(String exchangeName, String currencyPair, Depth depth, long timestamp) {
+        offer(new Event(exchangeName + "@" + currencyPair, timestamp, depth, null));
+    }
+
+    /**
+     * 记录一份最新价
+     *
+     * @param exchangeName 交易所名称
+     * @param currencyPair 币种对
+     * @param ticker       最新价
+     * @param timestamp    收到最新价的时间（单位：毫秒）
+     */
+    public void recordTicker(String exchangeName, String currencyPair, Ticker ticker, long timestamp) {
+        if (null == ticker.getLastPrice()) {
+            return;
+        }
+        offer(new Event(exchangeName + "@" + currencyPair, timestamp, null, ticker));
+    }
+
+    /**
+     * 写完队列中剩余的行情并关闭当前文件
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(FORCE_INTERVAL * 5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 已经写入的记录数
+     */
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    /**
+     * @return 因队列已满而丢弃的记录数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void offer(Event event) {
+        if (!running || !queue.offer(event)) {
+            long dropped = droppedCount.incrementAndGet();
+            if (dropped % 1000 == 1) {
+                logger.warn("行情记录队列已满，已丢弃{}条记录。", dropped);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Event event = queue.poll(FORCE_INTERVAL, TimeUnit.MILLISECONDS);
+                if (null == event) {
+                    if (null != segment) {
+                        segment.buffer.force();
+                    }
+                    continue;
+                }
+                write(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("写入行情记录时出现异常。", e);
+            }
+        }
+        closeSegment();
+    }
+
+    private void write(Event event) throws IOException {
+        LocalDate day = Instant.ofEpochMilli(event.timestamp).atZone(ZoneId.systemDefault()).toLocalDate();
+        if (null == segment || !segment.day.equals(day)) {
+            closeSegment();
+            segment = new Segment(day, nextFile(day));
+        }
+
+        Integer symbolId = segment.symbols.get(event.symbol);
+        boolean isNewSymbol = null == symbolId;
+        if (isNewSymbol) {
+            symbolId = segment.symbols.size();
+        }
+        while (true) {
+            try {
+                scratch.clear();
+                if (isNewSymbol) {
+                    encodeSymbol(symbolId, event.symbol);
+                }
+                if (null != event.depth) {
+                    encodeDepth(symbolId, event.timestamp - segment.lastTimestamp, event.depth);
+                } else {
+                    encodeTicker(symbolId, event.timestamp - segment.lastTimestamp, event.ticker);
+                }
+                break;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+        scratch.flip();
+        segment.append(scratch);
+        if (isNewSymbol) {
+            segment.symbols.put(event.symbol, symbolId);
+        }
+        segment.lastTimestamp = event.timestamp;
+        recordedCount.incrementAndGet();
+    }
+
+    private void encodeSymbol(int symbolId, String symbol) {
+        byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+        scratch.put(MarketDataCodec.SYMBOL);
+        MarketDataCodec.putVarLong(scratch, symbolId);
+        scratch.putShort((short) bytes.length);
+        scratch.put(bytes);
+    }
+
+    private void encodeDepth(int symbolId, long timestampDelta, Depth depth) {
+        List<Depth.PriceQuotation> bids = depth.getBids();
+        List<Depth.PriceQuotation> asks = depth.getAsks();
+        int bidCount = null == bids ? 0 : bids.size();
+        int askCount = null == asks ? 0 : asks.size();
+        int priceScale = 0;
+        int quantityScale = 0;
+        for (int i = 0; i < bidCount + askCount; i++) {
+            Depth.PriceQuotation level = i < bidCount ? bids.get(i) : asks.get(i - bidCount);
+            priceScale = Math.max(priceScale, MarketDataCodec.scaleOf(level.getPrice()));
+            quantityScale = Math.max(quantityScale, MarketDataCodec.scaleOf(level.getQuantity()));
+        }
+
+        scratch.put(MarketDataCodec.DEPTH);
+        MarketDataCodec.putVarLong(scratch, symbolId);
+        MarketDataCodec.putZigZag(scratch, timestampDelta);
+        scratch.put((byte) priceScale);
+        scratch.put((byte) quantityScale);
+        MarketDataCodec.putVarLong(scratch, bidCount);
+        MarketDataCodec.putVarLong(scratch, askCount);
+        encodeLevels(bids, bidCount, priceScale, quantityScale);
+        encodeLevels(asks, askCount, priceScale, quantityScale);
+    }
+
+    private void encodeLevels(List<Depth.PriceQuotation> levels, int count, int priceScale, int quantityScale) {
+        long previousPrice = 0;
+        for (int i = 0; i < count; i++) {
+            long price = MarketDataCodec.toFixed(levels.get(i).getPrice(), priceScale);
+            MarketDataCodec.putZigZag(scratch, price - previousPrice);
+            MarketDataCodec.putZigZag(scratch, MarketDataCodec.toFixed(levels.get(i).getQuantity(), quantityScale));
+            previousPrice = price;
+        }
+    }
+
+    private void encodeTicker(int symbolId, long timestampDelta, Ticker ticker) {
+        BigDecimal lastPrice = ticker.getLastPrice();
+        int scale = MarketDataCodec.scaleOf(lastPrice);
+        scratch.put(MarketDataCodec.TICKER);
+        MarketDataCodec.putVarLong(scratch, symbolId);
+        MarketDataCodec.putZigZag(scratch, timestampDelta);
+        scratch.put((byte) scale);
+        MarketDataCodec.putZigZag(scratch, MarketDataCodec.toFixed(lastPrice, scale));
+    }
+
+    /**
+     * 某一天的下一个记录文件，序号从 0 开始
+     */
+    private File nextFile(LocalDate day) {
+        String prefix = day.format(DAY_FORMAT) + "-";
+        int index = 0;
+        File file;
+        while ((file = new File(directory, prefix + index + FILE_SUFFIX)).exists()) {
+            index++;
+        }
+        logger.info("新建行情记录文件{}", file);
+        return file;
+    }
+
+    private void closeSegment() {
+        if (null == segment) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.error("关闭行情记录文件时出现异常。", e);
+        }
+        segment = null;
+    }
+
+}
@@ -0,0 +1,298 @@
+package quant.market;
+
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.Depth;
+import quant.utils.TimeUtil;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 定点数订单簿
+ * <p>
+ * 以币种对的价格精度和量精度将深度中的价格和量转换为整数（价格最小变动单位数、量最小单位数），
+ * 分别保存在并行的 long 数组中。遍历档位、计算套利系数时只需读取基本类型数组，不再创建 BigDecimal 对象。
+ * <p>
+ * 卖单价格向上取整，买单价格向下取整，量向下取整，保证转换后的订单簿不会比原始深度更乐观。
+ * 订单簿对象可以通过 {@link #update(Depth)} 反复复用，只在档位数超过数组容量时扩容。
+ *
+ * @author robothy
+ */
+public class OrderBook {
+
+    /**
+     * 默认的档位容量
+     */
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private final String currencyPair;
+
+    private final int priceScale;
+
+    private final int quantityScale;
+
+    /**
+     * 10 的 priceScale 次方，用于整数价格与浮点价格之间的转换
+     */
+    private final double priceFactor;
+
+    /**
+     * 10 的 quantityScale 次方，用于整数量与浮点量之间的转换
+     */
+    private final double quantityFactor;
+
+    private long[] askPrices;
+
+    private long[] askQuantities;
+
+    private int askSize;
+
+    private long[] bidPrices;
+
+    private long[] bidQuantities;
+
+    private int bidSize;
+
+    private long timestamp;
+
+    /**
+     * @param currencyPair 币种对，价格精度和量精度取自此币种对
+     */
+    public OrderBook(CurrencyPair currencyPair) {
+        this(currencyPair.getCurrencyPair(), currencyPair.getPriceScale(), currencyPair.getQuantityScale());
+    }
+
+    /**
+     * @param currencyPair  币种对名称
+     * @param priceScale    价格精度
+     * @param quantityScale 量精度
+     */
+    public OrderBook(String currencyPair, int priceScale, int quantityScale) {
+        this.currencyPair = currencyPair;
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+        this.priceFactor = Math.pow(10, priceScale);
+        this.quantityFactor = Math.pow(10, quantityScale);
+        this.askPrices = new long[DEFAULT_CAPACITY];
+        this.askQuantities = new long[DEFAULT_CAPACITY];
+        this.bidPrices = new long[DEFAULT_CAPACITY];
+        this.bidQuantities = new long[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * 将深度转换为定点数订单簿
+     *
+     * @param depth        深度信息
+     * @param currencyPair 币种对
+     * @return 定点数订单簿
+     */
+    public static OrderBook of(Depth depth, CurrencyPair currencyPair) {
+        return new OrderBook(currencyPair).update(depth);
+    }
+
+    /**
+     * 用新的深度覆盖当前订单簿的内容
+     *
+     * @param depth 深度信息
+     * @return 当前订单簿
+     */
+    public OrderBook update(Depth depth) {
+        return update(depth, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只用新深度的前若干档覆盖当前订单簿的内容，只读取盘口的调用方不必转换整个深度
+     *
+     * @param depth  深度信息
+     * @param levels 最多转换的档位数
+     * @return 当前订单簿
+     */
+    public OrderBook update(Depth depth, int levels) {
+        List<Depth.PriceQuotation> asks = depth.getAsks();
+        List<Depth.PriceQuotation> bids = depth.getBids();
+
+        int askCount = null == asks ? 0 : Integer.min(asks.size(), levels);
+        if (askCount > askPrices.length) {
+            askPrices = Arrays.copyOf(askPrices, askCount);
+            askQuantities = Arrays.copyOf(askQuantities, askCount);
+        }
+        for (int i = 0; i < askCount; i++) {
+            Depth.PriceQuotation ask = asks.get(i);
+            askPrices[i] = toUnits(ask.getPrice(), priceScale, RoundingMode.UP);
+            askQuantities[i] = toUnits(ask.getQuantity(), quantityScale, RoundingMode.DOWN);
+        }
+        this.askSize = askCount;
+
+        int bidCount = null == bids ? 0 : Integer.min(bids.size(), levels);
+        if (bidCount > bidPrices.length) {
+            bidPrices = Arrays.copyOf(bidPrices, bidCount);
+            bidQuantities = Arrays.copyOf(bidQuantities, bidCount);
+        }
+        for (int i = 0; i < bidCount; i++) {
+            Depth.PriceQuotation bid = bids.get(i);
+            bidPrices[i] = toUnits(bid.getPrice(), priceScale, RoundingMode.DOWN);
+            bidQuantities[i] = toUnits(bid.getQuantity(), quantityScale, RoundingMode.DOWN);
+        }
+        this.bidSize = bidCount;
+
+        this.timestamp = null == depth.getTimestamp() ? TimeUtil.now() : depth.getTimestamp();
+        return this;
+    }
+
+    /**
+     * 将 BigDecimal 转换为指定精度下的整数
+     * <p>
+     * 超出 long 范围的值（例如交易所返回的异常大的挂单量）饱和为 long 的最大值或最小值，
+     * 不抛出异常，避免订单簿只更新了一半、扫描和刷新深度的线程因此退出。
+     */
+    static long toUnits(BigDecimal value, int scale, RoundingMode roundingMode) {
+        BigInteger units = value.setScale(scale, roundingMode).unscaledValue();
+        if (units.bitLength() > 63) {
+            return units.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return units.longValue();
+    }
+
+    /**
+     * @return 币种对名称
+     */
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    /**
+     * @return 价格精度
+     */
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    /**
+     * @return 量精度
+     */
+    public int getQuantityScale() {
+        return quantityScale;
+    }
+
+    /**
+     * @return 深度的时间戳，深度中没有时间戳时为转换时的时间
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 卖单档位数
+     */
+    public int askSize() {
+        return askSize;
+    }
+
+    /**
+     * @return 买单档位数
+     */
+    public int bidSize() {
+        return bidSize;
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档卖单价格，单位为价格最小变动单位
+     */
+    public long askPrice(int level) {
+        return askPrices[level];
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档卖单量，单位为量最小单位
+     */
+    public long askQuantity(int level) {
+        return askQuantities[level];
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档买单价格，单位为价格最小变动单位
+     */
+    public long bidPrice(int level) {
+        return bidPrices[level];
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档买单量，单位为量最小单位
+     */
+    public long bidQuantity(int level) {
+        return bidQuantities[level];
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档卖单价格的浮点表示
+     */
+    public double askPriceAsDouble(int level) {
+        return askPrices[level] / priceFactor;
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档卖单量的浮点表示
+     */
+    public double askQuantityAsDouble(int level) {
+        return askQuantities[level] / quantityFactor;
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档买单价格的浮点表示
+     */
+    public double bidPriceAsDouble(int level) {
+        return bidPrices[level] / priceFactor;
+    }
+
+    /**
+     * @param level 档位，从 0 开始
+     * @return 该档买单量的浮点表示
+     */
+    public double bidQuantityAsDouble(int level) {
+        return bidQuantities[level] / quantityFactor;
+    }
+
+    /**
+     * 将整数价格转换为 BigDecimal，用于构建订单
+     *
+     * @param priceUnits 整数价格
+     * @return 价格
+     */
+    public BigDecimal toPrice(long priceUnits) {
+        return BigDecimal.valueOf(priceUnits, priceScale);
+    }
+
+    /**
+     * 将整数量转换为 BigDecimal，用于构建订单
+     *
+     * @param quantityUnits 整数量
+     * @return 量
+     */
+    public BigDecimal toQuantity(long quantityUnits) {
+        return BigDecimal.valueOf(quantityUnits, quantityScale);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("OrderBook{").append(currencyPair).append(", asks=[");
+        for (int i = 0; i < askSize; i++) {
+            builder.append(i == 0 ? "" : ", ").append(toPrice(askPrices[i]).toPlainString()).append('×').append(toQuantity(askQuantities[i]).toPlainString());
+        }
+        builder.append("], bids=[");
+        for (int i = 0; i < bidSize; i++) {
+            builder.append(i == 0 ? "" : ", ").append(toPrice(bidPrices[i]).toPlainString()).append('×').append(toQuantity(bidQuantities[i]).toPlainString());
+        }
+        return builder.append("]}").toString();
+    }
+
+}
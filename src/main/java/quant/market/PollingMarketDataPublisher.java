@@ -0,0 +1,197 @@
+package quant.market;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Depth;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.exchange.EndExchangeFactory;
+import quant.exchange.ExchangePool;
+import quant.utils.TimeUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 轮询行情发布者
+ * <p>
+ * 对于不提供推送接口的交易所，为每个订阅的币种对启动一个独立的线程，通过 REST 接口持续获取深度并推送到行情中心。
+ * 各币种对互不等待，策略只需等待行情中心的推送，不再承担每轮多次 REST 请求的耗时。
+ * <p>
+ * 轮询间隔可以按交易所单独设置；使用 {@link EndExchangeFactory} 创建交易所实例时，
+ * 未单独设置的交易所读取配置文件中的 depthPollInterval。轮询间隔必须大于 0，REST 接口不能不间断地请求。
+ *
+ * @author robothy
+ */
+public class PollingMarketDataPublisher implements MarketDataPublisher {
+
+    private static final Logger logger = LogManager.getLogger(PollingMarketDataPublisher.class);
+
+    /**
+     * 未指定交易所实例来源时，每个交易所创建的实例数
+     */
+    private static final int POOL_SIZE = 3;
+
+    /**
+     * 根据交易所名称获取交易所实例
+     */
+    private final Function<String, Exchange> exchangeProvider;
+
+    /**
+     * 两次获取深度的间隔时间（单位：毫秒）
+     */
+    private final Long pollInterval;
+
+    /**
+     * 各交易所单独设置的轮询间隔（单位：毫秒）
+     */
+    private final Map<String, Long> pollIntervals = new ConcurrentHashMap<>();
+
+    /**
+     * 获取深度失败时的休息时间（单位：毫秒）
+     */
+    private final Long failedSleepTime;
+
+    /**
+     * 未指定交易所实例来源时，通过 {@link EndExchangeFactory} 创建的交易所实例池
+     */
+    private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+
+    /**
+     * 各币种对的轮询线程
+     */
+    private final Map<String, Thread> pollers = new ConcurrentHashMap<>();
+
+    private volatile MarketDataFeed feed;
+
+    private volatile boolean running = false;
+
+    /**
+     * 使用 {@link EndExchangeFactory} 创建交易所实例的轮询行情发布者
+     *
+     * @param pollInterval    两次获取深度的间隔时间（单位：毫秒）
+     * @param failedSleepTime 获取深度失败时的休息时间（单位：毫秒）
+     */
+    public PollingMarketDataPublisher(Long pollInterval, Long failedSleepTime) {
+        this(null, pollInterval, failedSleepTime);
+    }
+
+    /**
+     * @param exchangeProvider 根据交易所名称获取交易所实例，为 null 时使用 {@link EndExchangeFactory} 创建
+     * @param pollInterval     两次获取深度的间隔时间（单位：毫秒），必须大于 0
+     * @param failedSleepTime  获取深度失败时的休息时间（单位：毫秒）
+     */
+    public PollingMarketDataPublisher(Function<String, Exchange> exchangeProvider, Long pollInterval, Long failedSleepTime) {
+        if (null == pollInterval || pollInterval <= 0) {
+            throw new IllegalArgumentException("轮询间隔必须大于 0：" + pollInterval);
+        }
+        this.exchangeProvider = exchangeProvider;
+        this.pollInterval = pollInterval;
+        this.failedSleepTime = failedSleepTime;
+    }
+
+    /**
+     * 设置某交易所两次获取深度的间隔时间
+     *
+     * @param exchangeName 交易所名称
+     * @param pollInterval 两次获取深度的间隔时间（单位：毫秒），必须大于 0
+     */
+    public PollingMarketDataPublisher setPollInterval(String exchangeName, Long pollInterval) {
+        if (null == pollInterval || pollInterval <= 0) {
+            throw new IllegalArgumentException(exchangeName + "的轮询间隔必须大于 0：" + pollInterval);
+        }
+        this.pollIntervals.put(exchangeName, pollInterval);
+        return this;
+    }
+
+    @Override
+    public synchronized void start(MarketDataFeed feed) {
+        this.feed = feed;
+        this.running = true;
+        pollers.forEach((k, v) -> {
+            if (!v.isAlive()) {
+                v.start();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void subscribe(String exchangeName, String currencyPair) {
+        String key = exchangeName + "@" + currencyPair;
+        if (pollers.containsKey(key)) {
+            return;
+        }
+        if (null == exchangeProvider && !pollIntervals.containsKey(exchangeName)) {
+            Long configured = EndExchangeFactory.getDepthPollInterval(exchangeName);
+            if (null != configured && configured > 0) {
+                pollIntervals.put(exchangeName, configured);
+            } else if (null != configured) {
+                logger.warn("{}配置的轮询间隔{}ms无效，使用默认轮询间隔{}ms。", exchangeName, configured, pollInterval);
+            }
+        }
+        Thread poller = new Thread(() -> poll(exchangeName, currencyPair), "depth-poller-" + key);
+        poller.setDaemon(true);
+        pollers.put(key, poller);
+        if (running) {
+            poller.start();
+        }
+    }
+
+    @Override
+    public void refresh(String exchangeName, String currencyPair) {
+        if (!running) {
+            return;
+        }
+        if (!fetch(exchangeName, currencyPair)) {
+            logger.error("重新获取{}的{}深度信息失败。", exchangeName, currencyPair);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        this.running = false;
+        pollers.values().forEach(Thread::interrupt);
+        pollers.clear();
+    }
+
+    /**
+     * 持续获取某个币种对的深度，直到发布者停止
+     */
+    private void poll(String exchangeName, String currencyPair) {
+        Long interval = pollIntervals.getOrDefault(exchangeName, pollInterval);
+        logger.info("开始轮询{}的{}深度信息，轮询间隔{}ms。", exchangeName, currencyPair, interval);
+        while (running && !Thread.currentThread().isInterrupted()) {
+            if (!fetch(exchangeName, currencyPair)) {
+                logger.error("获取{}的{}深度信息失败，{}ms后重试。", exchangeName, currencyPair, failedSleepTime);
+                TimeUtil.delay(failedSleepTime);
+                continue;
+            }
+            TimeUtil.delay(interval);
+        }
+        logger.info("停止轮询{}的{}深度信息。", exchangeName, currencyPair);
+    }
+
+    /**
+     * 获取一次深度，连同请求、响应时间推送到行情中心
+     *
+     * @return 获取成功返回 true
+     */
+    private boolean fetch(String exchangeName, String currencyPair) {
+        Long requestTimestamp = TimeUtil.now();
+        Depth depth = getExchange(exchangeName).getDepth(currencyPair);
+        Long responseTimestamp = TimeUtil.now();
+        if (null == depth) {
+            return false;
+        }
+        feed.publish(exchangeName, currencyPair, depth, requestTimestamp, responseTimestamp);
+        return true;
+    }
+
+    private Exchange getExchange(String exchangeName) {
+        if (null != exchangeProvider) {
+            return exchangeProvider.apply(exchangeName);
+        }
+        return exchanges.computeIfAbsent(exchangeName, name -> ExchangePool.newInstance(name, POOL_SIZE));
+    }
+
+}
@@ -0,0 +1,287 @@
+package quant.simulation;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.Ticker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.exchange.EndExchangeFactory;
+import quant.market.LocalMarketDataPublisher;
+import quant.market.MarketDataReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 历史行情回放
+ * <p>
+ * 按时间顺序读取 {@link quant.market.MarketDataRecorder} 记录的行情，作为虚拟时钟的事件源：虚拟时钟走到某条记录的时间时，
+ * 该记录成为对应交易所币种对的最新行情，深度同时注入该交易所的 {@link SimulatedExchange}，挂单按历史深度撮合，
+ * 并通过 {@link #getPublisher()} 同步推送到行情中心，回放期间不需要轮询深度。
+ * 策略通过 {@link #getExchange(String)} 得到的交易所实例获取行情和下单，与真实交易所的用法完全一致。
+ *
+ * @author robothy
+ */
+public class MarketDataReplay implements VirtualClock.EventSource {
+
+    private static final Logger logger = LogManager.getLogger(MarketDataReplay.class);
+
+    /**
+     * 回放中的交易所实例：行情来自历史记录，账户和订单交给模拟交易所
+     */
+    private class ReplayExchange implements Exchange {
+
+        private final String plantformName;
+
+        private final SimulatedExchange simulatedExchange;
+
+        ReplayExchange(String plantformName, SimulatedExchange simulatedExchange) {
+            this.plantformName = plantformName;
+            this.simulatedExchange = simulatedExchange;
+        }
+
+        @Override
+        public String getPlantformName() {
+            return plantformName;
+        }
+
+        @Override
+        public Depth getDepth(String currencyPair) {
+            return MarketDataReplay.this.getDepth(plantformName, currencyPair);
+        }
+
+        @Override
+        public Ticker getTicker(String currencyPair) {
+            return MarketDataReplay.this.getTicker(plantformName, currencyPair);
+        }
+
+        @Override
+        public Account getAccount() {
+            return simulatedExchange.getAccount();
+        }
+
+        @Override
+        public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+            return simulatedExchange.order(side, currencyPair, quantity, price);
+        }
+
+        @Override
+        public Order getOrder(String currencyPair, String orderId) {
+            return simulatedExchange.getOrder(currencyPair, orderId);
+        }
+
+        @Override
+        public Order cancel(String currencyPair, String orderId) {
+            return simulatedExchange.cancel(currencyPair, orderId);
+        }
+
+        @Override
+        public List<Order> getOpenOrders(String currencyPair) {
+            return simulatedExchange.getOpenOrders(currencyPair);
+        }
+
+        @Override
+        public List<Order> getHistoryOrders(String currencyPair) {
+            return simulatedExchange.getHistoryOrders(currencyPair);
+        }
+    }
+
+    private final List<File> files;
+
+    private final VirtualClock clock;
+
+    private int fileIndex = 0;
+
+    private MarketDataReader reader = null;
+
+    /**
+     * 下一条尚未到时间的记录，为 null 表示回放结束
+     */
+    private MarketDataReader.Record pending = null;
+
+    private final Map<String, Depth> depths = new HashMap<>();
+
+    private final Map<String, Ticker> tickers = new HashMap<>();
+
+    private final Map<String, ReplayExchange> exchanges = new HashMap<>();
+
+    private final LocalMarketDataPublisher publisher = new LocalMarketDataPublisher();
+
+    /**
+     * 模拟交易所每次调用的延迟（单位：毫秒）
+     */
+    private long latency = 0L;
+
+    private long replayedCount = 0;
+
+    /**
+     * @param directory 行情记录文件所在的目录
+     * @param speed     倍速，不大于 0 表示极速
+     */
+    public MarketDataReplay(String directory, double speed) {
+        this.files = MarketDataReader.listFiles(directory);
+        this.pending = read();
+        this.clock = new VirtualClock(null == pending ? 0L : pending.getTimestamp(), speed);
+        logger.info("回放{}中的{}个行情文件，倍速：{}", directory, files.size(), speed <= 0 ? "极速" : speed);
+    }
+
+    /**
+     * @return 回放使用的虚拟时钟
+     */
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return 推送历史深度的行情发布者，需要加入回放使用的行情中心
+     */
+    public LocalMarketDataPublisher getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * 设置模拟交易所每次调用的延迟，只对之后创建的交易所实例有效
+     *
+     * @param latency 延迟（单位：毫秒）
+     * @return 回放本身
+     */
+    public synchronized MarketDataReplay setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * 设置某交易所某币种的初始余额
+     *
+     * @param plantform 交易所名称
+     * @param currency  币种
+     * @param amount    初始余额
+     * @return 回放本身
+     */
+    public MarketDataReplay setBalance(String plantform, String currency, BigDecimal amount) {
+        getSimulatedExchange(plantform).setBalance(currency, amount);
+        return this;
+    }
+
+    /**
+     * 获取回放中的交易所实例
+     *
+     * @param plantform 交易所名称
+     * @return 交易所实例
+     */
+    public synchronized Exchange getExchange(String plantform) {
+        return exchanges.computeIfAbsent(plantform, k -> {
+            SimulatedExchange simulatedExchange = SimulatedExchange.of("replay@" + k).setLatency(latency);
+            EndExchangeFactory.getCurrencyPairs(k).forEach(simulatedExchange::setCurrencyPair);
+            return new ReplayExchange(k, simulatedExchange);
+        });
+    }
+
+    /**
+     * @param plantform 交易所名称
+     * @return 回放中撮合该交易所订单的模拟交易所，可以查看模拟的收益和成交耗时
+     */
+    public SimulatedExchange getSimulatedExchange(String plantform) {
+        getExchange(plantform);
+        synchronized (this) {
+            return exchanges.get(plantform).simulatedExchange;
+        }
+    }
+
+    /**
+     * @return 回放中所有的模拟交易所
+     */
+    public synchronized Map<String, SimulatedExchange> getSimulatedExchanges() {
+        Map<String, SimulatedExchange> result = new HashMap<>();
+        exchanges.forEach((k, v) -> result.put(k, v.simulatedExchange));
+        return result;
+    }
+
+    /**
+     * @return 回放是否已经结束
+     */
+    public synchronized boolean isFinished() {
+        return null == pending;
+    }
+
+    /**
+     * @return 已经回放的记录数
+     */
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    private synchronized Depth getDepth(String plantform, String currencyPair) {
+        return depths.get(plantform + "@" + currencyPair);
+    }
+
+    private synchronized Ticker getTicker(String plantform, String currencyPair) {
+        return tickers.get(plantform + "@" + currencyPair);
+    }
+
+    @Override
+    public synchronized long nextEventTime() {
+        return null == pending ? Long.MAX_VALUE : pending.getTimestamp();
+    }
+
+    /**
+     * 应用虚拟时间 time 之前的所有记录，深度注入模拟交易所并推送到行情中心
+     */
+    @Override
+    public synchronized void fire(long time) {
+        while (null != pending && pending.getTimestamp() <= time) {
+            String key = pending.getExchangeName() + "@" + pending.getCurrencyPair();
+            if (null != pending.getDepth()) {
+                depths.put(key, pending.getDepth());
+                getExchange(pending.getExchangeName());
+                exchanges.get(pending.getExchangeName()).simulatedExchange.setDepth(pending.getCurrencyPair(), pending.getDepth());
+                publisher.publish(pending.getExchangeName(), pending.getCurrencyPair(), pending.getDepth());
+            } else {
+                tickers.put(key, pending.getTicker());
+            }
+            replayedCount++;
+            pending = read();
+        }
+    }
+
+    /**
+     * 读取下一条记录，当前文件读完时打开下一个文件
+     */
+    private MarketDataReader.Record read() {
+        while (true) {
+            if (null != reader) {
+                MarketDataReader.Record record = reader.next();
+                if (null != record) {
+                    return record;
+                }
+                closeReader();
+            }
+            if (fileIndex >= files.size()) {
+                return null;
+            }
+            File file = files.get(fileIndex++);
+            try {
+                reader = new MarketDataReader(file);
+                logger.info("开始回放{}", file);
+            } catch (IOException e) {
+                logger.error("打开行情文件{}失败，跳过。", file, e);
+            }
+        }
+    }
+
+    private void closeReader() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            logger.error("关闭行情文件时出现异常。", e);
+        }
+        reader = null;
+    }
+
+}
@@ -0,0 +1,375 @@
+package quant.simulation;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.OrderSide;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 某币种对的撮合引擎，按价格优先、时间优先撮合
+ * <p>
+ * 订单簿中有两类订单：本账户的订单和外部流动性。外部流动性来自行情深度，每次更新深度时整体替换，
+ * 同一价格上外部流动性排在本账户订单之前，即本账户的订单要等盘口上已有的量成交之后才能成交。
+ * 新的外部流动性与本账户的订单价格交叉时，视为市场吃掉了本账户的订单，以本账户订单的价格成交。
+ * <p>
+ * 本账户的订单挂出时记录排在它前面的外部流动性数量，即队列位置。之后每次更新深度，该价格上外部流动性减少的量
+ * 视为从队列前面成交掉的量，先抵扣队列位置，超出的部分由本账户的订单成交。
+ * 深度只有有限的档数，只有价格在新深度可见范围之内（买单不低于最差的可见买价，卖单不高于最差的可见卖价）的价格
+ * 才按此推算；价格移出深度窗口的档位不知道是否被成交，本账户的订单和队列位置保持不变。
+ *
+ * @author robothy
+ */
+class MatchingEngine {
+
+    /**
+     * 订单簿中的订单
+     */
+    static class RestingOrder {
+
+        private final String orderId;
+
+        private final String side;
+
+        private final BigDecimal price;
+
+        private final BigDecimal quantity;
+
+        private BigDecimal remaining;
+
+        /**
+         * 排在此订单前面的外部流动性数量，只对本账户的订单有效
+         */
+        private BigDecimal ahead = BigDecimal.ZERO;
+
+        /**
+         * 是否为外部流动性
+         */
+        private final boolean external;
+
+        RestingOrder(String orderId, String side, BigDecimal price, BigDecimal quantity, boolean external) {
+            this.orderId = orderId;
+            this.side = side;
+            this.price = price;
+            this.quantity = quantity;
+            this.remaining = quantity;
+            this.external = external;
+        }
+
+        String getOrderId() {
+            return orderId;
+        }
+
+        String getSide() {
+            return side;
+        }
+
+        BigDecimal getPrice() {
+            return price;
+        }
+
+        BigDecimal getQuantity() {
+            return quantity;
+        }
+
+        BigDecimal getRemaining() {
+            return remaining;
+        }
+
+        boolean isExternal() {
+            return external;
+        }
+
+        boolean isBuy() {
+            return OrderSide.BUY.equals(side);
+        }
+    }
+
+    /**
+     * 一笔成交
+     */
+    static class Trade {
+
+        private final RestingOrder maker;
+
+        private final RestingOrder taker;
+
+        private final BigDecimal price;
+
+        private final BigDecimal quantity;
+
+        Trade(RestingOrder maker, RestingOrder taker, BigDecimal price, BigDecimal quantity) {
+            this.maker = maker;
+            this.taker = taker;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        RestingOrder getMaker() {
+            return maker;
+        }
+
+        RestingOrder getTaker() {
+            return taker;
+        }
+
+        BigDecimal getPrice() {
+            return price;
+        }
+
+        BigDecimal getQuantity() {
+            return quantity;
+        }
+    }
+
+    private final TreeMap<BigDecimal, LinkedList<RestingOrder>> bids = new TreeMap<>(Comparator.reverseOrder());
+
+    private final TreeMap<BigDecimal, LinkedList<RestingOrder>> asks = new TreeMap<>();
+
+    /**
+     * 本账户在订单簿中的订单
+     */
+    private final Map<String, RestingOrder> ownOrders = new HashMap<>();
+
+    /**
+     * 最新成交价，没有成交时为 null
+     */
+    private BigDecimal lastPrice = null;
+
+    /**
+     * 提交一个订单，先与对手方撮合，未成交的部分挂在订单簿中
+     *
+     * @param order 订单
+     * @return 产生的成交
+     */
+    List<Trade> submit(RestingOrder order) {
+        List<Trade> trades = match(order);
+        if (order.remaining.signum() > 0) {
+            rest(order, order.external);
+        }
+        return trades;
+    }
+
+    /**
+     * 撤销本账户的订单
+     *
+     * @param orderId 订单编号
+     * @return 被撤销的订单，订单不在订单簿中时返回 null
+     */
+    RestingOrder cancel(String orderId) {
+        RestingOrder order = ownOrders.remove(orderId);
+        if (null == order) {
+            return null;
+        }
+        TreeMap<BigDecimal, LinkedList<RestingOrder>> book = order.isBuy() ? bids : asks;
+        LinkedList<RestingOrder> level = book.get(order.price);
+        level.remove(order);
+        if (level.isEmpty()) {
+            book.remove(order.price);
+        }
+        return order;
+    }
+
+    /**
+     * 以新的行情深度替换订单簿中的外部流动性
+     *
+     * @param depth 行情深度
+     * @return 新的外部流动性吃掉本账户订单产生的成交
+     */
+    List<Trade> replaceExternal(Depth depth) {
+        List<Trade> trades = new ArrayList<>();
+        trades.addAll(advanceQueue(bids, OrderSide.SELL, depth.getBids()));
+        trades.addAll(advanceQueue(asks, OrderSide.BUY, depth.getAsks()));
+        removeExternal(bids);
+        removeExternal(asks);
+        if (null != depth.getBids()) {
+            depth.getBids().forEach(e -> trades.addAll(submit(new RestingOrder(null, OrderSide.BUY, e.getPrice(), e.getQuantity(), true))));
+        }
+        if (null != depth.getAsks()) {
+            depth.getAsks().forEach(e -> trades.addAll(submit(new RestingOrder(null, OrderSide.SELL, e.getPrice(), e.getQuantity(), true))));
+        }
+        return trades;
+    }
+
+    /**
+     * 将订单簿按价格汇总为深度
+     *
+     * @param levels 档数
+     * @return 深度
+     */
+    Depth toDepth(int levels) {
+        Depth depth = new Depth();
+        depth.setBids(aggregate(bids, levels));
+        depth.setAsks(aggregate(asks, levels));
+        return depth;
+    }
+
+    /**
+     * @return 最新成交价，没有成交时为 null
+     */
+    BigDecimal getLastPrice() {
+        return lastPrice;
+    }
+
+    /**
+     * @return 本账户在订单簿中的订单
+     */
+    List<RestingOrder> getOwnOrders() {
+        return new ArrayList<>(ownOrders.values());
+    }
+
+    private List<Trade> match(RestingOrder taker) {
+        TreeMap<BigDecimal, LinkedList<RestingOrder>> book = taker.isBuy() ? asks : bids;
+        List<Trade> trades = new ArrayList<>();
+        Iterator<Map.Entry<BigDecimal, LinkedList<RestingOrder>>> levels = book.entrySet().iterator();
+        while (taker.remaining.signum() > 0 && levels.hasNext()) {
+            Map.Entry<BigDecimal, LinkedList<RestingOrder>> level = levels.next();
+            BigDecimal price = level.getKey();
+            if (taker.isBuy() ? price.compareTo(taker.price) > 0 : price.compareTo(taker.price) < 0) {
+                break;
+            }
+
+            Iterator<RestingOrder> makers = level.getValue().iterator();
+            while (taker.remaining.signum() > 0 && makers.hasNext()) {
+                RestingOrder maker = makers.next();
+
+                // 外部流动性之间不撮合，它们来自同一份深度，价格交叉只可能是深度本身的延迟
+                if (maker.external && taker.external) {
+                    continue;
+                }
+                BigDecimal quantity = maker.remaining.min(taker.remaining);
+                maker.remaining = maker.remaining.subtract(quantity);
+                taker.remaining = taker.remaining.subtract(quantity);
+                trades.add(new Trade(maker, taker, price, quantity));
+                lastPrice = price;
+                if (maker.remaining.signum() <= 0) {
+                    makers.remove();
+                    if (!maker.external) {
+                        ownOrders.remove(maker.orderId);
+                    }
+                }
+            }
+            if (level.getValue().isEmpty()) {
+                levels.remove();
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * 将订单挂在订单簿中
+     *
+     * @param front 是否排在同一价格的最前面
+     */
+    private void rest(RestingOrder order, boolean front) {
+        TreeMap<BigDecimal, LinkedList<RestingOrder>> book = order.isBuy() ? bids : asks;
+        LinkedList<RestingOrder> level = book.computeIfAbsent(order.price, k -> new LinkedList<>());
+        if (front) {
+            // 排在本账户订单之前，外部流动性之后
+            int i = 0;
+            while (i < level.size() && level.get(i).external) {
+                i++;
+            }
+            level.add(i, order);
+        } else {
+            order.ahead = level.stream().filter(e -> e.external).map(e -> e.remaining).reduce(BigDecimal.ZERO, BigDecimal::add);
+            level.addLast(order);
+            ownOrders.put(order.orderId, order);
+        }
+    }
+
+    /**
+     * 根据新深度中各价格的数量推进本账户订单的队列位置，外部流动性减少的量超过队列位置时本账户的订单成交。
+     * 新深度可见范围之外的价格不推进
+     *
+     * @param book       本账户订单所在的一侧
+     * @param takerSide  推断出的吃单方向
+     * @param quotations 新深度中同一侧的价格和数量
+     */
+    private List<Trade> advanceQueue(TreeMap<BigDecimal, LinkedList<RestingOrder>> book, String takerSide, List<Depth.PriceQuotation> quotations) {
+        List<Trade> trades = new ArrayList<>();
+        if (null == quotations || quotations.isEmpty()) {
+            return trades;
+        }
+        // 最差的可见价格：买单一侧为最低买价，卖单一侧为最高卖价
+        boolean isBid = OrderSide.SELL.equals(takerSide);
+        BigDecimal worst = quotations.get(0).getPrice();
+        for (Depth.PriceQuotation quotation : quotations) {
+            worst = isBid ? worst.min(quotation.getPrice()) : worst.max(quotation.getPrice());
+        }
+
+        Iterator<Map.Entry<BigDecimal, LinkedList<RestingOrder>>> levels = book.entrySet().iterator();
+        while (levels.hasNext()) {
+            Map.Entry<BigDecimal, LinkedList<RestingOrder>> level = levels.next();
+            if (level.getValue().stream().allMatch(e -> e.external)) {
+                continue;
+            }
+            BigDecimal price = level.getKey();
+            if (isBid ? price.compareTo(worst) < 0 : price.compareTo(worst) > 0) {
+                continue;
+            }
+            BigDecimal previous = level.getValue().stream().filter(e -> e.external).map(e -> e.remaining).reduce(BigDecimal.ZERO, BigDecimal::add);
+            BigDecimal current = quotations.stream()
+                    .filter(e -> e.getPrice().compareTo(price) == 0)
+                    .map(Depth.PriceQuotation::getQuantity)
+                    .findFirst().orElse(BigDecimal.ZERO);
+            BigDecimal consumed = previous.subtract(current);
+            if (consumed.signum() <= 0) {
+                continue;
+            }
+
+            Iterator<RestingOrder> orders = level.getValue().iterator();
+            while (consumed.signum() > 0 && orders.hasNext()) {
+                RestingOrder order = orders.next();
+                if (order.external) {
+                    continue;
+                }
+                if (consumed.compareTo(order.ahead) <= 0) {
+                    order.ahead = order.ahead.subtract(consumed);
+                    consumed = BigDecimal.ZERO;
+                    break;
+                }
+                consumed = consumed.subtract(order.ahead);
+                order.ahead = BigDecimal.ZERO;
+                BigDecimal quantity = consumed.min(order.remaining);
+                consumed = consumed.subtract(quantity);
+                order.remaining = order.remaining.subtract(quantity);
+                trades.add(new Trade(order, new RestingOrder(null, takerSide, price, quantity, true), price, quantity));
+                lastPrice = price;
+                if (order.remaining.signum() <= 0) {
+                    orders.remove();
+                    ownOrders.remove(order.orderId);
+                }
+            }
+            if (level.getValue().isEmpty()) {
+                levels.remove();
+            }
+        }
+        return trades;
+    }
+
+    private static void removeExternal(TreeMap<BigDecimal, LinkedList<RestingOrder>> book) {
+        book.values().forEach(level -> level.removeIf(e -> e.external));
+        book.values().removeIf(List::isEmpty);
+    }
+
+    private static List<Depth.PriceQuotation> aggregate(TreeMap<BigDecimal, LinkedList<RestingOrder>> book, int levels) {
+        List<Depth.PriceQuotation> result = new ArrayList<>();
+        for (Map.Entry<BigDecimal, LinkedList<RestingOrder>> level : book.entrySet()) {
+            if (result.size() >= levels) {
+                break;
+            }
+            BigDecimal quantity = level.getValue().stream().map(e -> e.remaining).reduce(BigDecimal.ZERO, BigDecimal::add);
+            result.add(new Depth.PriceQuotation(level.getKey(), quantity));
+        }
+        return result;
+    }
+
+}
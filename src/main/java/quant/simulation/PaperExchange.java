@@ -0,0 +1,140 @@
+package quant.simulation;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.Ticker;
+import quant.exchange.BatchOrderExchange;
+import quant.exchange.OrderRequest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 模拟盘交易所
+ * <p>
+ * 行情（深度、最新价）来自真实的交易所，账户和订单交给 {@link SimulatedExchange}。每次获取到的深度都会注入模拟交易所，
+ * 订单按照当前深度撮合，挂单按盘口数量估计队列位置，策略不需要任何改动就可以用真实行情试运行而不动用资金。
+ * 下单时模拟交易所还没有该币种对的深度，先获取一次深度。
+ * <p>
+ * 订单只发到模拟交易所，是否支持批量接口由模拟交易所决定，与提供行情的交易所无关。
+ * 批量请求交给模拟交易所的批量接口，一批订单只等待一次延迟。
+ *
+ * @author robothy
+ */
+public class PaperExchange implements Exchange, BatchOrderExchange {
+
+    /**
+     * 提供行情的真实交易所
+     */
+    private final Exchange marketExchange;
+
+    private final SimulatedExchange simulatedExchange;
+
+    /**
+     * 已经向模拟交易所注入过深度的币种对
+     */
+    private final Set<String> knownPairs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param marketExchange    提供行情的真实交易所
+     * @param simulatedExchange 模拟账户和订单的交易所
+     */
+    public PaperExchange(Exchange marketExchange, SimulatedExchange simulatedExchange) {
+        this.marketExchange = marketExchange;
+        this.simulatedExchange = simulatedExchange;
+    }
+
+    /**
+     * @return 模拟交易所，可以查看模拟的收益和成交耗时
+     */
+    public SimulatedExchange getSimulatedExchange() {
+        return simulatedExchange;
+    }
+
+    @Override
+    public String getPlantformName() {
+        return marketExchange.getPlantformName();
+    }
+
+    @Override
+    public Depth getDepth(String currencyPair) {
+        Depth depth = marketExchange.getDepth(currencyPair);
+        if (null != depth) {
+            simulatedExchange.setDepth(currencyPair, depth);
+            knownPairs.add(currencyPair);
+        }
+        return depth;
+    }
+
+    @Override
+    public Ticker getTicker(String currencyPair) {
+        return marketExchange.getTicker(currencyPair);
+    }
+
+    @Override
+    public Account getAccount() {
+        return simulatedExchange.getAccount();
+    }
+
+    @Override
+    public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        if (!knownPairs.contains(currencyPair) && null == getDepth(currencyPair)) {
+            return null;
+        }
+        return simulatedExchange.order(side, currencyPair, quantity, price);
+    }
+
+    @Override
+    public Order getOrder(String currencyPair, String orderId) {
+        return simulatedExchange.getOrder(currencyPair, orderId);
+    }
+
+    @Override
+    public Order cancel(String currencyPair, String orderId) {
+        return simulatedExchange.cancel(currencyPair, orderId);
+    }
+
+    @Override
+    public List<Order> getOpenOrders(String currencyPair) {
+        return simulatedExchange.getOpenOrders(currencyPair);
+    }
+
+    @Override
+    public List<Order> getHistoryOrders(String currencyPair) {
+        return simulatedExchange.getHistoryOrders(currencyPair);
+    }
+
+    @Override
+    public List<Order> order(List<OrderRequest> requests) {
+        // 获取不到深度的币种对不下单，对应的结果为 null
+        List<Order> result = new ArrayList<>(Collections.nCopies(requests.size(), (Order) null));
+        List<OrderRequest> accepted = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            String currencyPair = requests.get(i).getCurrencyPair();
+            if (knownPairs.contains(currencyPair) || null != getDepth(currencyPair)) {
+                accepted.add(requests.get(i));
+                indexes.add(i);
+            }
+        }
+        if (!accepted.isEmpty()) {
+            List<Order> orders = simulatedExchange.order(accepted);
+            for (int i = 0; i < indexes.size(); i++) {
+                result.set(indexes.get(i), orders.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Order> cancel(String currencyPair, List<String> orderIds) {
+        return simulatedExchange.cancel(currencyPair, orderIds);
+    }
+
+}
@@ -0,0 +1,115 @@
+package quant.simulation;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.exchange.EndExchangeFactory;
+import quant.market.MarketDataFeed;
+import quant.strategy.Strategy;
+import quant.utils.Clock;
+import quant.utils.TimeUtil;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放引擎，用历史行情运行策略
+ * <p>
+ * 运行期间 {@link TimeUtil} 使用回放的虚拟时钟，{@link EndExchangeFactory} 返回回放中的交易所实例，
+ * 共享的行情中心只接收回放推送的历史深度，策略不需要任何改动。历史行情通过交易所配置中的 marketDataRecordDirectory 记录。
+ * 回放结束后输出回放的记录数、虚拟时长、真实耗时以及各模拟交易所的收益和成交耗时。
+ * <p>
+ * 策略线程登记在虚拟时钟上，由回放引擎所在的线程按虚拟时间调度，极速模式下每次回放的结果完全一致，见 {@link VirtualClock}。
+ * 策略是一个不会退出的循环，回放结束后策略线程停在下一次等待处（加速模式下被中断），因此每次回放应在单独的进程中进行，
+ * 行情中心等进程内共享的对象在回放之前不应已经创建。
+ *
+ * @author robothy
+ */
+public class ReplayEngine {
+
+    private static final Logger logger = LogManager.getLogger(ReplayEngine.class);
+
+    private final MarketDataReplay replay;
+
+    /**
+     * @param directory 行情记录文件所在的目录
+     * @param speed     倍速，不大于 0 表示极速
+     */
+    public ReplayEngine(String directory, double speed) {
+        this.replay = new MarketDataReplay(directory, speed);
+    }
+
+    /**
+     * 设置模拟交易所每次调用的延迟
+     *
+     * @param latency 延迟（单位：毫秒）
+     * @return 回放引擎本身
+     */
+    public ReplayEngine setLatency(long latency) {
+        replay.setLatency(latency);
+        return this;
+    }
+
+    /**
+     * 设置某交易所某币种的初始余额
+     *
+     * @param plantform 交易所名称
+     * @param currency  币种
+     * @param amount    初始余额
+     * @return 回放引擎本身
+     */
+    public ReplayEngine setBalance(String plantform, String currency, BigDecimal amount) {
+        replay.setBalance(plantform, currency, amount);
+        return this;
+    }
+
+    /**
+     * @return 历史行情回放
+     */
+    public MarketDataReplay getReplay() {
+        return replay;
+    }
+
+    /**
+     * 用历史行情运行策略，直到回放结束或者策略退出
+     *
+     * @param strategy   策略
+     * @param parameters 策略参数
+     */
+    public void run(Strategy strategy, Map<String, Object> parameters) {
+        VirtualClock clock = replay.getClock();
+        Clock previousClock = TimeUtil.getClock();
+        TimeUtil.setClock(clock);
+        EndExchangeFactory.setReplay(replay);
+        MarketDataFeed feed = new MarketDataFeed().addPublisher(replay.getPublisher());
+        feed.start();
+        MarketDataFeed previousFeed = MarketDataFeed.setShared(feed);
+
+        if (!replay.isFinished()) {
+            // 加速模式下虚拟时间从创建时钟时开始流逝，从第一条记录重新开始计时
+            clock.reset(replay.nextEventTime());
+        }
+        long virtualBegin = clock.now();
+        long begin = System.nanoTime();
+        Thread thread = clock.newThread(() -> strategy.run(parameters), "replay-" + strategy.getClass().getSimpleName());
+        thread.start();
+        try {
+            clock.run(replay);
+        } finally {
+            if (!clock.isMaxSpeed()) {
+                thread.interrupt();
+            }
+            feed.stop();
+            MarketDataFeed.setShared(previousFeed);
+            EndExchangeFactory.setReplay(null);
+            TimeUtil.setClock(previousClock);
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        long virtualElapsed = clock.now() - virtualBegin;
+        logger.info("回放结束，记录数：{}，虚拟时长：{}ms，真实耗时：{}ms，每秒回放记录数：{}", replay.getReplayedCount(), virtualElapsed, elapsed,
+                elapsed == 0 ? replay.getReplayedCount() : replay.getReplayedCount() * 1000 / elapsed);
+        replay.getSimulatedExchanges().forEach((k, v) -> logger.info("{}", v));
+    }
+
+}
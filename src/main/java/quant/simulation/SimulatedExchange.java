@@ -0,0 +1,513 @@
+package quant.simulation;
+
+import exunion.exchange.Exchange;
+import exunion.metaobjects.Account;
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.OrderSide;
+import exunion.metaobjects.OrderStatus;
+import exunion.metaobjects.Ticker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.exchange.BatchOrderExchange;
+import quant.exchange.OrderRequest;
+import quant.utils.TimeUtil;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存中的模拟交易所
+ * <p>
+ * 实现了 {@link Exchange}，策略不需要任何改动就可以在没有真实交易所的情况下运行。每个币种对有一个按价格优先、
+ * 时间优先撮合的 {@link MatchingEngine}，外部流动性通过 {@link #setDepth(String, Depth)} 注入，
+ * 本账户的订单与外部流动性或者本账户的其它订单撮合，成交后按手续费费率结算余额。
+ * 每次调用之前等待配置的延迟，用于模拟网络和交易所的耗时。
+ * <p>
+ * 模拟交易所同时统计模拟的收益和成交耗时：收益为各币种当前余额（可用加冻结）与初始余额之差，
+ * 成交耗时为订单从下单到全部成交的时间。
+ * <p>
+ * 同名的模拟交易所共用一个实例，交易所实例池中的多个实例看到的是同一个账户和订单簿。
+ * <p>
+ * 模拟交易所原生支持批量下单、批量撤单：一批请求只等待一次延迟，并且在同一次加锁中依次执行，
+ * 与交易所的批量接口一样，一批订单之间不会插入其它调用方的请求。
+ *
+ * @author robothy
+ */
+public class SimulatedExchange implements Exchange, BatchOrderExchange {
+
+    private static final Logger logger = LogManager.getLogger(SimulatedExchange.class);
+
+    /**
+     * 各模拟交易所的实例
+     */
+    private static final Map<String, SimulatedExchange> instances = new ConcurrentHashMap<>();
+
+    /**
+     * 获取深度时返回的档数
+     */
+    private static final int DEPTH_LEVELS = 50;
+
+    /**
+     * 每全部成交多少个订单输出一次统计信息
+     */
+    private static final int REPORT_INTERVAL = 100;
+
+    private final String plantformName;
+
+    /**
+     * 每次调用的延迟（单位：毫秒）
+     */
+    private long latency = 0L;
+
+    /**
+     * 默认的手续费费率
+     */
+    private BigDecimal feeRate = BigDecimal.ZERO;
+
+    /**
+     * 各币种对的买入、卖出手续费费率，未设置的币种对使用默认费率
+     */
+    private final Map<String, CurrencyPair> currencyPairs = new HashMap<>();
+
+    private final Map<String, MatchingEngine> engines = new HashMap<>();
+
+    private final Map<String, BigDecimal> freeBalances = new HashMap<>();
+
+    /**
+     * 挂单冻结的余额
+     */
+    private final Map<String, BigDecimal> lockedBalances = new HashMap<>();
+
+    /**
+     * 初始余额，用于计算收益
+     */
+    private final Map<String, BigDecimal> initialBalances = new HashMap<>();
+
+    /**
+     * 各币种累计支付的手续费
+     */
+    private final Map<String, BigDecimal> fees = new HashMap<>();
+
+    /**
+     * 下单时间，键为订单编号
+     */
+    private final Map<String, Long> orderTimestamps = new HashMap<>();
+
+    /**
+     * 全部成交的订单数
+     */
+    private long filledCount = 0;
+
+    /**
+     * 全部成交的订单从下单到全部成交的总耗时（单位：毫秒）
+     */
+    private long totalFillLatency = 0;
+
+    /**
+     * 从下单到全部成交的最长耗时（单位：毫秒）
+     */
+    private long maxFillLatency = 0;
+
+    /**
+     * 所有订单，键为订单编号
+     */
+    private final Map<String, Order> orders = new LinkedHashMap<>();
+
+    /**
+     * 订单编号对应的币种对
+     */
+    private final Map<String, String> orderPairs = new HashMap<>();
+
+    private final AtomicLong orderIdSequence = new AtomicLong();
+
+    /**
+     * @param plantformName 交易所名称
+     */
+    public SimulatedExchange(String plantformName) {
+        this.plantformName = plantformName;
+    }
+
+    /**
+     * 获取某名称的模拟交易所，不存在时创建
+     *
+     * @param plantformName 交易所名称
+     * @return 模拟交易所
+     */
+    public static SimulatedExchange of(String plantformName) {
+        return instances.computeIfAbsent(plantformName, k -> {
+            logger.info("创建模拟交易所{}", k);
+            return new SimulatedExchange(k);
+        });
+    }
+
+    /**
+     * @param plantformName 交易所名称
+     * @return 是否已经创建了该名称的模拟交易所
+     */
+    public static boolean exists(String plantformName) {
+        return instances.containsKey(plantformName);
+    }
+
+    /**
+     * 设置每次调用的延迟
+     *
+     * @param latency 延迟（单位：毫秒）
+     * @return 模拟交易所本身
+     */
+    public SimulatedExchange setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * 设置默认的手续费费率
+     *
+     * @param feeRate 手续费费率
+     * @return 模拟交易所本身
+     */
+    public synchronized SimulatedExchange setFeeRate(BigDecimal feeRate) {
+        this.feeRate = feeRate;
+        return this;
+    }
+
+    /**
+     * 设置某币种对的买入、卖出手续费费率
+     *
+     * @param currencyPair 币种对
+     * @return 模拟交易所本身
+     */
+    public synchronized SimulatedExchange setCurrencyPair(CurrencyPair currencyPair) {
+        this.currencyPairs.put(currencyPair.getCurrencyPair(), currencyPair);
+        return this;
+    }
+
+    /**
+     * 设置某币种的可用余额
+     *
+     * @param currency 币种
+     * @param amount   可用余额
+     * @return 模拟交易所本身
+     */
+    public synchronized SimulatedExchange setBalance(String currency, BigDecimal amount) {
+        this.freeBalances.put(currency, amount);
+        this.initialBalances.put(currency, amount);
+        return this;
+    }
+
+    /**
+     * 以新的行情深度替换某币种对的外部流动性，价格与本账户订单交叉时本账户的订单成交
+     *
+     * @param currencyPair 币种对
+     * @param depth        行情深度
+     */
+    public synchronized void setDepth(String currencyPair, Depth depth) {
+        settle(currencyPair, getEngine(currencyPair).replaceExternal(depth));
+    }
+
+    /**
+     * 获取模拟的收益
+     *
+     * @return 各币种当前余额（可用加冻结）与初始余额之差
+     */
+    public synchronized Map<String, BigDecimal> getProfits() {
+        Map<String, BigDecimal> result = new HashMap<>();
+        freeBalances.forEach((k, v) -> result.put(k, v.add(lockedBalances.getOrDefault(k, BigDecimal.ZERO))
+                .subtract(initialBalances.getOrDefault(k, BigDecimal.ZERO))));
+        return result;
+    }
+
+    /**
+     * @return 各币种累计支付的手续费
+     */
+    public synchronized Map<String, BigDecimal> getFees() {
+        return new HashMap<>(fees);
+    }
+
+    /**
+     * @return 全部成交的订单数
+     */
+    public synchronized long getFilledCount() {
+        return filledCount;
+    }
+
+    /**
+     * @return 订单从下单到全部成交的平均耗时（单位：毫秒）
+     */
+    public synchronized double getAverageFillLatency() {
+        return 0 == filledCount ? 0 : (double) totalFillLatency / filledCount;
+    }
+
+    /**
+     * @return 订单从下单到全部成交的最长耗时（单位：毫秒）
+     */
+    public synchronized long getMaxFillLatency() {
+        return maxFillLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Map<String, String> profits = new LinkedHashMap<>();
+        getProfits().forEach((k, v) -> profits.put(k, v.stripTrailingZeros().toPlainString()));
+        return plantformName + "{filled=" + filledCount + ", avgFillLatency=" + String.format("%.1f", getAverageFillLatency())
+                + "ms, maxFillLatency=" + maxFillLatency + "ms, profits=" + profits + "}";
+    }
+
+    @Override
+    public String getPlantformName() {
+        return plantformName;
+    }
+
+    @Override
+    public Depth getDepth(String currencyPair) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            Depth depth = getEngine(currencyPair).toDepth(DEPTH_LEVELS);
+            depth.setExchange(plantformName);
+            depth.setCurrency(currencyPair);
+            depth.setTimestamp(TimeUtil.now());
+            return depth;
+        }
+    }
+
+    @Override
+    public Ticker getTicker(String currencyPair) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            BigDecimal lastPrice = getEngine(currencyPair).getLastPrice();
+            if (null == lastPrice) {
+                return null;
+            }
+            Ticker ticker = new Ticker();
+            ticker.setLastPrice(lastPrice);
+            return ticker;
+        }
+    }
+
+    @Override
+    public Account getAccount() {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            Map<String, Account.Balance> balances = new HashMap<>();
+            freeBalances.forEach((k, v) -> {
+                Account.Balance balance = new Account.Balance();
+                balance.setFree(v);
+                balances.put(k, balance);
+            });
+            Account account = new Account();
+            account.setBalances(balances);
+            return account;
+        }
+    }
+
+    @Override
+    public Order order(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            return placeOrder(side, currencyPair, quantity, price);
+        }
+    }
+
+    @Override
+    public List<Order> order(List<OrderRequest> requests) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            List<Order> result = new ArrayList<>();
+            requests.forEach(e -> result.add(placeOrder(e.getSide(), e.getCurrencyPair(), e.getQuantity(), e.getPrice())));
+            return result;
+        }
+    }
+
+    @Override
+    public Order getOrder(String currencyPair, String orderId) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            Order order = orders.get(orderId);
+            return null == order ? null : copy(order);
+        }
+    }
+
+    @Override
+    public Order cancel(String currencyPair, String orderId) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            return cancelOrder(currencyPair, orderId);
+        }
+    }
+
+    @Override
+    public List<Order> cancel(String currencyPair, List<String> orderIds) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            List<Order> result = new ArrayList<>();
+            orderIds.forEach(e -> result.add(cancelOrder(currencyPair, e)));
+            return result;
+        }
+    }
+
+    /**
+     * 冻结余额并将订单提交给撮合引擎，由持有本实例锁的调用方调用
+     *
+     * @return 下单结果，余额不足时为 null
+     */
+    private Order placeOrder(String side, String currencyPair, BigDecimal quantity, BigDecimal price) {
+        String[] currencies = currencyPair.split("_");
+        boolean isBuy = OrderSide.BUY.equals(side);
+        String lockedCurrency = isBuy ? currencies[1] : currencies[0];
+        BigDecimal lockedAmount = isBuy ? quantity.multiply(price) : quantity;
+        BigDecimal free = freeBalances.getOrDefault(lockedCurrency, BigDecimal.ZERO);
+        if (free.compareTo(lockedAmount) < 0) {
+            logger.warn("模拟交易所{}下单失败，{}余额不足，需要{}，可用{}", plantformName, lockedCurrency, lockedAmount, free);
+            return null;
+        }
+        freeBalances.put(lockedCurrency, free.subtract(lockedAmount));
+        lockedBalances.merge(lockedCurrency, lockedAmount, BigDecimal::add);
+
+        String orderId = String.valueOf(orderIdSequence.incrementAndGet());
+        Order order = new Order();
+        order.setOrderId(orderId);
+        order.setSide(side);
+        order.setPrice(price);
+        order.setQuantity(quantity);
+        order.setTradeMoney(BigDecimal.ZERO);
+        order.setTradeQuantity(BigDecimal.ZERO);
+        order.setStatus(OrderStatus.NEW);
+        orders.put(orderId, order);
+        orderPairs.put(orderId, currencyPair);
+        orderTimestamps.put(orderId, TimeUtil.now());
+
+        settle(currencyPair, getEngine(currencyPair).submit(new MatchingEngine.RestingOrder(orderId, side, price, quantity, false)));
+        return copy(order);
+    }
+
+    /**
+     * 撤销订单并退回未成交部分冻结的余额，由持有本实例锁的调用方调用
+     *
+     * @return 撤单结果，订单不存在或者已经完成时为 null
+     */
+    private Order cancelOrder(String currencyPair, String orderId) {
+        MatchingEngine.RestingOrder resting = getEngine(currencyPair).cancel(orderId);
+        if (null == resting) {
+            logger.warn("模拟交易所{}撤单失败，订单{}不存在或者已经完成。", plantformName, orderId);
+            return null;
+        }
+
+        // 退回未成交部分冻结的余额
+        String[] currencies = currencyPair.split("_");
+        if (resting.isBuy()) {
+            unlock(currencies[1], resting.getRemaining().multiply(resting.getPrice()));
+        } else {
+            unlock(currencies[0], resting.getRemaining());
+        }
+        Order order = orders.get(orderId);
+        order.setStatus(OrderStatus.CANCELED);
+        return copy(order);
+    }
+
+    @Override
+    public List<Order> getOpenOrders(String currencyPair) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            List<Order> result = new ArrayList<>();
+            getEngine(currencyPair).getOwnOrders().forEach(e -> result.add(copy(orders.get(e.getOrderId()))));
+            return result;
+        }
+    }
+
+    @Override
+    public List<Order> getHistoryOrders(String currencyPair) {
+        TimeUtil.delay(latency);
+        synchronized (this) {
+            List<Order> result = new ArrayList<>();
+            orders.forEach((k, v) -> {
+                if (currencyPair.equals(orderPairs.get(k)) && !OrderStatus.NEW.equals(v.getStatus())) {
+                    result.add(copy(v));
+                }
+            });
+            return result;
+        }
+    }
+
+    /**
+     * 结算成交：更新本账户订单的成交量、成交额和状态，并按手续费费率更新余额
+     */
+    private void settle(String currencyPair, List<MatchingEngine.Trade> trades) {
+        String[] currencies = currencyPair.split("_");
+        for (MatchingEngine.Trade trade : trades) {
+            settle(currencies, trade.getMaker(), trade);
+            settle(currencies, trade.getTaker(), trade);
+        }
+    }
+
+    private void settle(String[] currencies, MatchingEngine.RestingOrder resting, MatchingEngine.Trade trade) {
+        if (resting.isExternal()) {
+            return;
+        }
+        BigDecimal quantity = trade.getQuantity();
+        BigDecimal money = quantity.multiply(trade.getPrice());
+        if (resting.isBuy()) {
+            // 以低于委托价的价格成交时，退回多冻结的计价币
+            BigDecimal locked = quantity.multiply(resting.getPrice());
+            lockedBalances.merge(currencies[1], locked.negate(), BigDecimal::add);
+            freeBalances.merge(currencies[1], locked.subtract(money), BigDecimal::add);
+            BigDecimal fee = quantity.multiply(getFeeRate(currencies, true));
+            freeBalances.merge(currencies[0], quantity.subtract(fee), BigDecimal::add);
+            fees.merge(currencies[0], fee, BigDecimal::add);
+        } else {
+            lockedBalances.merge(currencies[0], quantity.negate(), BigDecimal::add);
+            BigDecimal fee = money.multiply(getFeeRate(currencies, false));
+            freeBalances.merge(currencies[1], money.subtract(fee), BigDecimal::add);
+            fees.merge(currencies[1], fee, BigDecimal::add);
+        }
+
+        Order order = orders.get(resting.getOrderId());
+        order.setTradeQuantity(order.getTradeQuantity().add(quantity));
+        order.setTradeMoney(order.getTradeMoney().add(money));
+        if (resting.getRemaining().signum() <= 0) {
+            order.setStatus(OrderStatus.FILLED);
+            long fillLatency = TimeUtil.now() - orderTimestamps.remove(resting.getOrderId());
+            filledCount++;
+            totalFillLatency += fillLatency;
+            maxFillLatency = Math.max(maxFillLatency, fillLatency);
+            if (filledCount % REPORT_INTERVAL == 0) {
+                logger.info("模拟交易所{}统计：{}", plantformName, this);
+            }
+        }
+        logger.debug("模拟交易所{}的订单{}成交，价格：{}，数量：{}", plantformName, resting.getOrderId(), trade.getPrice(), quantity);
+    }
+
+    private void unlock(String currency, BigDecimal amount) {
+        lockedBalances.merge(currency, amount.negate(), BigDecimal::add);
+        freeBalances.merge(currency, amount, BigDecimal::add);
+    }
+
+    private BigDecimal getFeeRate(String[] currencies, boolean isBuy) {
+        CurrencyPair currencyPair = currencyPairs.get(currencies[0] + "_" + currencies[1]);
+        BigDecimal rate = null == currencyPair ? null : (isBuy ? currencyPair.getBuyFeeRate() : currencyPair.getSellFeeRate());
+        return null == rate ? feeRate : rate;
+    }
+
+    private MatchingEngine getEngine(String currencyPair) {
+        return engines.computeIfAbsent(currencyPair, k -> new MatchingEngine());
+    }
+
+    private static Order copy(Order order) {
+        Order result = new Order();
+        result.setOrderId(order.getOrderId());
+        result.setSide(order.getSide());
+        result.setStatus(order.getStatus());
+        result.setPrice(order.getPrice());
+        result.setQuantity(order.getQuantity());
+        result.setTradeMoney(order.getTradeMoney());
+        result.setTradeQuantity(order.getTradeQuantity());
+        return result;
+    }
+
+}
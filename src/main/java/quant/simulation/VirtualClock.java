@@ -0,0 +1,441 @@
+package quant.simulation;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.utils.Clock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 回放历史行情时使用的虚拟时钟
+ * <p>
+ * 加速模式下虚拟时间按倍速随真实时间流逝，延时也按倍速缩短，多个线程看到的是同一条时间线。
+ * <p>
+ * 极速模式下虚拟时钟是一个离散事件调度器：通过 {@link #newThread(Runnable, String)} 创建的线程（策略线程、
+ * 经 {@link #executor(Executor)} 执行的下单任务）登记在时钟上，同一时刻只有一个登记的线程在运行，
+ * 它在延时、{@link #tryAcquire(Semaphore, long)}、{@link #join(CompletableFuture)} 处让出执行权。
+ * 所有登记的线程都阻塞时，{@link #run(EventSource)} 将虚拟时间直接推进到下一个外部事件（历史行情记录）
+ * 或者最早到期的延时，因此同一份行情、同一个策略每次回放的结果完全一致，与线程数无关。
+ * <p>
+ * 登记的线程只能通过 {@link quant.utils.TimeUtil} 阻塞，阻塞在其他同步工具上会使调度停顿。
+ * 未登记的线程不参与调度，极速模式下它们的延时立即返回，不推进虚拟时间。
+ *
+ * @author robothy
+ */
+public class VirtualClock implements Clock {
+
+    private static final Logger logger = LogManager.getLogger(VirtualClock.class);
+
+    /**
+     * 登记的线程运行多久（真实时间，单位：毫秒）仍未让出执行权时输出警告
+     */
+    private static final long STALL_WARNING_TIME = 10000L;
+
+    /**
+     * 加速模式下等待下一个事件时，最长的一次休眠（真实时间，单位：毫秒）
+     */
+    private static final long MAX_IDLE_TIME = 100L;
+
+    /**
+     * 外部事件源，例如按时间顺序回放的历史行情
+     */
+    public interface EventSource {
+
+        /**
+         * @return 下一个事件的虚拟时间，没有更多事件时返回 Long.MAX_VALUE
+         */
+        long nextEventTime();
+
+        /**
+         * 触发虚拟时间不晚于 time 的所有事件，在调度线程上执行，极速模式下此时没有登记的线程在运行
+         *
+         * @param time 当前虚拟时间（单位：毫秒）
+         */
+        void fire(long time);
+    }
+
+    /**
+     * 登记在时钟上的线程
+     */
+    private static class Task {
+
+        private final long sequence;
+
+        private final String name;
+
+        /**
+         * 阻塞到此虚拟时间，Long.MAX_VALUE 表示没有超时
+         */
+        private long wakeAt = Long.MAX_VALUE;
+
+        /**
+         * 等待成立的条件，为 null 表示单纯的延时
+         */
+        private BooleanSupplier condition;
+
+        /**
+         * 条件是否在超时之前成立
+         */
+        private boolean satisfied;
+
+        Task(long sequence, String name) {
+            this.sequence = sequence;
+            this.name = name;
+        }
+    }
+
+    /**
+     * 倍速，不大于 0 表示极速
+     */
+    private final double speed;
+
+    /**
+     * 加速模式下，开始时的虚拟时间
+     */
+    private volatile long baseTime;
+
+    /**
+     * 加速模式下，开始时的真实时间（单位：纳秒）
+     */
+    private volatile long baseNanos;
+
+    /**
+     * 极速模式下的当前虚拟时间，只由调度线程推进
+     */
+    private volatile long current;
+
+    /**
+     * 登记的线程
+     */
+    private final Map<Thread, Task> tasks = new HashMap<>();
+
+    /**
+     * 等待虚拟时间或者条件的线程，按阻塞的先后排列
+     */
+    private final List<Task> blocked = new ArrayList<>();
+
+    /**
+     * 可以运行、等待调度的线程，按唤醒的先后排列
+     */
+    private final Deque<Task> ready = new ArrayDeque<>();
+
+    /**
+     * 正在运行的登记线程
+     */
+    private Task running = null;
+
+    private long taskSequence = 0;
+
+    private final AtomicInteger asyncIndex = new AtomicInteger();
+
+    /**
+     * @param startTime 开始时的虚拟时间（单位：毫秒）
+     * @param speed     倍速，不大于 0 表示极速
+     */
+    public VirtualClock(long startTime, double speed) {
+        this.speed = speed;
+        reset(startTime);
+    }
+
+    /**
+     * 将虚拟时间重置到某一时刻，应在调度开始之前调用
+     *
+     * @param time 虚拟时间（单位：毫秒）
+     */
+    public void reset(long time) {
+        this.baseTime = time;
+        this.baseNanos = System.nanoTime();
+        this.current = time;
+    }
+
+    /**
+     * @return 是否为极速模式
+     */
+    public boolean isMaxSpeed() {
+        return speed <= 0;
+    }
+
+    @Override
+    public long now() {
+        if (isMaxSpeed()) {
+            return current;
+        }
+        return baseTime + (long) ((System.nanoTime() - baseNanos) / 1_000_000D * speed);
+    }
+
+    @Override
+    public void delay(long ms) {
+        if (!isMaxSpeed()) {
+            try {
+                TimeUnit.MICROSECONDS.sleep((long) (ms * 1000 / speed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        synchronized (this) {
+            Task task = tasks.get(Thread.currentThread());
+            if (null == task) {
+                return;
+            }
+            block(task, Math.max(ms, 0L), null);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(Semaphore semaphore, long timeout) throws InterruptedException {
+        if (!isMaxSpeed()) {
+            return semaphore.tryAcquire((long) (timeout * 1000 / speed), TimeUnit.MICROSECONDS);
+        }
+        synchronized (this) {
+            Task task = tasks.get(Thread.currentThread());
+            if (null != task) {
+                return semaphore.tryAcquire() || (timeout > 0 && block(task, timeout, semaphore::tryAcquire));
+            }
+        }
+        return Clock.super.tryAcquire(semaphore, timeout);
+    }
+
+    @Override
+    public <T> T join(CompletableFuture<T> future) {
+        if (isMaxSpeed()) {
+            synchronized (this) {
+                Task task = tasks.get(Thread.currentThread());
+                if (null != task && !future.isDone()) {
+                    block(task, Long.MAX_VALUE, future::isDone);
+                }
+            }
+        }
+        return future.join();
+    }
+
+    /**
+     * 极速模式下每个异步任务在一个新的登记线程上运行，与调用方一样按虚拟时间调度
+     */
+    @Override
+    public Executor executor(Executor executor) {
+        if (!isMaxSpeed()) {
+            return executor;
+        }
+        return command -> newThread(command, "virtual-async-" + asyncIndex.incrementAndGet()).start();
+    }
+
+    /**
+     * 创建一个登记在时钟上的守护线程，{@link #run(EventSource)} 在所有登记的线程结束时返回。
+     * 极速模式下新线程排在可运行队列的末尾，轮到它时才开始运行。
+     *
+     * @param runnable 线程执行的任务
+     * @param name     线程名称
+     * @return 尚未启动的线程
+     */
+    public Thread newThread(Runnable runnable, String name) {
+        Task task;
+        synchronized (this) {
+            task = new Task(taskSequence++, name);
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                if (isMaxSpeed()) {
+                    synchronized (this) {
+                        awaitTurn(task);
+                    }
+                }
+                runnable.run();
+            } finally {
+                exit(task);
+            }
+        }, name);
+        thread.setDaemon(true);
+        synchronized (this) {
+            tasks.put(thread, task);
+            if (isMaxSpeed()) {
+                ready.add(task);
+            }
+        }
+        return thread;
+    }
+
+    /**
+     * 按虚拟时间触发外部事件，直到没有更多事件或者所有登记的线程都已结束。
+     * <p>
+     * 极速模式下在调用方线程上调度登记的线程：运行中的线程让出执行权后依次唤醒可运行的线程、条件已经成立的线程，
+     * 都没有时将虚拟时间推进到下一个事件或者最早到期的延时。返回后仍阻塞的登记线程不会再被唤醒。
+     *
+     * @param events 外部事件源
+     */
+    public void run(EventSource events) {
+        try {
+            if (isMaxSpeed()) {
+                schedule(events);
+            } else {
+                replay(events);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 加速模式：事件按真实时间触发，登记的线程自由运行
+     */
+    private void replay(EventSource events) throws InterruptedException {
+        while (hasTasks()) {
+            long next = events.nextEventTime();
+            if (Long.MAX_VALUE == next) {
+                return;
+            }
+            long wait = next - now();
+            if (wait > 0) {
+                TimeUnit.MICROSECONDS.sleep(Math.min((long) (wait * 1000 / speed), MAX_IDLE_TIME * 1000));
+                continue;
+            }
+            events.fire(now());
+        }
+    }
+
+    /**
+     * 极速模式：离散事件调度
+     */
+    private synchronized void schedule(EventSource events) throws InterruptedException {
+        while (true) {
+            awaitIdle();
+            if (tasks.isEmpty()) {
+                return;
+            }
+            if (!ready.isEmpty()) {
+                running = ready.poll();
+                notifyAll();
+                continue;
+            }
+            if (wakeSatisfied()) {
+                continue;
+            }
+            long nextEvent = events.nextEventTime();
+            if (Long.MAX_VALUE == nextEvent) {
+                return;
+            }
+            long nextTimer = Long.MAX_VALUE;
+            for (Task task : blocked) {
+                nextTimer = Math.min(nextTimer, task.wakeAt);
+            }
+            if (nextEvent <= nextTimer) {
+                current = Math.max(current, nextEvent);
+                events.fire(current);
+            } else {
+                current = nextTimer;
+                wakeExpired();
+            }
+        }
+    }
+
+    private synchronized boolean hasTasks() {
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * 登记的线程阻塞到条件成立或者超时，期间让出执行权
+     *
+     * @return 条件是否在超时之前成立
+     */
+    private boolean block(Task task, long timeout, BooleanSupplier condition) {
+        task.wakeAt = Long.MAX_VALUE - current <= timeout ? Long.MAX_VALUE : current + timeout;
+        task.condition = condition;
+        task.satisfied = false;
+        blocked.add(task);
+        running = null;
+        notifyAll();
+        awaitTurn(task);
+        return task.satisfied;
+    }
+
+    /**
+     * 等待调度线程把执行权交给此线程，期间的中断在拿到执行权后恢复
+     */
+    private void awaitTurn(Task task) {
+        boolean interrupted = false;
+        while (running != task) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 等待运行中的登记线程让出执行权
+     */
+    private void awaitIdle() throws InterruptedException {
+        long begin = System.currentTimeMillis();
+        boolean warned = false;
+        while (null != running) {
+            wait(STALL_WARNING_TIME);
+            if (null != running && !warned && System.currentTimeMillis() - begin >= STALL_WARNING_TIME) {
+                logger.warn("{}运行了{}ms仍未让出执行权，可能阻塞在虚拟时钟之外。", running.name, STALL_WARNING_TIME);
+                warned = true;
+            }
+        }
+    }
+
+    /**
+     * 唤醒条件已经成立的线程
+     *
+     * @return 是否唤醒了线程
+     */
+    private boolean wakeSatisfied() {
+        boolean woken = false;
+        Iterator<Task> iterator = blocked.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (null != task.condition && task.condition.getAsBoolean()) {
+                task.satisfied = true;
+                iterator.remove();
+                ready.add(task);
+                woken = true;
+            }
+        }
+        return woken;
+    }
+
+    /**
+     * 按到期时间、登记顺序唤醒延时或者等待已经到期的线程
+     */
+    private void wakeExpired() {
+        List<Task> expired = new ArrayList<>();
+        Iterator<Task> iterator = blocked.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (task.wakeAt <= current) {
+                iterator.remove();
+                expired.add(task);
+            }
+        }
+        expired.sort(Comparator.comparingLong((Task e) -> e.wakeAt).thenComparingLong(e -> e.sequence));
+        ready.addAll(expired);
+    }
+
+    private synchronized void exit(Task task) {
+        tasks.values().remove(task);
+        if (running == task) {
+            running = null;
+        }
+        notifyAll();
+    }
+
+}
@@ -10,7 +10,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,13 +19,20 @@ import exunion.exchange.Exchange;
 import exunion.metaobjects.Account;
 import exunion.metaobjects.Account.Balance;
 import exunion.metaobjects.Depth;
-import exunion.metaobjects.Depth.PriceQuotation;
 import exunion.metaobjects.Order;
 import exunion.metaobjects.OrderSide;
 import exunion.metaobjects.OrderStatus;
+import quant.arbitrage.SpreadEngine;
 import quant.dao.CommonDao;
+import quant.dao.OrderArchiver;
+import quant.dao.OrderJournal;
 import quant.entity.AssemblyHedgeOrder;
 import quant.exchange.EndExchangeFactory;
+import quant.exchange.OrderGateway;
+import quant.exchange.OrderReconciler;
+import quant.market.MarketDataFeed;
+import quant.market.BookCursor;
+import quant.utils.TimeUtil;
 
 public class AssemblyHedge implements Strategy {
 
@@ -79,6 +86,8 @@ public class AssemblyHedge implements Strategy {
 
     private final CommonDao commonDao = new CommonDao();
 
+    private final OrderJournal journal = OrderJournal.getShared();
+
     // 计划组合对冲单
     private final Map<HedgeCurrencyPair, List<AssemblyHedgeOrder>> planAssemblyHedgeOrders = new HashMap<>();
 
@@ -88,6 +97,9 @@ public class AssemblyHedge implements Strategy {
     // 各币种账户余额
     private final Map<String, Map<String, Balance>> hedgeCurrencyBalances = new HashMap<String, Map<String, Balance>>();
 
+    // 多交易所搬砖价差计算引擎，对冲币种对多于两个时使用
+    private SpreadEngine<HedgeCurrencyPair> spreadEngine = null;
+
     // 组合对冲币种对，即参与对冲组合的币种对，属性包括平台，币种对
     private List<HedgeCurrencyPair> hedgeCurrencyPairs = null;
 
@@ -117,6 +129,12 @@ public class AssemblyHedge implements Strategy {
     // 交易所实例
     private Map<String, Exchange> exchanges = null;
 
+    // 各交易所的异步下单网关
+    private Map<String, OrderGateway> orderGateways = null;
+
+    // 各交易所的订单对账器
+    private Map<String, OrderReconciler> orderReconcilers = null;
+
     /**
      * @return 当前策略实例使用到的交易所实例
      */
@@ -167,7 +185,7 @@ public class AssemblyHedge implements Strategy {
 
     /**
      * 市场有效时间(单位：毫秒)，默认值 500，表示市场行情有效时间，
-     * 即在获取行情数据时，交易所必须在此时间之内返回行情数据，否则认为获取到的数据无效
+     * 即币种对的深度信息超过此时间未更新，则认为该深度信息无效
      */
     private Long marketAvailableDuration = 500L;
 
@@ -175,7 +193,7 @@ public class AssemblyHedge implements Strategy {
      * 获取市场有效时间
      * <p>
      * 市场有效时间(单位：毫秒)，默认值 500，表示市场行情有效时间，
-     * 即在获取行情数据时，交易所必须在此时间之内返回行情数据，否则认为获取到的数据无效
+     * 即币种对的深度信息超过此时间未更新，则认为该深度信息无效
      *
      * @return 市场有效时间
      */
@@ -187,7 +205,7 @@ public class AssemblyHedge implements Strategy {
      * 设置市场有效时间
      * <p>
      * 市场有效时间(单位：毫秒)，默认值 500，表示市场行情有效时间，
-     * 即在获取行情数据时，交易所必须在此时间之内返回行情数据，否则认为获取到的数据无效
+     * 即币种对的深度信息超过此时间未更新，则认为该深度信息无效
      *
      * @param marketAvailableDuration 市场有效时间，默认值 500
      */
@@ -438,6 +456,31 @@ public class AssemblyHedge implements Strategy {
         return this.maxQuantity;
     }
 
+    /**
+     * 行情中心
+     */
+    private MarketDataFeed marketDataFeed = null;
+
+    /**
+     * 设置行情中心，未设置时使用进程内共享的行情中心，与其它策略共用同一交易所同一币种对的深度
+     *
+     * @param marketDataFeed 行情中心
+     * @return
+     */
+    public AssemblyHedge setMarketDataFeed(MarketDataFeed marketDataFeed) {
+        this.marketDataFeed = marketDataFeed;
+        return this;
+    }
+
+    /**
+     * 获取行情中心
+     *
+     * @return
+     */
+    public MarketDataFeed getMarketDataFeed() {
+        return this.marketDataFeed;
+    }
+
     /*****************************************************************
      *
      * 	私有方法定义
@@ -489,7 +532,29 @@ public class AssemblyHedge implements Strategy {
                     .forEach(e -> exchanges.put(e.getPlatform(), EndExchangeFactory.newInstance(e.getPlatform())));
         }
 
+        if (null == orderGateways) {
+            this.orderGateways = new HashMap<>();
+            this.exchanges.forEach((k, v) -> orderGateways.put(k, new OrderGateway(k, v)));
+        }
+
+        if (null == orderReconcilers) {
+            this.orderReconcilers = new HashMap<>();
+            this.exchanges.forEach((k, v) -> orderReconcilers.put(k, new OrderReconciler(v)));
+        }
+
         logger.debug("交易所实例构建完成。");
+
+        // 订阅各对冲币种对的深度，同一交易所同一币种对只有一个轮询线程
+        if (null == this.marketDataFeed) {
+            this.marketDataFeed = MarketDataFeed.getShared();
+        }
+        this.hedgeCurrencyPairs.forEach(e -> this.marketDataFeed.subscribe(e.getPlatform(), e.getCurrencyPair(), (exchange, currencyPair, depth) -> {
+        }));
+        this.marketDataFeed.start();
+
+        if (this.hedgeCurrencyPairs.size() > 2) {
+            this.spreadEngine = new SpreadEngine<>(feeRate, priceScale, quantityScale, minQuantity, maxQuantity);
+        }
         return true;
     }
 
@@ -501,35 +566,27 @@ public class AssemblyHedge implements Strategy {
     private Map<HedgeCurrencyPair, Depth> getHedgeCurrencyPairDepth() {
 
         logger.debug("开始获取深度信息 ...");
-        Map<HedgeCurrencyPair, Depth> result = new ConcurrentHashMap<AssemblyHedge.HedgeCurrencyPair, Depth>();
-
-        Long begin = System.currentTimeMillis();
-        this.hedgeCurrencyPairs.parallelStream().forEach(hedgeCurrencyPair -> {
-            final Exchange exchange = exchanges.get(hedgeCurrencyPair.getPlatform());
-            Depth depth = exchange.getDepth(hedgeCurrencyPair.getCurrencyPair());
-            if (depth != null) {
-                result.put(hedgeCurrencyPair, depth);
+        Map<HedgeCurrencyPair, Depth> result = new HashMap<>();
+
+        // 已过期的币种对只重新获取该币种对的深度，未过期的深度继续使用
+        Long oldestRequestTimestamp = Long.MAX_VALUE;
+        for (HedgeCurrencyPair hedgeCurrencyPair : this.hedgeCurrencyPairs) {
+            MarketDataFeed.LiveBook book = marketDataFeed.getFreshBook(hedgeCurrencyPair.getPlatform(), hedgeCurrencyPair.getCurrencyPair(), this.marketAvailableDuration);
+            if (null == book) {
+                logger.error("未能获取{}在市场有效时间{}ms之内的深度信息。", hedgeCurrencyPair, this.marketAvailableDuration);
+                return null;
             }
-        });
-        Long end = System.currentTimeMillis();
-        Long duration = end - begin;
-
-        logger.debug(result);
+            result.put(hedgeCurrencyPair, book.getDepth());
+            oldestRequestTimestamp = Long.min(oldestRequestTimestamp, book.getRequestTimestamp());
+        }
 
+        Long duration = TimeUtil.now() - oldestRequestTimestamp;
         if (duration > this.marketAvailableDuration) {
-            logger.warn("获取深度信息的时间{}ms超过了市场有效时间{}ms。", duration, this.marketAvailableDuration);
+            logger.warn("最旧的深度信息已存在{}ms，超过了市场有效时间{}ms。", duration, this.marketAvailableDuration);
             return null;
         }
 
-        if (this.hedgeCurrencyPairs.size() != result.size()) {
-            for (HedgeCurrencyPair hedgeCurrencyPair : this.hedgeCurrencyPairs) {
-                if (result.containsKey(hedgeCurrencyPair)) {
-                    continue;
-                }
-                logger.error("未能获取{}的深度信息。", hedgeCurrencyPair);
-                return null;
-            }
-        }
+        logger.debug(result);
         logger.debug("深度信息获取完成 ...");
         return result;
     }
@@ -548,6 +605,11 @@ public class AssemblyHedge implements Strategy {
             return CalculateDoubleAssemblyHedgeOrder(this.hedgeCurrencyPairs, hedgeCurrencyPairDepth, this.hedgeCurrencyBalances);
         }
 
+        // 多交易所搬砖套利
+        if (hedgeCurrencyPairs.size() > 2) {
+            return CalculateMultipleAssemblyHedgeOrder(hedgeCurrencyPairDepth, this.hedgeCurrencyBalances);
+        }
+
 
         return assemblyHedgeOrders;
     }
@@ -571,14 +633,14 @@ public class AssemblyHedge implements Strategy {
             Map<String, Balance> mainExchgBal, Map<String, Balance> viceExchgBal) {
         Map<HedgeCurrencyPair, AssemblyHedgeOrder> hedgeOrders = new HashMap<>();
 
-        List<PriceQuotation> mainCurrPairAsks = mainCurrPairDepth.getAsks();
-        List<PriceQuotation> viceCurrPairBids = viceCurrPairDepth.getBids();
+        BookCursor mainCurrPairAsks = BookCursor.asks(mainCurrPairDepth);
+        BookCursor viceCurrPairBids = BookCursor.bids(viceCurrPairDepth);
 
         String baseCurr = mainCurrPair.getCurrencyPair().split("_")[0]; // 基础币种
         String quoteCurr = mainCurrPair.getCurrencyPair().split("_")[1]; // 计价币种
 
-        BigDecimal mainCurrPairAsk1Price = mainCurrPairAsks.get(0).getPrice();    // 主交易所的卖一价
-        BigDecimal viceCurrPairBuy1Price = viceCurrPairBids.get(0).getPrice();    // 副交易所的买一价
+        BigDecimal mainCurrPairAsk1Price = mainCurrPairAsks.getPrice();    // 主交易所的卖一价
+        BigDecimal viceCurrPairBuy1Price = viceCurrPairBids.getPrice();    // 副交易所的买一价
         // 主交易所的卖一价 > 副交易所的买一价，表示没有对冲机会，因为主交易所总是买入，副交易所总是卖出
         if (mainCurrPairAsk1Price.compareTo(viceCurrPairBuy1Price) > 0) {
             logger.debug("主交易所 {} 卖一价 {}, 副交易所 {} 买一价 {} , 不存在对冲交易机会。", mainCurrPair.getPlatform(), mainCurrPairAsk1Price, viceCurrPair.getPlatform(), viceCurrPairBuy1Price);
@@ -589,27 +651,27 @@ public class AssemblyHedge implements Strategy {
         BigDecimal mainCurrencyPairBuyPrice = new BigDecimal("0");
         BigDecimal viceCurrencyPairSellQuantity = new BigDecimal("0");
         BigDecimal viceCurrencyPairSellPrice = new BigDecimal("0");
-        while (mainCurrPairAsks.size() > 0 && viceCurrPairBids.size() > 0) {
+        while (mainCurrPairAsks.hasLevel() && viceCurrPairBids.hasLevel()) {
             BigDecimal hedgeBuyQuantity;
             BigDecimal hedgeBuyPrice;
             BigDecimal hedgeSellQuantity;
             BigDecimal hedgeSellPrice;
 
-            if (mainCurrPairAsks.get(0).getQuantity().compareTo(viceCurrPairBids.get(0).getQuantity()) > 0) {
-                hedgeSellQuantity = viceCurrPairBids.get(0).getQuantity();
-                hedgeSellPrice = viceCurrPairBids.get(0).getPrice();
+            if (mainCurrPairAsks.getQuantity().compareTo(viceCurrPairBids.getQuantity()) > 0) {
+                hedgeSellQuantity = viceCurrPairBids.getQuantity();
+                hedgeSellPrice = viceCurrPairBids.getPrice();
                 hedgeBuyQuantity = hedgeSellQuantity.divide(BigDecimal.ONE.subtract(this.feeRate), quantityScale + 3, RoundingMode.UP);
-                hedgeBuyPrice = mainCurrPairAsks.get(0).getPrice();
+                hedgeBuyPrice = mainCurrPairAsks.getPrice();
 
-                viceCurrPairBids.remove(0);
-                mainCurrPairAsks.get(0).setQuantity(mainCurrPairAsks.get(0).getQuantity().subtract(hedgeBuyQuantity));
+                viceCurrPairBids.next();
+                mainCurrPairAsks.consume(hedgeBuyQuantity);
             } else {
-                hedgeBuyQuantity = mainCurrPairAsks.get(0).getQuantity();
-                hedgeBuyPrice = mainCurrPairAsks.get(0).getPrice();
+                hedgeBuyQuantity = mainCurrPairAsks.getQuantity();
+                hedgeBuyPrice = mainCurrPairAsks.getPrice();
                 hedgeSellQuantity = hedgeBuyQuantity.multiply(BigDecimal.ONE.subtract(this.feeRate));
-                hedgeSellPrice = viceCurrPairBids.get(0).getPrice();
-                mainCurrPairAsks.remove(0);
-                viceCurrPairBids.get(0).setQuantity(viceCurrPairBids.get(0).getQuantity().subtract(hedgeSellQuantity));
+                hedgeSellPrice = viceCurrPairBids.getPrice();
+                mainCurrPairAsks.next();
+                viceCurrPairBids.consume(hedgeSellQuantity);
             }
 
 
@@ -768,6 +830,71 @@ public class AssemblyHedge implements Strategy {
         return hedgeOrders;
     }
 
+    /**
+     * 多交易所对冲计算算法，所有交易所的币种对必须相同。
+     * <p>将所有交易所的深度合并成一个盘口，一次遍历得到最优的买入交易所、卖出交易所组合，
+     * 买入量、卖出量可以拆分到多个交易所。
+     *
+     * @param hedgeCurrencyPairDepth 各交易所币种对的深度信息
+     * @param hedgeCurrencyBalances  各交易所的余额
+     * @return 对冲交易订单，每个参与的交易所一个订单
+     */
+    private Map<HedgeCurrencyPair, AssemblyHedgeOrder> CalculateMultipleAssemblyHedgeOrder(Map<HedgeCurrencyPair, Depth> hedgeCurrencyPairDepth, Map<String, Map<String, Balance>> hedgeCurrencyBalances) {
+        Map<HedgeCurrencyPair, AssemblyHedgeOrder> hedgeOrders = new HashMap<>();
+
+        String baseCurr = hedgeCurrencyPairs.get(0).getCurrencyPair().split("_")[0]; // 基础币种
+        String quoteCurr = hedgeCurrencyPairs.get(0).getCurrencyPair().split("_")[1]; // 计价币种
+
+        SpreadEngine.Plan<HedgeCurrencyPair> plan = spreadEngine.calculate(hedgeCurrencyPairDepth,
+                e -> getFreeBalance(hedgeCurrencyBalances, e.getPlatform(), quoteCurr),
+                e -> getFreeBalance(hedgeCurrencyBalances, e.getPlatform(), baseCurr));
+        if (plan.isEmpty()) {
+            logger.debug("对冲套利机会不存在。");
+            return hedgeOrders;
+        }
+
+        logger.info("可以套利。");
+        logger.debug("最终计算方案：{}", plan);
+
+        String hedgeId = UUID.randomUUID().toString().replace("-", "");
+        plan.getBuyQuantities().forEach((k, v) -> hedgeOrders.put(k,
+                buildAssemblyHedgeOrder(k, OrderSide.BUY, plan.getBuyPrices().get(k), v, hedgeId, baseCurr, quoteCurr)));
+        plan.getSellQuantities().forEach((k, v) -> hedgeOrders.put(k,
+                buildAssemblyHedgeOrder(k, OrderSide.SELL, plan.getSellPrices().get(k), v, hedgeId, baseCurr, quoteCurr)));
+        return hedgeOrders;
+    }
+
+    /**
+     * 获取某交易所某币种的可用余额
+     *
+     * @return 可用余额，未获取到该币种余额时返回 0
+     */
+    private BigDecimal getFreeBalance(Map<String, Map<String, Balance>> hedgeCurrencyBalances, String platform, String currency) {
+        Map<String, Balance> balances = hedgeCurrencyBalances.get(platform);
+        if (null == balances || null == balances.get(currency)) {
+            return BigDecimal.ZERO;
+        }
+        return balances.get(currency).getFree();
+    }
+
+    /**
+     * 构建一个组合对冲订单
+     */
+    private AssemblyHedgeOrder buildAssemblyHedgeOrder(HedgeCurrencyPair hedgeCurrencyPair, String orderSide, BigDecimal price, BigDecimal quantity,
+                                                       String hedgeId, String baseCurr, String quoteCurr) {
+        AssemblyHedgeOrder order = new AssemblyHedgeOrder();
+        order.setPlantform(hedgeCurrencyPair.getPlatform());
+        order.setOrderQuantity(quantity);
+        order.setOrderPrice(price);
+        order.setHedgeId(hedgeId);
+        order.setCurrencyPair(hedgeCurrencyPair.getCurrencyPair());
+        order.setQuoteCurrency(quoteCurr);
+        order.setBaseCurrency(baseCurr);
+        order.setOrderSide(orderSide);
+        order.setFeeRate(feeRate);
+        return order;
+    }
+
     /**
      * 根据对冲订单组合挂单
      *
@@ -775,7 +902,9 @@ public class AssemblyHedge implements Strategy {
      * @return 进行挂单操作之后的组合单，若所有的组合单均挂单失败，则直接清空组合单。
      */
     private Map<HedgeCurrencyPair, AssemblyHedgeOrder> order(final Map<HedgeCurrencyPair, AssemblyHedgeOrder> assemblyHedgeOrders) {
-        assemblyHedgeOrders.entrySet().parallelStream().forEach(e -> order(e.getValue()));
+        List<CompletableFuture<AssemblyHedgeOrder>> futures = new ArrayList<>();
+        assemblyHedgeOrders.values().forEach(e -> futures.add(orderAsync(e)));
+        OrderGateway.awaitAll(futures);
         if (0 == assemblyHedgeOrders.entrySet().stream().filter(e -> !"PLAN".equals(e.getValue().getOrderStatus())).count()) {
             assemblyHedgeOrders.clear();
         }
@@ -789,22 +918,32 @@ public class AssemblyHedge implements Strategy {
      * @return 订单信息
      */
     private AssemblyHedgeOrder order(final AssemblyHedgeOrder assemblyHedgeOrder) {
-        String exchangeName = assemblyHedgeOrder.getPlantform();
-        Exchange exchange = exchanges.get(exchangeName);
+        return TimeUtil.join(orderAsync(assemblyHedgeOrder));
+    }
+
+    /**
+     * 根据组合对冲订单的成员信息异步下订单，请求由该交易所的下单网关发出
+     *
+     * @param assemblyHedgeOrder 组合对冲订单对
+     * @return 下单完成后的订单信息
+     */
+    private CompletableFuture<AssemblyHedgeOrder> orderAsync(final AssemblyHedgeOrder assemblyHedgeOrder) {
+        OrderGateway orderGateway = orderGateways.get(assemblyHedgeOrder.getPlantform());
         String side = assemblyHedgeOrder.getOrderSide();
         String currency = assemblyHedgeOrder.getCurrencyPair();
         BigDecimal quantity = assemblyHedgeOrder.getOrderQuantity();
         BigDecimal price = assemblyHedgeOrder.getOrderPrice();
-        assemblyHedgeOrder.setCreateTimestamp(new Long(System.currentTimeMillis()).toString());
+        assemblyHedgeOrder.setCreateTimestamp(new Long(TimeUtil.now()).toString());
 
-        Order order = exchange.order(side, currency, quantity, price);
-        if (null != order) {
-            assemblyHedgeOrder.setOrderId(order.getOrderId());
-            assemblyHedgeOrder.setOrderStatus(OrderStatus.NEW);
-        } else {
-            assemblyHedgeOrder.setOrderStatus("PLAN");
-        }
-        return assemblyHedgeOrder;
+        return orderGateway.order(side, currency, quantity, price).thenApply(order -> {
+            if (null != order) {
+                assemblyHedgeOrder.setOrderId(order.getOrderId());
+                assemblyHedgeOrder.setOrderStatus(OrderStatus.NEW);
+            } else {
+                assemblyHedgeOrder.setOrderStatus("PLAN");
+            }
+            return assemblyHedgeOrder;
+        });
     }
 
     /**
@@ -827,7 +966,11 @@ public class AssemblyHedge implements Strategy {
             HedgeCurrencyPair currencyPair = liveAssemblyHedgeOrder.getKey();
             List<AssemblyHedgeOrder> assemblyHedgeOrders = liveAssemblyHedgeOrder.getValue();
             Collections.sort(assemblyHedgeOrders, this.hedgeOrderOrderingRule);
-            Exchange exchange = this.exchanges.get(currencyPair.getPlatform());
+            if (assemblyHedgeOrders.isEmpty()) {
+                continue;
+            }
+            // 每个币种对只获取一次挂单列表，不再逐个查询订单
+            OrderReconciler.Snapshot snapshot = this.orderReconcilers.get(currencyPair.getPlatform()).snapshot(currencyPair.getCurrencyPair());
             // 更新买单信息
             for (int i = 0; i < assemblyHedgeOrders.size(); i++) {
                 AssemblyHedgeOrder hedgeOrder = assemblyHedgeOrders.get(i);
@@ -836,7 +979,7 @@ public class AssemblyHedge implements Strategy {
                     break;
                 }
 
-                Order order = exchange.getOrder(hedgeOrder.getCurrencyPair(), hedgeOrder.getOrderId());
+                Order order = snapshot.getOrder(hedgeOrder.getOrderId());
                 if (null == order) {
                     logger.error("获取订单(plantform={}, currency={}, orderId={})信息时失败。", hedgeOrder.getPlantform(), hedgeOrder.getCurrencyPair(), hedgeOrder.getOrderId());
                     return false;
@@ -848,7 +991,7 @@ public class AssemblyHedge implements Strategy {
                 if (!previousStatus.equals(order.getStatus()) || OrderStatus.FILLED.equals(order.getStatus())) {
                     hedgeOrder.setOrderStatus(order.getStatus());
                     hedgeOrder.setTransPrice(order.getPrice());
-                    commonDao.saveOrUpdate(hedgeOrder);
+                    journal.append(hedgeOrder);
                     if (OrderStatus.FILLED.equals(hedgeOrder.getOrderStatus())) {
                         assemblyHedgeOrders.remove(i--);
                     }
@@ -869,7 +1012,7 @@ public class AssemblyHedge implements Strategy {
                     break;
                 }
 
-                Order order = exchange.getOrder(hedgeOrder.getCurrencyPair(), hedgeOrder.getOrderId());
+                Order order = snapshot.getOrder(hedgeOrder.getOrderId());
                 if (null == order) {
                     logger.error("获取订单(plantform={}, currency={}, orderId={})信息时失败。", hedgeOrder.getPlantform(), hedgeOrder.getCurrencyPair(), hedgeOrder.getOrderId());
                     return false;
@@ -879,7 +1022,7 @@ public class AssemblyHedge implements Strategy {
                 if (!previoursStatus.equals(order.getStatus()) || OrderStatus.FILLED.equals(order.getStatus())) {
                     hedgeOrder.setOrderStatus(order.getStatus());
                     hedgeOrder.setTransPrice(order.getPrice());
-                    commonDao.saveOrUpdate(hedgeOrder);
+                    journal.append(hedgeOrder);
                     if (OrderStatus.FILLED.equals(hedgeOrder.getOrderStatus())) {
                         assemblyHedgeOrders.remove(i);
                     }
@@ -896,31 +1039,32 @@ public class AssemblyHedge implements Strategy {
                                     final Map<HedgeCurrencyPair, List<AssemblyHedgeOrder>> planAssemblyHedgeOrders) {
         logger.debug("正在加载对冲订单信息...");
 
-        List<AssemblyHedgeOrder> openOrders = commonDao.findByHql("from AssemblyHedgeOrder where orderStatus != 'FILLED'", AssemblyHedgeOrder.class);
-
-        openOrders.stream().forEach(hedgeOrder -> {
-            liveAssemblyHedgeOrders.entrySet().stream()
-                    .forEach(e -> {
-                        if (e.getKey().getPlatform().equals(hedgeOrder.getPlantform())
-                                && e.getKey().getCurrencyPair().equals(hedgeOrder.getCurrencyPair())
-                                && OrderStatus.NEW.equals(hedgeOrder.getOrderStatus())
-                                ) {
-                            e.getValue().add(hedgeOrder);
-                        }
-                    });
-        });
+        // 按 交易所@币种对 索引本策略的对冲币种对，只恢复这些币种对的订单
+        Map<String, HedgeCurrencyPair> hedgeCurrencyPairs = new HashMap<>();
+        liveAssemblyHedgeOrders.keySet().forEach(e -> hedgeCurrencyPairs.put(e.getPlatform() + "@" + e.getCurrencyPair(), e));
+
+        // 每个对冲币种对各自从订单日志恢复，日志中没有时只从数据库加载该币种对的订单
+        List<AssemblyHedgeOrder> openOrders = new ArrayList<>();
+        for (Entry<String, HedgeCurrencyPair> entry : hedgeCurrencyPairs.entrySet()) {
+            String platform = entry.getValue().getPlatform();
+            String currencyPair = entry.getValue().getCurrencyPair();
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("exchangeName", platform);
+            parameters.put("currencyPair", currencyPair);
+            parameters.put("filled", OrderStatus.FILLED);
+            openOrders.addAll(journal.load(AssemblyHedgeOrder.class, entry.getKey(),
+                    e -> platform.equals(e.getPlantform()) && currencyPair.equals(e.getCurrencyPair()),
+                    () -> commonDao.findByNamedQuery(AssemblyHedgeOrder.FIND_UNFILLED, parameters, AssemblyHedgeOrder.class)));
+        }
 
-        openOrders.stream().forEach(hedgeOrder -> {
-            planAssemblyHedgeOrders.entrySet().stream()
-                    .forEach(e -> {
-                        if (e.getKey().getPlatform().equals(hedgeOrder.getPlantform())
-                                && e.getKey().getCurrencyPair().equals(hedgeOrder.getCurrencyPair())
-                                && "PLAN".equals(hedgeOrder.getOrderStatus())
-                                ) {
-                            e.getValue().add(hedgeOrder);
-                        }
-                    });
-        });
+        for (AssemblyHedgeOrder hedgeOrder : openOrders) {
+            HedgeCurrencyPair hedgeCurrencyPair = hedgeCurrencyPairs.get(hedgeOrder.getPlantform() + "@" + hedgeOrder.getCurrencyPair());
+            if (OrderStatus.NEW.equals(hedgeOrder.getOrderStatus())) {
+                liveAssemblyHedgeOrders.get(hedgeCurrencyPair).add(hedgeOrder);
+            } else if ("PLAN".equals(hedgeOrder.getOrderStatus()) && planAssemblyHedgeOrders.containsKey(hedgeCurrencyPair)) {
+                planAssemblyHedgeOrders.get(hedgeCurrencyPair).add(hedgeOrder);
+            }
+        }
 
         this.liveAssemblyHedgeOrders.entrySet().stream().forEach(e -> Collections.sort(e.getValue(), this.hedgeOrderOrderingRule));
         this.planAssemblyHedgeOrders.entrySet().stream().forEach(e -> Collections.sort(e.getValue(), this.hedgeOrderOrderingRule));
@@ -1008,7 +1152,7 @@ public class AssemblyHedge implements Strategy {
                 // 挂单的状态发生了变化，表示下单成功了。
                 if (!"PLAN".equals(maxPriceBuyOrder.getOrderStatus())) {
                     logger.debug("{}最高价计划买单价格: {}, 卖一价: {},计划买单下单成功。", currencyPair, maxPriceBuyOrder.getOrderPrice(), sell1Price);
-                    commonDao.saveOrUpdate(planHedgeOrders.get(0));
+                    journal.append(planHedgeOrders.get(0));
                     liveHedgeOrders.add(maxPriceBuyOrder);
                     planHedgeOrders.remove(0);
                     isPlacedPlanOrders = true;
@@ -1022,7 +1166,7 @@ public class AssemblyHedge implements Strategy {
                 this.order(minPriceSellOrder);
                 if (!"PLAN".equals(minPriceSellOrder.getOrderStatus())) {
                     logger.debug("{}最低价计划卖单价格： {}, 买一价： {},计划卖单下单成功。", currencyPair, minPriceSellOrder.getOrderPrice(), buy1Price);
-                    commonDao.saveOrUpdate(planHedgeOrders.get(size - 1));
+                    journal.append(planHedgeOrders.get(size - 1));
                     liveHedgeOrders.add(minPriceSellOrder);
                     planHedgeOrders.remove(size - 1);
                     isPlacedPlanOrders = true;
@@ -1062,8 +1206,7 @@ public class AssemblyHedge implements Strategy {
                 }
             }
 
-            hedgeOrders.entrySet().parallelStream()
-                    .forEach(e -> commonDao.saveOrUpdate(e.getValue()));
+            hedgeOrders.forEach((k, v) -> journal.append(v));
             isPlanceOrders = true;
         }
         logger.debug("对冲单挂单完成。");
@@ -1108,12 +1251,7 @@ public class AssemblyHedge implements Strategy {
      * @param ms 延时时间（单位：毫秒）
      */
     private void delay(Long ms) {
-        try {
-            Thread.sleep(ms);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            logger.error(e);
-        }
+        TimeUtil.delay(ms);
     }
 
     public void run(Map<String, Object> parameters) {
@@ -1203,6 +1341,7 @@ public class AssemblyHedge implements Strategy {
         hedgeCurrencyPairs.add(new HedgeCurrencyPair("bit-z.com", "INC_ETH"));
         hedgeCurrencyPairs.add(new HedgeCurrencyPair("vnbig.com", "INC_ETH"));
 
+        OrderArchiver.getShared().start();
         new AssemblyHedge()
                 .setCycle(5000L)
                 .setFailedSleepTime(300000L)
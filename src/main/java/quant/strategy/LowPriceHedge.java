@@ -5,9 +5,11 @@ import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,7 +20,9 @@ import exunion.metaobjects.Depth;
 import exunion.metaobjects.Order;
 import exunion.metaobjects.OrderStatus;
 import quant.dao.CommonDao;
+import quant.dao.OrderJournal;
 import quant.entity.LowPriceHedgeOrder;
+import quant.exchange.OrderGateway;
 import quant.utils.TimeUtil;
 
 
@@ -40,6 +44,8 @@ public class LowPriceHedge implements Strategy {
 	
 	private static final CommonDao commonDao = new CommonDao();
 	
+	private static final OrderJournal journal = OrderJournal.getShared();
+	
 	
 	  
 	
@@ -294,6 +300,11 @@ public class LowPriceHedge implements Strategy {
 	 */
 	private Exchange exchange = null;
 	
+	/**
+	 * 异步下单网关，用于批量撤单
+	 */
+	private OrderGateway orderGateway = null;
+	
 	/**
 	 * 获取交易所实例
 	 */
@@ -377,20 +388,27 @@ public class LowPriceHedge implements Strategy {
 		String[] currArry = this.currencyPair.split("_");
 		this.baseCurrency = currArry[0];
 		this.quoteCurrency = currArry[1];
+		this.orderGateway = new OrderGateway(this.exchangeName, () -> this.exchange);
 		logger.info("策略初始化完成。");
 		return result;
 	}
 	
 	/**
-	 * 启动策略时从数据库加载进行中的订单信息。
+	 * 启动策略时从订单日志恢复本交易所本币种对进行中的订单信息。
 	 * @return
 	 */
 	private Boolean loadUnfilledOrders(){
 		Boolean result = true;
-		logger.info("正在从数据库中加载进行中的 LOW_PRICE_HEDGE_ORDER_PAIR 订单...");
-		this.unfilledOrders = commonDao.findByHql("from LowPriceHedgeOrder where orderStatus != 'FILLED'", LowPriceHedgeOrder.class);
+		logger.info("正在从订单日志中恢复进行中的 LOW_PRICE_HEDGE_ORDER 订单...");
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("exchangeName", exchangeName);
+		parameters.put("currencyPair", currencyPair);
+		parameters.put("filled", OrderStatus.FILLED);
+		this.unfilledOrders = journal.load(LowPriceHedgeOrder.class, exchangeName + "@" + currencyPair,
+				e -> exchangeName.equals(e.getExchangeName()) && currencyPair.equals(e.getCurrencyPair()),
+				() -> commonDao.findByNamedQuery(LowPriceHedgeOrder.FIND_UNFILLED, parameters, LowPriceHedgeOrder.class));
 		Collections.sort(this.unfilledOrders, this.orderRule);
-		logger.info("从数据库中加载 LOW_PRICE_HEDGE_ORDER_PAIR 订单完成。");
+		logger.info("恢复 LOW_PRICE_HEDGE_ORDER 订单完成，共{}个。", this.unfilledOrders.size());
 		return result;
 	}
 	
@@ -441,7 +459,7 @@ public class LowPriceHedge implements Strategy {
 			
 			LowPriceHedgeOrder sellOrder = new LowPriceHedgeOrder();
 			sellOrder.setCurrencyPair(currencyPair);
-			sellOrder.setCreateTimestamp(System.currentTimeMillis());
+			sellOrder.setCreateTimestamp(TimeUtil.now());
 			sellOrder.setHedgeId(hedgeId);
 			sellOrder.setExchangeName(exchangeName);
 			sellOrder.setFeeRate(feeRate);
@@ -452,7 +470,7 @@ public class LowPriceHedge implements Strategy {
 			
 			LowPriceHedgeOrder buyOrder = new LowPriceHedgeOrder();
 			buyOrder.setCurrencyPair(currencyPair);
-			buyOrder.setCreateTimestamp(System.currentTimeMillis());
+			buyOrder.setCreateTimestamp(TimeUtil.now());
 			buyOrder.setHedgeId(hedgeId);
 			buyOrder.setExchangeName(exchangeName);
 			buyOrder.setFeeRate(feeRate);
@@ -475,8 +493,8 @@ public class LowPriceHedge implements Strategy {
 			}else if(sellOrderResult == null && buyOrderResult == null){
 				return false;
 			}
-			commonDao.saveOrUpdate(sellOrder);
-			commonDao.saveOrUpdate(buyOrder);
+			journal.append(sellOrder);
+			journal.append(buyOrder);
 			return true;
 		}
 		
@@ -513,11 +531,13 @@ public class LowPriceHedge implements Strategy {
 		// 新订单的数量超过了对冲单的长度
 		if(newBuyOrderNum > this.hedgeLenth){
 			logger.debug("新买单的数量{}大于对冲单的最大长度{}", newBuyOrderNum, hedgeLenth);
-			if(null == newOrderToPlanOrder(this.unfilledOrders.get((int) (newBuyOrderNum - 1)))){
-				return false;
-			}else{
-				return true;
-			}
+			// 价格最低的超出部分一次撤销
+			List<LowPriceHedgeOrder> excessOrders = this.unfilledOrders.stream()
+					.filter(e -> "NEW".equals(e.getOrderStatus()))
+					.filter(e -> "BUY".equals(e.getOrderSide()))
+					.skip(this.hedgeLenth)
+					.collect(Collectors.toList());
+			return newOrdersToPlanOrders(excessOrders);
 		}
 		
 		// 新订单的数量少于对冲长度，且有计划买单，将计划买单转化为买单
@@ -542,11 +562,13 @@ public class LowPriceHedge implements Strategy {
 		
 		if(newSellOrderNum > this.hedgeLenth){
 			logger.debug("新卖单的数量{}超过了最大对冲长度{}", newSellOrderNum, hedgeLenth);
-			if(null == newOrderToPlanOrder(this.unfilledOrders.get((int) (this.unfilledOrders.size() - newSellOrderNum -1)))){
-				return false;
-			}else{
-				return true;
-			}
+			// 价格最高的超出部分一次撤销
+			List<LowPriceHedgeOrder> excessOrders = this.unfilledOrders.stream()
+					.filter(e -> "NEW".equals(e.getOrderStatus()))
+					.filter(e -> "SELL".equals(e.getOrderSide()))
+					.limit(newSellOrderNum - this.hedgeLenth)
+					.collect(Collectors.toList());
+			return newOrdersToPlanOrders(excessOrders);
 		}
 		
 		if(newSellOrderNum < this.hedgeLenth && planSellOrderNum > 0){
@@ -572,25 +594,31 @@ public class LowPriceHedge implements Strategy {
 		if(null != order){
 			hedgeOrder.setOrderStatus(OrderStatus.NEW);
 			hedgeOrder.setOrderId(order.getOrderId());
-			hedgeOrder.setModifyTimestamp(System.currentTimeMillis());
+			hedgeOrder.setModifyTimestamp(TimeUtil.now());
 			return hedgeOrder;
 		}
 		return null;
 	}
 		
 	/**
-	 * 将进行中的订单转化为计划单，一般在针对不太可能很快成交的订单，暂时将这些订单取消，以挪出资金来挂新的单
-	 * @param newOrder
-	 * @return
+	 * 将进行中的订单转化为计划单，一般在针对不太可能很快成交的订单，暂时将这些订单取消，以挪出资金来挂新的单。
+	 * 多个订单通过批量撤单一次撤销。
+	 * @param newOrders 进行中的订单
+	 * @return 是否全部撤销成功
 	 */
-	private LowPriceHedgeOrder newOrderToPlanOrder(final LowPriceHedgeOrder newOrder){
-		Order order = this.exchange.cancel(newOrder.getCurrencyPair(), newOrder.getOrderId());
-		if(null != order){
-			newOrder.setOrderId(null);
-			newOrder.setOrderStatus("PLAN");
-			return newOrder;
+	private Boolean newOrdersToPlanOrders(final List<LowPriceHedgeOrder> newOrders){
+		List<String> orderIds = newOrders.stream().map(LowPriceHedgeOrder::getOrderId).collect(Collectors.toList());
+		List<Order> results = TimeUtil.join(this.orderGateway.cancelAll(this.currencyPair, orderIds));
+		Boolean result = true;
+		for(int i = 0; i < newOrders.size(); i++){
+			if(null != results.get(i)){
+				newOrders.get(i).setOrderId(null);
+				newOrders.get(i).setOrderStatus("PLAN");
+			}else{
+				result = false;
+			}
 		}
-		return null;
+		return result;
 	}
 	
 	/**
@@ -0,0 +1,434 @@
+package quant.strategy;
+
+import exunion.metaobjects.CurrencyPair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import quant.arbitrage.ArbitrageCycle;
+import quant.arbitrage.ArbitrageOpportunity;
+import quant.arbitrage.ArbitrageScanner;
+import quant.exchange.EndExchangeFactory;
+import quant.exchange.ExchangePool;
+import quant.exchange.OrderGateway;
+import quant.exchange.OrderReconciler;
+import quant.market.MarketDataFeed;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * 多三角套利策略
+ * <p>
+ * 在一个进程中监控某交易所上所有币种对构成的三角，扫描器发现套利机会后，
+ * 将收益最高的套利环交给对应三角的 {@link TriangleArbitrage}，沿该套利环计算挂单并下单。
+ * 每个三角的 TriangleArbitrage 在第一次出现套利机会时才创建并初始化，所有三角共用一个行情中心，
+ * 以及同一个交易所实例池、下单网关和订单对账器。
+ * <p>
+ * TriangleArbitrage 只支持 BA、CB、CA 形式的三角（A 是两个币种对的计价币），
+ * 每个币种恰好作一次基础币、一次计价币的循环三角（如 A_B、B_C、C_A）不交易，只记录日志。
+ *
+ * @author robothy
+ */
+public class MultiTriangleArbitrage implements Strategy {
+
+    private static Logger logger = LogManager.getLogger(MultiTriangleArbitrage.class);
+
+    /**
+     * 交易所实例池中的实例数
+     */
+    private static final int EXCHANGE_POOL_SIZE = 3;
+
+    /**
+     * 交易所名称
+     */
+    private String exchangeName;
+
+    /**
+     * 获取交易所名称
+     *
+     * @return 交易所名称
+     */
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    /**
+     * 设置交易所名称
+     *
+     * @param exchangeName 交易所名称
+     */
+    public MultiTriangleArbitrage setExchangeName(String exchangeName) {
+        this.exchangeName = exchangeName;
+        return this;
+    }
+
+    /**
+     * 参与扫描的币种对
+     */
+    private List<CurrencyPair> currencyPairs;
+
+    /**
+     * 获取参与扫描的币种对
+     *
+     * @return 参与扫描的币种对
+     */
+    public List<CurrencyPair> getCurrencyPairs() {
+        return currencyPairs;
+    }
+
+    /**
+     * 设置参与扫描的币种对，未设置时读取交易所配置文件中该交易所的币种对
+     *
+     * @param currencyPairs 参与扫描的币种对
+     */
+    public MultiTriangleArbitrage setCurrencyPairs(List<CurrencyPair> currencyPairs) {
+        this.currencyPairs = currencyPairs;
+        return this;
+    }
+
+    /**
+     * 套利环最大长度
+     */
+    private int maxCycleLength;
+
+    /**
+     * 获取套利环最大长度
+     *
+     * @return 套利环最大长度
+     */
+    public int getMaxCycleLength() {
+        return maxCycleLength;
+    }
+
+    /**
+     * 设置套利环最大长度，3 表示只扫描三角，4 表示同时扫描四角。
+     * 四角套利机会目前只记录日志，不下单。
+     *
+     * @param maxCycleLength 套利环最大长度
+     */
+    public MultiTriangleArbitrage setMaxCycleLength(int maxCycleLength) {
+        this.maxCycleLength = maxCycleLength;
+        return this;
+    }
+
+    /**
+     * API操作失败休息时间， （单位：毫秒）
+     */
+    private Long failedSleepTime;
+
+    /**
+     * @return 操作失败时休息时间(单位 ： 毫秒)
+     */
+    public Long getFailedSleepTime() {
+        return failedSleepTime;
+    }
+
+    /**
+     * 设置操作失败休息时间（单位：毫秒）
+     *
+     * @param failedSleepTime 操作失败休息时间（单位：毫秒）
+     */
+    public MultiTriangleArbitrage setFailedSleepTime(Long failedSleepTime) {
+        this.failedSleepTime = failedSleepTime;
+        return this;
+    }
+
+    /**
+     * 市场有效时间
+     */
+    private Long marketAvailableDuration;
+
+    /**
+     * 获取市场有效时间
+     *
+     * @return 市场有效时间
+     */
+    public Long getMarketAvailableDuration() {
+        return marketAvailableDuration;
+    }
+
+    /**
+     * 设置市场有效时间，超过此时间未更新的币种对不参与套利
+     *
+     * @param marketAvailableDuration 市场有效时间
+     */
+    public MultiTriangleArbitrage setMarketAvailableDuration(Long marketAvailableDuration) {
+        this.marketAvailableDuration = marketAvailableDuration;
+        return this;
+    }
+
+    /**
+     * 行情中心
+     */
+    private MarketDataFeed marketDataFeed;
+
+    /**
+     * 获取行情中心
+     *
+     * @return 行情中心
+     */
+    public MarketDataFeed getMarketDataFeed() {
+        return marketDataFeed;
+    }
+
+    /**
+     * 设置行情中心，未设置时使用进程内共享的行情中心
+     *
+     * @param marketDataFeed 行情中心
+     */
+    public MultiTriangleArbitrage setMarketDataFeed(MarketDataFeed marketDataFeed) {
+        this.marketDataFeed = marketDataFeed;
+        return this;
+    }
+
+    /**
+     * 三角策略工厂
+     */
+    private Function<ArbitrageCycle, TriangleArbitrage> triangleFactory;
+
+    /**
+     * 获取三角策略工厂
+     *
+     * @return 三角策略工厂
+     */
+    public Function<ArbitrageCycle, TriangleArbitrage> getTriangleFactory() {
+        return triangleFactory;
+    }
+
+    /**
+     * 设置三角策略工厂，根据三角创建 TriangleArbitrage 并设置单笔最大量、冻结数量等与币种相关的参数，
+     * 返回 null 表示不交易此三角。交易所、币种对、行情中心等参数由本策略设置。
+     * 每次下单的方向取自扫描器发现的套利环，起始币种为三角策略的套利币种。
+     *
+     * @param triangleFactory 三角策略工厂
+     */
+    public MultiTriangleArbitrage setTriangleFactory(Function<ArbitrageCycle, TriangleArbitrage> triangleFactory) {
+        this.triangleFactory = triangleFactory;
+        return this;
+    }
+
+    /*--------------------------------全局变量--------------------------------*/
+
+    /**
+     * 套利环扫描器
+     */
+    private ArbitrageScanner scanner;
+
+    /**
+     * 各三角对应的策略，key 为三角的三个币种对名称，null 表示不交易此三角
+     */
+    private Map<String, TriangleArbitrage> triangles;
+
+    /**
+     * 所有三角共用的交易所实例池
+     */
+    private ExchangePool exchangePool;
+
+    /**
+     * 所有三角共用的异步下单网关
+     */
+    private OrderGateway orderGateway;
+
+    /**
+     * 所有三角共用的订单对账器
+     */
+    private OrderReconciler orderReconciler;
+
+    /*--------------------------------私有方法--------------------------------*/
+
+    /**
+     * 校验设置的参数
+     *
+     * @return 参数校验结果
+     */
+    private Boolean validateParameters() {
+        Boolean result = true;
+        logger.info("开始校验参数。");
+
+        if (null == this.exchangeName) {
+            logger.error("未设置交易所。");
+            result = false;
+        } else {
+            logger.info("交易所：{}", this.exchangeName);
+        }
+
+        if (null == this.currencyPairs && null != this.exchangeName) {
+            this.currencyPairs = EndExchangeFactory.getCurrencyPairs(this.exchangeName);
+            logger.warn("未设置币种对，从交易所配置文件中读取到{}个币种对。", this.currencyPairs.size());
+        }
+
+        if (null == this.currencyPairs || this.currencyPairs.size() < 3) {
+            logger.error("币种对少于3个，无法构成三角。");
+            result = false;
+        }
+
+        if (0 == this.maxCycleLength) {
+            logger.warn("未设置套利环最大长度，设置默认值 3");
+            this.maxCycleLength = 3;
+        } else if (this.maxCycleLength < 3 || this.maxCycleLength > 4) {
+            logger.error("套利环最大长度只能为 3 或 4。");
+            result = false;
+        } else {
+            logger.info("套利环最大长度：{}", this.maxCycleLength);
+        }
+
+        if (null == this.failedSleepTime) {
+            logger.warn("未设置API操作失败休息时间，设置默认值：{}ms", 5000);
+            this.failedSleepTime = 5000L;
+        } else {
+            logger.info("API操作失败休息时间：{}ms。", this.failedSleepTime);
+        }
+
+        if (null == this.marketAvailableDuration) {
+            logger.warn("未设置市场有效时间，设置默认值：{}ms", 1000);
+            this.marketAvailableDuration = 1000L;
+        } else {
+            logger.info("市场有效时间：{}ms", this.marketAvailableDuration);
+        }
+
+        if (null == this.triangleFactory) {
+            logger.error("未设置三角策略工厂。");
+            result = false;
+        }
+
+        logger.info("参数校验结束。");
+        return result;
+    }
+
+    /**
+     * 初始化程序
+     */
+    private void init() {
+        logger.info("开始初始化策略。");
+        if (null == this.marketDataFeed) {
+            this.marketDataFeed = MarketDataFeed.getShared();
+        }
+        this.triangles = new HashMap<>();
+        this.exchangePool = ExchangePool.newInstance(exchangeName, EXCHANGE_POOL_SIZE);
+        this.orderGateway = new OrderGateway(exchangeName, exchangePool);
+        this.orderReconciler = new OrderReconciler(exchangePool);
+        this.scanner = new ArbitrageScanner(exchangeName, currencyPairs, marketDataFeed, maxCycleLength)
+                .setMarketAvailableDuration(marketAvailableDuration);
+        this.scanner.start();
+        logger.info("策略初始化结束。");
+    }
+
+    /**
+     * 获取套利环所在三角对应的策略，第一次出现套利机会时创建并初始化
+     *
+     * @param cycle 长度为 3 的套利环
+     * @return 三角策略，不交易此三角或者初始化失败时返回 null
+     */
+    private TriangleArbitrage getTriangle(ArbitrageCycle cycle) {
+        TreeSet<String> names = new TreeSet<>();
+        cycle.getCurrencyPairs().forEach(e -> names.add(e.getCurrencyPair()));
+        String key = String.join(",", names);
+        if (triangles.containsKey(key)) {
+            return triangles.get(key);
+        }
+
+        TriangleArbitrage triangle = null;
+        CurrencyPair[] pairs = toTriangle(cycle);
+        if (null == pairs) {
+            logger.warn("{}是首尾相接的循环三角，不能构成 TriangleArbitrage 所需的 BA、CB、CA 形式，不交易此三角。", key);
+        } else if (null != (triangle = triangleFactory.apply(cycle))) {
+            triangle.setExchangeName(exchangeName)
+                    .setCurrPairBA(pairs[0])
+                    .setCurrPairCB(pairs[1])
+                    .setCurrPairCA(pairs[2])
+                    .setMarketDataFeed(marketDataFeed)
+                    .setExchangePool(exchangePool)
+                    .setOrderGateway(orderGateway)
+                    .setOrderReconciler(orderReconciler)
+                    .setFailedSleepTime(failedSleepTime)
+                    .setMarketAvailableDuration(marketAvailableDuration);
+            if (!triangle.initialize()) {
+                logger.error("三角{}的策略初始化失败，不交易此三角。", key);
+                triangle = null;
+            }
+        }
+        triangles.put(key, triangle);
+        return triangle;
+    }
+
+    /**
+     * 将长度为 3 的套利环转换为 TriangleArbitrage 所需的 BA、CB、CA 三个币种对。
+     * A 为两个币种对的计价币，C 为两个币种对的基础币，B 为剩下的币种。
+     *
+     * @param cycle 套利环
+     * @return 依次为 BA、CB、CA 的币种对，无法构成时返回 null
+     */
+    private CurrencyPair[] toTriangle(ArbitrageCycle cycle) {
+        if (cycle.size() != 3) {
+            return null;
+        }
+        List<CurrencyPair> pairs = cycle.getCurrencyPairs();
+        Map<String, Integer> quoteCounts = new HashMap<>();
+        Map<String, Integer> baseCounts = new HashMap<>();
+        pairs.forEach(e -> {
+            quoteCounts.merge(e.getQuoteCurrency(), 1, Integer::sum);
+            baseCounts.merge(e.getBaseCurrency(), 1, Integer::sum);
+        });
+        String currA = quoteCounts.entrySet().stream().filter(e -> e.getValue() == 2).map(Map.Entry::getKey).findFirst().orElse(null);
+        String currC = baseCounts.entrySet().stream().filter(e -> e.getValue() == 2).map(Map.Entry::getKey).findFirst().orElse(null);
+        if (null == currA || null == currC) {
+            return null;
+        }
+
+        CurrencyPair[] triangle = new CurrencyPair[3];
+        for (CurrencyPair pair : pairs) {
+            if (pair.getQuoteCurrency().equals(currA) && pair.getBaseCurrency().equals(currC)) {
+                triangle[2] = pair;
+            } else if (pair.getQuoteCurrency().equals(currA)) {
+                triangle[0] = pair;
+            } else {
+                triangle[1] = pair;
+            }
+        }
+        return triangle;
+    }
+
+    @Override
+    public void run(Map<String, Object> parameters) {
+
+        // 参数校验
+        if (!this.validateParameters()) {
+            logger.error("参数校验失败， 此策略不再执行。");
+            return;
+        }
+
+        init();
+
+        while (true) {
+            try {
+                if (!scanner.awaitUpdate(failedSleepTime)) {
+                    logger.error("{}ms内未收到深度推送，继续等待。", failedSleepTime);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                logger.error("等待深度推送时被中断，策略结束。", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            ArbitrageOpportunity opportunity = scanner.scan();
+            if (null == opportunity) {
+                continue;
+            }
+
+            logger.info("发现套利机会：{}", opportunity);
+            if (opportunity.getCycle().size() != 3) {
+                continue;
+            }
+
+            // 按扫描器发现的套利环方向下单，不由三角策略重新选择方向
+            TriangleArbitrage triangle = getTriangle(opportunity.getCycle());
+            if (null != triangle) {
+                triangle.arbitrage(opportunity.getCycle());
+            }
+        }
+    }
+
+}
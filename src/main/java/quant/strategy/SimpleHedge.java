@@ -5,16 +5,18 @@ import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
-import org.hibernate.query.Query;
 
+import quant.dao.CommonDao;
+import quant.dao.OrderJournal;
 import quant.entity.LiveOrderPair;
-import quant.utils.HibernateUtil;
+import quant.exchange.OrderReconciler;
+import quant.utils.TimeUtil;
 import exunion.metaobjects.Depth;
 import exunion.metaobjects.Order;
 import exunion.metaobjects.OrderSide;
@@ -40,6 +42,10 @@ public class SimpleHedge {
 	
 	private Exchange trader = null;
 	
+	private OrderReconciler orderReconciler = null;
+	
+	private final OrderJournal journal = OrderJournal.getShared();
+	
 	//API操作失败休息时间， （单位：毫秒），默认 1000ms
 	private Long failedSleepTime = 1000L;
 	
@@ -200,6 +206,10 @@ public class SimpleHedge {
 			trader = ExchangeFactory.newInstance(plantform,key, secret ,needProxy);
 		}
 		
+		if(null == orderReconciler){
+			orderReconciler = new OrderReconciler(trader);
+		}
+		
 		if(null == liveSellOrderPairs){
 			liveSellOrderPairs = new ArrayList<LiveOrderPair>();
 		}
@@ -256,13 +266,10 @@ public class SimpleHedge {
 	 * 
 	 */
 	private Boolean updateOrders(){
-		Session session = HibernateUtil.getSession();
 		
-		//检索没有完全完成的对冲交易对
-		String hql = "from LiveOrderPair where currency=:currency and (buyOrderStatus!='FILLED' or sellOrderStatus!='FILLED')";
-		Query<LiveOrderPair> query = session.createQuery(hql, LiveOrderPair.class);
-		query.setParameter("currency", currency);
-		List <LiveOrderPair> persistedOrderPairs = query.getResultList();
+		//从订单日志中恢复没有完全完成的对冲交易对，订单日志中没有时从数据库加载一次
+		List <LiveOrderPair> persistedOrderPairs = journal.load(LiveOrderPair.class, e -> currency.equals(e.getCurrency()),
+				() -> new CommonDao().findByNamedQuery(LiveOrderPair.FIND_UNFILLED, Collections.singletonMap("filled", OrderStatus.FILLED), LiveOrderPair.class));
 		
 		for(LiveOrderPair orderPair : persistedOrderPairs){
 			
@@ -285,7 +292,7 @@ public class SimpleHedge {
 			}
 			
 		}
-		logger.info("订单从数据库加载完成！");
+		logger.info("订单从订单日志恢复完成！");
 		logger.info("进行中买单数：" + liveBuyOrderPairs.size());
 		logger.info("进行中卖单数：" + liveSellOrderPairs.size());
 		logger.info("计划中买单数：" + planBuyOrderPairs.size());
@@ -412,10 +419,13 @@ public class SimpleHedge {
 	 */
 	private Boolean updateLiveOrders(){
 		
+		// 每个币种对只获取一次挂单列表，不再逐个查询订单
+		Map<String, OrderReconciler.Snapshot> snapshots = new HashMap<>();
+		
 		Collections.sort(liveBuyOrderPairs, orderByBuyPriceDesc);
 		int primitiveBuyOrderSize = liveBuyOrderPairs.size();
 		for(int i=0, k=0; i<primitiveBuyOrderSize - k; i++){
-			Order order = trader.getOrder(liveBuyOrderPairs.get(i).getCurrency(), liveBuyOrderPairs.get(i).getBuyOrderId());
+			Order order = snapshots.computeIfAbsent(liveBuyOrderPairs.get(i).getCurrency(), orderReconciler::snapshot).getOrder(liveBuyOrderPairs.get(i).getBuyOrderId());
 			if(order == null){
 				logger.error("获取买单" + liveBuyOrderPairs.get(i).getBuyOrderId() + "失败！");
 				return false;
@@ -440,13 +450,8 @@ public class SimpleHedge {
 				liveBuyOrderPairs.remove(i);
 				k++;
 				i--;
-				//更新数据库
-				Session session = HibernateUtil.getSession();
-				Transaction transaction = session.beginTransaction();
-				session.merge(orderPairs);
-				
-				transaction.commit();
-				session.close();
+				//记入订单日志，异步更新数据库
+				journal.append(orderPairs);
 			}else{
 				break;
 			}
@@ -455,7 +460,7 @@ public class SimpleHedge {
 		Collections.sort(liveSellOrderPairs, orderBySellPriceAsc);
 		int primitiveSellOrderSize = liveSellOrderPairs.size();
 		for(int i=0, k=0; i<primitiveSellOrderSize - k; i++){
-			Order order = trader.getOrder(liveSellOrderPairs.get(i).getCurrency(), liveSellOrderPairs.get(i).getSellOrderId());
+			Order order = snapshots.computeIfAbsent(liveSellOrderPairs.get(i).getCurrency(), orderReconciler::snapshot).getOrder(liveSellOrderPairs.get(i).getSellOrderId());
 			LiveOrderPair orderPair = liveSellOrderPairs.get(i);
 			Boolean isStatusChanged = false;
 			if(null == order ){
@@ -479,12 +484,8 @@ public class SimpleHedge {
 				logger.info("订单编号为[" + orderPair.getSellOrderId() + "]的买单状态变为" + orderPair.getSellOrderStatus());
 				k++;
 				i--;
-				//更新数据库
-				Session session = HibernateUtil.getSession();
-				Transaction transaction = session.beginTransaction();
-				session.merge(orderPair);
-				transaction.commit();
-				session.close();
+				//记入订单日志，异步更新数据库
+				journal.append(orderPair);
 			}else{//金额小的卖单状态没有改变，金额大的卖单更不可能成交
 				break;
 			}
@@ -497,12 +498,7 @@ public class SimpleHedge {
 	 * @param ms 延时时间（单位：毫秒）
 	 */
 	private void delay(Long ms){
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-			logger.error(e);
-		}
+		TimeUtil.delay(ms);
 	}
 	
 	public String getPlantform() {
@@ -751,10 +747,7 @@ public class SimpleHedge {
 						maxBuyPricePlanBuyOrderPair.setBuyOrderStatus(order.getStatus());
 						liveBuyOrderPairs.add(maxBuyPricePlanBuyOrderPair);//加入到进行中买单列表
 						planBuyOrderPairs.remove(0);//从计划买单列表中移除
-						Session session = HibernateUtil.getSession();//同步数据库中的状态
-						session.beginTransaction();
-						session.merge(maxBuyPricePlanBuyOrderPair);
-						session.getTransaction().commit();
+						journal.append(maxBuyPricePlanBuyOrderPair);//同步订单日志和数据库中的状态
 					}else{
 						logger.debug("下计划买单失败！");
 						//delay(1000L);
@@ -782,10 +775,7 @@ public class SimpleHedge {
 						minSellPricePlanSellOrderPair.setSellOrderStatus(order.getStatus());
 						liveSellOrderPairs.add(minSellPricePlanSellOrderPair);
 						planSellOrderPairs.remove(0);
-						Session session = HibernateUtil.getSession();
-						session.beginTransaction();
-						session.merge(minSellPricePlanSellOrderPair);
-						session.getTransaction().commit();
+						journal.append(minSellPricePlanSellOrderPair);
 					}else{
 						logger.error("下计划卖单失败！");
 					}
@@ -802,8 +792,8 @@ public class SimpleHedge {
 			sellPrice = pricePair.getSellPrice();
 			
 			LiveOrderPair orderPair = new LiveOrderPair();
-			orderPair.setCreateTimestamp(System.currentTimeMillis());
-			orderPair.setModifyTimestamp(System.currentTimeMillis());
+			orderPair.setCreateTimestamp(TimeUtil.now());
+			orderPair.setModifyTimestamp(TimeUtil.now());
 			orderPair.setCurrency(currency);
 			orderPair.setPlantform(plantform);
 			orderPair.setBuyOrderPrice(buyPrice);
@@ -859,12 +849,8 @@ public class SimpleHedge {
 					planBuyOrderPairs.add(orderPair);
 				}
 				
-				//保存到数据库
-				Session session = HibernateUtil.getSession();
-				Transaction tx = session.beginTransaction();
-				session.save(orderPair);
-				tx.commit();
-				session.close();
+				//保存到订单日志和数据库
+				journal.append(orderPair);
 			}			
 		}
 		
@@ -5,9 +5,22 @@ import exunion.exchange.Exchange;
 import exunion.metaobjects.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import quant.arbitrage.ArbitrageCycle;
+import quant.arbitrage.ArbitrageMode;
+import quant.arbitrage.CycleWalker;
+import quant.arbitrage.TriangleArbitrageEngine;
 import quant.dao.CommonDao;
+import quant.dao.OrderArchiver;
+import quant.dao.OrderJournal;
 import quant.entity.TriangleArbitrageOrder;
 import quant.exchange.EndExchangeFactory;
+import quant.exchange.ExchangePool;
+import quant.exchange.FillInference;
+import quant.exchange.OrderGateway;
+import quant.exchange.OrderReconciler;
+import quant.exchange.OrderRequest;
+import quant.market.MarketDataFeed;
+import quant.market.OrderBook;
 import quant.utils.BigDecimalUtil;
 import quant.utils.TimeUtil;
 
@@ -15,7 +28,8 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
 import java.util.Currency;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 /**
  * 三角套利策略
@@ -27,28 +41,6 @@ public class TriangleArbitrage implements Strategy {
 
     private static Logger logger = LogManager.getLogger(TriangleArbitrage.class);
 
-    /**
-     * 套利模式
-     */
-    enum ArbitrageMode {
-
-        /**
-         * 顺时针套利，与逆时针相对应
-         */
-        CLOCKWISE,
-
-        /**
-         * 逆时针套利，与顺时针相对应
-         */
-        ANTICLOCKWISE,
-
-
-        /**
-         * 无套利空间
-         */
-        NONE
-    }
-
     /**
      * 计价币A与基础币B构成的交易币种对
      */
@@ -404,18 +396,102 @@ public class TriangleArbitrage implements Strategy {
         return this;
     }
 
-    /*--------------------------------全局变量--------------------------------*/
+    /**
+     * 行情中心，策略从行情中心订阅三个币种对的深度，深度更新时立即计算套利机会
+     */
+    private MarketDataFeed marketDataFeed;
 
+    /**
+     * 获取行情中心
+     * @return 行情中心
+     */
+    public MarketDataFeed getMarketDataFeed() {
+        return marketDataFeed;
+    }
 
     /**
-     * 交易对列表
+     * 设置行情中心，未设置时使用进程内共享的行情中心
+     * @param marketDataFeed 行情中心
      */
-    private List<CurrencyPair> currPairs;
+    public TriangleArbitrage setMarketDataFeed(MarketDataFeed marketDataFeed) {
+        this.marketDataFeed = marketDataFeed;
+        return this;
+    }
+
+    /**
+     * 交易所实例池
+     */
+    private ExchangePool exchangePool;
+
+    /**
+     * 获取交易所实例池
+     * @return 交易所实例池
+     */
+    public ExchangePool getExchangePool() {
+        return exchangePool;
+    }
+
+    /**
+     * 设置交易所实例池，多个三角策略交易同一个交易所时共用一个实例池。
+     * 未设置时创建由 3 个交易所实例组成的实例池。
+     * @param exchangePool 交易所实例池
+     */
+    public TriangleArbitrage setExchangePool(ExchangePool exchangePool) {
+        this.exchangePool = exchangePool;
+        return this;
+    }
+
+    /**
+     * 异步下单网关
+     */
+    private OrderGateway orderGateway;
+
+    /**
+     * 获取异步下单网关
+     * @return 异步下单网关
+     */
+    public OrderGateway getOrderGateway() {
+        return orderGateway;
+    }
+
+    /**
+     * 设置异步下单网关，多个三角策略交易同一个交易所时共用一个网关，未设置时基于交易所实例池创建
+     * @param orderGateway 异步下单网关
+     */
+    public TriangleArbitrage setOrderGateway(OrderGateway orderGateway) {
+        this.orderGateway = orderGateway;
+        return this;
+    }
+
+    /**
+     * 订单对账器
+     */
+    private OrderReconciler orderReconciler;
+
+    /**
+     * 获取订单对账器
+     * @return 订单对账器
+     */
+    public OrderReconciler getOrderReconciler() {
+        return orderReconciler;
+    }
+
+    /**
+     * 设置订单对账器，多个三角策略交易同一个交易所时共用一个对账器，未设置时基于交易所实例池创建
+     * @param orderReconciler 订单对账器
+     */
+    public TriangleArbitrage setOrderReconciler(OrderReconciler orderReconciler) {
+        this.orderReconciler = orderReconciler;
+        return this;
+    }
+
+    /*--------------------------------全局变量--------------------------------*/
+
 
     /**
-     * 交易所实例
+     * 交易对列表
      */
-    private List<Exchange> exchanges;
+    private List<CurrencyPair> currPairs;
 
     /**
      * 余额信息
@@ -423,17 +499,51 @@ public class TriangleArbitrage implements Strategy {
     private Map<String, Account.Balance> balances;
 
     /**
-     * 上一次的余额信息，主要用于和当前余额进行比较，若当前余额相对于上一次余额没有减少
-     * ，证明挂单成交了，可以不用特意去同步挂单
+     * 上一次的余额信息，主要用于和当前余额进行比较，推断挂单是否成交，可以不用特意去同步挂单
      */
     private Map<String, Account.Balance> lastBalances;
 
+    /**
+     * 成交推断
+     */
+    private final FillInference fillInference = new FillInference();
+
 
     /**
      * 深度信息
      */
     private Map<CurrencyPair, Depth> depthes;
 
+    /**
+     * 定点数订单簿，与深度信息同步更新，用于快速判断是否存在套利机会
+     */
+    private Map<CurrencyPair, OrderBook> orderBooks;
+
+    /**
+     * 套利系数计算引擎
+     */
+    private TriangleArbitrageEngine arbitrageEngine;
+
+    /**
+     * 顺时针套利环 A -> B -> C -> A，以套利币种作为起始币种
+     */
+    private ArbitrageCycle clockwiseCycle;
+
+    /**
+     * 逆时针套利环 A -> C -> B -> A，以套利币种作为起始币种
+     */
+    private ArbitrageCycle anticlockwiseCycle;
+
+    /**
+     * 套利环逐档计算器
+     */
+    private CycleWalker cycleWalker;
+
+    /**
+     * 深度更新信号，行情中心推送深度时释放，策略主循环等待此信号
+     */
+    private final Semaphore depthUpdated = new Semaphore(0);
+
     /**
      * API调用失败休息时间
      */
@@ -469,6 +579,11 @@ public class TriangleArbitrage implements Strategy {
      */
     private CommonDao dao;
 
+    /**
+     * 订单事件日志
+     */
+    private OrderJournal journal;
+
     /**
      * 进行中的订单
      */
@@ -485,15 +600,16 @@ public class TriangleArbitrage implements Strategy {
     private Comparator<TriangleArbitrageOrder> orderingRule;
 
     /**
-     * 当前交易所的下标
+     * 策略执行的轮数，用于按频次同步余额和挂单
      */
-    private int currentExchangeIndex = 0;
+    private int cycleTimes = 1;
 
-    private synchronized Exchange getExchange(){
-        if(currentExchangeIndex == exchanges.size()) {
-            currentExchangeIndex = 0;
-        }
-        return exchanges.get(currentExchangeIndex++);
+    /**
+     * 获取交易所实例池，每次调用由池选择近期延迟低、失败少的实例
+     * @return 交易所实例池
+     */
+    private Exchange getExchange(){
+        return exchangePool;
     }
 
     /*--------------------------------私有方法--------------------------------*/
@@ -518,13 +634,22 @@ public class TriangleArbitrage implements Strategy {
 
         this.maxQuantityScale = Integer.max(Integer.max(currPairBA.getQuantityScale(), currPairCA.getQuantityScale()), currPairCB.getQuantityScale());
 
-        this.exchanges = new ArrayList<>();
-        for(int i=0; i<3; i++){
-            Exchange exchange = EndExchangeFactory.newInstance(exchangeName);
-            if (null == exchange) {
-                result = false;
+        if (null == this.exchangePool) {
+            List<Exchange> exchanges = new ArrayList<>();
+            for(int i=0; i<3; i++){
+                Exchange exchange = EndExchangeFactory.newInstance(exchangeName);
+                if (null == exchange) {
+                    result = false;
+                }
+                exchanges.add(exchange);
             }
-            exchanges.add(exchange);
+            this.exchangePool = new ExchangePool(exchangeName, exchanges);
+        }
+        if (null == this.orderGateway) {
+            this.orderGateway = new OrderGateway(exchangeName, exchangePool);
+        }
+        if (null == this.orderReconciler) {
+            this.orderReconciler = new OrderReconciler(exchangePool);
         }
 
         this.liveOrders = new HashMap<>();
@@ -537,13 +662,37 @@ public class TriangleArbitrage implements Strategy {
         this.planOrders.put(currPairCA, new ArrayList<>());
         this.planOrders.put(currPairCB, new ArrayList<>());
 
+        this.orderBooks = new HashMap<>();
+        this.currPairs.forEach(e -> orderBooks.put(e, new OrderBook(e)));
+
+        this.arbitrageEngine = new TriangleArbitrageEngine(currPairBA, currPairCB, currPairCA);
+
+        this.clockwiseCycle = ArbitrageCycle.of(new CurrencyPair[]{currPairBA, currPairCB, currPairCA},
+                new String[]{OrderSide.BUY, OrderSide.BUY, OrderSide.SELL}).startFrom(arbitrageCurr);
+        this.anticlockwiseCycle = ArbitrageCycle.of(new CurrencyPair[]{currPairCA, currPairCB, currPairBA},
+                new String[]{OrderSide.BUY, OrderSide.SELL, OrderSide.SELL}).startFrom(arbitrageCurr);
+
+        this.cycleWalker = new CycleWalker(commonScale);
+
         orderingRule = (a, b)-> a.getOrderSide().equals(b.getOrderSide()) ?
                 b.getOrderPrice().compareTo(a.getOrderPrice()) :
                     a.getOrderSide().compareTo(b.getOrderSide());
 
         this.dao = new CommonDao();
+        this.journal = OrderJournal.getShared();
+
+        if (null == this.marketDataFeed) {
+            this.marketDataFeed = MarketDataFeed.getShared();
+        }
+        this.currPairs.forEach(e -> marketDataFeed.subscribe(exchangeName, e.getCurrencyPair(), (exchange, currencyPair, depth) -> {
+            // 合并多次推送，主循环只需被唤醒一次
+            if (depthUpdated.availablePermits() == 0) {
+                depthUpdated.release();
+            }
+        }));
+        this.marketDataFeed.start();
 
-        syncOrdersFromDB();
+        restoreOrders();
 
         syncBalances();
 
@@ -602,6 +751,9 @@ public class TriangleArbitrage implements Strategy {
         if (null == this.arbitrageCurr && this.currPairCA != null) {
             this.arbitrageCurr = this.currPairBA.getCurrencyPair().split("_")[1];
             logger.warn("未设置套利币种，默认以计价币({})作为套利币种。", this.arbitrageCurr);
+        } else if (null != this.currA && !this.arbitrageCurr.equals(currA) && !this.arbitrageCurr.equals(currB) && !this.arbitrageCurr.equals(currC)) {
+            logger.error("套利币种{}不是{}、{}、{}中的一个。", this.arbitrageCurr, currA, currB, currC);
+            result = false;
         } else {
             logger.info("套利币种：{}", this.arbitrageCurr);
         }
@@ -688,46 +840,74 @@ public class TriangleArbitrage implements Strategy {
     }
 
     /**
-     * 同步深度信息，直到同步到有效深度信息才结束此方法。
+     * 同步深度信息，等待行情中心推送深度更新，直到三个币种对的深度均在市场有效时间之内才结束此方法。
      */
     private void syncDepth() {
-        this.depthes = new ConcurrentHashMap<>();
         while (true) {
-            Long begin = System.currentTimeMillis();
-            currPairs.parallelStream().forEach(e -> {
-                Depth depth = getExchange().getDepth(e.getCurrencyPair());
-                if (null != depth) {
-                    depthes.put(e, depth);
+            try {
+                if (!TimeUtil.tryAcquire(depthUpdated, failedSleepTime)) {
+                    logger.error("{}秒内未收到深度推送，继续等待。", this.failedSleepSeconds);
+                    continue;
                 }
-            });
-            Long end = System.currentTimeMillis();
+            } catch (InterruptedException e) {
+                logger.error("等待深度推送时被中断。", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            depthUpdated.drainPermits();
 
-            // 并非三个币种对都获取到了深度信息
-            if (depthes.size() != 3) {
-                logger.error("未能成功同步深度信息，{}秒后重试。", this.failedSleepSeconds);
-                this.depthes.clear();
-                TimeUtil.delay(failedSleepTime);
-                continue;
+            if (refreshDepth()) {
+                break;
             }
+        }
+    }
 
-            // 未在有效时间内获取到三个交易币种对的深度信息
-            if (end - begin > this.marketAvailableDuration) {
-                logger.warn("未能在有效时间内同步深度信息，市场有效时间{}ms，实际花费时间{}ms，立即重试。", this.marketAvailableDuration, end - begin);
-                this.depthes.clear();
-                continue;
+    /**
+     * 从行情中心读取三个币种对的实时盘口，已过期的币种对只重新获取该币种对的深度
+     *
+     * @return 三个币种对的深度均在市场有效时间之内时返回 true，否则返回 false
+     */
+    private Boolean refreshDepth() {
+        Map<CurrencyPair, Depth> snapshot = new HashMap<>();
+        Long oldestRequestTimestamp = Long.MAX_VALUE;
+        for (CurrencyPair currPair : currPairs) {
+            MarketDataFeed.LiveBook book = marketDataFeed.getFreshBook(exchangeName, currPair.getCurrencyPair(), this.marketAvailableDuration);
+            if (null == book) {
+                logger.debug("{}的深度信息不存在或已超过市场有效时间，等待下一次推送。", currPair.getCurrencyPair());
+                return false;
             }
-            break;
+            snapshot.put(currPair, book.getDepth());
+            oldestRequestTimestamp = Long.min(oldestRequestTimestamp, book.getRequestTimestamp());
         }
+
+        // 重新获取过期币种对期间，其余币种对的深度也可能过期，以最旧的深度为准
+        Long age = TimeUtil.now() - oldestRequestTimestamp;
+        if (age > this.marketAvailableDuration) {
+            logger.warn("最旧的深度信息已超过市场有效时间，市场有效时间{}ms，深度已存在{}ms，等待下一次推送。", this.marketAvailableDuration, age);
+            return false;
+        }
+
+        // 只转换深度有变化的币种对，且只转换判断套利机会需要的盘口，逐档计算仍使用原始深度
+        Map<CurrencyPair, Depth> previous = this.depthes;
+        snapshot.forEach((k, v) -> {
+            if (null == previous || previous.get(k) != v) {
+                orderBooks.get(k).update(v, TriangleArbitrageEngine.GATE_LEVELS);
+            }
+        });
+        this.depthes = snapshot;
+        return true;
     }
 
     /**
-     * 从数据库中同步订单信息
+     * 从订单日志中恢复进行中的订单和计划单，之后的 {@link #syncOrders()} 只对挂单列表中状态有变化的订单单独查询
      */
-    private void syncOrdersFromDB(){
-        String hql = "from TriangleArbitrageOrder where (orderStatus = 'NEW' or orderStatus='PLAN') and exchangeName =:exchangeName ";
-        Map<String, Object> params = new HashMap<>();
-        params.put("exchangeName", this.exchangeName);
-        List<TriangleArbitrageOrder> unfilledOrders = dao.findByHql(hql, params, TriangleArbitrageOrder.class);
+    private void restoreOrders(){
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("exchangeName", exchangeName);
+        parameters.put("statuses", Arrays.asList(OrderStatus.NEW, "PLAN"));
+        List<TriangleArbitrageOrder> unfilledOrders = journal.load(TriangleArbitrageOrder.class, exchangeName,
+                e -> this.exchangeName.equals(e.getExchangeName()) && (OrderStatus.NEW.equals(e.getOrderStatus()) || "PLAN".equals(e.getOrderStatus())),
+                () -> dao.findByNamedQuery(TriangleArbitrageOrder.FIND_BY_STATUSES, parameters, TriangleArbitrageOrder.class));
         unfilledOrders.forEach(e ->{
             String quoteCurr = e.getQuoteCurrency();
             String baseCurr = e.getBaseCurrency();
@@ -764,6 +944,13 @@ public class TriangleArbitrage implements Strategy {
 
         liveOrders.forEach((k, v)->{
 
+            if(v.isEmpty()){
+                return;
+            }
+
+            // 每个币种对只获取一次挂单列表，不再逐个查询订单
+            OrderReconciler.Snapshot snapshot = orderReconciler.snapshot(k.getCurrencyPair());
+
             for (int i=0; i<v.size(); i++){
 
                 TriangleArbitrageOrder currOrder = v.get(i);
@@ -772,7 +959,7 @@ public class TriangleArbitrage implements Strategy {
                     break;
                 }
 
-                Order order = getExchange().getOrder(k.getCurrencyPair(), currOrder.getOrderId());
+                Order order = snapshot.getOrder(currOrder.getOrderId());
                 if(null == order){
                     logger.error("同步订单（orderSide={}, currencyPair={}, orderId={}）失败，{}秒后重试。", currOrder.getOrderSide(),k.getCurrencyPair(), currOrder.getOrderId(), this.failedSleepSeconds);
                     TimeUtil.delay(failedSleepTime);
@@ -780,8 +967,8 @@ public class TriangleArbitrage implements Strategy {
                 }else if(OrderStatus.FILLED.equals(order.getStatus()) || OrderStatus.CANCELED.equals(order.getStatus())){
                     currOrder.setOrderStatus(order.getStatus());
                     currOrder.setAvgPrice(order.getTradeMoney().divide(order.getTradeQuantity(), k.getPriceScale(), RoundingMode.UP));
-                    currOrder.setModifyTimestamp(System.currentTimeMillis());
-                    dao.saveOrUpdate(currOrder);
+                    currOrder.setModifyTimestamp(TimeUtil.now());
+                    journal.append(currOrder);
                     v.remove(i);
                 }else {
                     break;
@@ -794,7 +981,7 @@ public class TriangleArbitrage implements Strategy {
                     break;
                 }
 
-                Order order = getExchange().getOrder(k.getCurrencyPair(), currOrder.getOrderId());
+                Order order = snapshot.getOrder(currOrder.getOrderId());
                 if(null == order){
                     logger.error("同步订单（orderSide={}, currencyPair={}, orderId={}）失败，{}秒后重试。", currOrder.getOrderSide(),k.getCurrencyPair(), currOrder.getOrderId());
                     TimeUtil.delay(failedSleepSeconds);
@@ -805,8 +992,8 @@ public class TriangleArbitrage implements Strategy {
                 if(OrderStatus.FILLED.equals(order.getStatus()) || OrderStatus.CANCELED.equals(order.getStatus())){
                     currOrder.setOrderStatus(order.getStatus());
                     currOrder.setAvgPrice(order.getTradeMoney().divide(order.getTradeQuantity(), k.getPriceScale(), RoundingMode.DOWN));
-                    currOrder.setModifyTimestamp(System.currentTimeMillis());
-                    dao.saveOrUpdate(currOrder);
+                    currOrder.setModifyTimestamp(TimeUtil.now());
+                    journal.append(currOrder);
                     v.remove(i);
                 }else {
                     break;
@@ -822,345 +1009,74 @@ public class TriangleArbitrage implements Strategy {
      */
     private Boolean calculateOrders() {
 
-        Depth.PriceQuotation ab = depthes.get(currPairBA).getAsks().get(0);
-        Depth.PriceQuotation ba = depthes.get(currPairBA).getBids().get(0);
-        Depth.PriceQuotation bc = depthes.get(currPairCB).getAsks().get(0);
-        Depth.PriceQuotation cb = depthes.get(currPairCB).getBids().get(0);
-        Depth.PriceQuotation ca = depthes.get(currPairCA).getBids().get(0);
-        Depth.PriceQuotation ac = depthes.get(currPairCA).getAsks().get(0);
-
-        // 不带手续费费率的汇率，例如 Pab表示不带手续费1个A能换Pab个B
-        BigDecimal Pab = BigDecimal.ONE.divide(ab.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
-        BigDecimal Pba = ba.getPrice();
-        BigDecimal Pbc = BigDecimal.ONE.divide(bc.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
-        BigDecimal Pcb = cb.getPrice();
-        BigDecimal Pca = ca.getPrice();
-        BigDecimal Pac = BigDecimal.ONE.divide(ac.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
-
-
-        // 带上手续费费率之后的汇率，例如 Pabf表示带上手续费之后1个A能换Pabf个B
-        BigDecimal Pabf = Pab.multiply(BigDecimal.ONE.subtract(currPairBA.getBuyFeeRate()));
-        BigDecimal Pbaf = Pba.multiply(BigDecimal.ONE.subtract(currPairBA.getSellFeeRate()));
-        BigDecimal Pbcf = Pbc.multiply(BigDecimal.ONE.subtract(currPairCB.getBuyFeeRate()));
-        BigDecimal Pcbf = Pcb.multiply(BigDecimal.ONE.subtract(currPairCB.getSellFeeRate()));
-        BigDecimal Pcaf = Pca.multiply(BigDecimal.ONE.subtract(currPairCA.getSellFeeRate()));
-        BigDecimal Pacf = Pac.multiply(BigDecimal.ONE.subtract(currPairCA.getBuyFeeRate()));
-
-        BigDecimal Qab = ab.getQuantity();//表示一个兑换最多可以得到多少币种B
-        BigDecimal Qba = ba.getPrice().multiply(ba.getQuantity());//表示一个兑换最多可以得到多少币种A
-        BigDecimal Qbc = bc.getQuantity();
-        BigDecimal Qcb = cb.getPrice().multiply(cb.getQuantity());
-        BigDecimal Qca = ca.getPrice().multiply(ca.getQuantity());
-        BigDecimal Qac = ac.getQuantity();
-
-        // 下单的量
-        BigDecimal S_Qab = new BigDecimal("0");
-        BigDecimal S_Qba = new BigDecimal("0");
-        BigDecimal S_Qbc = new BigDecimal("0");
-        BigDecimal S_Qcb = new BigDecimal("0");
-        BigDecimal S_Qca = new BigDecimal("0");
-        BigDecimal S_Qac = new BigDecimal("0");
-
-        // 下单的价格
-        BigDecimal P_ab=null;
-        BigDecimal P_ba=null;
-        BigDecimal P_bc=null;
-        BigDecimal P_cb=null;
-        BigDecimal P_ca=null;
-        BigDecimal P_ac=null;
-
-        // 逆时针套利系数
-        BigDecimal antiClockwise = calculateArbitrageCoefficient(Pbaf, Pacf, Pcbf);
-
-        // 顺时针套利系数
-        BigDecimal clockwise = calculateArbitrageCoefficient(Pabf, Pbcf, Pcaf);
-
-        Integer abIdx = 0;
-        Integer baIdx = 0;
-        Integer bcIdx = 0;
-        Integer cbIdx = 0;
-        Integer caIdx = 0;
-        Integer acIdx = 0;
-
-        logger.info("顺时针套利系数：{}, 逆时针套利系数：{}", clockwise.stripTrailingZeros().toPlainString(), antiClockwise.stripTrailingZeros().toPlainString());
-
-        // 存在顺时针套利机会或者逆时针套利机会
-        while (clockwise.compareTo(BigDecimal.ONE) > 0) {
-            logger.info("顺时针套利系数：{}", clockwise);
-            BigDecimal Pabf_mult_Pbcf = Pabf.multiply(Pbcf);
-            //BigDecimal Pbcf_mult_Pcaf = Pbcf.multiply(Pcaf);
-            //BigDecimal Pcaf_mult_Pabf = Pcaf.multiply(Pabf);
-            BigDecimal Pabf_mult_Pbcf_mult_Pcaf = Pabf_mult_Pbcf.multiply(Pcaf);
-
-            P_ab = ab.getPrice();
-            P_bc = bc.getPrice();
-            P_ca = ca.getPrice();
-
-            // 套币种A
-            if (arbitrageCurr.equals(currA)) {
-
-                // 计算最小的量系数作为三者的量系数
-                BigDecimal QabK = Qab.divide(Pabf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QbcK = Qbc.divide(Pabf_mult_Pbcf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QcaK = Qca.divide(Pabf_mult_Pbcf_mult_Pcaf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QminK = BigDecimalUtil.min(QabK, QbcK, QcaK);
-
-                BigDecimal QabDecrement = BigDecimal.ZERO;
-                BigDecimal QbcDecrement = BigDecimal.ZERO;
-                BigDecimal QcaDecrement = BigDecimal.ZERO;
-
-
-
-                if (QminK.equals(QabK)) {
-
-                    QabDecrement = Qab;
-                    QbcDecrement = QminK.multiply(Pabf_mult_Pbcf);
-                    QcaDecrement = QminK.multiply(Pabf_mult_Pbcf_mult_Pcaf).divide(Pca, commonScale, RoundingMode.DOWN);
-
-                    ab = depthes.get(currPairBA).getAsks().get(++abIdx);
-                    Pab = BigDecimal.ONE.divide(ab.getPrice(), commonScale, RoundingMode.DOWN);
-                    Pabf = Pab.multiply(BigDecimal.ONE.subtract(currPairBA.getBuyFeeRate()));
-
-                    Qab = ab.getQuantity();
-                    Qbc = Qbc.subtract(QbcDecrement);
-                    Qca = Qca.subtract(QminK.multiply(Pabf_mult_Pbcf_mult_Pcaf));
-                } else if (QminK.equals(QbcK)) {
-                    QabDecrement = QminK.multiply(Pabf);
-                    QbcDecrement = Qbc;
-                    QcaDecrement = QminK.multiply(Pabf_mult_Pbcf_mult_Pcaf).divide(Pca, commonScale, RoundingMode.DOWN);
-
-                    bc = depthes.get(currPairCB).getAsks().get(++bcIdx);
-                    Pbc = BigDecimal.ONE.divide(bc.getPrice(), commonScale, RoundingMode.DOWN);
-                    Pbcf = Pbc.multiply(BigDecimal.ONE.subtract(currPairCB.getBuyFeeRate()));
-
-                    Qab = Qab.subtract(QabDecrement);
-                    Qbc = bc.getQuantity();
-                    Qca = Qca.subtract(QminK.multiply(Pabf_mult_Pbcf_mult_Pcaf));
-                } else if (QminK.equals(QcaK)) {
-                    QabDecrement = QminK.multiply(Pabf);
-                    QbcDecrement = QminK.multiply(Pabf_mult_Pbcf);
-                    QcaDecrement = Qca.divide(Pca, commonScale, RoundingMode.DOWN);
-
-                    ca = depthes.get(currPairCA).getBids().get(++caIdx);
-                    Pca = ca.getPrice();
-                    Pcaf = Pca.multiply(BigDecimal.ONE.subtract(currPairCA.getSellFeeRate()));
-
-                    Qab = Qab.subtract(QabDecrement);
-                    Qbc = Qbc.subtract(QbcDecrement);
-                    Qca = ca.getPrice().multiply(ca.getQuantity());
-                } else {
-                    logger.error("最小量系数计算存在问题。");
-                }
-
-                // 调整订单的数量
-                if(S_Qbc.add(QbcDecrement).compareTo(this.maxQuantityPerOrder) > 0){
-                    BigDecimal k = this.maxQuantityPerOrder.subtract(S_Qbc).divide(QbcDecrement, this.commonScale, RoundingMode.DOWN);
-                    S_Qbc = this.maxQuantityPerOrder;
-                    S_Qab = S_Qab.add(QabDecrement.multiply(k));
-                    S_Qca = S_Qca.add(QcaDecrement.multiply(k));
-                    break;
-                }
-
-                S_Qab = S_Qab.add(QabDecrement);
-                S_Qbc = S_Qbc.add(QbcDecrement);
-                S_Qca = S_Qca.add(QcaDecrement);
-
-            } else {
-                logger.error("顺时针套利币种{}的代码待完善。", arbitrageCurr);
-                break;
-            }
-
-            clockwise = calculateArbitrageCoefficient(Pabf, Pbcf, Pcaf);
-        }
-
-        if(BigDecimal.ZERO.compareTo(S_Qab) < 0){
-
-            // 少于每单最小量，不挂单
-            if(S_Qbc.compareTo(this.minQuantityPerOrder) < 0){
-                logger.debug("单笔订单{}挂单数量太少，不挂单，【最少 {} > 当前 {}】", currC, this.minQuantityPerOrder, S_Qbc);
-                return false;
-            }
-
-            BigDecimal _p_ab = P_ab.stripTrailingZeros();
-            BigDecimal _p_bc = P_bc.stripTrailingZeros();
-            BigDecimal _p_ca = P_ca.stripTrailingZeros();
-
-            BigDecimal _q_ab = S_Qab.divide(BigDecimal.ONE, currPairBA.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-            BigDecimal _q_bc = S_Qbc.divide(BigDecimal.ONE, currPairCB.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-            BigDecimal _q_ca = S_Qca.divide(BigDecimal.ONE, currPairCA.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-
-            logger.debug("{} -> {} 买单（{}价格买入{} {}） 得到{} {}, 消耗{} {}", currA, currB, _p_ab.toPlainString(), _q_ab.toPlainString(), currB, _q_ab.multiply(BigDecimal.ONE.subtract(currPairBA.getBuyFeeRate())).stripTrailingZeros().toPlainString(),currB, _q_ab.multiply(_p_ab).stripTrailingZeros().toPlainString(), currA);
-            logger.debug("{} -> {} 买单（{}价格买入{} {}）得到{} {}, 消耗{} {}", currB, currC, _p_bc.toPlainString(), _q_bc.toPlainString(), currC, _q_bc.multiply(BigDecimal.ONE.subtract(currPairCB.getBuyFeeRate())).stripTrailingZeros().toPlainString(), currC, _q_bc.multiply(_p_bc).stripTrailingZeros().toPlainString(), currB);
-            logger.debug("{} -> {} 卖单（{}价格卖出{} {}） 得到{} {}, 消耗{} {}", currC, currA, _p_ca.toPlainString(), _q_ca.toPlainString(), currC, _q_ca.multiply(_p_ca).multiply(BigDecimal.ONE.subtract(currPairCA.getSellFeeRate())).stripTrailingZeros().toPlainString(), currA, _q_ca.stripTrailingZeros().toPlainString(), currC);
-
-            // 检查余额是否充足
-            BigDecimal currAbalFree = balances.get(currA).getFree();
-            if(currAbalFree.compareTo(_q_ab.multiply(_p_ab)) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currA, _q_ab.multiply(_p_ab), currAbalFree);
-                return false;
-            }
-
-            BigDecimal currBbalFree = balances.get(currB).getFree();
-            if(currBbalFree.compareTo(_q_bc.multiply(_p_bc)) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currB, _q_bc.multiply(_p_bc), currBbalFree);
-                return false;
-            }
-
-            BigDecimal currCbalFree = balances.get(currC).getFree();
-            if(currCbalFree.compareTo(_q_ca) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currC, _q_ca, currCbalFree);
-                return false;
+        // 先在定点数订单簿上快速判断，没有套利机会时不再进行 BigDecimal 逐档计算
+        OrderBook bookBA = orderBooks.get(currPairBA);
+        OrderBook bookCB = orderBooks.get(currPairCB);
+        OrderBook bookCA = orderBooks.get(currPairCA);
+        ArbitrageMode mode = arbitrageEngine.evaluate(bookBA, bookCB, bookCA);
+        if (ArbitrageMode.NONE == mode) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("顺时针套利系数：{}, 逆时针套利系数：{}", arbitrageEngine.clockwiseCoefficient(bookBA, bookCB, bookCA), arbitrageEngine.anticlockwiseCoefficient(bookBA, bookCB, bookCA));
             }
-
-            String groupId = UUID.randomUUID().toString().replace("-", "");
-            List<TriangleArbitrageOrder> orders = new ArrayList<>();
-            orders.add(buildTriangleArbitrageOrder(OrderSide.BUY, currPairBA, _p_ab, _q_ab, groupId));
-            orders.add(buildTriangleArbitrageOrder(OrderSide.SELL, currPairCA, _p_ca, _q_ca, groupId));
-            orders.add(buildTriangleArbitrageOrder(OrderSide.BUY, currPairCB, _p_bc, _q_bc, groupId));
-            placeOrders(orders);
-            return true;
+            return false;
         }
 
+        return calculateOrders(ArbitrageMode.CLOCKWISE == mode ? clockwiseCycle : anticlockwiseCycle);
+    }
 
-        while (antiClockwise.compareTo(BigDecimal.ONE) > 0) {
-            logger.info("逆时针套利系数：{}", antiClockwise);
-            //BigDecimal Pbaf_mult_Pacf = Pbaf.multiply(Pacf);
-            BigDecimal Pacf_mult_Pcbf = Pacf.multiply(Pcbf);
-            //BigDecimal Pcbf_mult_Pbaf = Pcbf.multiply(Pbaf);
-            BigDecimal Pbaf_mult_Pacf_mult_Pcbf = Pbaf.multiply(Pacf).multiply(Pcbf);
-
-            P_ba = ba.getPrice();
-            P_ac = ac.getPrice();
-            P_cb = cb.getPrice();
-
-            //套利币种A
-            if(arbitrageCurr.equals(currA)){
-
-                // 计算最小的量系数作为三者的量系数
-                BigDecimal QbaK = Qba.divide(Pbaf_mult_Pacf_mult_Pcbf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QacK = Qac.divide(Pacf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QcbK = Qcb.divide(Pacf_mult_Pcbf, commonScale, RoundingMode.HALF_EVEN);
-                BigDecimal QminK = BigDecimalUtil.min(QbaK, QacK, QcbK);
-
-                BigDecimal QbaDecrement = BigDecimal.ZERO;
-                BigDecimal QacDecrement = BigDecimal.ZERO;
-                BigDecimal QcbDecrement = BigDecimal.ZERO;
-
-                if (QbaK.equals(QminK)){
-                    QbaDecrement = Qba.divide(ba.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-                    QacDecrement = QminK.multiply(Pacf);
-                    QcbDecrement = QminK.multiply(Pacf_mult_Pcbf).divide(cb.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-
-                    ba = depthes.get(currPairBA).getBids().get(++baIdx);
-                    Pba = ba.getPrice();
-                    Pbaf = Pba.multiply(BigDecimal.ONE.subtract(currPairBA.getSellFeeRate()));
-
-                    Qba = ba.getPrice().multiply(ba.getQuantity());
-                    Qac = Qac.subtract(QacDecrement);
-                    Qcb = Qcb.subtract(QminK.multiply(Pacf_mult_Pcbf));
-
-                }else if(QacK.equals(QminK)){
-                    QbaDecrement = QminK.multiply(Pbaf_mult_Pacf_mult_Pcbf).divide(ba.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-                    QacDecrement = Qac;
-                    QcbDecrement = QminK.multiply(Pacf_mult_Pcbf).divide(cb.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-
-                    ac = depthes.get(currPairCA).getAsks().get(++acIdx);
-                    Pac = BigDecimal.ONE.divide(ac.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
-                    Pacf = Pac.multiply(BigDecimal.ONE.subtract(currPairCA.getBuyFeeRate()));
-
-                    Qba = Qba.subtract(QminK.multiply(Pbaf_mult_Pacf_mult_Pcbf));
-                    Qac = ac.getQuantity();
-                    Qcb = Qcb.subtract(QminK.multiply(Pacf_mult_Pcbf));
-                }
-
-                else if(QcbK.equals(QminK)){
-
-                    QbaDecrement = QminK.multiply(Pbaf_mult_Pacf_mult_Pcbf).divide(ba.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-                    QacDecrement = QminK.multiply(Pacf);
-                    QcbDecrement = Qcb.divide(cb.getPrice(), commonScale, RoundingMode.HALF_EVEN);
-
-                    cb = depthes.get(currPairCB).getBids().get(++cbIdx);
-                    Pcb = cb.getPrice();
-                    Pcbf = Pcb.multiply(BigDecimal.ONE.subtract(currPairCB.getSellFeeRate()));
-
-                    Qba = Qba.subtract(QminK.multiply(Pbaf_mult_Pacf_mult_Pcbf));
-                    Qac = Qac.subtract(QacDecrement);
-                    Qcb = cb.getPrice().multiply(cb.getQuantity());
-                } else{
-                    logger.error("计算量系数是出错。");
-                }
-
-                //多于每单最大量，将数量调小
-                if(S_Qcb.add(QcbDecrement).compareTo(this.maxQuantityPerOrder)>0){
-
-                    BigDecimal k = this.maxQuantityPerOrder.subtract(S_Qcb).divide(QcbDecrement, this.commonScale, RoundingMode.DOWN);
-                    S_Qcb = this.maxQuantityPerOrder;
-                    S_Qac = S_Qac.add(QacDecrement.multiply(k));
-                    S_Qba = S_Qba.add(QbaDecrement.multiply(k));
-                    break;
-                }
-
-                S_Qba = S_Qba.add(QbaDecrement);
-                S_Qac = S_Qac.add(QacDecrement);
-                S_Qcb = S_Qcb.add(QcbDecrement);
-
-            }else {
-                logger.error("逆时针套利币种{}的代码待完善。", arbitrageCurr);
-                break;
-            }
+    /**
+     * 沿套利环逐档计算挂单信息并下单，套利环的起始币种即此次套利增加的币种
+     *
+     * @param cycle 由本三角的三个币种对构成的套利环
+     * @return 是否下过套利单
+     */
+    private Boolean calculateOrders(ArbitrageCycle cycle) {
+        CycleWalker.Plan plan = cycleWalker.walk(cycle, depthes::get, currPairCB, maxQuantityPerOrder);
+        logger.info("套利环{}的套利系数：{}", cycle, plan.getCoefficient().stripTrailingZeros().toPlainString());
 
-            antiClockwise = calculateArbitrageCoefficient(Pbaf, Pacf, Pcbf);
+        if (plan.isEmpty()) {
+            return false;
         }
 
-        if(BigDecimal.ZERO.compareTo(S_Qba) < 0){
+        List<ArbitrageCycle.Leg> legs = cycle.getLegs();
+        BigDecimal[] prices = new BigDecimal[legs.size()];
+        BigDecimal[] quantities = new BigDecimal[legs.size()];
+        for (int i = 0; i < legs.size(); i++) {
+            CurrencyPair currPair = legs.get(i).getCurrencyPair();
+            prices[i] = plan.getPrice(i).stripTrailingZeros();
+            quantities[i] = plan.getQuantity(i).divide(BigDecimal.ONE, currPair.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
 
             // 少于每单最小量，不挂单
-            if(S_Qcb.compareTo(this.minQuantityPerOrder) < 0){
-                logger.debug("单笔订单{}挂单数量太少，不挂单，【最少 {} > 当前 {}】", currC, this.minQuantityPerOrder, S_Qcb);
+            if (currPair.getCurrencyPair().equals(currPairCB.getCurrencyPair()) && quantities[i].compareTo(this.minQuantityPerOrder) < 0) {
+                logger.debug("单笔订单{}挂单数量太少，不挂单，【最少 {} > 当前 {}】", currC, this.minQuantityPerOrder, quantities[i]);
                 return false;
             }
+        }
 
-            BigDecimal _p_ba = P_ba.stripTrailingZeros();
-            BigDecimal _p_ac = P_ac.stripTrailingZeros();
-            BigDecimal _p_cb = P_cb.stripTrailingZeros();
-
-            BigDecimal _q_ba = S_Qba.divide(BigDecimal.ONE, currPairBA.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-            BigDecimal _q_ac = S_Qac.divide(BigDecimal.ONE, currPairCA.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-            BigDecimal _q_cb = S_Qcb.divide(BigDecimal.ONE, currPairCB.getQuantityScale(), RoundingMode.DOWN).stripTrailingZeros();
-
-            logger.debug("{} -> {} 卖单（{}价格卖出{} {}） 得到{} {}, 消耗{} {}", currB, currA, _p_ba.toPlainString(), _q_ba.toPlainString(), currB, _q_ba.multiply(_p_ba).multiply(BigDecimal.ONE.subtract(currPairBA.getSellFeeRate())).stripTrailingZeros().toPlainString(),currA, _q_ba.stripTrailingZeros().toPlainString(), currB);
-            logger.debug("{} -> {} 买单（{}价格买入{} {}）得到{} {}, 消耗{} {}", currA, currC, _p_ac.toPlainString(), _q_ac.toPlainString(), currC, _q_ac.multiply(BigDecimal.ONE.subtract(currPairCA.getBuyFeeRate())).stripTrailingZeros().toPlainString(), currC, _q_ac.multiply(_p_ac).stripTrailingZeros().toPlainString(), currA);
-            logger.debug("{} -> {} 卖单（{}价格卖出{} {}） 得到{} {}, 消耗{} {}", currC, currB, _p_cb.toPlainString(), _q_cb.toPlainString(), currC, _p_cb.multiply(_q_cb).multiply(BigDecimal.ONE.subtract(currPairCB.getSellFeeRate())).stripTrailingZeros().toPlainString(), currB, _q_cb.stripTrailingZeros().toPlainString(), currC);
-
+        for (int i = 0; i < legs.size(); i++) {
+            ArbitrageCycle.Leg leg = legs.get(i);
+            BigDecimal fee = leg.isBuy() ? arbitrageEngine.getFeeMultiplier(leg.getCurrencyPair()).getBuy() : arbitrageEngine.getFeeMultiplier(leg.getCurrencyPair()).getSell();
+            BigDecimal cost = leg.isBuy() ? quantities[i].multiply(prices[i]) : quantities[i];
+            BigDecimal gain = leg.isBuy() ? quantities[i].multiply(fee) : quantities[i].multiply(prices[i]).multiply(fee);
+            logger.debug("{} -> {} {}单（{}价格{}{} {}） 得到{} {}, 消耗{} {}", leg.getFromCurrency(), leg.getToCurrency(),
+                    leg.isBuy() ? "买" : "卖", prices[i].toPlainString(), leg.isBuy() ? "买入" : "卖出", quantities[i].toPlainString(), leg.getCurrencyPair().getBaseCurrency(),
+                    gain.stripTrailingZeros().toPlainString(), leg.getToCurrency(), cost.stripTrailingZeros().toPlainString(), leg.getFromCurrency());
 
             // 检查余额是否充足
-            BigDecimal currAbalFree = balances.get(currA).getFree();
-            if(currAbalFree.compareTo(_q_ac.multiply(_p_ac)) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currA, _q_ac.multiply(_p_ac), currAbalFree);
-                return false;
-            }
-
-            BigDecimal currBbalFree = balances.get(currB).getFree();
-            if(currBbalFree.compareTo(_q_ba) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currB, _q_ba, currBbalFree);
-                return false;
-            }
-
-            BigDecimal currCbalFree = balances.get(currC).getFree();
-            if(currCbalFree.compareTo(_q_cb) < 0){
-                logger.error("{}余额不足，需要{}，可用{}", currC, _q_cb, currCbalFree);
+            BigDecimal balFree = balances.get(leg.getFromCurrency()).getFree();
+            if (balFree.compareTo(cost) < 0) {
+                logger.error("{}余额不足，需要{}，可用{}", leg.getFromCurrency(), cost, balFree);
                 return false;
             }
+        }
 
-            String groupId = UUID.randomUUID().toString().replace("-", "");
-            List<TriangleArbitrageOrder> orders = new ArrayList<>();
-            orders.add(buildTriangleArbitrageOrder(OrderSide.SELL, currPairBA, _p_ba, _q_ba, groupId));
-            orders.add(buildTriangleArbitrageOrder(OrderSide.BUY, currPairCA, _p_ac, _q_ac, groupId));
-            orders.add(buildTriangleArbitrageOrder(OrderSide.SELL, currPairCB, _p_cb, _q_cb, groupId));
-            placeOrders(orders);
-            return true;
+        String groupId = UUID.randomUUID().toString().replace("-", "");
+        List<TriangleArbitrageOrder> orders = new ArrayList<>();
+        for (int i = 0; i < legs.size(); i++) {
+            orders.add(buildTriangleArbitrageOrder(legs.get(i).getOrderSide(), legs.get(i).getCurrencyPair(), prices[i], quantities[i], groupId));
         }
-        return false;
+        placeOrders(orders);
+        return true;
     }
 
     /**
@@ -1174,7 +1090,7 @@ public class TriangleArbitrage implements Strategy {
      */
     private TriangleArbitrageOrder buildTriangleArbitrageOrder(String orderSide, CurrencyPair currencyPair, BigDecimal price, BigDecimal quantity, String groupId){
         TriangleArbitrageOrder order = new TriangleArbitrageOrder();
-        order.setCreateTimestamp(System.currentTimeMillis());
+        order.setCreateTimestamp(TimeUtil.now());
         order.setBaseCurrency(currencyPair.getBaseCurrency());
         order.setQuoteCurrency(currencyPair.getQuoteCurrency());
         order.setExchangeName(exchangeName);
@@ -1187,11 +1103,16 @@ public class TriangleArbitrage implements Strategy {
     }
 
     /**
-     * 并行下所有订单，并保存到数据库中
+     * 批量下所有订单，并保存到数据库中
      * @param orders 所有订单
      */
     private void placeOrders(List<TriangleArbitrageOrder> orders){
-        orders.parallelStream().forEach(this::placeOrder);
+        List<OrderRequest> requests = new ArrayList<>();
+        orders.forEach(e -> requests.add(new OrderRequest(e.getOrderSide(), e.getBaseCurrency() + "_" + e.getQuoteCurrency(), e.getOrderQuantity(), e.getOrderPrice())));
+        List<Order> results = TimeUtil.join(orderGateway.placeAll(requests));
+        for (int i = 0; i < orders.size(); i++) {
+            updatePlacedOrder(orders.get(i), results.get(i));
+        }
         Long succNumber = orders.stream().filter(e -> OrderStatus.NEW.equals(e.getOrderStatus())).count();
 
         // 均挂单失败
@@ -1205,35 +1126,45 @@ public class TriangleArbitrage implements Strategy {
         logger.debug("挂单前余额：{}:{}, {}:{}, {}:{}", currA, lastBalances.get(currA), currB, lastBalances.get(currB), currC, lastBalances.get(currC));
         logger.debug("最新余额：{}:{}, {}:{}, {}:{}", currA, balances.get(currA), currB, balances.get(currB), currC, balances.get(currC));
 
-        // 若三笔订单均挂单成功，且三个币种的可用余额都没有减少，说明三个订单都已经完成了
-        if(balances.get(currA).getFree().compareTo(lastBalances.get(currA).getFree()) >= 0
-                && balances.get(currB).getFree().compareTo(lastBalances.get(currB).getFree()) >= 0
-                && balances.get(currC).getFree().compareTo(lastBalances.get(currC).getFree()) >= 0){
-            orders.parallelStream()
-                    .filter(e -> OrderStatus.NEW.equals(e.getOrderStatus()))
-                    .forEach(e -> e.setOrderStatus(OrderStatus.FILLED));
-        }else {
-            liveOrders.forEach((k, v)-> {
-                orders.stream().filter(e -> OrderStatus.NEW.equals(e.getOrderStatus())).forEach(e -> {
-                    if (k.getCurrencyPair().startsWith(e.getBaseCurrency()) && k.getCurrencyPair().endsWith(e.getQuoteCurrency())) {
-                        v.add(e);
-                    }
-                });
-                v.sort(orderingRule);
+        // 根据余额变化推断各订单的成交情况，只查询无法推断的订单
+        List<FillInference.PlacedOrder<TriangleArbitrageOrder>> placedOrders = new ArrayList<>();
+        orders.stream().filter(e -> OrderStatus.NEW.equals(e.getOrderStatus())).forEach(e -> placedOrders.add(
+                new FillInference.PlacedOrder<>(e, e.getOrderSide(), e.getBaseCurrency(), e.getQuoteCurrency(), e.getOrderQuantity(), e.getOrderPrice(), e.getFeeRate())));
+        List<FillInference.Fill> fills = fillInference.infer(placedOrders, freeBalances(lastBalances), freeBalances(balances));
+        logger.debug("成交推断结果：{}", fills);
+
+        List<CompletableFuture<Void>> queries = new ArrayList<>();
+        for (int i = 0; i < fills.size(); i++) {
+            TriangleArbitrageOrder order = placedOrders.get(i).getOrder();
+            FillInference.Fill fill = fills.get(i);
+            if (FillInference.Status.FILLED.equals(fill.getStatus())) {
+                order.setOrderStatus(OrderStatus.FILLED);
+            } else if (FillInference.Status.AMBIGUOUS.equals(fill.getStatus())) {
+                queries.add(queryOrder(order));
+            }
+        }
+        OrderGateway.awaitAll(queries);
+
+        liveOrders.forEach((k, v)-> {
+            orders.stream().filter(e -> OrderStatus.NEW.equals(e.getOrderStatus())).forEach(e -> {
+                if (k.getCurrencyPair().startsWith(e.getBaseCurrency()) && k.getCurrencyPair().endsWith(e.getQuoteCurrency())) {
+                    v.add(e);
+                }
             });
+            v.sort(orderingRule);
+        });
 
-            planOrders.forEach((k, v)-> {
-                orders.stream().filter(e -> "PLAN".equals(e.getOrderStatus())).forEach(e -> {
-                    if (k.getCurrencyPair().startsWith(e.getBaseCurrency()) && k.getCurrencyPair().endsWith(e.getQuoteCurrency())) {
-                        v.add(e);
-                    }
-                });
-                v.sort(orderingRule);
+        planOrders.forEach((k, v)-> {
+            orders.stream().filter(e -> "PLAN".equals(e.getOrderStatus())).forEach(e -> {
+                if (k.getCurrencyPair().startsWith(e.getBaseCurrency()) && k.getCurrencyPair().endsWith(e.getQuoteCurrency())) {
+                    v.add(e);
+                }
             });
-        }
+            v.sort(orderingRule);
+        });
         logger.debug("进行中订单：{}", liveOrders);
         logger.debug("计划订单：{}", planOrders);
-        orders.parallelStream().forEach(dao::saveOrUpdate);
+        journal.append(orders);
     }
 
     /**
@@ -1254,9 +1185,9 @@ public class TriangleArbitrage implements Strategy {
                 if(currOrder.getOrderPrice().compareTo(depthes.get(k).getAsks().get(0).getPrice()) > 0
                         //且计价币的余额充足
                         && balances.get(k.getQuoteCurrency()).getFree().compareTo(currOrder.getOrderPrice().multiply(currOrder.getOrderQuantity()))>0){
-                    placeOrder(currOrder);
+                    TimeUtil.join(placeOrder(currOrder));
                     if(!currOrder.getOrderStatus().equals("PLAN")){
-                        dao.saveOrUpdate(currOrder);
+                        journal.append(currOrder);
                         liveOrders.get(k).add(currOrder);
                         v.remove(currOrder);
                         isPlacePlanOrder = true;
@@ -1274,10 +1205,10 @@ public class TriangleArbitrage implements Strategy {
                 if(currOrder.getOrderPrice().compareTo(depthes.get(k).getBids().get(0).getPrice()) < 0
                         //且卖出的基础币数量充足
                         && balances.get(k.getBaseCurrency()).getFree().compareTo(currOrder.getOrderQuantity()) > 0){
-                    placeOrder(currOrder);
+                    TimeUtil.join(placeOrder(currOrder));
                     if(!currOrder.getOrderStatus().equals("PLAN")){
                         isPlacePlanOrder = true;
-                        dao.saveOrUpdate(currOrder);
+                        journal.append(currOrder);
                         liveOrders.get(k).add(currOrder);
                         v.remove(currOrder);
                     }
@@ -1295,63 +1226,156 @@ public class TriangleArbitrage implements Strategy {
 
 
     /**
-     * 下一笔订单
+     * 异步下一笔订单
      * @param order 订单对象
+     * @return 下单完成时结束
      */
-    private void placeOrder(TriangleArbitrageOrder order){
-        Order od = getExchange().order(order.getOrderSide(), order.getBaseCurrency() + "_" + order.getQuoteCurrency(), order.getOrderQuantity(), order.getOrderPrice());
+    private CompletableFuture<Void> placeOrder(TriangleArbitrageOrder order){
+        return orderGateway.order(order.getOrderSide(), order.getBaseCurrency() + "_" + order.getQuoteCurrency(), order.getOrderQuantity(), order.getOrderPrice())
+                .thenAccept(od -> updatePlacedOrder(order, od));
+    }
+
+    /**
+     * 根据下单结果更新订单，下单失败的订单转为计划单
+     * @param order 订单
+     * @param od 下单结果
+     */
+    private void updatePlacedOrder(TriangleArbitrageOrder order, Order od){
         if(null != od){
             order.setOrderId(od.getOrderId());
             order.setOrderStatus(OrderStatus.NEW);
         }else {
             order.setOrderStatus("PLAN");
         }
-        order.setModifyTimestamp(System.currentTimeMillis());
+        order.setModifyTimestamp(TimeUtil.now());
     }
 
     /**
-     * 计算套利系数
-     *
-     * @param p1 带手续费费率的汇率1
-     * @param p2 带手续费费率的汇率2
-     * @param p3 带手续费费率的汇率3
-     * @return 套利系数
+     * 查询一个无法根据余额推断成交情况的订单，已经成交或者撤销时更新其状态，查询失败时保持挂单状态，等待下一次同步
+     * @param order 订单
      */
-    private BigDecimal calculateArbitrageCoefficient(BigDecimal p1, BigDecimal p2, BigDecimal p3) {
-        return p1.multiply(p2).multiply(p3);
+    private CompletableFuture<Void> queryOrder(TriangleArbitrageOrder order){
+        return orderGateway.getOrder(order.getBaseCurrency() + "_" + order.getQuoteCurrency(), order.getOrderId())
+                .thenAccept(od -> {
+                    if(null != od && (OrderStatus.FILLED.equals(od.getStatus()) || OrderStatus.CANCELED.equals(od.getStatus()))){
+                        order.setOrderStatus(od.getStatus());
+                        if(null != od.getTradeQuantity() && od.getTradeQuantity().signum() > 0){
+                            order.setAvgPrice(od.getTradeMoney().divide(od.getTradeQuantity(), maxPriceScale, RoundingMode.HALF_UP));
+                        }
+                        order.setModifyTimestamp(TimeUtil.now());
+                    }
+                });
     }
 
-    @Override
-    public void run(Map<String, Object> parameters) {
+    /**
+     * @param balances 余额信息
+     * @return 各币种的可用余额
+     */
+    private static Map<String, BigDecimal> freeBalances(Map<String, Account.Balance> balances){
+        Map<String, BigDecimal> result = new HashMap<>();
+        if(null != balances){
+            balances.forEach((k, v) -> result.put(k, v.getFree()));
+        }
+        return result;
+    }
+
+    /**
+     * 按照设置的频次同步余额和挂单
+     */
+    private void syncByFrequency() {
+        cycleTimes ++;
+        if(cycleTimes>50000){
+            cycleTimes = 1;
+        }
+
+        if(cycleTimes % syncBalanceFrequency == 0){
+            syncBalances();
+        }
+
+        if(cycleTimes % syncOrderFrequency == 0){
+            syncOrders();
+        }
+    }
+
+    /**
+     * 校验参数并初始化策略，由 {@link #run(Map)} 调用，
+     * 或者由多三角套利策略在发现此三角的套利机会时调用
+     *
+     * @return 初始化结果
+     */
+    public Boolean initialize() {
 
         // 参数校验
         if (!this.validateParameters()) {
             logger.error("参数校验失败， 此策略不再执行。");
-            return;
+            return false;
         }
 
         // 初始化
         if (!this.init()) {
             logger.error("策略初始化失败，此策略不再执行。");
-            return;
+            return false;
         }
+        return true;
+    }
 
-        int cycleTimes = 1;
+    /**
+     * 以行情中心当前的深度执行一轮套利，不等待深度推送。
+     * 用于多三角套利策略在扫描到此三角的套利机会时直接交给本策略计算挂单。
+     *
+     * @return 此轮是否下过套利单
+     */
+    public Boolean arbitrage() {
+        syncByFrequency();
+        if (!refreshDepth()) {
+            return false;
+        }
+        if (!calculateOrders()) {
+            placePlanOrders();
+            return false;
+        }
+        return true;
+    }
 
-        while (true) {
+    /**
+     * 以行情中心当前的深度沿指定的套利环执行一轮套利，不等待深度推送，也不再按套利币种重新判断方向。
+     * 用于多三角套利策略按扫描器发现的套利环方向下单，使发现与执行的套利环方向一致。
+     * 套利环以本策略的套利币种作为起始币种重新排列，兑换一圈之后增加的仍是套利币种。
+     *
+     * @param cycle 由本三角的三个币种对构成的套利环
+     * @return 此轮是否下过套利单
+     */
+    public Boolean arbitrage(ArbitrageCycle cycle) {
+        if (cycle.size() != 3 || !currPairs.containsAll(cycle.getCurrencyPairs())) {
+            logger.error("套利环{}不是由本三角的币种对构成的，不执行。", cycle);
+            return false;
+        }
+        ArbitrageCycle rotated = cycle.startFrom(arbitrageCurr);
+        if (null == rotated) {
+            logger.error("套利环{}中没有套利币种{}，不执行。", cycle, arbitrageCurr);
+            return false;
+        }
+        syncByFrequency();
+        if (!refreshDepth()) {
+            return false;
+        }
+        if (!calculateOrders(rotated)) {
+            placePlanOrders();
+            return false;
+        }
+        return true;
+    }
 
-            cycleTimes ++;
-            if(cycleTimes>50000){
-                cycleTimes = 1;
-            }
+    @Override
+    public void run(Map<String, Object> parameters) {
 
-            if(cycleTimes % syncBalanceFrequency == 0){
-                syncBalances();
-            }
+        if (!this.initialize()) {
+            return;
+        }
 
-            if(cycleTimes % syncOrderFrequency == 0){
-                syncOrders();
-            }
+        while (true) {
+
+            syncByFrequency();
 
             syncDepth();
             //testDepthClockwise();
@@ -1373,7 +1397,7 @@ public class TriangleArbitrage implements Strategy {
     private void testDepthClockwise(){
         this.depthes = new HashMap<>();
         Depth VNB_ETH = new Depth();
-        VNB_ETH.setTimestamp(System.currentTimeMillis());
+        VNB_ETH.setTimestamp(TimeUtil.now());
         VNB_ETH.setExchange("vnbig.com");
         VNB_ETH.setCurrency("VNB_ETH");
         List<Depth.PriceQuotation> VNB_ETH_asks = new ArrayList<>();
@@ -1393,7 +1417,7 @@ public class TriangleArbitrage implements Strategy {
         depthes.put(currPairCB, VNB_ETH);
 
         Depth VNB_BTC = new Depth();
-        VNB_BTC.setTimestamp(System.currentTimeMillis());
+        VNB_BTC.setTimestamp(TimeUtil.now());
         VNB_BTC.setExchange("vnbig.com");
         VNB_BTC.setCurrency("VNB_BTC");
         List<Depth.PriceQuotation> VNB_BTC_asks = new ArrayList<>();
@@ -1413,7 +1437,7 @@ public class TriangleArbitrage implements Strategy {
         depthes.put(currPairCA, VNB_BTC);
 
         Depth ETH_BTC = new Depth();
-        ETH_BTC.setTimestamp(System.currentTimeMillis());
+        ETH_BTC.setTimestamp(TimeUtil.now());
         ETH_BTC.setExchange("vnbig.com");
         ETH_BTC.setCurrency("ETH_BTC");
         List<Depth.PriceQuotation> ETH_BTC_asks = new ArrayList<>();
@@ -1436,7 +1460,7 @@ public class TriangleArbitrage implements Strategy {
 
     private void testDepthAntiClockwise(){this.depthes = new HashMap<>();
         Depth VNB_ETH = new Depth();
-        VNB_ETH.setTimestamp(System.currentTimeMillis());
+        VNB_ETH.setTimestamp(TimeUtil.now());
         VNB_ETH.setExchange("vnbig.com");
         VNB_ETH.setCurrency("VNB_ETH");
         List<Depth.PriceQuotation> VNB_ETH_asks = new ArrayList<>();
@@ -1456,7 +1480,7 @@ public class TriangleArbitrage implements Strategy {
         depthes.put(currPairCB, VNB_ETH);
 
         Depth VNB_BTC = new Depth();
-        VNB_BTC.setTimestamp(System.currentTimeMillis());
+        VNB_BTC.setTimestamp(TimeUtil.now());
         VNB_BTC.setExchange("vnbig.com");
         VNB_BTC.setCurrency("VNB_BTC");
         List<Depth.PriceQuotation> VNB_BTC_asks = new ArrayList<>();
@@ -1476,7 +1500,7 @@ public class TriangleArbitrage implements Strategy {
         depthes.put(currPairCA, VNB_BTC);
 
         Depth ETH_BTC = new Depth();
-        ETH_BTC.setTimestamp(System.currentTimeMillis());
+        ETH_BTC.setTimestamp(TimeUtil.now());
         ETH_BTC.setExchange("vnbig.com");
         ETH_BTC.setCurrency("ETH_BTC");
         List<Depth.PriceQuotation> ETH_BTC_asks = new ArrayList<>();
@@ -1510,6 +1534,7 @@ public class TriangleArbitrage implements Strategy {
         CB.setSellFeeRate(new BigDecimal("0.001"));
 
 
+        OrderArchiver.getShared().start();
         new TriangleArbitrage()
                 .setFailedSleepTime(10000L)
                 .setMarketAvailableDuration(600L)
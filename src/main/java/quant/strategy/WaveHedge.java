@@ -4,6 +4,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -17,8 +18,11 @@ import exunion.metaobjects.Order;
 import exunion.metaobjects.OrderSide;
 import exunion.metaobjects.OrderStatus;
 import quant.dao.CommonDao;
+import quant.dao.OrderArchiver;
+import quant.dao.OrderJournal;
 import quant.entity.WaveHedgeOrder;
 import quant.exchange.EndExchangeFactory;
+import quant.exchange.OrderReconciler;
 import quant.utils.TimeUtil;
 
 
@@ -34,6 +38,8 @@ public class WaveHedge implements Strategy {
 	
 	private static final CommonDao commonDao = new CommonDao();
 	
+	private static final OrderJournal journal = OrderJournal.getShared();
+	
 	
 	  
 	
@@ -453,6 +459,11 @@ public class WaveHedge implements Strategy {
 	 */
 	private Exchange exchange = null;
 	
+	/**
+	 * 订单对账器
+	 */
+	private OrderReconciler orderReconciler = null;
+	
 	/**
 	 * 获取交易所实例
 	 */
@@ -557,21 +568,28 @@ public class WaveHedge implements Strategy {
 		this.baseCurrency = currArry[0];
 		this.quoteCurrency = currArry[1];
 		this.exchange = EndExchangeFactory.newInstance("hadax.com");
+		this.orderReconciler = new OrderReconciler(this.exchange);
 		
 		logger.info("策略初始化完成。");
 		return result;
 	}
 	
 	/**
-	 * 启动策略时从数据库加载进行中的订单信息。
+	 * 启动策略时从订单日志恢复进行中的订单信息。
 	 * @return
 	 */
 	private Boolean loadUnfilledOrders(){
 		Boolean result = true;
-		logger.info("正在从数据库中加载进行中的 LOW_PRICE_HEDGE_ORDER_PAIR 订单...");
-		this.unfilledOrders = commonDao.findByHql("from WaveHedgeOrder where orderStatus != 'FILLED' and exchangeName='" + exchangeName + "' and currencyPair='" + currencyPair + "'", WaveHedgeOrder.class);
+		logger.info("正在从订单日志中恢复进行中的 WAVE_HEDGE_ORDER 订单...");
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("exchangeName", exchangeName);
+		parameters.put("currencyPair", currencyPair);
+		parameters.put("filled", OrderStatus.FILLED);
+		this.unfilledOrders = journal.load(WaveHedgeOrder.class, exchangeName + "@" + currencyPair,
+				e -> exchangeName.equals(e.getExchangeName()) && currencyPair.equals(e.getCurrencyPair()),
+				() -> commonDao.findByNamedQuery(WaveHedgeOrder.FIND_UNFILLED, parameters, WaveHedgeOrder.class));
 		Collections.sort(this.unfilledOrders, this.orderRule);
-		logger.info("从数据库中加载 WAVE_HEDGE_ORER 订单完成。");
+		logger.info("恢复 WAVE_HEDGE_ORDER 订单完成，共{}个。", this.unfilledOrders.size());
 		return result;
 	}
 	
@@ -599,13 +617,20 @@ public class WaveHedge implements Strategy {
 		
 		Boolean isOrderChanged = false;
 		
+		if(this.unfilledOrders.isEmpty()){
+			return true;
+		}
+		
+		// 只获取一次挂单列表，不再逐个查询订单
+		OrderReconciler.Snapshot snapshot = this.orderReconciler.snapshot(this.currencyPair);
+		
 		for(int i=0; i<this.unfilledOrders.size(); i++){
 			WaveHedgeOrder buyOrder = this.unfilledOrders.get(i);
 			if(!OrderSide.BUY.equals(buyOrder.getOrderSide()) || "PLAN".equals(buyOrder.getOrderStatus())){
 				break;
 			}
 			String previrousStatus = buyOrder.getOrderStatus();
-			Order order = exchange.getOrder(buyOrder.getCurrencyPair(), buyOrder.getOrderId());
+			Order order = snapshot.getOrder(buyOrder.getOrderId());
 			if(null == order){
 				return false;
 			}
@@ -614,11 +639,10 @@ public class WaveHedge implements Strategy {
 			}
 			
 			buyOrder.setOrderStatus(order.getStatus());
-			buyOrder.setModifyTimestamp(System.currentTimeMillis());
-			commonDao.saveOrUpdate(buyOrder);
+			buyOrder.setModifyTimestamp(TimeUtil.now());
+			journal.append(buyOrder);
 			this.unfilledOrders.remove(i--);
 			isOrderChanged = true;
-			TimeUtil.delay(cycle);
 		}
 		
 		for(int i=this.unfilledOrders.size() -1; i>0; i--){
@@ -627,7 +651,7 @@ public class WaveHedge implements Strategy {
 				break;
 			}
 			String previrousStatus = sellOrder.getOrderStatus();
-			Order order = exchange.getOrder(sellOrder.getCurrencyPair(), sellOrder.getOrderId());
+			Order order = snapshot.getOrder(sellOrder.getOrderId());
 			if(null == order){
 				return false;
 			}
@@ -636,11 +660,10 @@ public class WaveHedge implements Strategy {
 			}
 			
 			sellOrder.setOrderStatus(order.getStatus());
-			sellOrder.setModifyTimestamp(System.currentTimeMillis());
-			commonDao.saveOrUpdate(sellOrder);
+			sellOrder.setModifyTimestamp(TimeUtil.now());
+			journal.append(sellOrder);
 			this.unfilledOrders.remove(i);
 			isOrderChanged = true;
-			TimeUtil.delay(cycle);
 		}
 		
 		if(isOrderChanged){
@@ -739,8 +762,8 @@ public class WaveHedge implements Strategy {
 			if("PLAN".equals(buyOrder.getOrderStatus()) && "PLAN".equals(sellOrder.getOrderStatus())){
 				return false;
 			}else{
-				commonDao.saveOrUpdate(buyOrder);
-				commonDao.saveOrUpdate(sellOrder);
+				journal.append(buyOrder);
+				journal.append(sellOrder);
 				this.unfilledOrders.add(0, buyOrder);
 				this.unfilledOrders.add(this.unfilledOrders.size(), sellOrder);
 				updateBalance();
@@ -761,7 +784,7 @@ public class WaveHedge implements Strategy {
 		.forEach(e -> {
 			WaveHedgeOrder order = this.order(e);
 			if(!"PLAN".equals(order.getOrderStatus())){
-				commonDao.saveOrUpdate(order);
+				journal.append(order);
 			}
 		});
 		return result;
@@ -770,7 +793,7 @@ public class WaveHedge implements Strategy {
 	
 	private WaveHedgeOrder buildWaveHedgeOrder(String orderSide, BigDecimal orderPrice, BigDecimal orderQuantity, String hedgeId){
 		WaveHedgeOrder waveHedgeOrder = new WaveHedgeOrder();
-		waveHedgeOrder.setCreateTimestamp(System.currentTimeMillis());
+		waveHedgeOrder.setCreateTimestamp(TimeUtil.now());
 		waveHedgeOrder.setCurrencyPair(this.currencyPair);
 		waveHedgeOrder.setExchangeName(this.exchangeName);
 		waveHedgeOrder.setFeeRate(this.feeRate);
@@ -794,7 +817,7 @@ public class WaveHedge implements Strategy {
 		}else{
 			hedgeOrder.setOrderStatus("PLAN");
 		}
-		hedgeOrder.setModifyTimestamp(System.currentTimeMillis());
+		hedgeOrder.setModifyTimestamp(TimeUtil.now());
 		return hedgeOrder;
 	}
 	
@@ -949,6 +972,7 @@ public class WaveHedge implements Strategy {
 	}
 	
 	public static void main(String[] args){
+		OrderArchiver.getShared().start();
 		new WaveHedge()
 		.setExchangeName("hadax.com")
 		.setCurrencyPair("PNT_ETH")
@@ -7,6 +7,7 @@ import exunion.metaobjects.Order;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import quant.exchange.EndExchangeFactory;
+import quant.exchange.OrderGateway;
 import quant.utils.BigDecimalUtil;
 import quant.utils.TimeUtil;
 
@@ -15,6 +16,7 @@ import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Wool implements Strategy {
 
@@ -24,6 +26,8 @@ public class Wool implements Strategy {
 
     private Exchange exchange;
 
+    private OrderGateway orderGateway;
+
     private BigDecimal maxQuantity;
 
     private BigDecimal minQuantity;
@@ -57,16 +61,20 @@ public class Wool implements Strategy {
         result.add(buyOrder);
         result.add(sellOrder);
 
-        result.parallelStream().forEach(e ->{
+        List<CompletableFuture<Order>> futures = new ArrayList<>();
+        result.forEach(e -> futures.add(orderGateway.order(e.getSide(), currencyPair.getCurrencyPair(), e.getQuantity(), e.getPrice())));
+        OrderGateway.awaitAll(futures);
+        for (int i = 0; i < result.size(); i++) {
+            Order e = result.get(i);
             Order od;
-            if(( od = exchange.order(e.getSide(), currencyPair.getCurrencyPair(), e.getQuantity(), e.getPrice()))!=null){
+            if(( od = futures.get(i).join())!=null){
                 e.setOrderId(od.getOrderId());
                 e.setStatus("NEW");
                 logger.info("订单{} {} 量：{}, 价格：{}, 编号：{} 下单成功！", e.getSide(), currencyPair.getCurrencyPair(), e.getQuantity(), e.getPrice(), e.getOrderId());
             }else {
                 System.exit(0);
             }
-        } );
+        }
         return result;
     }
 
@@ -104,6 +112,7 @@ public class Wool implements Strategy {
         currencyPair.setSellFeeRate(new BigDecimal("0.002"));
 
         exchange = EndExchangeFactory.newInstance("fcoin.com");
+        orderGateway = new OrderGateway("fcoin.com", exchange);
 
         minQuantity = new BigDecimal("100");
         maxQuantity = new BigDecimal("500");
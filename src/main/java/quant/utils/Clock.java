@@ -0,0 +1,56 @@
+package quant.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时钟，策略通过 {@link TimeUtil} 获取当前时间和延时，回放历史行情时替换为虚拟时钟
+ * 
+ * @author robothy
+ */
+public interface Clock {
+	
+	/**
+	 * 当前时间
+	 * @return 当前时间（单位：毫秒）
+	 */
+	long now();
+	
+	/**
+	 * 延时
+	 * @param ms 延时时间（单位：毫秒）
+	 */
+	void delay(long ms);
+	
+	/**
+	 * 在超时之前获取信号量的一个许可，用于等待其他线程的通知
+	 * @param semaphore 信号量
+	 * @param timeout 超时时间（单位：毫秒）
+	 * @return 是否获取到许可
+	 * @throws InterruptedException 等待时线程被中断
+	 */
+	default boolean tryAcquire(Semaphore semaphore, long timeout) throws InterruptedException {
+		return semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * 等待异步任务完成
+	 * @param future 异步任务
+	 * @return 异步任务的结果
+	 */
+	default <T> T join(CompletableFuture<T> future) {
+		return future.join();
+	}
+	
+	/**
+	 * 获取执行异步任务的执行器，虚拟时钟需要知道异步任务何时阻塞、何时完成
+	 * @param executor 实时运行时使用的执行器
+	 * @return 执行器
+	 */
+	default Executor executor(Executor executor) {
+		return executor;
+	}
+	
+}
@@ -1,17 +1,95 @@
 package quant.utils;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
 public class TimeUtil {
 	
+	/**
+	 * 系统时钟
+	 */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+		
+		@Override
+		public void delay(long ms) {
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	};
+	
+	/**
+	 * 当前使用的时钟，默认为系统时钟
+	 */
+	private static volatile Clock clock = SYSTEM_CLOCK;
+	
+	/**
+	 * 替换时钟，回放历史行情时使用虚拟时钟
+	 * @param clock 时钟
+	 */
+	public static void setClock(Clock clock){
+		TimeUtil.clock = clock;
+	}
+	
+	/**
+	 * 获取当前使用的时钟
+	 * @return 时钟
+	 */
+	public static Clock getClock(){
+		return clock;
+	}
+	
+	/**
+	 * 当前时间，策略中应使用此方法而不是 System.currentTimeMillis()，以便回放时使用虚拟时间
+	 * @return 当前时间（单位：毫秒）
+	 */
+	public static long now(){
+		return clock.now();
+	}
+	
 	/**
 	 * 延时函数
 	 * @param ms 延时时间（单位：毫秒）
 	 */
 	public static void delay(Long ms){
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		clock.delay(ms);
+	}
+	
+	/**
+	 * 在超时之前获取信号量的一个许可，策略等待行情推送等通知时应使用此方法，以便回放时按虚拟时间超时
+	 * @param semaphore 信号量
+	 * @param timeout 超时时间（单位：毫秒）
+	 * @return 是否获取到许可
+	 * @throws InterruptedException 等待时线程被中断
+	 */
+	public static boolean tryAcquire(Semaphore semaphore, long timeout) throws InterruptedException {
+		return clock.tryAcquire(semaphore, timeout);
+	}
+	
+	/**
+	 * 等待异步任务完成，策略等待下单结果时应使用此方法而不是 CompletableFuture.join()，以便回放时调度其他线程
+	 * @param future 异步任务
+	 * @return 异步任务的结果
+	 */
+	public static <T> T join(CompletableFuture<T> future){
+		return clock.join(future);
+	}
+	
+	/**
+	 * 获取执行异步任务的执行器
+	 * @param executor 实时运行时使用的执行器
+	 * @return 当前时钟下执行异步任务的执行器
+	 */
+	public static Executor executor(Executor executor){
+		return clock.executor(executor);
 	}
 	
 }
@@ -98,3 +98,21 @@ create table TRIANGLE_ARBITRAGE_ORDER(
 )
 
 
+/**
+ * 订单状态索引，恢复订单和归档时按订单状态、交易所、币种对查询
+ */
+create index IDX_LIVE_ORDER_PAIR_STATUS on LIVE_ORDER_PAIR(BUY_ORDER_STATUS, SELL_ORDER_STATUS, CURRENCY);
+create index IDX_ASSEMBLY_HEDGE_ORDER_STATUS on ASSEMBLY_HEDGE_ORDER(ORDER_STATUS, PLANTFORM, CURRENCY_PAIR);
+create index IDX_WAVE_HEDGE_ORDER_STATUS on WAVE_HEDGE_ORDER(ORDER_STATUS, EXCHANGE_NAME, CURRENCY_PAIR);
+create index IDX_LOW_PRICE_HEDGE_ORDER_STATUS on LOW_PRICE_HEDGE_ORDER(ORDER_STATUS, EXCHANGE_NAME, CURRENCY_PAIR);
+create index IDX_TRIANGLE_ARBITRAGE_ORDER_STATUS on TRIANGLE_ARBITRAGE_ORDER(ORDER_STATUS, EXCHANGE_NAME);
+
+
+/**
+ * 订单归档表，已完成（成交或撤销）的订单由 OrderArchiver 从上面的表中分批移入，结构与原表相同
+ */
+create table LIVE_ORDER_PAIR_ARCHIVE like LIVE_ORDER_PAIR;
+create table ASSEMBLY_HEDGE_ORDER_ARCHIVE like ASSEMBLY_HEDGE_ORDER;
+create table WAVE_HEDGE_ORDER_ARCHIVE like WAVE_HEDGE_ORDER;
+create table LOW_PRICE_HEDGE_ORDER_ARCHIVE like LOW_PRICE_HEDGE_ORDER;
+create table TRIANGLE_ARBITRAGE_ORDER_ARCHIVE like TRIANGLE_ARBITRAGE_ORDER;
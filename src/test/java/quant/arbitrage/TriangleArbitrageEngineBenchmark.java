@@ -0,0 +1,158 @@
+package quant.arbitrage;
+
+import exunion.metaobjects.CurrencyPair;
+import exunion.metaobjects.Depth;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import quant.market.OrderBook;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较每轮判断三角套利机会的开销：
+ * <ul>
+ * <li> bigDecimal - 原 TriangleArbitrage.calculateOrders 在盘口上的 BigDecimal 计算方式
+ * <li> engine - TriangleArbitrageEngine 在定点数订单簿上的计算方式
+ * <li> orderBookUpdateAndEngine - 包含将三个深度的盘口转换为定点数订单簿的开销，即三个币种对的深度都有变化时
+ * <li> fullOrderBookUpdateAndEngine - 包含将三个深度全部档位转换为定点数订单簿的开销
+ * </ul>
+ * 运行方式：mvn test-compile 之后执行此类的 main 方法。
+ *
+ * @author robothy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriangleArbitrageEngineBenchmark {
+
+    private CurrencyPair currPairBA;
+
+    private CurrencyPair currPairCB;
+
+    private CurrencyPair currPairCA;
+
+    private Depth depthBA;
+
+    private Depth depthCB;
+
+    private Depth depthCA;
+
+    private OrderBook bookBA;
+
+    private OrderBook bookCB;
+
+    private OrderBook bookCA;
+
+    private TriangleArbitrageEngine engine;
+
+    private int maxPriceScale;
+
+    @Setup
+    public void setup() {
+        currPairBA = new CurrencyPair("ETH_BTC", 6, 4);
+        currPairCA = new CurrencyPair("PNT_BTC", 10, 2);
+        currPairCB = new CurrencyPair("PNT_ETH", 8, 2);
+        for (CurrencyPair currPair : new CurrencyPair[]{currPairBA, currPairCA, currPairCB}) {
+            currPair.setBuyFeeRate(new BigDecimal("0.001"));
+            currPair.setSellFeeRate(new BigDecimal("0.001"));
+        }
+        maxPriceScale = 10;
+
+        depthBA = depth("0.049396", "15.5769", "0.049376", "15.5937");
+        depthCB = depth("0.00000587", "999.99", "0.00000570", "2263.56");
+        depthCA = depth("0.0000002850", "22.13", "0.0000002837", "64085.57");
+
+        bookBA = OrderBook.of(depthBA, currPairBA);
+        bookCB = OrderBook.of(depthCB, currPairCB);
+        bookCA = OrderBook.of(depthCA, currPairCA);
+        engine = new TriangleArbitrageEngine(currPairBA, currPairCB, currPairCA);
+    }
+
+    private static Depth depth(String askPrice, String askQuantity, String bidPrice, String bidQuantity) {
+        Depth depth = new Depth();
+        List<Depth.PriceQuotation> asks = new ArrayList<>();
+        List<Depth.PriceQuotation> bids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            asks.add(new Depth.PriceQuotation(new BigDecimal(askPrice), new BigDecimal(askQuantity)));
+            bids.add(new Depth.PriceQuotation(new BigDecimal(bidPrice), new BigDecimal(bidQuantity)));
+        }
+        depth.setAsks(asks);
+        depth.setBids(bids);
+        depth.setTimestamp(System.currentTimeMillis());
+        return depth;
+    }
+
+    @Benchmark
+    public boolean bigDecimal() {
+        Depth.PriceQuotation ab = depthBA.getAsks().get(0);
+        Depth.PriceQuotation ba = depthBA.getBids().get(0);
+        Depth.PriceQuotation bc = depthCB.getAsks().get(0);
+        Depth.PriceQuotation cb = depthCB.getBids().get(0);
+        Depth.PriceQuotation ca = depthCA.getBids().get(0);
+        Depth.PriceQuotation ac = depthCA.getAsks().get(0);
+
+        BigDecimal Pab = BigDecimal.ONE.divide(ab.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
+        BigDecimal Pba = ba.getPrice();
+        BigDecimal Pbc = BigDecimal.ONE.divide(bc.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
+        BigDecimal Pcb = cb.getPrice();
+        BigDecimal Pca = ca.getPrice();
+        BigDecimal Pac = BigDecimal.ONE.divide(ac.getPrice(), maxPriceScale + 5, RoundingMode.DOWN);
+
+        BigDecimal Pabf = Pab.multiply(BigDecimal.ONE.subtract(currPairBA.getBuyFeeRate()));
+        BigDecimal Pbaf = Pba.multiply(BigDecimal.ONE.subtract(currPairBA.getSellFeeRate()));
+        BigDecimal Pbcf = Pbc.multiply(BigDecimal.ONE.subtract(currPairCB.getBuyFeeRate()));
+        BigDecimal Pcbf = Pcb.multiply(BigDecimal.ONE.subtract(currPairCB.getSellFeeRate()));
+        BigDecimal Pcaf = Pca.multiply(BigDecimal.ONE.subtract(currPairCA.getSellFeeRate()));
+        BigDecimal Pacf = Pac.multiply(BigDecimal.ONE.subtract(currPairCA.getBuyFeeRate()));
+
+        BigDecimal antiClockwise = Pbaf.multiply(Pacf).multiply(Pcbf);
+        BigDecimal clockwise = Pabf.multiply(Pbcf).multiply(Pcaf);
+        return clockwise.compareTo(BigDecimal.ONE) > 0 || antiClockwise.compareTo(BigDecimal.ONE) > 0;
+    }
+
+    @Benchmark
+    public ArbitrageMode engine() {
+        return engine.evaluate(bookBA, bookCB, bookCA);
+    }
+
+    @Benchmark
+    public ArbitrageMode orderBookUpdateAndEngine() {
+        bookBA.update(depthBA, TriangleArbitrageEngine.GATE_LEVELS);
+        bookCB.update(depthCB, TriangleArbitrageEngine.GATE_LEVELS);
+        bookCA.update(depthCA, TriangleArbitrageEngine.GATE_LEVELS);
+        return engine.evaluate(bookBA, bookCB, bookCA);
+    }
+
+    @Benchmark
+    public ArbitrageMode fullOrderBookUpdateAndEngine() {
+        bookBA.update(depthBA);
+        bookCB.update(depthCB);
+        bookCA.update(depthCA);
+        return engine.evaluate(bookBA, bookCB, bookCA);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TriangleArbitrageEngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
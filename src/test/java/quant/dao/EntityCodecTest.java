@@ -0,0 +1,99 @@
+package quant.dao;
+
+import org.junit.Test;
+import quant.entity.LiveOrderPair;
+import quant.entity.TriangleArbitrageOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 实体编码的往返测试
+ *
+ * @author robothy
+ */
+public class EntityCodecTest {
+
+    @Test
+    public void encodeThenDecodeKeepsAllProperties() {
+        TriangleArbitrageOrder order = order();
+        EntityCodec codec = EntityCodec.of(TriangleArbitrageOrder.class);
+
+        TriangleArbitrageOrder decoded = (TriangleArbitrageOrder) codec.decode(codec.encode(order));
+        assertEquals(order, decoded);
+        assertEquals(order.getOrderPrice().scale(), decoded.getOrderPrice().scale());
+        assertEquals("data-1", codec.getId(decoded));
+        assertEquals(Arrays.asList("NEW"), codec.getStatuses(decoded));
+    }
+
+    @Test
+    public void nullPropertiesStayNull() {
+        TriangleArbitrageOrder order = new TriangleArbitrageOrder();
+        order.setDataId("data-2");
+        EntityCodec codec = EntityCodec.of(TriangleArbitrageOrder.class);
+
+        TriangleArbitrageOrder decoded = (TriangleArbitrageOrder) codec.decode(codec.encode(order));
+        assertEquals(order, decoded);
+        assertNull(decoded.getOrderPrice());
+    }
+
+    @Test
+    public void decimalsBeyondOneByteScaleAndLength() {
+        TriangleArbitrageOrder order = order();
+        order.setOrderPrice(new BigDecimal("1.5").movePointLeft(300));
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 700; i++) {
+            digits.append(i % 10);
+        }
+        order.setOrderQuantity(new BigDecimal(digits.toString()));
+        order.setFeeRate(new BigDecimal("12345").scaleByPowerOfTen(200));
+        EntityCodec codec = EntityCodec.of(TriangleArbitrageOrder.class);
+
+        assertEquals(order, codec.decode(codec.encode(order)));
+    }
+
+    @Test
+    public void schemaRoundTrip() {
+        EntityCodec codec = EntityCodec.of(LiveOrderPair.class);
+        assertEquals(codec.getPropertyNames(), EntityCodec.decodeSchema(codec.encodeSchema()));
+    }
+
+    @Test
+    public void decodeSkipsPropertiesNoLongerInEntity() {
+        TriangleArbitrageOrder order = order();
+        EntityCodec codec = EntityCodec.of(TriangleArbitrageOrder.class);
+        List<String> schema = new ArrayList<>(codec.getPropertyNames());
+        int index = schema.indexOf("OrderId");
+        schema.set(index, "RemovedProperty");
+
+        TriangleArbitrageOrder decoded = (TriangleArbitrageOrder) codec.decode(codec.encode(order), schema);
+        assertNull(decoded.getOrderId());
+        decoded.setOrderId(order.getOrderId());
+        assertEquals(order, decoded);
+    }
+
+    private static TriangleArbitrageOrder order() {
+        TriangleArbitrageOrder order = new TriangleArbitrageOrder();
+        order.setDataId("data-1");
+        order.setGroupId("group-1");
+        order.setExchangeName("binance.com");
+        order.setBaseCurrency("ETH");
+        order.setQuoteCurrency("BTC");
+        order.setOrderSide("BUY");
+        order.setOrderPrice(new BigDecimal("0.07123400"));
+        order.setAvgPrice(new BigDecimal("-0.5"));
+        order.setOrderQuantity(new BigDecimal("12.5"));
+        order.setOrderStatus("NEW");
+        order.setOrderId("order-1");
+        order.setFeeRate(new BigDecimal("0.001"));
+        order.setCreateTimestamp(1530000000000L);
+        order.setModifyTimestamp(Long.MIN_VALUE);
+        return order;
+    }
+
+}
@@ -0,0 +1,118 @@
+package quant.dao;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import quant.entity.TriangleArbitrageOrder;
+import quant.entity.WaveHedgeOrder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 订单日志的重放测试，持久化队列替换为不写数据库的实现
+ *
+ * @author robothy
+ */
+public class OrderJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<OrderJournal> journals = new ArrayList<>();
+
+    @After
+    public void closeJournals() {
+        journals.forEach(OrderJournal::close);
+    }
+
+    @Test
+    public void replayIgnoresTornLastRecord() throws IOException {
+        File directory = folder.newFolder("journal");
+        OrderJournal journal = open(directory);
+        TriangleArbitrageOrder a = order("a", "NEW", "0.071");
+        TriangleArbitrageOrder b = order("b", "PLAN", "0.072");
+        journal.append(a);
+        journal.append(b);
+        b.setOrderPrice(new BigDecimal("0.073"));
+        journal.append(b);
+
+        // 进程崩溃时最后一条记录只写了一部分：复制日志目录，截掉最后一个日志段末尾的几个字节
+        File crashed = folder.newFolder("crashed");
+        File lastSegment = null;
+        for (File file : directory.listFiles()) {
+            if (!file.getName().equals(OrderJournal.LOCK_FILE)) {
+                File copy = new File(crashed, file.getName());
+                Files.copy(file.toPath(), copy.toPath());
+                if (file.getName().endsWith(".journal") && (null == lastSegment || copy.getName().compareTo(lastSegment.getName()) > 0)) {
+                    lastSegment = copy;
+                }
+            }
+        }
+        assertNotNull(lastSegment);
+        try (RandomAccessFile file = new RandomAccessFile(lastSegment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        List<TriangleArbitrageOrder> orders = open(crashed).getOrders(TriangleArbitrageOrder.class);
+        assertEquals(2, orders.size());
+        assertEquals(a, orders.get(0));
+        assertEquals(0, orders.get(1).getOrderPrice().compareTo(new BigDecimal("0.072")));
+    }
+
+    @Test
+    public void reopenDropsOrdersFinishedByEntityRule() throws IOException {
+        File directory = folder.newFolder("journal");
+        OrderJournal journal = open(directory);
+        TriangleArbitrageOrder a = order("a", "NEW", "0.071");
+        TriangleArbitrageOrder b = order("b", "NEW", "0.072");
+        journal.append(a);
+        journal.append(b);
+        // 三角套利只恢复已挂单和计划中的订单，已撤销的订单视为已结束
+        b.setOrderStatus("CANCELED");
+        journal.append(b);
+        // 对冲策略会重新加载已撤销的订单，只有完全成交才结束
+        WaveHedgeOrder canceled = new WaveHedgeOrder();
+        canceled.setDataId("c");
+        canceled.setOrderStatus("CANCELED");
+        journal.append(canceled);
+        journal.close();
+        journals.remove(journal);
+
+        OrderJournal reopened = open(directory);
+        assertEquals(Collections.singletonList(a), reopened.getOrders(TriangleArbitrageOrder.class));
+        assertEquals(1, reopened.getOrders(WaveHedgeOrder.class).size());
+    }
+
+    private OrderJournal open(File directory) throws IOException {
+        WriteBehindPersister persister = new WriteBehindPersister(folder.newFile().getAbsolutePath()) {
+            @Override
+            void enqueue(Class<?> entityClass, Object id, byte[] state, boolean isNew) {
+            }
+        };
+        OrderJournal journal = new OrderJournal(directory.getAbsolutePath(), persister);
+        journals.add(journal);
+        return journal;
+    }
+
+    private static TriangleArbitrageOrder order(String dataId, String status, String price) {
+        TriangleArbitrageOrder order = new TriangleArbitrageOrder();
+        order.setDataId(dataId);
+        order.setExchangeName("binance.com");
+        order.setOrderStatus(status);
+        order.setOrderPrice(new BigDecimal(price));
+        order.setOrderQuantity(BigDecimal.ONE);
+        return order;
+    }
+
+}
@@ -0,0 +1,52 @@
+package quant.exchange;
+
+import exunion.metaobjects.OrderSide;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 根据余额变化推断成交的测试
+ *
+ * @author robothy
+ */
+public class FillInferenceTest {
+
+    private final FillInference inference = new FillInference();
+
+    @Test
+    public void gainWithinToleranceIsFilled() {
+        // 卖出 1 ETH，价格 0.05，全部成交得到 0.05 BTC
+        assertEquals(FillInference.Status.FILLED, infer("9", "1.05").getStatus());
+        assertEquals(FillInference.Status.UNFILLED, infer("9", "1").getStatus());
+        FillInference.Fill fill = infer("9", "1.02");
+        assertEquals(FillInference.Status.PARTIALLY_FILLED, fill.getStatus());
+        assertEquals(0, fill.getFilledRatio().compareTo(new BigDecimal("0.4")));
+    }
+
+    @Test
+    public void gainBeyondFullFillIsAmbiguous() {
+        // 得到的计价币多于全部成交所得，余额受到了其它操作的影响
+        assertEquals(FillInference.Status.AMBIGUOUS, infer("9", "1.2").getStatus());
+        assertEquals(FillInference.Status.AMBIGUOUS, infer("9", "0.99").getStatus());
+    }
+
+    private FillInference.Fill infer(String afterEth, String afterBtc) {
+        Map<String, BigDecimal> before = new HashMap<>();
+        before.put("ETH", BigDecimal.TEN);
+        before.put("BTC", BigDecimal.ONE);
+        Map<String, BigDecimal> after = new HashMap<>();
+        after.put("ETH", new BigDecimal(afterEth));
+        after.put("BTC", new BigDecimal(afterBtc));
+        List<FillInference.PlacedOrder<String>> orders = Collections.singletonList(
+                new FillInference.PlacedOrder<>("sell", OrderSide.SELL, "ETH", "BTC", BigDecimal.ONE, new BigDecimal("0.05"), null));
+        return inference.infer(orders, before, after).get(0);
+    }
+
+}
@@ -0,0 +1,112 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Ticker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 行情记录编码的往返测试
+ *
+ * @author robothy
+ */
+public class MarketDataCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void varLongAndZigZagRoundTrip() {
+        long[] values = {0L, 1L, -1L, 63L, -64L, 127L, 128L, 300L, -300L, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 10 * 2);
+        for (long value : values) {
+            MarketDataCodec.putZigZag(buffer, value);
+            if (value >= 0) {
+                MarketDataCodec.putVarLong(buffer, value);
+            }
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, MarketDataCodec.getZigZag(buffer));
+            if (value >= 0) {
+                assertEquals(value, MarketDataCodec.getVarLong(buffer));
+            }
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void fixedPointKeepsValue() {
+        BigDecimal value = new BigDecimal("0.00012300");
+        int scale = MarketDataCodec.scaleOf(value);
+        assertEquals(6, scale);
+        assertEquals(0, value.compareTo(MarketDataCodec.fromFixed(MarketDataCodec.toFixed(value, scale), scale)));
+        assertEquals(0, MarketDataCodec.scaleOf(new BigDecimal("1.2E+3")));
+    }
+
+    @Test
+    public void recordedDepthAndTickerReadBack() throws IOException {
+        String directory = folder.newFolder("market").getAbsolutePath();
+        long timestamp = 1530000000000L;
+        Depth depth = new Depth();
+        depth.setBids(Arrays.asList(quotation("0.0712", "1.5"), quotation("0.0711", "20"), quotation("0.07", "0.001")));
+        depth.setAsks(Arrays.asList(quotation("0.0713", "3"), quotation("0.08", "12345.678")));
+        Ticker ticker = new Ticker();
+        ticker.setLastPrice(new BigDecimal("6512.37"));
+
+        MarketDataRecorder recorder = new MarketDataRecorder(directory);
+        recorder.recordDepth("binance.com", "ETH_BTC", depth, timestamp);
+        recorder.recordTicker("binance.com", "BTC_USDT", ticker, timestamp + 15);
+        recorder.recordDepth("binance.com", "ETH_BTC", depth, timestamp + 10);
+        recorder.close();
+        assertEquals(3, recorder.getRecordedCount());
+
+        List<File> files = MarketDataReader.listFiles(directory);
+        assertEquals(1, files.size());
+        try (MarketDataReader reader = new MarketDataReader(files.get(0))) {
+            MarketDataReader.Record record = reader.next();
+            assertEquals("binance.com", record.getExchangeName());
+            assertEquals("ETH_BTC", record.getCurrencyPair());
+            assertEquals(timestamp, record.getTimestamp());
+            assertLevels(depth.getBids(), record.getDepth().getBids());
+            assertLevels(depth.getAsks(), record.getDepth().getAsks());
+
+            record = reader.next();
+            assertEquals("BTC_USDT", record.getCurrencyPair());
+            assertEquals(timestamp + 15, record.getTimestamp());
+            assertNull(record.getDepth());
+            assertEquals(0, ticker.getLastPrice().compareTo(record.getTicker().getLastPrice()));
+
+            // 时间戳以与上一条记录之差写入，可以为负数
+            record = reader.next();
+            assertEquals(timestamp + 10, record.getTimestamp());
+            assertLevels(depth.getBids(), record.getDepth().getBids());
+
+            assertNull(reader.next());
+        }
+    }
+
+    private static Depth.PriceQuotation quotation(String price, String quantity) {
+        return new Depth.PriceQuotation(new BigDecimal(price), new BigDecimal(quantity));
+    }
+
+    private static void assertLevels(List<Depth.PriceQuotation> expected, List<Depth.PriceQuotation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(0, expected.get(i).getPrice().compareTo(actual.get(i).getPrice()));
+            assertEquals(0, expected.get(i).getQuantity().compareTo(actual.get(i).getQuantity()));
+        }
+    }
+
+}
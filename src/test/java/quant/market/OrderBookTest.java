@@ -0,0 +1,54 @@
+package quant.market;
+
+import exunion.metaobjects.Depth;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 定点数订单簿的转换测试
+ *
+ * @author robothy
+ */
+public class OrderBookTest {
+
+    @Test
+    public void convertedBookIsNotMoreOptimisticThanDepth() {
+        OrderBook book = new OrderBook("ETH_BTC", 5, 3)
+                .update(depth(quotation("0.071234", "1.23456"), quotation("0.071239", "2")));
+        assertEquals(7124L, book.askPrice(0));
+        assertEquals(1234L, book.askQuantity(0));
+        assertEquals(7123L, book.bidPrice(0));
+        assertEquals(2000L, book.bidQuantity(0));
+    }
+
+    @Test
+    public void quantityBeyondLongRangeSaturates() {
+        OrderBook book = new OrderBook("ETH_BTC", 5, 3)
+                .update(depth(quotation("0.07", "1"), quotation("0.06", "1")));
+
+        // 量乘以 10 的量精度次方后超出 long 范围，整个订单簿仍然更新为新的深度
+        String huge = BigDecimal.valueOf(Long.MAX_VALUE).toPlainString();
+        book.update(depth(quotation("0.072", huge), quotation("0.061", "3")));
+        assertEquals(1, book.askSize());
+        assertEquals(7200L, book.askPrice(0));
+        assertEquals(Long.MAX_VALUE, book.askQuantity(0));
+        assertEquals(6100L, book.bidPrice(0));
+        assertEquals(3000L, book.bidQuantity(0));
+    }
+
+    private static Depth depth(Depth.PriceQuotation ask, Depth.PriceQuotation bid) {
+        Depth depth = new Depth();
+        depth.setAsks(Collections.singletonList(ask));
+        depth.setBids(Collections.singletonList(bid));
+        return depth;
+    }
+
+    private static Depth.PriceQuotation quotation(String price, String quantity) {
+        return new Depth.PriceQuotation(new BigDecimal(price), new BigDecimal(quantity));
+    }
+
+}
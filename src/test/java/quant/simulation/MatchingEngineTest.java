@@ -0,0 +1,141 @@
+package quant.simulation;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.OrderSide;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 撮合引擎按队列位置成交的测试
+ *
+ * @author robothy
+ */
+public class MatchingEngineTest {
+
+    private static final BigDecimal PRICE = new BigDecimal("100");
+
+    @Test
+    public void ownOrderWaitsBehindExternalLiquidity() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.replaceExternal(depth(bid("100", "5"), bid("99", "1")));
+        MatchingEngine.RestingOrder order = buy("own", "100", "3");
+        assertTrue(engine.submit(order).isEmpty());
+
+        // 盘口上的量减少 2，只推进队列位置，不成交
+        assertTrue(engine.replaceExternal(depth(bid("100", "3"), bid("99", "1"))).isEmpty());
+        // 前面剩下的 3 全部成交，刚好排到队首，仍不成交
+        assertTrue(engine.replaceExternal(depth(bid("99", "1"))).isEmpty());
+        assertEquals(0, order.getRemaining().compareTo(new BigDecimal("3")));
+        assertEquals(1, engine.getOwnOrders().size());
+    }
+
+    @Test
+    public void consumedBeyondQueuePositionFillsOwnOrder() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.replaceExternal(depth(bid("100", "5")));
+        MatchingEngine.RestingOrder order = buy("own", "100", "3");
+        engine.submit(order);
+
+        // 盘口增加到 8 不影响队列位置，之后减少到 1，成交了 7，超过队列位置 5 的 2 由本账户的订单成交
+        assertTrue(engine.replaceExternal(depth(bid("100", "8"))).isEmpty());
+        List<MatchingEngine.Trade> trades = engine.replaceExternal(depth(bid("100", "1")));
+        assertEquals(1, trades.size());
+        MatchingEngine.Trade trade = trades.get(0);
+        assertEquals(order, trade.getMaker());
+        assertEquals(OrderSide.SELL, trade.getTaker().getSide());
+        assertEquals(0, trade.getPrice().compareTo(PRICE));
+        assertEquals(0, trade.getQuantity().compareTo(new BigDecimal("2")));
+        assertEquals(0, order.getRemaining().compareTo(BigDecimal.ONE));
+        assertEquals(0, engine.getLastPrice().compareTo(PRICE));
+    }
+
+    @Test
+    public void fullyFilledOrderLeavesBook() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.replaceExternal(depth(bid("100", "2"), bid("99", "1")));
+        engine.submit(buy("own", "100", "1"));
+
+        List<MatchingEngine.Trade> trades = engine.replaceExternal(depth(bid("99", "1")));
+        assertTrue(trades.isEmpty());
+        trades = engine.replaceExternal(depth(bid("100", "4"), bid("99", "1")));
+        assertTrue(trades.isEmpty());
+        trades = engine.replaceExternal(depth(bid("99", "1")));
+        assertEquals(1, trades.size());
+        assertEquals(0, trades.get(0).getQuantity().compareTo(BigDecimal.ONE));
+        assertTrue(engine.getOwnOrders().isEmpty());
+        assertNull(engine.cancel("own"));
+    }
+
+    @Test
+    public void levelOutsideDepthWindowIsNotConsumed() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.replaceExternal(depth(bid("101", "1"), bid("100", "5")));
+        MatchingEngine.RestingOrder order = buy("own", "100", "3");
+        engine.submit(order);
+
+        // 买盘上移，100 低于最差的可见买价 101，移出了深度窗口，不能当作被成交
+        assertTrue(engine.replaceExternal(depth(bid("102", "1"), bid("101", "1"))).isEmpty());
+        // 空的深度没有可见范围
+        assertTrue(engine.replaceExternal(depth()).isEmpty());
+        assertEquals(0, order.getRemaining().compareTo(new BigDecimal("3")));
+
+        // 回到窗口之内，队列位置仍为 5，减少 5 以内都不成交
+        assertTrue(engine.replaceExternal(depth(bid("101", "1"), bid("100", "5"))).isEmpty());
+        assertTrue(engine.replaceExternal(depth(bid("101", "1"), bid("100", "1"))).isEmpty());
+        List<MatchingEngine.Trade> trades = engine.replaceExternal(depth(bid("101", "1")));
+        assertTrue(trades.isEmpty());
+        assertEquals(1, engine.getOwnOrders().size());
+    }
+
+    @Test
+    public void crossingAskFillsOwnOrderAtItsPrice() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.submit(buy("own", "100", "3"));
+
+        Depth depth = depth();
+        depth.getAsks().add(new Depth.PriceQuotation(new BigDecimal("99"), new BigDecimal("2")));
+        List<MatchingEngine.Trade> trades = engine.replaceExternal(depth);
+        assertEquals(1, trades.size());
+        assertEquals(0, trades.get(0).getPrice().compareTo(PRICE));
+        assertEquals(0, trades.get(0).getQuantity().compareTo(new BigDecimal("2")));
+        assertEquals(0, engine.getOwnOrders().get(0).getRemaining().compareTo(BigDecimal.ONE));
+    }
+
+    @Test
+    public void cancelRemovesOwnOrder() {
+        MatchingEngine engine = new MatchingEngine();
+        engine.replaceExternal(depth(bid("100", "5")));
+        engine.submit(buy("own", "100", "3"));
+
+        assertEquals("own", engine.cancel("own").getOrderId());
+        assertTrue(engine.getOwnOrders().isEmpty());
+        assertEquals(0, engine.toDepth(5).getBids().get(0).getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    private static MatchingEngine.RestingOrder buy(String orderId, String price, String quantity) {
+        return new MatchingEngine.RestingOrder(orderId, OrderSide.BUY, new BigDecimal(price), new BigDecimal(quantity), false);
+    }
+
+    private static Depth.PriceQuotation bid(String price, String quantity) {
+        return new Depth.PriceQuotation(new BigDecimal(price), new BigDecimal(quantity));
+    }
+
+    private static Depth depth(Depth.PriceQuotation... bids) {
+        Depth depth = new Depth();
+        List<Depth.PriceQuotation> levels = new ArrayList<>();
+        for (Depth.PriceQuotation bid : bids) {
+            levels.add(bid);
+        }
+        depth.setBids(levels);
+        depth.setAsks(new ArrayList<>());
+        return depth;
+    }
+
+}
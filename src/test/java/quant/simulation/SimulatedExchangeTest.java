@@ -0,0 +1,115 @@
+package quant.simulation;
+
+import exunion.metaobjects.Depth;
+import exunion.metaobjects.Order;
+import exunion.metaobjects.OrderSide;
+import exunion.metaobjects.OrderStatus;
+import org.junit.Before;
+import org.junit.Test;
+import quant.exchange.BatchOrderExchange;
+import quant.exchange.OrderRequest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 模拟交易所下单、撮合和结算的测试
+ *
+ * @author robothy
+ */
+public class SimulatedExchangeTest {
+
+    private static final String PAIR = "ETH_BTC";
+
+    private SimulatedExchange exchange;
+
+    @Before
+    public void setUp() {
+        exchange = new SimulatedExchange("simulated.test")
+                .setFeeRate(new BigDecimal("0.001"))
+                .setBalance("ETH", new BigDecimal("10"))
+                .setBalance("BTC", BigDecimal.ONE);
+    }
+
+    @Test
+    public void ownOrdersMatchAtMakerPrice() {
+        Order sell = exchange.order(OrderSide.SELL, PAIR, new BigDecimal("2"), new BigDecimal("0.05"));
+        assertEquals(OrderStatus.NEW, sell.getStatus());
+
+        Order buy = exchange.order(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("0.06"));
+        assertEquals(OrderStatus.FILLED, buy.getStatus());
+        assertEquals(0, buy.getTradeMoney().compareTo(new BigDecimal("0.05")));
+
+        sell = exchange.getOrder(PAIR, sell.getOrderId());
+        assertEquals(OrderStatus.NEW, sell.getStatus());
+        assertEquals(0, sell.getTradeQuantity().compareTo(BigDecimal.ONE));
+
+        // 自成交只损失两边的手续费，买单多冻结的 0.01 BTC 已退回
+        assertEquals(0, exchange.getProfits().get("ETH").compareTo(new BigDecimal("-0.001")));
+        assertEquals(0, exchange.getProfits().get("BTC").compareTo(new BigDecimal("-0.00005")));
+        assertEquals(1, exchange.getFilledCount());
+    }
+
+    @Test
+    public void externalLiquidityFillsIncomingOrder() {
+        Depth depth = new Depth();
+        depth.setBids(new ArrayList<>());
+        depth.setAsks(Collections.singletonList(new Depth.PriceQuotation(new BigDecimal("0.05"), new BigDecimal("3"))));
+        exchange.setDepth(PAIR, depth);
+
+        Order buy = exchange.order(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("0.051"));
+        assertEquals(OrderStatus.FILLED, buy.getStatus());
+        assertEquals(0, buy.getTradeMoney().compareTo(new BigDecimal("0.05")));
+        assertEquals(0, exchange.getAccount().getBalances().get("ETH").getFree().compareTo(new BigDecimal("10.999")));
+        assertEquals(0, exchange.getDepth(PAIR).getAsks().get(0).getQuantity().compareTo(new BigDecimal("2")));
+    }
+
+    @Test
+    public void cancelReleasesLockedBalance() {
+        Order buy = exchange.order(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("0.04"));
+        assertEquals(1, exchange.getOpenOrders(PAIR).size());
+        assertEquals(0, exchange.getAccount().getBalances().get("BTC").getFree().compareTo(new BigDecimal("0.96")));
+
+        assertEquals(OrderStatus.CANCELED, exchange.cancel(PAIR, buy.getOrderId()).getStatus());
+        assertTrue(exchange.getOpenOrders(PAIR).isEmpty());
+        assertEquals(0, exchange.getAccount().getBalances().get("BTC").getFree().compareTo(BigDecimal.ONE));
+        assertNull(exchange.cancel(PAIR, buy.getOrderId()));
+    }
+
+    @Test
+    public void batchOrdersAndCancelsInOneCall() {
+        assertTrue(BatchOrderExchange.isSupported(exchange));
+        List<Order> orders = exchange.order(Arrays.asList(
+                new OrderRequest(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("0.04")),
+                new OrderRequest(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("2")),
+                new OrderRequest(OrderSide.SELL, PAIR, new BigDecimal("2"), new BigDecimal("0.06"))));
+        // 结果与请求一一对应，余额不足的请求对应 null
+        assertEquals(3, orders.size());
+        assertEquals(OrderStatus.NEW, orders.get(0).getStatus());
+        assertNull(orders.get(1));
+        assertEquals(OrderStatus.NEW, orders.get(2).getStatus());
+        assertEquals(2, exchange.getOpenOrders(PAIR).size());
+
+        List<Order> canceled = exchange.cancel(PAIR, Arrays.asList(orders.get(0).getOrderId(), "missing", orders.get(2).getOrderId()));
+        assertEquals(OrderStatus.CANCELED, canceled.get(0).getStatus());
+        assertNull(canceled.get(1));
+        assertEquals(OrderStatus.CANCELED, canceled.get(2).getStatus());
+        assertTrue(exchange.getOpenOrders(PAIR).isEmpty());
+        assertEquals(0, exchange.getAccount().getBalances().get("BTC").getFree().compareTo(BigDecimal.ONE));
+        assertEquals(0, exchange.getAccount().getBalances().get("ETH").getFree().compareTo(BigDecimal.TEN));
+    }
+
+    @Test
+    public void orderWithoutBalanceIsRejected() {
+        assertNull(exchange.order(OrderSide.BUY, PAIR, BigDecimal.ONE, new BigDecimal("2")));
+        assertTrue(exchange.getOpenOrders(PAIR).isEmpty());
+    }
+
+}